@@ -27,6 +27,7 @@ import org.cbioportal.staging.services.ExitStatus;
 import org.cbioportal.staging.services.report.IReportingService;
 import org.cbioportal.staging.services.resource.IResourceCollector;
 import org.cbioportal.staging.services.resource.ResourceIgnoreSet;
+import org.cbioportal.staging.services.resource.ScanSnapshot;
 import org.cbioportal.staging.services.resource.Study;
 import org.cbioportal.staging.services.scanner.IScheduledScannerService;
 import org.slf4j.Logger;
@@ -78,6 +79,9 @@ public class ScheduledScanner {
 	@Autowired
 	private ResourceIgnoreSet resourceIgnoreSet;
 
+	@Autowired
+	private ScanSnapshot scanSnapshot;
+
 	@Scheduled(cron = "${scan.cron:* * * * * *}")
 	public boolean scan() {
 
@@ -95,7 +99,11 @@ public class ScheduledScanner {
 			logger.info("Started fetching of resources.");
 			resourcesPerStudy = resourceCollector.getResources(scanLocation);
 
+			// only pass on studies that changed since the previous scan
+			resourcesPerStudy = scanSnapshot.changedStudies(resourcesPerStudy);
+
 			if (resourcesPerStudy.length == 0) {
+				scanSnapshot.commit();
 				return shouldStopApp();
 			}
 
@@ -103,6 +111,10 @@ public class ScheduledScanner {
 
 			etlProcessRunner.run(resourcesPerStudy);
 
+			// studies that stopped before a result, e.g. because of files that could not
+			// be downloaded, are passed on again at the next scan
+			scanSnapshot.commit(etlProcessRunner.getCompletedStudyIds());
+
 			if (ignoreAppendSuccess || ignoreAppendFailure)
 				addToIgnoreFile(etlProcessRunner.getLoaderExitStatus(), resourcesPerStudy);
 
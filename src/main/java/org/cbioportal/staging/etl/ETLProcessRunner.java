@@ -19,20 +19,39 @@ import java.io.IOException;
 import java.net.BindException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import com.pivovarit.function.ThrowingSupplier;
+
 
 import org.cbioportal.staging.exceptions.ConfigurationException;
+import org.cbioportal.staging.exceptions.ExtractionException;
 import org.cbioportal.staging.exceptions.LoaderException;
+import org.cbioportal.staging.exceptions.PublisherException;
 import org.cbioportal.staging.exceptions.ReporterException;
 import org.cbioportal.staging.exceptions.TransformerException;
 import org.cbioportal.staging.exceptions.ValidatorException;
 import org.cbioportal.staging.services.ExitStatus;
 import org.cbioportal.staging.services.authorize.IAuthorizerService;
+import org.cbioportal.staging.services.command.CommandRunner;
 import org.cbioportal.staging.services.command.IRestarter;
+import org.cbioportal.staging.services.command.ResourceUsage;
 import org.cbioportal.staging.services.etl.EtlUtils;
+import org.cbioportal.staging.services.etl.PortalInfoCache;
 import org.cbioportal.staging.services.publish.IPublisherService;
 import org.cbioportal.staging.services.report.IReportingService;
 import org.cbioportal.staging.services.resource.ResourceUtils;
@@ -85,6 +104,12 @@ public class ETLProcessRunner {
     @Autowired
 	private EtlUtils etlUtils;
 
+	@Autowired
+	private PortalInfoCache portalInfoCache;
+
+	@Autowired
+	private CommandRunner commandRunner;
+
 	@Value("${study.authorize.command_prefix:}")
     private String studyAuthorizeCommandPrefix;
 
@@ -94,11 +119,21 @@ public class ETLProcessRunner {
     @Value("${validation.level:ERROR}")
 	private String validationLevel;
 
+	@Value("${etl.pipeline.enable:false}")
+	private boolean pipelineEnabled;
+
+	@Value("${etl.pipeline.threads:4}")
+	private int pipelineThreads;
+
+	private final Object loadLock = new Object();
+
 	Map<Study, ExitStatus> transformerExitStatus;
 	Map<Study, ExitStatus> validatorExitStatus;
 	Map<Study, ExitStatus> loaderExitStatus;
+	Set<String> completedStudyIds = ConcurrentHashMap.newKeySet();
 
 	public void run(Study[] remoteResources) throws Exception {
+		completedStudyIds = ConcurrentHashMap.newKeySet();
 		try  {
 			startProcess();
 
@@ -108,8 +143,22 @@ public class ETLProcessRunner {
 				utils.ensureDirs(etlWorkingDir);
 			}
 
+			// dump portalInfo while the studies are extracted and transformed
+			portalInfoCache.prefetch();
+			extractor.startRun();
+
+            if (pipelineEnabled) {
+                runPipelined(remoteResources);
+                return;
+            }
+
             //E (Extract) step:
-			Study[] localResources = extractor.run(remoteResources);
+			Study[] localResources;
+			try {
+				localResources = extractor.run(remoteResources);
+			} finally {
+				extractor.finishRun();
+			}
 
 			if (! extractor.errorFiles().isEmpty()) {
 				reportingService.reportStudyFileNotFound(extractor.errorFiles(), extractor.getTimeRetry());
@@ -125,6 +174,7 @@ public class ETLProcessRunner {
 				transformerExitStatus = transformer.transform(localResources);
                 publisher.publishFiles(transformer.getLogFiles());
                 transformedStudies = transformer.getValidStudies();
+                completeRejected(transformerExitStatus, transformedStudies);
 			} else {
                 for (Study study : localResources) {
                     transformerExitStatus.put(study, ExitStatus.SKIPPED);
@@ -139,26 +189,21 @@ public class ETLProcessRunner {
                 publisher.publishFiles(validator.getReportFiles());
 
 				Study[] studiesThatPassedValidation = validator.getValidStudies();
+				completeRejected(validatorExitStatus, studiesThatPassedValidation);
 
 				//L (LOAD) STEP:
 				if (studiesThatPassedValidation.length > 0) {
                     loaderExitStatus = loader.load(studiesThatPassedValidation);
                     publisher.publishFiles(loader.getLogFiles());
+                    loaderExitStatus.forEach(this::complete);
 
 					if (loader.areStudiesLoaded()) {
-                        restarterService.restart();
-						if (studyAuthorizeCommandPrefix != null && ! studyAuthorizeCommandPrefix.equals("")) {
-                            Set<String> studyIds = new HashSet<String>();
-                            for (Study study : validatorExitStatus.keySet()) {
-                                studyIds.add(study.getStudyId());
-                            }
-							authorizer.authorizeStudies(studyIds);
-						}
+                        restartAndAuthorize(validatorExitStatus);
 					}
 				}
             }
             reportSummary(localResources, transformer.getLogFiles(), validator.getLogFiles(), validator.getReportFiles(), loader.getLogFiles(),
-                transformerExitStatus, validatorExitStatus, loaderExitStatus);
+                transformerExitStatus, validatorExitStatus, loaderExitStatus, loader.getResourceUsages());
 		} catch (TransformerException e) {
 			try {
 				logger.error("An error occurred during the transformation step. Error found: "+ e);
@@ -186,11 +231,230 @@ public class ETLProcessRunner {
 		}
 		finally
 		{
+			commandRunner.logSummary();
 			//end process / release lock:
 			endProcess();
 		}
 	}
 
+	/**
+	 * Run the ETL steps per study instead of per step. Each study moves on to the
+	 * next step as soon as its previous step has finished, independently of the
+	 * other studies. Loading is serialized because cBioPortal does not support
+	 * loading studies in parallel. cBioPortal is restarted once, after all studies
+	 * have been processed.
+	 */
+	private void runPipelined(Study[] remoteResources) throws Exception {
+
+		if (remoteResources == null) {
+			throw new ExtractionException("Argument 'resources' is null.");
+		}
+
+		boolean doTransformation = etlUtils.doTransformation();
+
+		transformerExitStatus = new ConcurrentHashMap<>();
+		validatorExitStatus = new ConcurrentHashMap<>();
+		loaderExitStatus = new ConcurrentHashMap<>();
+		PipelineRun run = new PipelineRun();
+
+		Study[] localResources = new Study[remoteResources.length];
+		List<CompletableFuture<Study>> studyFutures = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(pipelineThreads, remoteResources.length)));
+		try {
+			for (Study remoteStudy : remoteResources) {
+				studyFutures.add(CompletableFuture.supplyAsync(
+					ThrowingSupplier.sneaky(() -> processStudy(remoteStudy, doTransformation, run)), executor));
+			}
+
+			for (int i = 0; i < studyFutures.size(); i++) {
+				try {
+					localResources[i] = studyFutures.get(i).join();
+				} catch (CompletionException e) {
+					// the study is not completed, so that it is extracted again at the next scan
+					logger.error("Extraction of study " + remoteResources[i].getStudyId() + " stopped due to an error: " + e.getCause(), e.getCause());
+				}
+			}
+			extractor.finishRun();
+
+			if (! run.filesNotFound.isEmpty()) {
+				reportingService.reportStudyFileNotFound(run.filesNotFound, extractor.getTimeRetry());
+			}
+
+			// Restart also when another study failed, so that loaded studies become available.
+			if (run.studiesLoaded.get()) {
+				restartAndAuthorize(validatorExitStatus);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		Study[] extractedStudies = Stream.of(localResources).filter(Objects::nonNull).toArray(Study[]::new);
+		reportSummary(extractedStudies, run.transformerLogs, run.validatorLogs, run.validatorReports, run.loaderLogs,
+			transformerExitStatus, validatorExitStatus, loaderExitStatus, run.loaderResourceUsages);
+	}
+
+	/**
+	 * Move a single study through all ETL steps. A step of the study that
+	 * fails with an exception gets the status ERROR, so that the study is
+	 * reported and completed like a study that the step rejected.
+	 *
+	 * @return the extracted study, or null when extraction failed
+	 */
+	private Study processStudy(Study remoteStudy, boolean doTransformation, PipelineRun run) throws Exception {
+
+		//E (Extract) step:
+		StageResult extracted = extractor.extractStudy(remoteStudy);
+		if (extracted.getOutput() == null) {
+			run.filesNotFound.put(remoteStudy.getStudyId(), extracted.getErrorFiles());
+			return null;
+		}
+		Study localStudy = extracted.getOutput();
+
+		StudyStep current = new StudyStep();
+		try {
+			transformValidateAndLoad(localStudy, doTransformation, run, current);
+		} catch (Exception e) {
+			logger.error("ETL process of study " + current.study.getStudyId() + " stopped due to an error in the "
+				+ current.name + " step: " + e, e);
+			// keep the status when the step itself finished, e.g. when only publishing its log failed
+			current.status.putIfAbsent(current.study, ExitStatus.ERROR);
+			complete(current.study, current.status.get(current.study));
+		}
+		return localStudy;
+	}
+
+	/**
+	 * @param current  receives the step the study is in, and its input
+	 */
+	private void transformValidateAndLoad(Study localStudy, boolean doTransformation, PipelineRun run,
+			StudyStep current) throws Exception {
+
+		//T (TRANSFORM) STEP:
+		current.set("transformation", transformerExitStatus, localStudy);
+		Study transformedStudy = localStudy;
+		if (doTransformation) {
+			StageResult transformed = transformer.transformStudy(localStudy);
+			transformerExitStatus.put(localStudy, transformed.getStatus());
+			run.transformerLogs.put(localStudy, transformed.getLogFile());
+			publish(localStudy, transformed.getLogFile());
+			transformedStudy = transformed.getOutput();
+			if (transformedStudy == null) {
+				complete(localStudy, transformed.getStatus());
+				return;
+			}
+		} else {
+			transformerExitStatus.put(localStudy, ExitStatus.SKIPPED);
+		}
+
+		//V (VALIDATE) STEP:
+		current.set("validation", validatorExitStatus, transformedStudy);
+		StageResult validated = validator.validateStudy(transformedStudy);
+		validatorExitStatus.put(transformedStudy, validated.getStatus());
+		run.validatorLogs.put(transformedStudy, validated.getLogFile());
+		run.validatorReports.put(transformedStudy, validated.getReportFile());
+		publish(transformedStudy, validated.getLogFile());
+		publish(transformedStudy, validated.getReportFile());
+		if (validated.getOutput() == null) {
+			complete(transformedStudy, validated.getStatus());
+			return;
+		}
+
+		//L (LOAD) STEP:
+		Study validStudy = validated.getOutput();
+		current.set("loading", loaderExitStatus, validStudy);
+		StageResult loaded;
+		synchronized (loadLock) {
+			loaded = loader.loadStudy(validStudy);
+		}
+		loaderExitStatus.put(validStudy, loaded.getStatus());
+		if (loaded.getStatus() == ExitStatus.SUCCESS) {
+			run.studiesLoaded.set(true);
+		}
+		run.loaderLogs.put(validStudy, loaded.getLogFile());
+		if (loaded.getResourceUsage() != null) {
+			run.loaderResourceUsages.put(validStudy, loaded.getResourceUsage());
+		}
+		publish(validStudy, loaded.getLogFile());
+		complete(validStudy, loaded.getStatus());
+	}
+
+	/**
+	 * Register a study of which the ETL process has finished with a result
+	 * that follows from its files. A timed out step says nothing about the
+	 * files, so that study is processed again at the next scan.
+	 */
+	private void complete(Study study, ExitStatus status) {
+		if (status != ExitStatus.TIMEOUT) {
+			completedStudyIds.add(study.getStudyId());
+		}
+	}
+
+	/**
+	 * Register the studies that were not passed on by a step.
+	 *
+	 * @param status  exit status of the studies that went into the step
+	 * @param passed  studies that were passed on to the next step
+	 */
+	private void completeRejected(Map<Study, ExitStatus> status, Study[] passed) {
+		Set<String> passedIds = new HashSet<>();
+		for (Study study : passed) {
+			passedIds.add(study.getStudyId());
+		}
+		status.forEach((study, exitStatus) -> {
+			if (!passedIds.contains(study.getStudyId())) {
+				complete(study, exitStatus);
+			}
+		});
+	}
+
+	private void restartAndAuthorize(Map<Study, ExitStatus> validatorStatus) throws Exception {
+		restarterService.restart();
+		if (studyAuthorizeCommandPrefix != null && ! studyAuthorizeCommandPrefix.equals("")) {
+			Set<String> studyIds = new HashSet<String>();
+			for (Study study : validatorStatus.keySet()) {
+				studyIds.add(study.getStudyId());
+			}
+			authorizer.authorizeStudies(studyIds);
+		}
+	}
+
+	private void publish(Study study, Resource file) throws PublisherException {
+		if (file != null) {
+			Map<Study, Resource> files = new HashMap<>();
+			files.put(study, file);
+			publisher.publishFiles(files);
+		}
+	}
+
+	/**
+	 * Step a study is in during a pipelined ETL run.
+	 */
+	private static class StudyStep {
+		String name;
+		Map<Study, ExitStatus> status;
+		Study study;
+
+		void set(String name, Map<Study, ExitStatus> status, Study study) {
+			this.name = name;
+			this.status = status;
+			this.study = study;
+		}
+	}
+
+	/**
+	 * Logs and results of a pipelined ETL run that are collected
+	 * from the different study threads.
+	 */
+	private static class PipelineRun {
+		final Map<String, List<String>> filesNotFound = new ConcurrentHashMap<>();
+		final Map<Study, Resource> transformerLogs = Collections.synchronizedMap(new HashMap<>());
+		final Map<Study, Resource> validatorLogs = Collections.synchronizedMap(new HashMap<>());
+		final Map<Study, Resource> validatorReports = Collections.synchronizedMap(new HashMap<>());
+		final Map<Study, Resource> loaderLogs = Collections.synchronizedMap(new HashMap<>());
+		final Map<Study, ResourceUsage> loaderResourceUsages = Collections.synchronizedMap(new HashMap<>());
+		final AtomicBoolean studiesLoaded = new AtomicBoolean(false);
+	}
+
 	/**
 	 * Socket configuration and respective synchronized start method that ensures only one
 	 * ETL process runs at a time (also if started in another process - this is guaranteed by
@@ -231,9 +495,15 @@ public class ETLProcessRunner {
 
     private void reportSummary(Study[] studies, Map<Study,Resource> transformerLogs, Map<Study,Resource> validatorLogs,
     Map<Study,Resource> validatorReports, Map<Study,Resource> loaderLogs, Map<Study,ExitStatus> transformerStatus,
-    Map<Study,ExitStatus> validatorStatus, Map<Study,ExitStatus> loaderStatus) throws ReporterException {
+    Map<Study,ExitStatus> validatorStatus, Map<Study,ExitStatus> loaderStatus,
+    Map<Study,ResourceUsage> loaderResourceUsages) throws ReporterException {
 
         for (Study study : studies) {
+            loaderResourceUsages.forEach((loadedStudy, usage) -> {
+                if (loadedStudy.getStudyId().equals(study.getStudyId())) {
+                    logger.info("Resources used to load study " + study.getStudyId() + ": " + usage);
+                }
+            });
             logger.debug("ETL calling the Reporting Service...");
             reportingService.reportSummary(study, getStudyLogs(study.getStudyId(), transformerLogs), getStudyLogs(study.getStudyId(),validatorLogs),
             getStudyLogs(study.getStudyId(), validatorReports), getStudyLogs(study.getStudyId(),loaderLogs),
@@ -275,4 +545,13 @@ public class ETLProcessRunner {
 		return loaderExitStatus;
 	}
 
+	/**
+	 * @return Set  ids of the studies of the last run that were loaded, or that
+	 *              were rejected by the transformation, validation or loading step;
+	 *              studies of which files could not be extracted are not included
+	 */
+	public Set<String> getCompletedStudyIds() {
+		return completedStudyIds;
+	}
+
 }
@@ -18,21 +18,39 @@ package org.cbioportal.staging.etl;
 import com.pivovarit.function.ThrowingFunction;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import org.cbioportal.staging.exceptions.ConfigurationException;
 import org.cbioportal.staging.exceptions.DirectoryCreatorException;
 import org.cbioportal.staging.exceptions.ExtractionException;
 import org.cbioportal.staging.exceptions.ResourceCollectionException;
-import org.cbioportal.staging.exceptions.ResourceUtilsException;
+import org.cbioportal.staging.services.ExitStatus;
 import org.cbioportal.staging.services.directory.IDirectoryCreator;
+import org.cbioportal.staging.services.resource.BandwidthLimiter;
 import org.cbioportal.staging.services.resource.IResourceProvider;
+import org.cbioportal.staging.services.resource.ResourceProviderCircuitBreaker;
+import org.cbioportal.staging.services.resource.ResourceProviderConcurrencyLimit;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.cbioportal.staging.services.resource.Study;
+import org.cbioportal.staging.services.resource.TransferCache;
+import org.cbioportal.staging.services.resource.filesystem.LocalFileTransfer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -50,6 +68,12 @@ class Extractor {
 	@Value("${scan.retry.time:5}")
 	private Integer timeRetry;
 
+	@Value("${scan.retry.attempts:5}")
+	private int retryAttempts;
+
+	@Value("${scan.retry.deadline:120}")
+	private int retryDeadline;
+
 	@Autowired
 	private ResourceUtils utils;
 
@@ -59,8 +83,57 @@ class Extractor {
 	@Autowired
 	private IResourceProvider resourceProvider;
 
+	@Autowired
+	private TransferCache transferCache;
+
+	@Autowired
+	private BandwidthLimiter bandwidthLimiter;
+
+	@Autowired
+	private LocalFileTransfer fileTransfer;
+
+	@Autowired
+	private ResourceProviderCircuitBreaker circuitBreaker;
+
+	@Autowired
+	private ResourceProviderConcurrencyLimit concurrencyLimit;
+
+	@Value("${scan.extract.threads:4}")
+	private int extractThreads;
+
+	@Value("${scan.extract.threads.study:2}")
+	private int extractThreadsPerStudy;
+
+	private ExecutorService downloadExecutor;
+
+	private ScheduledExecutorService retryScheduler;
+
 	Map<String, List<String>> filesNotFound = new HashMap<>();
 
+	private volatile long runStart = System.currentTimeMillis();
+	private volatile long runTransferredBytes;
+
+	@PostConstruct
+	void initDownloadExecutor() {
+		AtomicInteger threadNumber = new AtomicInteger(1);
+		downloadExecutor = Executors.newFixedThreadPool(Math.max(1, extractThreads), r -> {
+			Thread t = new Thread(r, "extractor-" + threadNumber.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		});
+		retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "extractor-retry");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	@PreDestroy
+	void shutdownDownloadExecutor() {
+		downloadExecutor.shutdownNow();
+		retryScheduler.shutdownNow();
+	}
+
 	public Study[] run(Study[] studies) throws ExtractionException {
 
 		if (studies == null) {
@@ -70,51 +143,170 @@ class Extractor {
 		filesNotFound.clear();
 		List<Study> out = new ArrayList<>();
 
+		// start the downloads of all studies before waiting for the first one
+		long deadline = retryDeadline();
+		List<CompletableFuture<StageResult>> extractions = new ArrayList<>();
+		for (Study study : studies) {
+			extractions.add(extractStudyAsync(study, deadline));
+		}
+
 		try {
-			for (Study study : studies) {
+			for (int i = 0; i < studies.length; i++) {
+				StageResult result = await(extractions.get(i));
+				// register successfully extracted study
+				if (result.getOutput() != null) {
+					out.add(result.getOutput());
+				} else {
+					filesNotFound.put(studies[i].getStudyId(), result.getErrorFiles());
+				}
+			}
+		} finally {
+			// stop the downloads of the other studies when one fails
+			extractions.forEach(extraction -> extraction.cancel(true));
+		}
 
-				String studyId = study.getStudyId();
-				Resource studyDir = directoryCreator.createStudyExtractDir(study);
+		logger.info("Extractor step finished");
+		return out.toArray(new Study[0]);
+	}
 
-				String remoteBasePath = getBasePathResources(study.getResources()).replaceAll("/+", "/");
+	/**
+	 * Mark the start of the extractions of a run, for the statistics logged by finishRun().
+	 */
+	public void startRun() {
+		runStart = System.currentTimeMillis();
+		runTransferredBytes = bandwidthLimiter.getTransferredBytes();
+	}
 
-				List<String> errorFiles = new ArrayList<>();
-				List<Resource> files = new ArrayList<>();
-				for (Resource remoteResource : study.getResources()) {
+	/**
+	 * Store the index of the transfer cache and log the transfer statistics, after
+	 * the extractions of a run. Files added to the cache are only kept after a
+	 * restart when the index is stored, so this is called after both run() and
+	 * the extractStudy() calls of a pipelined run.
+	 */
+	public void finishRun() {
+		if (transferCache.isEnabled()) {
+			try {
+				transferCache.save();
+			} catch (ResourceCollectionException e) {
+				logger.warn(e.getMessage());
+			}
+			logger.info("Transfer cache: " + transferCache.getHits() + " hits, " + transferCache.getMisses() + " misses, "
+					+ transferCache.getBytesSaved() + " bytes not downloaded, " + transferCache.getEvictions() + " files removed, "
+					+ transferCache.getSize() + " bytes cached.");
+		}
+
+		Map<LocalFileTransfer.Method, Long> transferCounts = fileTransfer.getTransferCounts();
+		if (!transferCounts.isEmpty()) {
+			logger.info("Local file transfers: " + transferCounts.entrySet().stream()
+					.map(e -> e.getValue() + " by " + e.getKey().name().toLowerCase())
+					.collect(Collectors.joining(", ")) + ".");
+		}
+
+		if (bandwidthLimiter.isEnabled()) {
+			long bytes = bandwidthLimiter.getTransferredBytes() - runTransferredBytes;
+			long seconds = Math.max(1, (System.currentTimeMillis() - runStart) / 1000);
+			logger.info("Bandwidth limit: " + bytes + " bytes downloaded at " + (bytes / seconds) + " bytes/second.");
+		}
+
+		circuitBreaker.logSummary();
+		concurrencyLimit.logSummary();
+	}
 
-					logger.debug("Resource info: " + remoteResource.getFilename() + " " + utils.getURI(remoteResource) + " " + remoteResource.getDescription());
-					String fullOriginalFilePath = utils.getURI(remoteResource).toString();
-					fullOriginalFilePath = fullOriginalFilePath.replaceAll("/+", "/");
+	/**
+	 * Copy all resources of a single study to the study extraction directory.
+	 *
+	 * The state of the Extractor is not changed, so that this method can be called
+	 * for different studies at the same time.
+	 *
+	 * @param study  Study with remote resources
+	 * @return StageResult  with the extracted Study as output, or with the files that
+	 *                      could not be copied
+	 * @throws ExtractionException
+	 */
+	public StageResult extractStudy(Study study) throws ExtractionException {
+		return await(extractStudyAsync(study, retryDeadline()));
+	}
 
-					String path = utils.trimPathLeft(fullOriginalFilePath.replaceFirst(remoteBasePath, ""));
-					path = path.contains("/") ? path.substring(0, path.lastIndexOf("/")) : "";
-					logger.debug("Building local resource path: remoteBasePath=" + remoteBasePath + " fullOriginalPath=" + fullOriginalFilePath + " path=" + path);
+	/**
+	 * Schedule the downloads of all resources of a study on the shared download pool.
+	 *
+	 * The number of downloads that run at the same time is limited by `scan.extract.threads`
+	 * over all studies and by `scan.extract.threads.study` per study. Resources are
+	 * downloaded largest first, so that a large file does not start last. Failed
+	 * downloads are retried later, without holding up the other downloads, and
+	 * count for the limit per study as well.
+	 *
+	 * @param deadline  time in ms after which failed downloads are not retried anymore
+	 * @return CompletableFuture  cancelling it stops the downloads and retries of the study
+	 */
+	private CompletableFuture<StageResult> extractStudyAsync(Study study, long deadline) throws ExtractionException {
 
-					String studyDirStr = utils.trimPathRight(utils.getURI(studyDir).toString());
-					Resource targetDir = resourceProvider.getResource(studyDirStr + "/" +  path);
-					Resource localResource = attemptCopyResource(targetDir, remoteResource);
-					if (localResource == null) {
-						errorFiles.add(fullOriginalFilePath);
+		if (study == null) {
+			throw new ExtractionException("Argument 'study' is null.");
+		}
+
+		try {
+			Resource studyDir = directoryCreator.createStudyExtractDir(study);
+
+			String remoteBasePath = getBasePathResources(study.getResources()).replaceAll("/+", "/");
+			String studyDirStr = utils.trimPathRight(utils.getURI(studyDir).toString());
+
+			Resource[] remoteResources = study.getResources();
+			String[] remotePaths = new String[remoteResources.length];
+			List<Download> downloads = new ArrayList<>();
+			for (int i = 0; i < remoteResources.length; i++) {
+				Resource remoteResource = remoteResources[i];
+
+				logger.debug("Resource info: " + remoteResource.getFilename() + " " + utils.getURI(remoteResource) + " " + remoteResource.getDescription());
+				String fullOriginalFilePath = utils.getURI(remoteResource).toString();
+				fullOriginalFilePath = fullOriginalFilePath.replaceAll("/+", "/");
+
+				String path = utils.trimPathLeft(fullOriginalFilePath.replaceFirst(remoteBasePath, ""));
+				path = path.contains("/") ? path.substring(0, path.lastIndexOf("/")) : "";
+				logger.debug("Building local resource path: remoteBasePath=" + remoteBasePath + " fullOriginalPath=" + fullOriginalFilePath + " path=" + path);
+
+				Resource targetDir = resourceProvider.getResource(studyDirStr + "/" +  path);
+				remotePaths[i] = fullOriginalFilePath;
+				downloads.add(new Download(i, remoteResource, targetDir, contentLength(remoteResource)));
+			}
+
+			downloads.sort(Comparator.comparingLong((Download d) -> d.size).reversed());
+			StudyExtraction extraction = new StudyExtraction(downloads, remoteResources.length, deadline);
+			Resource[] localResources = extraction.localResources;
+			extraction.startWorkers();
+
+			CompletableFuture<StageResult> extracted = extraction.done.thenApply(v -> {
+				List<String> errorFiles = new ArrayList<>();
+				List<Resource> files = new ArrayList<>();
+				for (int i = 0; i < localResources.length; i++) {
+					if (localResources[i] == null) {
+						errorFiles.add(remotePaths[i]);
 					} else {
-						files.add(localResource);
+						files.add(localResources[i]);
 					}
 				}
 
-				// register successfully extracted study
-				if (errorFiles.isEmpty()) {
-					out.add(new Study(study.getStudyId(), study.getVersion(), study.getTimestamp(), studyDir,
-							files.toArray(new Resource[0])));
-				} else {
+				if (! errorFiles.isEmpty()) {
 					logger.error("Extractor finished with error files: " + errorFiles.stream().collect(
 							Collectors.joining(", ")));
-					filesNotFound.put(studyId, errorFiles);
+					StageResult result = new StageResult(study, ExitStatus.ERROR, null);
+					result.setErrorFiles(errorFiles);
+					return result;
 				}
-			}
+
+				Study extractedStudy = new Study(study.getStudyId(), study.getVersion(), study.getTimestamp(), studyDir,
+						files.toArray(new Resource[0]));
+				return new StageResult(study, ExitStatus.SUCCESS, extractedStudy);
+			});
+			extracted.whenComplete((r, e) -> {
+				if (e != null) {
+					extraction.cancel();
+				}
+			});
+			return extracted;
 
 		} catch (ConfigurationException e) {
 			throw new ExtractionException(e.getMessage(), e);
-		} catch (InterruptedException e) {
-			throw new ExtractionException("Timeout for resource downloads was interrupted.", e);
 		} catch (ResourceCollectionException e) {
 			throw new ExtractionException("Cannot copy Resource.", e);
 		} catch (DirectoryCreatorException e) {
@@ -122,28 +314,162 @@ class Extractor {
 		} catch (IOException e) {
 			throw new ExtractionException("Cannot read URI from resource.", e);
 		}
+	}
 
-		logger.info("Extractor step finished");
-		return out.toArray(new Study[0]);
+	private StageResult await(CompletableFuture<StageResult> extraction) throws ExtractionException {
+		try {
+			return extraction.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof ResourceCollectionException) {
+				throw new ExtractionException("Cannot copy Resource.", e.getCause());
+			}
+			throw new ExtractionException("Download of study resources failed.", e.getCause());
+		}
 	}
 
-	private Resource attemptCopyResource(Resource destination, Resource remoteResource)
-			throws InterruptedException, ResourceCollectionException {
-		int i = 1;
-		int times = 5;
-		Resource r = null;
-		while (i++ <= times) {
-			try {
-				logger.info("Copying resource " + utils.getURI(remoteResource) + " to "+ destination);
-				r = resourceProvider.copyFromRemote(destination, remoteResource);
-				logger.info("File has been copied successfully to "+ destination);
-				break;
-			} catch (IOException f) {
-				if (i < times) {
-					TimeUnit.MINUTES.sleep(timeRetry);
+	/**
+	 * Size of a remote resource, used to order the downloads. Resources from a
+	 * directory listing carry their size, so this does not need a request.
+	 */
+	private long contentLength(Resource resource) {
+		try {
+			return resource.contentLength();
+		} catch (IOException | RuntimeException e) {
+			logger.debug("Size of resource " + resource.getDescription() + " is unknown.");
+			return 0;
+		}
+	}
+
+	/**
+	 * Downloads of a single study. At most `scan.extract.threads.study` workers
+	 * take downloads from the queue; a failed download is put back in the queue
+	 * when its retry is due, and picked up by a worker again.
+	 */
+	private class StudyExtraction {
+		final Queue<Download> queue;
+		final Resource[] localResources;
+		final long deadline;
+		final CompletableFuture<Void> done = new CompletableFuture<>();
+		private final Queue<Future<?>> tasks = new ConcurrentLinkedQueue<>();
+		private int workers;
+		private int pending;
+
+		StudyExtraction(List<Download> downloads, int resources, long deadline) {
+			this.queue = new ConcurrentLinkedQueue<>(downloads);
+			this.localResources = new Resource[resources];
+			this.deadline = deadline;
+			this.pending = downloads.size();
+			if (pending == 0) {
+				done.complete(null);
+			}
+		}
+
+		synchronized void startWorkers() {
+			while (workers < Math.max(1, extractThreadsPerStudy) && !queue.isEmpty() && !done.isDone()) {
+				workers++;
+				track(downloadExecutor.submit(this::downloadNext));
+			}
+		}
+
+		/**
+		 * Download the next resource of the queue on the download pool, and
+		 * hand the worker on to the resource after it.
+		 */
+		private void downloadNext() {
+			Download download;
+			synchronized (this) {
+				download = done.isDone() ? null : queue.poll();
+				if (download == null) {
+					workers--;
+					return;
 				}
 			}
+			try {
+				localResources[download.index] = copyResource(download, download.attempt);
+				finished();
+			} catch (IOException | ResourceCollectionException e) {
+				// a partially downloaded file is kept and resumed by the next attempt
+				logger.warn("Attempt " + download.attempt + " to copy resource failed: " + e.getMessage());
+				scheduleRetry(download);
+			} catch (RuntimeException e) {
+				done.completeExceptionally(e);
+				cancel();
+				return;
+			}
+			if (!done.isDone()) {
+				track(downloadExecutor.submit(this::downloadNext));
+			}
+		}
+
+		/**
+		 * Retry a failed download after a delay that doubles with every attempt,
+		 * starting at `scan.retry.time` minutes. The delay is randomized between half
+		 * and the full value, so that retries of files that failed together are spread.
+		 * A resource is given up after `scan.retry.attempts` attempts, or when the retry
+		 * would start after the deadline.
+		 */
+		private void scheduleRetry(Download download) {
+			String uri = download.remoteResource.getDescription();
+			if (download.attempt >= retryAttempts) {
+				logger.error("Giving up copying resource " + uri + " after " + retryAttempts + " attempts.");
+				finished();
+				return;
+			}
+			long delay = backoff(download.attempt);
+			if (System.currentTimeMillis() + delay > deadline) {
+				logger.error("Giving up copying resource " + uri + ", a next attempt would start after the retry deadline.");
+				finished();
+				return;
+			}
+			logger.info("Retrying to copy resource " + uri + " in " + TimeUnit.MILLISECONDS.toSeconds(delay) + " seconds.");
+			download.attempt++;
+			track(retryScheduler.schedule(() -> {
+				queue.add(download);
+				startWorkers();
+			}, delay, TimeUnit.MILLISECONDS));
+		}
+
+		private synchronized void finished() {
+			if (--pending == 0) {
+				done.complete(null);
+			}
+		}
+
+		private void track(Future<?> task) {
+			tasks.add(task);
+			tasks.removeIf(Future::isDone);
+			if (done.isDone()) {
+				task.cancel(true);
+			}
+		}
+
+		/**
+		 * Stop the downloads and retries of the study.
+		 */
+		void cancel() {
+			done.cancel(true);
+			tasks.forEach(task -> task.cancel(true));
 		}
+	}
+
+	/**
+	 * @param retry  number of the retry, starting at 1
+	 * @return long  delay in ms
+	 */
+	private long backoff(int retry) {
+		long delay = TimeUnit.MINUTES.toMillis(timeRetry) << Math.min(retry - 1, 20);
+		return delay / 2 + (long) (ThreadLocalRandom.current().nextDouble() * (delay - delay / 2));
+	}
+
+	private long retryDeadline() {
+		return System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(retryDeadline);
+	}
+
+	private Resource copyResource(Download download, int attempt) throws IOException, ResourceCollectionException {
+		logger.info("Copying resource " + utils.getURI(download.remoteResource) + " to "+ download.targetDir
+				+ (attempt > 1 ? " (attempt " + attempt + ")" : ""));
+		Resource r = transferCache.copyFromRemote(download.targetDir, download.remoteResource);
+		logger.info("File has been copied successfully to "+ download.targetDir);
 		return r;
 	}
 
@@ -162,4 +488,19 @@ class Extractor {
 		return timeRetry;
 	}
 
+	private static class Download {
+		final int index;
+		final Resource remoteResource;
+		final Resource targetDir;
+		final long size;
+		int attempt = 1;
+
+		Download(int index, Resource remoteResource, Resource targetDir, long size) {
+			this.index = index;
+			this.remoteResource = remoteResource;
+			this.targetDir = targetDir;
+			this.size = size;
+		}
+	}
+
 }
@@ -21,7 +21,10 @@ import java.util.Map;
 import org.cbioportal.staging.exceptions.LoaderException;
 import org.cbioportal.staging.exceptions.ResourceUtilsException;
 import org.cbioportal.staging.services.ExitStatus;
+import org.cbioportal.staging.services.command.CommandRunner;
+import org.cbioportal.staging.services.command.ResourceUsage;
 import org.cbioportal.staging.services.etl.ILoaderService;
+import org.cbioportal.staging.services.etl.PortalInfoCache;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.cbioportal.staging.services.resource.Study;
 import org.slf4j.Logger;
@@ -40,47 +43,91 @@ public class Loader {
     @Autowired
     private ResourceUtils utils;
 
+    @Autowired
+    private PortalInfoCache portalInfoCache;
+
+    @Autowired
+    private CommandRunner commandRunner;
+
     private boolean areStudiesLoaded;
 
     final private Map<Study, Resource> logFiles = new HashMap<>();
+    final private Map<Study, ResourceUsage> resourceUsages = new HashMap<>();
 
     Map<Study, ExitStatus> load(final Study[] studies) throws LoaderException {
 
         areStudiesLoaded = false;
         logFiles.clear();
+        resourceUsages.clear();
 
         final Map<Study, ExitStatus> loadResults = new HashMap<Study, ExitStatus>();
+        for (final Study study: studies) {
+            StageResult result = loadStudy(study);
+            logFiles.put(study, result.getLogFile());
+            if (result.getResourceUsage() != null) {
+                resourceUsages.put(study, result.getResourceUsage());
+            }
+            //Add loading result for the email loading report
+            loadResults.put(study, result.getStatus());
+            if (result.getStatus() == ExitStatus.SUCCESS) {
+                areStudiesLoaded = true;
+            }
+        }
+        return loadResults;
+    }
+
+    /**
+     * Load a single study into cBioPortal.
+     *
+     * The state of the Loader is not changed. Note that cBioPortal does not support
+     * loading of studies at the same time; callers should make sure that calls to
+     * this method do not overlap.
+     *
+     * @param study  Study that passed validation
+     * @return StageResult  with the loading status of the study
+     * @throws LoaderException
+     */
+    StageResult loadStudy(final Study study) throws LoaderException {
         try {
-            for (final Study study: studies) {
-
-                String studyId = study.getStudyId();
-
-                logger.info("Starting loading of study " + studyId + ". This can take some minutes.");
-                final Resource studyPath = study.getStudyDir();
-                Resource logFile;
-                logFile = utils.createFileResource(studyPath, studyId + "_loading_log.txt");
-                logFiles.put(study, logFile);
-                ExitStatus loadingStatus = loaderService.load(studyPath, logFile);
-                //Add loading result for the email loading report
-                if (loadingStatus == ExitStatus.SUCCESS) {
-                    loadResults.put(study, ExitStatus.SUCCESS);
-                    areStudiesLoaded = true;
-                    logger.info("Loading of study "+studyId+" finished successfully.");
-                } else {
-                    loadResults.put(study, ExitStatus.ERROR);
-                    logger.error("Loading process of study "+studyId+" failed.");
-                }
+            String studyId = study.getStudyId();
+
+            logger.info("Starting loading of study " + studyId + ". This can take some minutes.");
+            final Resource studyPath = study.getStudyDir();
+            Resource logFile = utils.createFileResource(studyPath, studyId + "_loading_log.txt");
+            ExitStatus loadingStatus = loaderService.load(studyPath, logFile);
+
+            StageResult result;
+            if (loadingStatus == ExitStatus.SUCCESS) {
+                result = new StageResult(study, ExitStatus.SUCCESS, study);
+                logger.info("Loading of study "+studyId+" finished successfully.");
+                portalInfoCache.invalidateIfChanged(studyPath);
+            } else if (loadingStatus == ExitStatus.TIMEOUT) {
+                result = new StageResult(study, ExitStatus.TIMEOUT, null);
+                logger.error("Loading process of study "+studyId+" timed out.");
+            } else {
+                result = new StageResult(study, ExitStatus.ERROR, null);
+                logger.error("Loading process of study "+studyId+" failed.");
             }
+            result.setLogFile(logFile);
+            result.setResourceUsage(commandRunner.takeResourceUsage(utils.getFile(logFile)));
+            return result;
         } catch (ResourceUtilsException e) {
             throw new LoaderException("The Loader could not create a log file", e);
         }
-        return loadResults;
     }
 
     Map<Study, Resource> getLogFiles() {
         return logFiles;
     }
 
+    /**
+     * @return Map  resources used by the loading command of each study of the
+     *              last load() call, for the studies of which they were sampled
+     */
+    Map<Study, ResourceUsage> getResourceUsages() {
+        return resourceUsages;
+    }
+
     boolean areStudiesLoaded() {
         return areStudiesLoaded;
 	}
@@ -0,0 +1,109 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.etl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cbioportal.staging.services.ExitStatus;
+import org.cbioportal.staging.services.command.ResourceUsage;
+import org.cbioportal.staging.services.resource.Study;
+import org.springframework.core.io.Resource;
+
+/**
+ * Outcome of a single ETL step (extract, transform, validate or load)
+ * for one study.
+ *
+ * The output study is the study that is handed to the next step. It is
+ * null when the study should not continue in the ETL process.
+ */
+public final class StageResult {
+
+    private Study study;
+    private ExitStatus status;
+    private Study output;
+    private Resource logFile;
+    private Resource reportFile;
+    private List<String> errorFiles = new ArrayList<>();
+    private ResourceUsage resourceUsage;
+
+    public StageResult(Study study, ExitStatus status, Study output) {
+        this.study = study;
+        this.status = status;
+        this.output = output;
+    }
+
+    public Study getStudy() {
+        return this.study;
+    }
+
+    public ExitStatus getStatus() {
+        return this.status;
+    }
+
+    public Study getOutput() {
+        return this.output;
+    }
+
+    public Resource getLogFile() {
+        return this.logFile;
+    }
+
+    public void setLogFile(Resource logFile) {
+        this.logFile = logFile;
+    }
+
+    public Resource getReportFile() {
+        return this.reportFile;
+    }
+
+    public void setReportFile(Resource reportFile) {
+        this.reportFile = reportFile;
+    }
+
+    public List<String> getErrorFiles() {
+        return this.errorFiles;
+    }
+
+    public void setErrorFiles(List<String> errorFiles) {
+        this.errorFiles = errorFiles;
+    }
+
+    /**
+     * @return ResourceUsage  resources used by the command of the step, or null
+     *                        when no command was run or its resources were not sampled
+     */
+    public ResourceUsage getResourceUsage() {
+        return this.resourceUsage;
+    }
+
+    public void setResourceUsage(ResourceUsage resourceUsage) {
+        this.resourceUsage = resourceUsage;
+    }
+
+    @Override
+    public String toString() {
+        return "{" +
+            " study='" + (getStudy() != null ? getStudy().getStudyId() : null) + "'" +
+            ", status='" + getStatus() + "'" +
+            ", logFile='" + getLogFile() + "'" +
+            ", reportFile='" + getReportFile() + "'" +
+            ", errorFiles='" + getErrorFiles() + "'" +
+            ", resourceUsage='" + getResourceUsage() + "'" +
+            "}";
+    }
+
+}
@@ -19,10 +19,18 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Stream;
+
+import com.pivovarit.function.ThrowingSupplier;
 import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.cbioportal.staging.exceptions.ResourceUtilsException;
 import org.cbioportal.staging.exceptions.TransformerException;
 import org.cbioportal.staging.services.ExitStatus;
+import org.cbioportal.staging.services.command.CommandRunner;
 import org.cbioportal.staging.services.directory.IDirectoryCreator;
 import org.cbioportal.staging.services.etl.ITransformerService;
 import org.cbioportal.staging.services.resource.ResourceUtils;
@@ -42,12 +50,18 @@ public class Transformer {
     @Value("${transformation.metafile.check:true}")
     private boolean transformationMetaFileCheck;
 
+    @Value("${transformation.threads:1}")
+    private int transformationThreads;
+
     @Autowired
     private ITransformerService transformerService;
 
     @Autowired
     private ResourceUtils utils;
 
+    @Autowired
+    private CommandRunner commandRunner;
+
     @Autowired
     private FileSystemResourceProvider fileSystemResourceProvider;
 
@@ -65,59 +79,122 @@ public class Transformer {
 
         Map<Study, ExitStatus> statusStudies = new HashMap<Study, ExitStatus>();
 
-        try {
+        // results are registered by the calling thread only, in the order of the studies
+        for (StageResult result: transformStudies(studies)) {
+            logFiles.put(result.getStudy(), result.getLogFile());
+            //Add status of the validation for the study
+            statusStudies.put(result.getStudy(), result.getStatus());
+            if (result.getOutput() != null) {
+                validStudies.add(result.getOutput());
+            }
+        }
+
+        logger.info("Transformation step finished.");
+        return statusStudies;
+    }
+
+    private List<StageResult> transformStudies(Study[] studies) throws TransformerException {
+        List<StageResult> results = new ArrayList<>();
+        if (transformationThreads <= 1 || studies.length <= 1) {
             for (Study study: studies) {
+                results.add(transformStudy(study));
+            }
+            return results;
+        }
 
-                String studyId = study.getStudyId();
-                ExitStatus transformationStatus = ExitStatus.SUCCESS;
-                Resource transformedFilesPath;
+        // Every study is transformed into its own directory with its own log file,
+        // so that the transformation commands can run next to each other.
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(transformationThreads, studies.length));
+        try {
+            List<CompletableFuture<StageResult>> transformations = new ArrayList<>();
+            for (Study study: studies) {
+                transformations.add(CompletableFuture.supplyAsync(ThrowingSupplier.sneaky(() -> transformStudy(study)), executor));
+            }
+            for (CompletableFuture<StageResult> transformation: transformations) {
                 try {
-                    Resource untransformedFilesPath = study.getStudyDir();
-                    logger.debug("Creating transformed data study directory: untransformedFilesPath=" + untransformedFilesPath);
-                    transformedFilesPath = directoryCreator.createTransformedStudyDir(study, untransformedFilesPath);
-
-                    logger.info("Created transformed data study directory: transformedFilesPath=" + transformedFilesPath.getFilename());
-                    logger.debug("Creating log file.");
-                    Resource logFile = utils.createFileResource(transformedFilesPath, study.getStudyId() + "_transformation_log.txt");
-                    logFiles.put(study, logFile);
-
-                    if (transformationMetaFileCheck && metaFileExists(untransformedFilesPath)) {
-                        utils.copyDirectory(untransformedFilesPath, transformedFilesPath);
-                        transformationStatus = ExitStatus.SKIPPED;
-                    } else {
-                        transformationStatus = transformerService.transform(untransformedFilesPath, transformedFilesPath, logFile);
+                    results.add(transformation.join());
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof TransformerException) {
+                        throw (TransformerException) e.getCause();
                     }
-
-                } catch (Exception e) {
                     throw new TransformerException(e);
                 }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
 
-                logger.debug("Collecting transformed resources.");
-                Resource[] resources = fileSystemResourceProvider.list(transformedFilesPath);
-                Study transformedStudy = new Study(studyId, study.getVersion(), study.getTimestamp(), transformedFilesPath, resources);
-
-                //Add status of the validation for the study
-                statusStudies.put(study, transformationStatus);
-                if (transformationStatus == ExitStatus.SUCCESS) {
-                    validStudies.add(transformedStudy);
-                    logger.info("Transformation of study "+studyId+" finished successfully.");
-                } else if (transformationStatus == ExitStatus.WARNING) {
-                    validStudies.add(transformedStudy);
-                    logger.warn("Transformation of study "+studyId+" finished successfully with warnings.");
-                } else if (transformationStatus == ExitStatus.SKIPPED) {
-                    validStudies.add(transformedStudy);
-                    logger.info("Study "+studyId+" does contain a meta file, so the transformation step is skipped.");
-                } else {
-                    logger.error("Transformation process of study "+studyId+" failed.");
+    /**
+     * Transform a single study.
+     *
+     * The state of the Transformer is not changed, so that this method can be called
+     * for different studies at the same time.
+     *
+     * @param study  Study with extracted resources
+     * @return StageResult  with the transformed Study as output when the study can be validated
+     * @throws TransformerException
+     */
+    public StageResult transformStudy(Study study) throws TransformerException {
+
+        String studyId = study.getStudyId();
+        ExitStatus transformationStatus = ExitStatus.SUCCESS;
+        Resource transformedFilesPath;
+        Resource logFile;
+        try {
+            Resource untransformedFilesPath = study.getStudyDir();
+            logger.debug("Creating transformed data study directory: untransformedFilesPath=" + untransformedFilesPath);
+            transformedFilesPath = directoryCreator.createTransformedStudyDir(study, untransformedFilesPath);
+
+            logger.info("Created transformed data study directory: transformedFilesPath=" + transformedFilesPath.getFilename());
+            logger.debug("Creating log file.");
+            logFile = utils.createFileResource(transformedFilesPath, study.getStudyId() + "_transformation_log.txt");
+
+            if (transformationMetaFileCheck && metaFileExists(untransformedFilesPath)) {
+                // the extracted files are not changed anymore and the validator and
+                // loader only read the transformed files, so the transformed directory
+                // can share them instead of holding a copy
+                if (!utils.linkDirectory(untransformedFilesPath, transformedFilesPath)) {
+                    logger.info("Study " + studyId + " could not be linked into " + transformedFilesPath.getFilename() + ", files were copied.");
                 }
+                transformationStatus = ExitStatus.SKIPPED;
+            } else {
+                transformationStatus = transformerService.transform(untransformedFilesPath, transformedFilesPath, logFile);
             }
 
-        } catch (ResourceCollectionException e) {
+        } catch (Exception e) {
             throw new TransformerException(e);
         }
 
-        logger.info("Transformation step finished.");
-        return statusStudies;
+        try {
+            logger.debug("Collecting transformed resources.");
+            Resource[] resources = fileSystemResourceProvider.list(transformedFilesPath);
+            Study transformedStudy = new Study(studyId, study.getVersion(), study.getTimestamp(), transformedFilesPath, resources);
+
+            Study output = null;
+            if (transformationStatus == ExitStatus.SUCCESS) {
+                output = transformedStudy;
+                logger.info("Transformation of study "+studyId+" finished successfully.");
+            } else if (transformationStatus == ExitStatus.WARNING) {
+                output = transformedStudy;
+                logger.warn("Transformation of study "+studyId+" finished successfully with warnings.");
+            } else if (transformationStatus == ExitStatus.SKIPPED) {
+                output = transformedStudy;
+                logger.info("Study "+studyId+" does contain a meta file, so the transformation step is skipped.");
+            } else if (transformationStatus == ExitStatus.TIMEOUT) {
+                logger.error("Transformation process of study "+studyId+" timed out.");
+            } else {
+                logger.error("Transformation process of study "+studyId+" failed.");
+            }
+
+            StageResult result = new StageResult(study, transformationStatus, output);
+            result.setLogFile(logFile);
+            result.setResourceUsage(commandRunner.takeResourceUsage(utils.getFile(logFile)));
+            return result;
+        } catch (ResourceCollectionException | ResourceUtilsException e) {
+            throw new TransformerException(e);
+        }
     }
 
     public boolean metaFileExists(Resource originPath) throws ResourceCollectionException {
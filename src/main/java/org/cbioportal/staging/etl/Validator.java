@@ -16,13 +16,22 @@
 package org.cbioportal.staging.etl;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.pivovarit.function.ThrowingSupplier;
 
 import org.cbioportal.staging.exceptions.ResourceUtilsException;
 import org.cbioportal.staging.exceptions.ValidatorException;
 import org.cbioportal.staging.services.ExitStatus;
+import org.cbioportal.staging.services.command.CommandRunner;
 import org.cbioportal.staging.services.etl.IValidatorService;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.cbioportal.staging.services.resource.Study;
@@ -43,12 +52,18 @@ public class Validator {
     @Autowired
     private ResourceUtils utils;
 
+    @Autowired
+    private CommandRunner commandRunner;
+
     @Value("${validation.level:ERROR}")
     private String validationLevel;
 
-    private Map<Study, Resource> logFiles = new HashMap<>();
-    private Map<Study, Resource> reportFiles = new HashMap<>();
-    List<Study> validStudies = new ArrayList<>();
+    @Value("${validation.threads:1}")
+    private int validationThreads;
+
+    private final Map<Study, Resource> logFiles = Collections.synchronizedMap(new HashMap<>());
+    private final Map<Study, Resource> reportFiles = Collections.synchronizedMap(new HashMap<>());
+    final List<Study> validStudies = Collections.synchronizedList(new ArrayList<>());
 
     private boolean hasStudyPassed(ExitStatus exitStatus) throws ValidatorException {
         if (validationLevel.equals("WARNING")) { // Load studies with no warnings and no errors
@@ -73,46 +88,98 @@ public class Validator {
         reportFiles.clear();
         validStudies.clear();
 
-        Map<Study, ExitStatus> validatedStudies = new HashMap<>();
-        logFiles = new HashMap<>();
-        reportFiles = new HashMap<>();
-        validStudies.clear();
+        Map<Study, ExitStatus> validatedStudies = new LinkedHashMap<>();
 
+        if (validationThreads <= 1 || studies.length <= 1) {
+            for (Study study : studies) {
+                registerResult(validateStudy(study), validatedStudies);
+            }
+            return validatedStudies;
+        }
+
+        // Validation does not change the cBioPortal database, so studies can be validated in parallel.
+        // The results are registered in the order of the studies, so that they are loaded in that order.
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(validationThreads, studies.length));
         try {
+            List<CompletableFuture<StageResult>> validations = new ArrayList<>();
             for (Study study : studies) {
+                validations.add(CompletableFuture.supplyAsync(ThrowingSupplier.sneaky(() -> validateStudy(study)), executor));
+            }
+            for (CompletableFuture<StageResult> validation : validations) {
+                try {
+                    registerResult(validation.join(), validatedStudies);
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof ValidatorException) {
+                        throw (ValidatorException) e.getCause();
+                    }
+                    throw new ValidatorException("Error occured while validating studies.", e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return validatedStudies;
+    }
 
-                String studyId = study.getStudyId();
+    private void registerResult(StageResult result, Map<Study, ExitStatus> validatedStudies) {
+        logFiles.put(result.getStudy(), result.getLogFile());
+        reportFiles.put(result.getStudy(), result.getReportFile());
+        validatedStudies.put(result.getStudy(), result.getStatus());
+        if (result.getOutput() != null) {
+            validStudies.add(result.getOutput());
+        }
+    }
 
-                logger.info("Starting validation of study " + studyId);
-                Resource studyPath = study.getStudyDir();
+    /**
+     * Validate a single study.
+     *
+     * The state of the Validator is not changed, so that this method can be called
+     * for different studies at the same time.
+     *
+     * @param study  Study with transformed resources
+     * @return StageResult  with the Study as output when it passed validation
+     * @throws ValidatorException
+     */
+    public StageResult validateStudy(Study study) throws ValidatorException {
+        try {
+            String studyId = study.getStudyId();
 
-                Resource logFile = utils.createFileResource(studyPath, studyId + "_validation_log.txt");
-                Resource reportFile = utils.createFileResource(studyPath, studyId + "_validation_report.html");
-                logFiles.put(study, logFile);
-                reportFiles.put(study, reportFile);
+            logger.info("Starting validation of study " + studyId);
+            Resource studyPath = study.getStudyDir();
 
-                ExitStatus exitStatus = validatorService.validate(studyPath, reportFile, logFile);
-                validatedStudies.put(study, exitStatus);
+            Resource logFile = utils.createFileResource(studyPath, studyId + "_validation_log.txt");
+            Resource reportFile = utils.createFileResource(studyPath, studyId + "_validation_report.html");
 
-                if (hasStudyPassed(exitStatus)) {
-                    validStudies.add(study);
-                    logger.info("Study "+studyId+" has passed validation.");
-                } else {
-                    logger.info("Study "+studyId+" has failed validation.");
-                }
+            ExitStatus exitStatus = validatorService.validate(studyPath, reportFile, logFile);
+
+            Study output = null;
+            if (hasStudyPassed(exitStatus)) {
+                output = study;
+                logger.info("Study "+studyId+" has passed validation.");
+            } else {
+                logger.info("Study "+studyId+" has failed validation" + (exitStatus == ExitStatus.TIMEOUT ? " (timed out)." : "."));
             }
+
+            StageResult result = new StageResult(study, exitStatus, output);
+            result.setLogFile(logFile);
+            result.setReportFile(reportFile);
+            result.setResourceUsage(commandRunner.takeResourceUsage(utils.getFile(logFile)));
+            return result;
         } catch (ResourceUtilsException e) {
             throw new ValidatorException("Error occured while validating studies.", e);
         }
-		return validatedStudies;
     }
 
     public Map<Study, Resource> getLogFiles() {
-        return logFiles;
+        synchronized (logFiles) {
+            return new HashMap<>(logFiles);
+        }
     }
 
     public Map<Study, Resource> getReportFiles() {
-        return reportFiles;
+        synchronized (reportFiles) {
+            return new HashMap<>(reportFiles);
+        }
     }
 
     public Study[] getValidStudies() throws ValidatorException {
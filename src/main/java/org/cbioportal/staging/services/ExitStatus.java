@@ -4,5 +4,6 @@ public enum ExitStatus {
     SUCCESS,
     WARNING,
     ERROR,
-    SKIPPED
+    SKIPPED,
+    TIMEOUT
 }
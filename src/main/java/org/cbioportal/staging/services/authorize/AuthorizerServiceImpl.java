@@ -15,10 +15,8 @@
 */
 package org.cbioportal.staging.services.authorize;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -26,6 +24,8 @@ import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
 import org.cbioportal.staging.exceptions.ConfigurationException;
+import org.cbioportal.staging.services.command.CommandRunner;
+import org.cbioportal.staging.services.command.LineOutputStream;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +41,9 @@ public class AuthorizerServiceImpl implements IAuthorizerService {
     @Autowired
     private ResourceUtils utils;
 
+    @Autowired
+    private CommandRunner commandRunner;
+
 	@Value("${study.authorize.command_prefix:null}")
 	private String studyAuthorizeCommandPrefix;
 
@@ -71,19 +74,15 @@ public class AuthorizerServiceImpl implements IAuthorizerService {
                     authCmd.redirectErrorStream(true);
 
                     logger.info("Executing command: " + String.join(" ", authCmd.command()));
-                    final Process authProcess = authCmd.start();
-
-                    String line = null;
-                    BufferedReader infoReader = new BufferedReader(new InputStreamReader(authProcess.getInputStream()));
-                    while ((line = infoReader.readLine()) != null)
-                        logger.info(line);
-                    BufferedReader errorReader = new BufferedReader(new InputStreamReader(authProcess.getErrorStream()));
-                    while ((line = errorReader.readLine()) != null)
-                        logger.warn(line);
-
-                    authProcess.waitFor();
+                    int exitValue;
+                    try (LineOutputStream output = new LineOutputStream(logger::info)) {
+                        exitValue = commandRunner.run("authorization", authCmd, output);
+                    }
 
-                    if (authProcess.exitValue() != 0) {
+                    if (exitValue == CommandRunner.TIMEOUT) {
+                        throw new ConfigurationException("The command "+authCmd.command()+" timed out.");
+                    }
+                    if (exitValue != 0) {
                         throw new ConfigurationException("The command "+authCmd.command()+" has failed. Please check your configuration.");
                     }
                 }
@@ -0,0 +1,254 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.pivovarit.function.ThrowingSupplier;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Samples the CPU time, resident memory and storage I/O of the commands run
+ * by the CommandRunner, every 'command.resources.interval' ms (0 disables
+ * sampling): from /proc for a process and its descendants, from the Engine
+ * API stats for a container, or with 'docker stats' for a container started
+ * by the docker CLI.
+ *
+ * The usage of a command is logged, appended to the log file of the study
+ * and counted per step; logSummary() logs the totals per step of a run.
+ */
+@Component
+public class CommandResourceMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommandResourceMonitor.class);
+
+    @Value("${command.resources.interval:1000}")
+    private long interval;
+
+    @Autowired
+    private DockerEngineClient client;
+
+    private ScheduledExecutorService samplingExecutor;
+    private ExecutorService statsExecutor;
+    private final ProcResourceSampler procSampler = new ProcResourceSampler();
+
+    private final Map<String, ResourceUsage> resourceTotals = new TreeMap<>();
+    private final Map<File, ResourceUsage> resourceUsages = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void initExecutors() {
+        samplingExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "command-resources");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        statsExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "command-stats-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdownExecutors() {
+        samplingExecutor.shutdownNow();
+        statsExecutor.shutdownNow();
+    }
+
+    /**
+     * Sample the resources of a process and its descendants from /proc.
+     *
+     * @param pid  process id of the command
+     * @return Sampling  the sampling, or null when sampling is disabled or not supported
+     */
+    Sampling monitorProcess(long pid) {
+        if (interval <= 0 || pid < 0 || !procSampler.isAvailable()) {
+            return null;
+        }
+        Sampling sampling = new Sampling();
+        sampling.future = samplingExecutor.scheduleAtFixedRate(() -> {
+            ResourceUsage sample = procSampler.sample(pid);
+            if (sample != null) {
+                sampling.usage.update(sample);
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+        return sampling;
+    }
+
+    /**
+     * Sample the resources of a container from the stats of the Engine API.
+     *
+     * @param containerId  id of the container, null until it has been created
+     */
+    Sampling monitorContainer(Supplier<String> containerId) {
+        return monitorStats(() -> {
+            String id = containerId.get();
+            return id == null ? null : client.containerStats(id);
+        });
+    }
+
+    /**
+     * Sample the resources of a container started through the docker CLI
+     * with 'docker stats'. The container does not exist until the CLI has
+     * created it, so samples can fail at first.
+     */
+    Sampling monitorCliContainer(String name) {
+        DockerCliStats stats = new DockerCliStats(System.currentTimeMillis());
+        return monitorStats(() -> stats.update(
+            runForOutput(Arrays.asList("docker", "stats", "--no-stream", "--format", "{{json .}}", name)),
+            System.currentTimeMillis()));
+    }
+
+    /**
+     * Stop a sampling, and record the usage of the command.
+     *
+     * @param logFile  log file the resources used are added to, or null
+     */
+    void record(String step, Sampling sampling, File logFile) {
+        sampling.future.cancel(false);
+        ResourceUsage usage = sampling.usage;
+        logger.info("Resources used by " + step + ": " + usage);
+        synchronized (this) {
+            resourceTotals.computeIfAbsent(step, k -> new ResourceUsage()).add(usage);
+        }
+        if (logFile != null) {
+            resourceUsages.put(logFile.getAbsoluteFile(), usage);
+            try {
+                Files.write(logFile.toPath(), ("Resources used: " + usage + System.lineSeparator())
+                    .getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                logger.warn("Resources used could not be added to " + logFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Resources used by the last command that wrote to a log file. The usage
+     * is removed, so that it can be taken only once.
+     *
+     * @param logFile  log file passed to the CommandRunner
+     * @return ResourceUsage  the usage, or null when it was not sampled
+     */
+    ResourceUsage takeResourceUsage(File logFile) {
+        return logFile == null ? null : resourceUsages.remove(logFile.getAbsoluteFile());
+    }
+
+    /**
+     * @return Map  resources used by the sampled commands of each step since the previous summary
+     */
+    synchronized Map<String, ResourceUsage> getResourceTotals() {
+        return Collections.unmodifiableMap(new TreeMap<>(resourceTotals));
+    }
+
+    /**
+     * Log the resources used by the sampled commands of each step since the
+     * previous summary, once per run.
+     */
+    synchronized void logSummary() {
+        resourceTotals.forEach((step, usage) -> logger.info("Resources used by all commands of " + step + ": " + usage));
+        resourceTotals.clear();
+    }
+
+    /**
+     * Stats of a container take a while to collect, so they are requested
+     * on another thread, and only one at a time.
+     *
+     * @param sampler  takes a sample, or returns null when there is nothing to sample yet
+     */
+    private Sampling monitorStats(ThrowingSupplier<ResourceUsage, IOException> sampler) {
+        if (interval <= 0) {
+            return null;
+        }
+        Sampling sampling = new Sampling();
+        AtomicBoolean running = new AtomicBoolean(false);
+        sampling.future = samplingExecutor.scheduleAtFixedRate(() -> {
+            if (!running.compareAndSet(false, true)) {
+                return;
+            }
+            statsExecutor.execute(() -> {
+                try {
+                    ResourceUsage sample = sampler.get();
+                    if (sample != null) {
+                        sampling.usage.update(sample);
+                    }
+                } catch (IOException e) {
+                    logger.debug("No stats for container: " + e.getMessage());
+                } finally {
+                    running.set(false);
+                }
+            });
+        }, 0, interval, TimeUnit.MILLISECONDS);
+        return sampling;
+    }
+
+    /**
+     * @return String  standard output of a command
+     * @throws IOException  when the command fails
+     */
+    private String runForOutput(List<String> command) throws IOException {
+        Process process = new ProcessBuilder(command).start();
+        try {
+            String output = IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8).trim();
+            if (process.waitFor() != 0) {
+                throw new IOException(String.join(" ", command) + " failed: "
+                    + IOUtils.toString(process.getErrorStream(), StandardCharsets.UTF_8).trim());
+            }
+            return output;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(String.join(" ", command) + " has been interrupted.", e);
+        } finally {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Periodic sampling of the resources used by a command.
+     */
+    static class Sampling {
+        final ResourceUsage usage = new ResourceUsage();
+        ScheduledFuture<?> future;
+    }
+
+}
@@ -0,0 +1,765 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.command;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.pivovarit.function.ThrowingRunnable;
+import com.pivovarit.function.ThrowingSupplier;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs and supervises the commands of the ETL steps.
+ *
+ * A command that runs longer than the timeout of its step ('command.timeout.'
+ * followed by the step name, in seconds; default 'command.timeout', 0 means
+ * no limit) is stopped, and completes with exit code TIMEOUT. A process is
+ * killed with all its descendants. The container of a 'docker run' is
+ * removed; the CLI command gets a container name for that. The processes of
+ * a 'docker exec' get the environment variable COMMAND_MARKER, and are
+ * killed by a second exec in the container, which is left running for the
+ * next commands. Processes complete through Process.onExit() when the JVM
+ * supports it, so that no thread has to wait for them.
+ *
+ * When 'docker.engine.enable' is true, 'docker run', 'docker exec' and
+ * 'docker restart' commands are sent to the Docker Engine API instead of
+ * being forked as docker CLI processes: the output of the container is
+ * streamed into the log file while the command runs, and the time from
+ * creating a container until it has started is recorded per step. Other
+ * commands, docker commands with options that are not supported, and all
+ * commands while the Docker daemon does not answer a ping, are run as a
+ * process.
+ *
+ * The resources used by a command are sampled by the CommandResourceMonitor.
+ * The docker CLI process itself is not sampled, nor is a 'docker exec'
+ * command, since its container also runs other commands. logSummary() logs
+ * the commands that timed out, the container start latencies and the
+ * resources used per step, once per run.
+ */
+@Component
+public class CommandRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommandRunner.class);
+
+    /**
+     * Exit code of commands that were stopped because they ran longer than
+     * the timeout of their step.
+     */
+    public static final int TIMEOUT = -1;
+
+    /**
+     * Environment variable that marks the processes of a 'docker exec'
+     * command, so that they can be found in the container.
+     */
+    static final String COMMAND_MARKER = "CBIOPORTAL_STAGING_COMMAND";
+
+    // options of 'docker exec' that take a value
+    private static final List<String> EXEC_VALUE_OPTIONS = Arrays.asList(
+        "-e", "--env", "--env-file", "-u", "--user", "-w", "--workdir", "--detach-keys");
+
+    @Value("${docker.engine.enable:false}")
+    private boolean engineEnabled;
+
+    @Value("${command.timeout:0}")
+    private long defaultTimeout;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private DockerEngineClient client;
+
+    @Autowired
+    private CommandResourceMonitor resourceMonitor;
+
+    private ExecutorService logExecutor;
+    private ScheduledExecutorService supervisorExecutor;
+    private final ProcResourceSampler procSampler = new ProcResourceSampler();
+
+    private final AtomicLong timedOutCommands = new AtomicLong();
+    private final Map<String, Long> totalStartLatencies = new TreeMap<>();
+    private final Map<String, Integer> containerStarts = new HashMap<>();
+    private long engineCheckedAt = -1;
+    private boolean engineAvailable;
+
+    @PostConstruct
+    void initExecutors() {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        logExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "command-output-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        supervisorExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "command-supervisor");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdownExecutors() {
+        logExecutor.shutdownNow();
+        supervisorExecutor.shutdownNow();
+    }
+
+    /**
+     * Run a command and append its output (stdout and stderr) to a log file.
+     *
+     * @param step  name of the step, e.g. 'validation'
+     * @param command  command to run
+     * @param logFile  file the output is appended to
+     * @return int  exit code of the command, or TIMEOUT
+     * @throws IOException
+     * @throws InterruptedException  the command is stopped as well
+     */
+    public int run(String step, ProcessBuilder command, File logFile) throws IOException, InterruptedException {
+        return await(step, start(step, command, logFile));
+    }
+
+    /**
+     * Run a command and copy its output (stdout and stderr) to a stream.
+     *
+     * @param step  name of the step, e.g. 'validation'
+     * @param command  command to run
+     * @param out  receives the output
+     * @return int  exit code of the command, or TIMEOUT
+     * @throws IOException
+     * @throws InterruptedException  the command is stopped as well
+     */
+    public int run(String step, ProcessBuilder command, OutputStream out) throws IOException, InterruptedException {
+        return await(step, start(step, command, out));
+    }
+
+    /**
+     * Start a command that appends its output (stdout and stderr) to a log file.
+     * The resources used by the command are appended to the log file as well.
+     *
+     * @param step  name of the step, e.g. 'validation'
+     * @param command  command to run
+     * @param logFile  file the output is appended to
+     * @return CompletableFuture  completes with the exit code of the command, or
+     *                            TIMEOUT; cancelling it stops the command
+     * @throws IOException
+     */
+    public CompletableFuture<Integer> start(String step, ProcessBuilder command, File logFile) throws IOException {
+        if (toEngineCommand(command.command()) == null) {
+            command.redirectErrorStream(true);
+            command.redirectOutput(Redirect.appendTo(logFile));
+            return start(step, command, null, logFile);
+        }
+        OutputStream out = new FileOutputStream(logFile, true);
+        try {
+            CompletableFuture<Integer> result = start(step, command, out, logFile);
+            result.whenComplete((exitCode, e) -> close(out));
+            return result;
+        } catch (IOException | RuntimeException e) {
+            close(out);
+            throw e;
+        }
+    }
+
+    /**
+     * Start a command that copies its output (stdout and stderr) to a stream.
+     *
+     * @param step  name of the step, e.g. 'validation'
+     * @param command  command to run
+     * @param out  receives the output
+     * @return CompletableFuture  completes with the exit code of the command, or
+     *                            TIMEOUT; cancelling it stops the command
+     * @throws IOException
+     */
+    public CompletableFuture<Integer> start(String step, ProcessBuilder command, OutputStream out) throws IOException {
+        return start(step, command, out, null);
+    }
+
+    /**
+     * @param out  receives the output, or null when the output of the process is redirected
+     * @param logFile  log file of the study, or null
+     */
+    private CompletableFuture<Integer> start(String step, ProcessBuilder command, OutputStream out, File logFile)
+            throws IOException {
+        EngineCommand engineCommand = toEngineCommand(command.command());
+        if (engineCommand == null) {
+            CliCommand cliCommand = prepareDockerCli(step, command);
+            command.redirectErrorStream(true);
+            Process process = command.start();
+            CompletableFuture<Integer> exit = onExit(process).thenApply(Process::exitValue);
+            if (out != null) {
+                CompletableFuture<Void> output = CompletableFuture.runAsync(ThrowingRunnable.sneaky(() -> {
+                    try (InputStream in = process.getInputStream()) {
+                        IOUtils.copy(in, out);
+                    }
+                }), logExecutor);
+                exit = exit.thenCombine(output, (exitCode, copied) -> exitCode);
+            }
+            CommandResourceMonitor.Sampling sampling;
+            if (cliCommand.run) {
+                sampling = resourceMonitor.monitorCliContainer(cliCommand.container);
+            } else if (cliCommand.container != null) {
+                // an exec runs in the cgroup of the whole container, so it is not sampled
+                sampling = null;
+            } else {
+                sampling = resourceMonitor.monitorProcess(pid(process));
+            }
+            return supervise(step, exit, () -> {
+                cliCommand.stop.run();
+                destroyTree(process);
+            }, sampling, logFile);
+        }
+        if (engineCommand.restart) {
+            // a restart cannot be stopped, the step only completes with TIMEOUT
+            return supervise(step, CompletableFuture.supplyAsync(ThrowingSupplier.sneaky(() -> {
+                client.restartContainer(engineCommand.container);
+                return 0;
+            }), logExecutor), () -> { }, null, logFile);
+        }
+        if (engineCommand.container != null) {
+            // the Engine API cannot stop a single exec, so its processes are killed by another exec
+            String marker = COMMAND_MARKER + "=" + UUID.randomUUID();
+            return supervise(step, CompletableFuture.supplyAsync(ThrowingSupplier.sneaky(() ->
+                client.exec(engineCommand.container, engineCommand.workDir, Collections.singletonList(marker),
+                    engineCommand.command, out)), logExecutor),
+                () -> killExec(engineCommand.container, marker), null, logFile);
+        }
+        AtomicReference<String> containerId = new AtomicReference<>();
+        return supervise(step, CompletableFuture.supplyAsync(ThrowingSupplier.sneaky(() ->
+            runContainer(step, engineCommand, containerId, out)), logExecutor), () -> {
+                if (containerId.get() != null) {
+                    removeContainer(containerId.get());
+                }
+            }, resourceMonitor.monitorContainer(containerId::get), logFile);
+    }
+
+    /**
+     * @return long  timeout in seconds of the commands of a step, 0 when there is no timeout
+     */
+    public long getTimeout(String step) {
+        return environment.getProperty("command.timeout." + step, Long.class, defaultTimeout);
+    }
+
+    /**
+     * Resources used by the last command that wrote to a log file. The usage
+     * is removed, so that it can be taken only once.
+     *
+     * @param logFile  log file passed to run()
+     * @return ResourceUsage  the usage, or null when it was not sampled
+     */
+    public ResourceUsage takeResourceUsage(File logFile) {
+        return resourceMonitor.takeResourceUsage(logFile);
+    }
+
+    /**
+     * Log the commands that timed out, the average container start latency
+     * and the resources used of each step since the previous summary.
+     */
+    public synchronized void logSummary() {
+        long timedOut = timedOutCommands.getAndSet(0);
+        if (timedOut > 0) {
+            logger.warn(timedOut + " commands were stopped because they did not finish within their timeout.");
+        }
+        totalStartLatencies.keySet().forEach(step -> logger.info("Containers for " + step + " started in "
+            + getAverageStartLatency(step) + " ms on average (" + containerStarts.get(step) + " containers)."));
+        totalStartLatencies.clear();
+        containerStarts.clear();
+        resourceMonitor.logSummary();
+    }
+
+    /**
+     * @return long  number of commands that were stopped because they timed out since the previous summary
+     */
+    long getTimedOutCommands() {
+        return timedOutCommands.get();
+    }
+
+    /**
+     * @return long  average time in ms from creating until starting the containers of a step, or -1
+     */
+    synchronized long getAverageStartLatency(String step) {
+        Integer starts = containerStarts.get(step);
+        return starts == null ? -1 : totalStartLatencies.get(step) / starts;
+    }
+
+    synchronized void recordStartLatency(String step, long millis) {
+        totalStartLatencies.merge(step, millis, Long::sum);
+        containerStarts.merge(step, 1, Integer::sum);
+    }
+
+    /**
+     * Complete with the exit code of a command, or with TIMEOUT when the
+     * command is stopped by the timeout of its step.
+     *
+     * @param sampling  samples the resources used by the command, or null
+     * @param logFile  log file the resources used are added to, or null
+     */
+    private CompletableFuture<Integer> supervise(String step, CompletableFuture<Integer> command, Runnable stop,
+            CommandResourceMonitor.Sampling sampling, File logFile) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        AtomicBoolean timedOut = new AtomicBoolean(false);
+        long timeout = getTimeout(step);
+        ScheduledFuture<?> timer = null;
+        if (timeout > 0) {
+            timer = supervisorExecutor.schedule(() -> {
+                timedOut.set(true);
+                timedOutCommands.incrementAndGet();
+                logger.error("Command of step " + step + " did not finish within " + timeout + " seconds, stopping it.");
+                logExecutor.execute(stop);
+            }, timeout, TimeUnit.SECONDS);
+        }
+        ScheduledFuture<?> scheduledTimer = timer;
+        command.whenComplete((exitCode, e) -> {
+            if (scheduledTimer != null) {
+                scheduledTimer.cancel(false);
+            }
+            if (sampling != null) {
+                resourceMonitor.record(step, sampling, logFile);
+            }
+            if (timedOut.get()) {
+                result.complete(TIMEOUT);
+            } else if (e != null) {
+                result.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else {
+                result.complete(exitCode);
+            }
+        });
+        result.whenComplete((exitCode, e) -> {
+            if (result.isCancelled()) {
+                logger.warn("Command of step " + step + " has been cancelled, stopping it.");
+                stop.run();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Process.pid() is available from Java 9 on; on Java 8 the pid is read
+     * from the field of the UNIXProcess implementation.
+     *
+     * @return long  process id, or -1 when it is not available
+     */
+    private long pid(Process process) {
+        try {
+            return (Long) Process.class.getMethod("pid").invoke(process);
+        } catch (ReflectiveOperationException e) {
+            try {
+                Field pid = process.getClass().getDeclaredField("pid");
+                pid.setAccessible(true);
+                return pid.getInt(process);
+            } catch (ReflectiveOperationException | RuntimeException e2) {
+                return -1;
+            }
+        }
+    }
+
+    private int await(String step, CompletableFuture<Integer> command) throws IOException, InterruptedException {
+        try {
+            return command.get();
+        } catch (InterruptedException e) {
+            command.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("The command of step " + step + " failed.", e.getCause());
+        }
+    }
+
+    /**
+     * Process.onExit() is available from Java 9 on; on Java 8 a thread waits
+     * for the process instead.
+     */
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Process> onExit(Process process) {
+        try {
+            return (CompletableFuture<Process>) Process.class.getMethod("onExit").invoke(process);
+        } catch (ReflectiveOperationException e) {
+            return CompletableFuture.supplyAsync(ThrowingSupplier.sneaky(() -> {
+                process.waitFor();
+                return process;
+            }), logExecutor);
+        }
+    }
+
+    /**
+     * Kill a process and its descendants, e.g. the python processes started
+     * by a shell script. Descendants are listed through ProcessHandle from
+     * Java 9 on, and from /proc on Java 8.
+     */
+    void destroyTree(Process process) {
+        List<Object> descendants = new ArrayList<>();
+        Method destroyDescendant = null;
+        try {
+            Class<?> handleClass = Class.forName("java.lang.ProcessHandle");
+            Object handle = Process.class.getMethod("toHandle").invoke(process);
+            ((Stream<?>) handleClass.getMethod("descendants").invoke(handle)).forEach(descendants::add);
+            destroyDescendant = handleClass.getMethod("destroyForcibly");
+        } catch (ReflectiveOperationException e) {
+            destroyTreeFromProc(process);
+            return;
+        }
+        process.destroyForcibly();
+        for (Object descendant : descendants) {
+            try {
+                destroyDescendant.invoke(descendant);
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Child process could not be killed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Kill a process and the descendants listed in /proc. The descendants are
+     * listed before the process is killed, since they are re-parented then.
+     */
+    void destroyTreeFromProc(Process process) {
+        long pid = pid(process);
+        List<Long> descendants = pid >= 0 && procSampler.isAvailable()
+            ? procSampler.descendants(pid) : Collections.emptyList();
+        if (pid < 0 || !procSampler.isAvailable()) {
+            logger.warn("Child processes cannot be listed, only the command itself is killed.");
+        }
+        process.destroyForcibly();
+        if (!descendants.isEmpty()) {
+            List<String> kill = new ArrayList<>(Arrays.asList("kill", "-KILL"));
+            descendants.forEach(descendant -> kill.add(String.valueOf(descendant)));
+            runQuietly(kill);
+        }
+    }
+
+    /**
+     * Prepare a 'docker run' or 'docker exec' command that is run through the
+     * docker CLI, so that what it started in Docker can be stopped: killing
+     * the CLI process does not stop the container or the exec.
+     *
+     * @param command  command of the step, changed in place
+     * @return CliCommand  the container of the command, and how to stop it
+     */
+    CliCommand prepareDockerCli(String step, ProcessBuilder command) {
+        List<String> args = new ArrayList<>(command.command());
+        CliCommand cliCommand = new CliCommand();
+        if (args.size() < 3 || !args.get(0).equals("docker")) {
+            return cliCommand;
+        }
+        if (args.get(1).equals("run")) {
+            String name = null;
+            for (int i = 2; i < args.size(); i++) {
+                if (args.get(i).equals("--name") && i + 1 < args.size()) {
+                    name = args.get(i + 1);
+                    break;
+                }
+                if (args.get(i).startsWith("--name=")) {
+                    name = args.get(i).substring("--name=".length());
+                    break;
+                }
+            }
+            if (name == null) {
+                name = "cbioportal-staging-" + step.replaceAll("[^a-zA-Z0-9_.-]", "-") + "-" + UUID.randomUUID();
+                args.addAll(2, Arrays.asList("--name", name));
+                command.command(args);
+            }
+            String container = name;
+            cliCommand.run = true;
+            cliCommand.container = container;
+            cliCommand.stop = () -> runQuietly(Arrays.asList("docker", "rm", "-f", container));
+            return cliCommand;
+        }
+        if (args.get(1).equals("exec")) {
+            int i = 2;
+            while (i < args.size() && args.get(i).startsWith("-")) {
+                i += EXEC_VALUE_OPTIONS.contains(args.get(i)) ? 2 : 1;
+            }
+            if (i + 1 >= args.size()) {
+                return cliCommand;
+            }
+            String container = args.get(i);
+            String marker = COMMAND_MARKER + "=" + UUID.randomUUID();
+            args.addAll(2, Arrays.asList("-e", marker));
+            command.command(args);
+            cliCommand.container = container;
+            cliCommand.stop = () -> runQuietly(Arrays.asList("docker", "exec", container, "sh", "-c", killScript(marker)));
+        }
+        return cliCommand;
+    }
+
+    /**
+     * @param marker  environment variable 'COMMAND_MARKER=id' of the processes to kill
+     * @return String  shell script that kills all processes with the marker
+     */
+    static String killScript(String marker) {
+        return "for p in /proc/[0-9]*; do"
+            + " if tr '\\0' '\\n' < $p/environ 2>/dev/null | grep -qx '" + marker + "'; then"
+            + " kill -KILL ${p#/proc/} 2>/dev/null; fi; done; true";
+    }
+
+    private void killExec(String container, String marker) {
+        try {
+            int exitCode = client.exec(container, null, Arrays.asList("sh", "-c", killScript(marker)),
+                NullOutputStream.NULL_OUTPUT_STREAM);
+            if (exitCode != 0) {
+                logger.warn("Command in container " + container + " could not be killed, exit code " + exitCode + ".");
+            }
+        } catch (IOException e) {
+            logger.warn("Command in container " + container + " could not be killed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Run a command that stops another one, and log when it fails.
+     */
+    private void runQuietly(List<String> command) {
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            if (!process.waitFor(1, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+                logger.warn("Command did not finish within a minute: " + String.join(" ", command));
+            } else if (process.exitValue() != 0) {
+                logger.warn("Command failed: " + String.join(" ", command) + ": "
+                    + IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8).trim());
+            }
+        } catch (IOException e) {
+            logger.warn("Command failed: " + String.join(" ", command) + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void removeContainer(String id) {
+        try {
+            client.removeContainer(id);
+        } catch (IOException e) {
+            logger.warn("Container " + id + " could not be removed: " + e.getMessage());
+        }
+    }
+
+    private void close(OutputStream out) {
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.warn("Log file could not be closed: " + e.getMessage());
+        }
+    }
+
+    private int runContainer(String step, EngineCommand command, AtomicReference<String> containerId,
+            OutputStream out) throws IOException, InterruptedException {
+        long created = System.currentTimeMillis();
+        String id = client.createContainer(command.name, command.config);
+        containerId.set(id);
+        try {
+            client.startContainer(id);
+            long latency = System.currentTimeMillis() - created;
+            recordStartLatency(step, latency);
+            logger.info("Container for " + step + " started in " + latency + " ms.");
+
+            CompletableFuture<Void> logs = CompletableFuture.runAsync(
+                ThrowingRunnable.sneaky(() -> client.streamLogs(id, out)), logExecutor);
+            int exitCode = client.waitContainer(id);
+            try {
+                logs.get();
+            } catch (ExecutionException e) {
+                logger.warn("Output of the container for " + step + " is incomplete: " + e.getCause().getMessage());
+            }
+            return exitCode;
+        } finally {
+            removeContainer(id);
+        }
+    }
+
+    /**
+     * Translate a 'docker run', 'docker exec' or 'docker restart' command to a
+     * request for the Docker Engine API.
+     *
+     * @return EngineCommand  the translated command, or null when the Engine API
+     *                        is disabled or cannot be reached, or the command has
+     *                        options that are not supported
+     */
+    EngineCommand toEngineCommand(List<String> command) {
+        if (!engineEnabled || command.size() < 3 || !command.get(0).equals("docker")) {
+            return null;
+        }
+        EngineCommand engineCommand = null;
+        if (command.get(1).equals("run")) {
+            engineCommand = toRunCommand(command);
+        } else if (command.get(1).equals("exec")) {
+            engineCommand = toExecCommand(command);
+        } else if (command.get(1).equals("restart") && command.size() == 3 && !command.get(2).startsWith("-")) {
+            engineCommand = new EngineCommand();
+            engineCommand.restart = true;
+            engineCommand.container = command.get(2);
+        }
+        return engineCommand != null && isEngineAvailable() ? engineCommand : null;
+    }
+
+    /**
+     * Ping the Docker daemon at most once a minute, so that the docker CLI is
+     * used while the Engine API cannot be reached.
+     */
+    private synchronized boolean isEngineAvailable() {
+        long now = System.currentTimeMillis();
+        if (engineCheckedAt < 0 || now - engineCheckedAt >= TimeUnit.MINUTES.toMillis(1)) {
+            engineCheckedAt = now;
+            try {
+                client.ping();
+                engineAvailable = true;
+            } catch (IOException e) {
+                logger.warn("Docker Engine API cannot be reached, using the docker CLI: " + e.getMessage());
+                engineAvailable = false;
+            }
+        }
+        return engineAvailable;
+    }
+
+    private EngineCommand toRunCommand(List<String> command) {
+        EngineCommand engineCommand = new EngineCommand();
+        ObjectNode config = client.getMapper().createObjectNode();
+        ObjectNode hostConfig = config.putObject("HostConfig");
+        ArrayNode binds = hostConfig.putArray("Binds");
+        config.put("AttachStdout", true);
+        config.put("AttachStderr", true);
+        int i = 2;
+        for (; i < command.size() && command.get(i).startsWith("-"); i++) {
+            String option = command.get(i);
+            if (option.equals("-i") || option.equals("--rm")) {
+                // no input is sent, and the container is removed after it has stopped
+                continue;
+            }
+            if (i + 1 >= command.size()) {
+                return null;
+            }
+            String value = command.get(++i);
+            switch (option) {
+                case "--net":
+                case "--network":
+                    hostConfig.put("NetworkMode", value);
+                    break;
+                case "-v":
+                case "--volume":
+                    binds.add(value);
+                    break;
+                case "-w":
+                case "--workdir":
+                    config.put("WorkingDir", value);
+                    break;
+                case "--entrypoint":
+                    config.putArray("Entrypoint").add(value);
+                    break;
+                case "--name":
+                    engineCommand.name = value;
+                    break;
+                default:
+                    return null;
+            }
+        }
+        if (i >= command.size()) {
+            return null;
+        }
+        config.put("Image", command.get(i));
+        List<String> cmd = command.subList(i + 1, command.size());
+        if (!cmd.isEmpty()) {
+            config.putPOJO("Cmd", new ArrayList<>(cmd));
+        }
+        engineCommand.config = config;
+        return engineCommand;
+    }
+
+    private EngineCommand toExecCommand(List<String> command) {
+        EngineCommand engineCommand = new EngineCommand();
+        int i = 2;
+        for (; i < command.size() && command.get(i).startsWith("-"); i++) {
+            String option = command.get(i);
+            if (option.equals("-i")) {
+                continue;
+            }
+            if ((option.equals("-w") || option.equals("--workdir")) && i + 1 < command.size()) {
+                engineCommand.workDir = command.get(++i);
+            } else {
+                return null;
+            }
+        }
+        if (i + 1 >= command.size()) {
+            return null;
+        }
+        engineCommand.container = command.get(i);
+        engineCommand.command = new ArrayList<>(command.subList(i + 1, command.size()));
+        return engineCommand;
+    }
+
+    /**
+     * Docker command run through the docker CLI.
+     */
+    static class CliCommand {
+        // container of a 'docker run' or 'docker exec' command, or null for other commands
+        String container;
+        boolean run;
+        Runnable stop = () -> { };
+    }
+
+    /**
+     * Docker command for the Engine API: either a container to run, a command
+     * to run in an existing container, or a container to restart.
+     */
+    static class EngineCommand {
+        String name;
+        ObjectNode config;
+        String container;
+        String workDir;
+        List<String> command;
+        boolean restart;
+    }
+
+}
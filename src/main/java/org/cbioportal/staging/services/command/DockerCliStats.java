@@ -0,0 +1,117 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.command;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Resources used by a container started through the docker CLI, from the
+ * samples of 'docker stats --no-stream --format {{json .}}'. The CLI only
+ * reports the current CPU percentage, so the CPU time is the integral of
+ * the percentages over the time between the samples. Memory is the highest
+ * usage of the samples, and I/O the last BlockIO.
+ */
+class DockerCliStats {
+
+    private static final Pattern SIZE = Pattern.compile("([0-9.]+)\\s*([a-zA-Z]*)");
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private long lastSample;
+    private double cpuMillis;
+    private long peakMemory;
+
+    /**
+     * @param started  time in ms the container was started
+     */
+    DockerCliStats(long started) {
+        this.lastSample = started;
+    }
+
+    /**
+     * @param json  line of 'docker stats' output
+     * @param now  time in ms of the sample
+     * @return ResourceUsage  usage of the container up to the sample
+     * @throws IOException  when the line cannot be parsed
+     */
+    synchronized ResourceUsage update(String json, long now) throws IOException {
+        JsonNode stats = mapper.readTree(json);
+        if (stats == null || !stats.has("CPUPerc")) {
+            throw new IOException("Unexpected docker stats output: " + json);
+        }
+        double cpuPercentage = parseNumber(stats.path("CPUPerc").asText().replace("%", "").trim());
+        cpuMillis += cpuPercentage / 100 * Math.max(0, now - lastSample);
+        lastSample = now;
+        peakMemory = Math.max(peakMemory, parseSize(firstPart(stats.path("MemUsage").asText())));
+        String[] blockIO = stats.path("BlockIO").asText().split("/");
+        long read = parseSize(blockIO[0]);
+        long written = blockIO.length > 1 ? parseSize(blockIO[1]) : 0;
+        return new ResourceUsage(Math.round(cpuMillis), peakMemory, read, written);
+    }
+
+    private static String firstPart(String value) {
+        int slash = value.indexOf('/');
+        return slash < 0 ? value : value.substring(0, slash);
+    }
+
+    /**
+     * @param size  size as printed by docker, e.g. '1.5GiB' (binary units) or '12.3MB' (decimal units)
+     * @return long  number of bytes, 0 when the size cannot be parsed
+     */
+    static long parseSize(String size) {
+        Matcher matcher = SIZE.matcher(size.trim());
+        if (!matcher.matches()) {
+            return 0;
+        }
+        double value = parseNumber(matcher.group(1));
+        switch (matcher.group(2).toLowerCase()) {
+            case "":
+            case "b":
+                return Math.round(value);
+            case "kb":
+                return Math.round(value * 1e3);
+            case "mb":
+                return Math.round(value * 1e6);
+            case "gb":
+                return Math.round(value * 1e9);
+            case "tb":
+                return Math.round(value * 1e12);
+            case "kib":
+                return Math.round(value * 1024);
+            case "mib":
+                return Math.round(value * 1024 * 1024);
+            case "gib":
+                return Math.round(value * 1024 * 1024 * 1024);
+            case "tib":
+                return Math.round(value * 1024 * 1024 * 1024 * 1024);
+            default:
+                return 0;
+        }
+    }
+
+    private static double parseNumber(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+}
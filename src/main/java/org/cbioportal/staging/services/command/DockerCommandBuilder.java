@@ -35,9 +35,14 @@ import org.springframework.stereotype.Component;
 @ConditionalOnProperty(value="cbioportal.mode", havingValue = "docker")
 public class DockerCommandBuilder implements ICommandBuilder {
 
+    private static final Logger logger = LoggerFactory.getLogger(DockerCommandBuilder.class);
+
     @Autowired
 	private ResourceUtils utils;
 
+    @Autowired
+    private DockerContainerPool containerPool;
+
 	@Value("${cbioportal.docker.image}")
 	private String cbioportalDockerImage;
 
@@ -53,6 +58,12 @@ public class DockerCommandBuilder implements ICommandBuilder {
             String propertiesFilePath = utils.getFile(cbioportalDockerPropertiesFile).getAbsolutePath();
             String portalInfoPath = utils.getFile(portalInfoFolder).getAbsolutePath();
 
+            ProcessBuilder pooledCmd = pooledCommand(new Resource[] { portalInfoFolder },
+                "/cbioportal/core/src/main/scripts", "./dumpPortalInfo.pl", portalInfoPath);
+            if (pooledCmd != null) {
+                return pooledCmd;
+            }
+
             ProcessBuilder portalInfoCmd = new ProcessBuilder("docker", "run", "--rm", "--net", cbioportalDockerNetwork,
             "-v", portalInfoPath + ":/portalinfo",
             "-v", propertiesFilePath + ":/cbioportal/portal.properties:ro",
@@ -77,6 +88,12 @@ public class DockerCommandBuilder implements ICommandBuilder {
             String studyDirPath = utils.getFile(studyPath).getAbsolutePath();
             String reportFilePath = utils.getFile(reportFile).getAbsolutePath();
             String portalInfoPath = utils.getFile(portalInfoFolder).getAbsolutePath();
+
+            ProcessBuilder pooledCmd = pooledCommand(new Resource[] { studyPath, portalInfoFolder, reportFile }, null,
+                "validateData.py", "-p", portalInfoPath, "-s", studyDirPath, "-html", reportFilePath);
+            if (pooledCmd != null) {
+                return pooledCmd;
+            }
             
             //docker command:
             ProcessBuilder validationCmd = new ProcessBuilder ("docker", "run", "-i", "--rm",
@@ -101,6 +118,11 @@ public class DockerCommandBuilder implements ICommandBuilder {
             if (!cbioportalDockerImage.equals("") && !cbioportalDockerNetwork.equals("")) {
                 String propertiesFilePath = utils.getFile(cbioportalDockerPropertiesFile).getAbsolutePath();
                 String studyDirPath = utils.getFile(studyPath).getAbsolutePath();
+                ProcessBuilder pooledCmd = pooledCommand(new Resource[] { studyPath }, null,
+                    "cbioportalImporter.py", "-s", studyDirPath);
+                if (pooledCmd != null) {
+                    return pooledCmd;
+                }
                 loaderCmd = new ProcessBuilder ("docker", "run", "-i", "--rm", "--net", cbioportalDockerNetwork,
                 "-v", studyDirPath + ":/study:ro",
                 "-v", propertiesFilePath+":/cbioportal/portal.properties:ro",
@@ -114,4 +136,21 @@ public class DockerCommandBuilder implements ICommandBuilder {
             throw new CommandBuilderException("CommandBuilder experiences File IO problems.", e);
         }
     }
+
+    /**
+     * @param files  files and directories used by the command
+     * @return ProcessBuilder  'docker exec' command for the container pool, or null
+     *                         when the pool is disabled or cannot be used for the files
+     */
+    private ProcessBuilder pooledCommand(Resource[] files, String workDir, String... command) {
+        if (!containerPool.canExec(files)) {
+            return null;
+        }
+        try {
+            return containerPool.exec(workDir, command);
+        } catch (CommandBuilderException e) {
+            logger.warn("Container pool is not available, starting a new container: " + e.getMessage());
+            return null;
+        }
+    }
 }
@@ -18,14 +18,13 @@ package org.cbioportal.staging.services.command;
 import org.cbioportal.staging.exceptions.RestarterException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Component;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.Arrays;
 import java.util.List;
 
@@ -48,6 +47,9 @@ public class DockerComposeRestarter implements IRestarter {
     @Value("${cbioportal.compose.context:/cbioportal-staging/}")
     private String composeContext;
 
+    @Autowired
+    private CommandRunner commandRunner;
+
 	public void restart() throws RestarterException {
         try {
             logger.info("Restarting cBioPortal...");
@@ -56,14 +58,13 @@ public class DockerComposeRestarter implements IRestarter {
             );
             ProcessBuilder restarterCmd = dockerComposeProcessBuilder(composeContext, composeExtensions, commands);
             logger.info("Executing command: "+String.join(" ", restarterCmd.command()));
-            Process restartProcess = restarterCmd.start();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(restartProcess.getErrorStream()));
-            String line = null;
-            while ((line = reader.readLine()) != null)
-            {
-                logger.info(line); //Print output if an error occurs
+            int exitValue;
+            try (LineOutputStream output = new LineOutputStream(logger::info)) {
+                exitValue = commandRunner.run("restart", restarterCmd, output);
+            }
+            if (exitValue == CommandRunner.TIMEOUT) {
+                throw new RestarterException("Restart of cBioPortal timed out.");
             }
-            restartProcess.waitFor();
             logger.info("cBioPortal successfully restarted.");
         }  catch (IOException e) {
             throw new RestarterException("The cBioPortal container specified in the command do not exist, "+
@@ -0,0 +1,366 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.cbioportal.staging.exceptions.CommandBuilderException;
+import org.cbioportal.staging.exceptions.ResourceUtilsException;
+import org.cbioportal.staging.services.resource.ResourceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pool of long-lived cBioPortal containers into which the commands of
+ * DockerCommandBuilder are sent with 'docker exec', so that they do not pay
+ * the start-up of a new container. Enabled when 'cbioportal.docker.pool.size'
+ * is larger than 0.
+ *
+ * The containers run on 'cbioportal.docker.network' with 'etl.working.dir'
+ * mounted at the same path, so that only commands on files in the working
+ * directory can be sent to the pool. Containers are started at the first
+ * command and handed out in turn; several commands can run in a container at
+ * the same time. Every 'cbioportal.docker.pool.check.interval' seconds, and
+ * before a container is handed out when the last check is older than that, it
+ * is checked that the containers are running; stopped containers are replaced.
+ * After 'cbioportal.docker.pool.max.uses' commands a container is replaced,
+ * and it is removed as soon as its last command has finished.
+ *
+ * The containers are labelled with the working directory, so that at the
+ * first command only the containers left behind by an earlier instance with
+ * the same working directory are removed, and not those of other instances
+ * that share the Docker daemon. Their names get an id of this instance.
+ */
+@Component
+@ConditionalOnProperty(value="cbioportal.mode", havingValue = "docker")
+public class DockerContainerPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(DockerContainerPool.class);
+
+    static final String NAME_PREFIX = "cbioportal-staging-pool-";
+    static final String LABEL = "org.cbioportal.staging.pool";
+
+    // docker commands of the pool can pull the image, which takes a while
+    private static final long DOCKER_TIMEOUT_MINUTES = 10;
+
+    @Value("${cbioportal.docker.pool.size:0}")
+    private int size;
+
+    @Value("${cbioportal.docker.pool.max.uses:100}")
+    private int maxUses;
+
+    @Value("${cbioportal.docker.pool.check.interval:60}")
+    private int checkInterval;
+
+    @Value("${cbioportal.docker.image:}")
+    private String cbioportalDockerImage;
+
+    @Value("${cbioportal.docker.network:}")
+    private String cbioportalDockerNetwork;
+
+    @Value("${cbioportal.docker.properties:}")
+    private Resource cbioportalDockerPropertiesFile;
+
+    @Value("${etl.working.dir:}")
+    private Resource etlWorkingDir;
+
+    @Autowired
+    private ResourceUtils utils;
+
+    private ScheduledExecutorService checkScheduler;
+
+    private final String instanceId = UUID.randomUUID().toString().substring(0, 8);
+    private final List<Container> containers = new ArrayList<>();
+    // replaced containers that are removed when their last command has finished
+    private final List<Container> retired = new ArrayList<>();
+    private int next = 0;
+    private int containerNumber = 0;
+    private boolean started = false;
+    private long checkedAt = 0;
+
+    private static class Container {
+        final String name;
+        int uses = 0;
+
+        Container(String name) {
+            this.name = name;
+        }
+    }
+
+    @PostConstruct
+    void initCheckScheduler() {
+        if (!isEnabled()) {
+            return;
+        }
+        checkScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "docker-pool-check");
+            t.setDaemon(true);
+            return t;
+        });
+        checkScheduler.scheduleWithFixedDelay(this::checkContainers, checkInterval, checkInterval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    synchronized void shutdown() {
+        if (checkScheduler != null) {
+            checkScheduler.shutdownNow();
+        }
+        List<Container> all = new ArrayList<>(containers);
+        all.addAll(retired);
+        for (Container container : all) {
+            try {
+                docker("rm", "-f", container.name);
+            } catch (CommandBuilderException e) {
+                logger.warn("Cannot remove pool container " + container.name + ": " + e.getMessage());
+            }
+        }
+        containers.clear();
+        retired.clear();
+        started = false;
+    }
+
+    public boolean isEnabled() {
+        return size > 0;
+    }
+
+    /**
+     * @param files  files and directories that the command reads or writes
+     * @return boolean  true when the pool is enabled and all files are in the mounted working directory
+     */
+    public boolean canExec(Resource... files) {
+        if (!isEnabled() || etlWorkingDir == null) {
+            return false;
+        }
+        try {
+            String workingDir = utils.getFile(etlWorkingDir).getCanonicalPath() + File.separator;
+            for (Resource file : files) {
+                if (!(utils.getFile(file).getCanonicalPath() + File.separator).startsWith(workingDir)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException | ResourceUtilsException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Build a 'docker exec' command for the next container of the pool.
+     *
+     * @param workDir  working directory in the container, or null for the default
+     * @param command  command and arguments to run in the container
+     * @return ProcessBuilder
+     * @throws CommandBuilderException  when no container can be started
+     */
+    public synchronized ProcessBuilder exec(String workDir, String... command) throws CommandBuilderException {
+        if (!started) {
+            removeLeftovers();
+            for (int i = 0; i < size; i++) {
+                containers.add(startContainer());
+            }
+            started = true;
+            checkedAt = System.currentTimeMillis();
+        }
+        if (System.currentTimeMillis() - checkedAt >= TimeUnit.SECONDS.toMillis(checkInterval)) {
+            replaceStopped();
+        }
+        int index = next++ % containers.size();
+        Container container = containers.get(index);
+        if (container.uses >= maxUses) {
+            logger.info("Replacing pool container " + container.name + " after " + container.uses + " commands.");
+            retired.add(container);
+            container = replace(index);
+        }
+        container.uses++;
+
+        List<String> cmd = new ArrayList<>(Arrays.asList("docker", "exec", "-i"));
+        if (workDir != null) {
+            cmd.add("-w");
+            cmd.add(workDir);
+        }
+        cmd.add(container.name);
+        cmd.addAll(Arrays.asList(command));
+        return new ProcessBuilder(cmd);
+    }
+
+    /**
+     * Replace containers that stopped and remove retired containers that are idle.
+     */
+    synchronized void checkContainers() {
+        if (!started) {
+            return;
+        }
+        try {
+            replaceStopped();
+            for (Container container : new ArrayList<>(retired)) {
+                if (isIdle(container)) {
+                    removeQuietly(container);
+                    retired.remove(container);
+                }
+            }
+        } catch (CommandBuilderException e) {
+            logger.warn("Health check of the container pool failed: " + e.getMessage());
+        }
+    }
+
+    synchronized List<String> getContainerNames() {
+        List<String> names = new ArrayList<>();
+        containers.forEach(c -> names.add(c.name));
+        return names;
+    }
+
+    synchronized int getRetiredCount() {
+        return retired.size();
+    }
+
+    /**
+     * Run a docker command and return its output. The output goes to a
+     * temporary file, so that a command that hangs is stopped after
+     * DOCKER_TIMEOUT_MINUTES instead of blocking the pool.
+     */
+    String docker(String... args) throws CommandBuilderException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("docker");
+        cmd.addAll(Arrays.asList(args));
+        File output = null;
+        try {
+            output = File.createTempFile("docker-pool", ".out");
+            Process process = new ProcessBuilder(cmd).redirectErrorStream(true).redirectOutput(output).start();
+            if (!process.waitFor(DOCKER_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+                throw new CommandBuilderException("Command did not finish within " + DOCKER_TIMEOUT_MINUTES
+                    + " minutes: " + String.join(" ", cmd));
+            }
+            String result = new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8).trim();
+            if (process.exitValue() != 0) {
+                throw new CommandBuilderException("Command failed: " + String.join(" ", cmd) + ": " + result);
+            }
+            return result;
+        } catch (IOException e) {
+            throw new CommandBuilderException("Cannot run docker, check if Docker is installed.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandBuilderException("Interrupted while running: " + String.join(" ", cmd), e);
+        } finally {
+            if (output != null) {
+                output.delete();
+            }
+        }
+    }
+
+    /**
+     * Replace the containers that are not running, with a single 'docker ps'
+     * for the whole pool.
+     */
+    private void replaceStopped() throws CommandBuilderException {
+        Set<String> running = new HashSet<>(Arrays.asList(
+            docker("ps", "--filter", "label=" + LABEL + "=" + owner(), "--format", "{{.Names}}").split("\\s+")));
+        checkedAt = System.currentTimeMillis();
+        for (int i = 0; i < containers.size(); i++) {
+            if (!running.contains(containers.get(i).name)) {
+                logger.warn("Pool container " + containers.get(i).name + " is not running, replacing it.");
+                removeQuietly(containers.get(i));
+                replace(i);
+            }
+        }
+    }
+
+    private Container replace(int index) throws CommandBuilderException {
+        Container container = startContainer();
+        containers.set(index, container);
+        return container;
+    }
+
+    private Container startContainer() throws CommandBuilderException {
+        try {
+            String workingDir = owner();
+            String propertiesFilePath = utils.getFile(cbioportalDockerPropertiesFile).getAbsolutePath();
+            Container container = new Container(NAME_PREFIX + instanceId + "-" + (++containerNumber));
+            // a process that does nothing keeps the container running
+            docker("run", "-d", "--name", container.name, "--label", LABEL + "=" + workingDir,
+                "--net", cbioportalDockerNetwork,
+                "-v", workingDir + ":" + workingDir,
+                "-v", propertiesFilePath + ":/cbioportal/portal.properties:ro",
+                "--entrypoint", "tail", cbioportalDockerImage, "-f", "/dev/null");
+            logger.info("Started pool container " + container.name);
+            return container;
+        } catch (ResourceUtilsException e) {
+            throw new CommandBuilderException("File IO problem while starting a pool container", e);
+        }
+    }
+
+    /**
+     * @return boolean  true when only the process that keeps the container running is left
+     */
+    private boolean isIdle(Container container) throws CommandBuilderException {
+        String[] processes = docker("top", container.name).split("\n");
+        // header line and the 'tail' process
+        return processes.length <= 2;
+    }
+
+    private void removeQuietly(Container container) {
+        try {
+            docker("rm", "-f", container.name);
+        } catch (CommandBuilderException e) {
+            logger.warn("Cannot remove pool container " + container.name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remove the pool containers of an earlier instance of the application
+     * with the same working directory.
+     */
+    private void removeLeftovers() throws CommandBuilderException {
+        String leftovers = docker("ps", "-aq", "--filter", "label=" + LABEL + "=" + owner());
+        if (!leftovers.isEmpty()) {
+            List<String> args = new ArrayList<>(Arrays.asList("rm", "-f"));
+            args.addAll(Arrays.asList(leftovers.split("\\s+")));
+            docker(args.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * @return String  working directory, the value of the label of the pool containers
+     */
+    private String owner() throws CommandBuilderException {
+        try {
+            return utils.getFile(etlWorkingDir).getCanonicalPath();
+        } catch (IOException | ResourceUtilsException e) {
+            throw new CommandBuilderException("File IO problem while resolving the working directory of the container pool", e);
+        }
+    }
+
+}
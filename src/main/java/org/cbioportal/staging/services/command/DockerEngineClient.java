@@ -0,0 +1,429 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.command;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.newsclub.net.unix.AFUNIXSocket;
+import org.newsclub.net.unix.AFUNIXSocketAddress;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Minimal client for the Docker Engine API, used by CommandRunner to run
+ * containers without forking the docker CLI. 'docker.host' is the address of
+ * the Docker daemon: 'unix:///var/run/docker.sock' or 'tcp://host:port'.
+ * Every request uses a new connection.
+ *
+ * Connecting and reading a response time out after 'docker.engine.timeout'
+ * seconds, except for the responses that last as long as the command:
+ * the logs and wait of a container, the start of an exec and a restart.
+ */
+@Component
+public class DockerEngineClient {
+
+    private static final String API_VERSION = "v1.40";
+
+    @Value("${docker.host:unix:///var/run/docker.sock}")
+    private String dockerHost;
+
+    @Value("${docker.engine.timeout:30}")
+    private int timeout;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Check that the Docker daemon can be reached.
+     *
+     * @throws IOException  when it cannot be reached
+     */
+    public void ping() throws IOException {
+        request("GET", "/_ping", null).close();
+    }
+
+    /**
+     * Create a container.
+     *
+     * @param name  name of the container, or null
+     * @param config  container configuration as sent to POST /containers/create
+     * @return String  id of the container
+     * @throws IOException
+     */
+    public String createContainer(String name, ObjectNode config) throws IOException {
+        String path = "/containers/create" + (name != null ? "?name=" + encode(name) : "");
+        try (Response response = request("POST", path, config)) {
+            return response.json().get("Id").asText();
+        }
+    }
+
+    public void startContainer(String id) throws IOException {
+        request("POST", "/containers/" + encode(id) + "/start", null).close();
+    }
+
+    /**
+     * Copy the output of a container to 'out' until the container stops.
+     * Output of stdout and stderr is merged.
+     */
+    public void streamLogs(String id, OutputStream out) throws IOException {
+        try (Response response = request("GET", "/containers/" + encode(id) + "/logs?follow=true&stdout=true&stderr=true", null, true)) {
+            demultiplex(response.body, out);
+        }
+    }
+
+    /**
+     * @return int  exit code of the container, after it has stopped
+     */
+    public int waitContainer(String id) throws IOException {
+        try (Response response = request("POST", "/containers/" + encode(id) + "/wait", null, true)) {
+            return response.json().get("StatusCode").asInt();
+        }
+    }
+
+    /**
+     * @return ResourceUsage  CPU time, memory and block I/O of a running container so far
+     */
+    public ResourceUsage containerStats(String id) throws IOException {
+        JsonNode stats;
+        try (Response response = request("GET", "/containers/" + encode(id) + "/stats?stream=false", null)) {
+            stats = response.json();
+        }
+        long cpuMillis = stats.path("cpu_stats").path("cpu_usage").path("total_usage").asLong() / 1000000;
+        JsonNode memory = stats.path("memory_stats");
+        long peakMemory = Math.max(memory.path("max_usage").asLong(), memory.path("usage").asLong());
+        long read = 0;
+        long written = 0;
+        for (JsonNode entry : stats.path("blkio_stats").path("io_service_bytes_recursive")) {
+            if ("read".equalsIgnoreCase(entry.path("op").asText())) {
+                read += entry.path("value").asLong();
+            } else if ("write".equalsIgnoreCase(entry.path("op").asText())) {
+                written += entry.path("value").asLong();
+            }
+        }
+        return new ResourceUsage(cpuMillis, peakMemory, read, written);
+    }
+
+    public void removeContainer(String id) throws IOException {
+        request("DELETE", "/containers/" + encode(id) + "?force=true", null).close();
+    }
+
+    public void restartContainer(String id) throws IOException {
+        request("POST", "/containers/" + encode(id) + "/restart", null, true).close();
+    }
+
+    /**
+     * Run a command in a running container and copy its output to 'out'.
+     *
+     * @param container  name or id of the container
+     * @param workDir  working directory, or null for the default of the container
+     * @param command  command and arguments
+     * @param out  receives stdout and stderr of the command
+     * @return int  exit code of the command
+     * @throws IOException
+     */
+    public int exec(String container, String workDir, List<String> command, OutputStream out) throws IOException {
+        return exec(container, workDir, null, command, out);
+    }
+
+    /**
+     * Run a command in a running container and copy its output to 'out'.
+     *
+     * @param container  name or id of the container
+     * @param workDir  working directory, or null for the default of the container
+     * @param env  environment variables ('NAME=value') added for the command, or null
+     * @param command  command and arguments
+     * @param out  receives stdout and stderr of the command
+     * @return int  exit code of the command
+     * @throws IOException
+     */
+    public int exec(String container, String workDir, List<String> env, List<String> command, OutputStream out)
+            throws IOException {
+        ObjectNode config = mapper.createObjectNode();
+        config.put("AttachStdout", true);
+        config.put("AttachStderr", true);
+        config.putPOJO("Cmd", command);
+        if (workDir != null) {
+            config.put("WorkingDir", workDir);
+        }
+        if (env != null) {
+            config.putPOJO("Env", env);
+        }
+        String execId;
+        try (Response response = request("POST", "/containers/" + encode(container) + "/exec", config)) {
+            execId = response.json().get("Id").asText();
+        }
+        ObjectNode start = mapper.createObjectNode();
+        start.put("Detach", false);
+        start.put("Tty", false);
+        try (Response response = request("POST", "/exec/" + encode(execId) + "/start", start, true)) {
+            demultiplex(response.body, out);
+        }
+        try (Response response = request("GET", "/exec/" + encode(execId) + "/json", null)) {
+            return response.json().get("ExitCode").asInt();
+        }
+    }
+
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Copy the frames of a multiplexed stdout/stderr stream. Every frame has
+     * a header of 8 bytes: the stream type, 3 zero bytes and the size of the
+     * frame as a 4-byte big endian integer.
+     */
+    static void demultiplex(InputStream in, OutputStream out) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] header = new byte[8];
+        while (true) {
+            int read = IOUtils.read(data, header);
+            if (read == 0) {
+                return;
+            }
+            if (read < header.length) {
+                throw new EOFException("Incomplete frame header in container output.");
+            }
+            int size = ((header[4] & 0xff) << 24) | ((header[5] & 0xff) << 16) | ((header[6] & 0xff) << 8) | (header[7] & 0xff);
+            IOUtils.copyLarge(data, out, 0, size);
+            out.flush();
+        }
+    }
+
+    private Response request(String method, String path, JsonNode body) throws IOException {
+        return request(method, path, body, false);
+    }
+
+    /**
+     * @param streaming  true when the response lasts as long as the command, so it has no read timeout
+     */
+    private Response request(String method, String path, JsonNode body, boolean streaming) throws IOException {
+        byte[] content = body != null ? mapper.writeValueAsBytes(body) : new byte[0];
+        Connection connection = connect(streaming ? 0 : (int) TimeUnit.SECONDS.toMillis(timeout));
+        try {
+            StringBuilder request = new StringBuilder();
+            request.append(method).append(" /").append(API_VERSION).append(path).append(" HTTP/1.1\r\n")
+                .append("Host: docker\r\n")
+                .append("Connection: close\r\n");
+            if (body != null) {
+                request.append("Content-Type: application/json\r\n");
+            }
+            request.append("Content-Length: ").append(content.length).append("\r\n\r\n");
+            OutputStream out = connection.out;
+            out.write(request.toString().getBytes(StandardCharsets.US_ASCII));
+            out.write(content);
+            out.flush();
+
+            Response response = new Response(connection);
+            if (response.status >= 300 && response.status != 304) {
+                String message;
+                try {
+                    message = new String(IOUtils.toByteArray(response.body), StandardCharsets.UTF_8).trim();
+                } finally {
+                    response.close();
+                }
+                throw new IOException("Docker Engine API " + method + " " + path + " failed with status "
+                    + response.status + ": " + message);
+            }
+            return response;
+        } catch (IOException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param readTimeout  read timeout in ms, 0 for none
+     */
+    private Connection connect(int readTimeout) throws IOException {
+        URI uri = URI.create(dockerHost);
+        Socket socket;
+        SocketAddress address;
+        if ("tcp".equals(uri.getScheme()) || "http".equals(uri.getScheme())) {
+            socket = new Socket();
+            address = new InetSocketAddress(uri.getHost(), uri.getPort() > 0 ? uri.getPort() : 2375);
+        } else if ("unix".equals(uri.getScheme())) {
+            socket = AFUNIXSocket.newInstance();
+            address = new AFUNIXSocketAddress(new File(uri.getPath()));
+        } else {
+            throw new IOException("Unsupported docker.host: " + dockerHost);
+        }
+        try {
+            socket.connect(address, (int) TimeUnit.SECONDS.toMillis(timeout));
+            socket.setSoTimeout(readTimeout);
+            return new Connection(socket.getInputStream(), socket.getOutputStream(), socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static String encode(String value) throws IOException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    private static class Connection implements Closeable {
+        final InputStream in;
+        final OutputStream out;
+        final Closeable closeable;
+
+        Connection(InputStream in, OutputStream out, Closeable closeable) {
+            this.in = in;
+            this.out = out;
+            this.closeable = closeable;
+        }
+
+        @Override
+        public void close() {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // connection is not used anymore
+            }
+        }
+    }
+
+    /**
+     * HTTP response of which the body can be read incrementally.
+     */
+    private class Response implements Closeable {
+        final int status;
+        final Map<String, String> headers = new HashMap<>();
+        final InputStream body;
+        private final Connection connection;
+
+        Response(Connection connection) throws IOException {
+            this.connection = connection;
+            String statusLine = readLine(connection.in);
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                throw new IOException("Invalid response from the Docker daemon: " + statusLine);
+            }
+            status = Integer.parseInt(parts[1]);
+            String line;
+            while (!(line = readLine(connection.in)).isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                }
+            }
+            if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+                body = new ChunkedInputStream(connection.in);
+            } else if (headers.containsKey("content-length")) {
+                body = new BoundedInputStream(connection.in, Long.parseLong(headers.get("content-length")));
+            } else {
+                body = connection.in;
+            }
+        }
+
+        JsonNode json() throws IOException {
+            return mapper.readTree(body);
+        }
+
+        @Override
+        public void close() {
+            connection.close();
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("Connection to the Docker daemon closed.");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Body with chunked transfer encoding.
+     */
+    private static class ChunkedInputStream extends FilterInputStream {
+        private long remaining = 0;
+        private boolean last = false;
+
+        ChunkedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read < 0) {
+                throw new EOFException("Incomplete chunk in response of the Docker daemon.");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (last) {
+                return false;
+            }
+            if (remaining == 0) {
+                String size = readLine(in);
+                if (size.isEmpty()) {
+                    // end of the previous chunk
+                    size = readLine(in);
+                }
+                int extension = size.indexOf(';');
+                remaining = Long.parseLong((extension >= 0 ? size.substring(0, extension) : size).trim(), 16);
+                if (remaining == 0) {
+                    last = true;
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
@@ -15,13 +15,12 @@
 */
 package org.cbioportal.staging.services.command;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 
 import org.cbioportal.staging.exceptions.RestarterException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Primary;
@@ -37,19 +36,21 @@ public class DockerRestarter implements IRestarter {
 	@Value("${cbioportal.docker.cbio.container}")
 	private String cbioContainer;
 
+    @Autowired
+    private CommandRunner commandRunner;
+
 	public void restart() throws RestarterException {
         try {
             logger.info("Restarting cBioPortal...");
             ProcessBuilder restarterCmd = new ProcessBuilder ("docker", "restart", cbioContainer);
             logger.info("Executing command: "+String.join(" ", restarterCmd.command()));
-            Process restartProcess = restarterCmd.start();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(restartProcess.getErrorStream()));
-            String line = null;
-            while ((line = reader.readLine()) != null)
-            {
-                logger.info(line); //Print output if an error occurs
+            int exitValue;
+            try (LineOutputStream output = new LineOutputStream(logger::info)) {
+                exitValue = commandRunner.run("restart", restarterCmd, output);
+            }
+            if (exitValue == CommandRunner.TIMEOUT) {
+                throw new RestarterException("Restart of cBioPortal timed out.");
             }
-            restartProcess.waitFor();
             logger.info("cBioPortal successfully restarted.");
         }  catch (IOException e) {
             throw new RestarterException("The cBioPortal container specified in the command do not exist, "+
@@ -21,6 +21,7 @@ import java.io.IOException;
 import org.cbioportal.staging.exceptions.RestarterException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Primary;
@@ -36,19 +37,20 @@ public class LocalRestarter implements IRestarter {
 	@Value("${portal.source:.}")
 	private String portalSource;
 
+	@Autowired
+	private CommandRunner commandRunner;
+
 	public void restart() throws RestarterException {
 		try {
 			logger.info("Stopping Tomcat...");
 			ProcessBuilder stopCmd = new ProcessBuilder("catalina", "stop", "-force");
 			stopCmd.directory(new File(portalSource));
 			logger.info("Executing command: "+String.join(" ", stopCmd.command()));
-			Process stopProcess = stopCmd.start();
-			stopProcess.waitFor();
+			run(stopCmd);
 			logger.info("Tomcat successfully stopped. Restarting Tomcat...");
 			ProcessBuilder startCmd = new ProcessBuilder("catalina", "start");
 			startCmd.directory(new File(portalSource));
-			Process startProcess = startCmd.start();
-			startProcess.waitFor();
+			run(startCmd);
 			logger.info("Tomcat successfully restarted.");
 		} catch (IOException e) {
             throw new RestarterException("The cBioPortal container specified in the command do not exist, "+
@@ -58,4 +60,12 @@ public class LocalRestarter implements IRestarter {
         }
 	}
 
+	private void run(ProcessBuilder cmd) throws IOException, InterruptedException, RestarterException {
+		try (LineOutputStream output = new LineOutputStream(logger::info)) {
+			if (commandRunner.run("restart", cmd, output) == CommandRunner.TIMEOUT) {
+				throw new RestarterException("The command " + String.join(" ", cmd.command()) + " timed out.");
+			}
+		}
+	}
+
 }
@@ -0,0 +1,182 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.command;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Samples the resources used by a process and all its descendants from
+ * /proc (Linux only).
+ *
+ * CPU time and I/O of a process include its children that have ended and
+ * were waited for, so that the sum over the running processes of the tree
+ * covers the whole command up to the time of the sample.
+ */
+class ProcResourceSampler {
+
+    // clock ticks per second of the times in /proc/<pid>/stat (USER_HZ), 100 on all common platforms
+    private static final long CLOCK_TICKS = 100;
+
+    private final Path procRoot;
+
+    ProcResourceSampler() {
+        this(Paths.get("/proc"));
+    }
+
+    ProcResourceSampler(Path procRoot) {
+        this.procRoot = procRoot;
+    }
+
+    boolean isAvailable() {
+        return Files.isDirectory(procRoot.resolve("self"));
+    }
+
+    /**
+     * @param pid  process id of the command
+     * @return ResourceUsage  usage of the process and its descendants, or null
+     *                        when the process is not running anymore
+     */
+    ResourceUsage sample(long pid) {
+        Map<Long, String[]> stats = new HashMap<>();
+        Map<Long, List<Long>> children = new HashMap<>();
+        if (!readProcesses(stats, children) || !stats.containsKey(pid)) {
+            return null;
+        }
+
+        long cpuTicks = 0;
+        long rss = 0;
+        long highWaterMark = 0;
+        long read = 0;
+        long written = 0;
+        Deque<Long> tree = new ArrayDeque<>(Collections.singleton(pid));
+        while (!tree.isEmpty()) {
+            long processId = tree.pop();
+            tree.addAll(children.getOrDefault(processId, Collections.emptyList()));
+            String[] stat = stats.get(processId);
+            // utime, stime, cutime and cstime (fields 14 to 17 of /proc/<pid>/stat)
+            for (int i = 11; i <= 14; i++) {
+                cpuTicks += Long.parseLong(stat[i]);
+            }
+            Map<String, String> status = readKeyValues(procRoot.resolve(processId + "/status"));
+            rss += parseKilobytes(status.get("VmRSS"));
+            highWaterMark = Math.max(highWaterMark, parseKilobytes(status.get("VmHWM")));
+            Map<String, String> io = readKeyValues(procRoot.resolve(processId + "/io"));
+            read += parseLong(io.get("read_bytes"));
+            written += parseLong(io.get("write_bytes"));
+        }
+        return new ResourceUsage(cpuTicks * 1000 / CLOCK_TICKS, Math.max(rss, highWaterMark), read, written);
+    }
+
+    /**
+     * List the descendants of a process, e.g. to kill them together with the
+     * process itself, which re-parents them.
+     *
+     * @param pid  process id of the command
+     * @return List  process ids of the descendants, parents before their children
+     */
+    List<Long> descendants(long pid) {
+        Map<Long, List<Long>> children = new HashMap<>();
+        List<Long> descendants = new ArrayList<>();
+        if (!readProcesses(new HashMap<>(), children)) {
+            return descendants;
+        }
+        Deque<Long> tree = new ArrayDeque<>(children.getOrDefault(pid, Collections.emptyList()));
+        while (!tree.isEmpty()) {
+            long processId = tree.pop();
+            descendants.add(processId);
+            tree.addAll(children.getOrDefault(processId, Collections.emptyList()));
+        }
+        return descendants;
+    }
+
+    /**
+     * Read the stat of all processes.
+     *
+     * @param stats  receives the stat fields per process id
+     * @param children  receives the ids of the child processes per parent process id
+     * @return boolean  false when /proc cannot be listed
+     */
+    private boolean readProcesses(Map<Long, String[]> stats, Map<Long, List<Long>> children) {
+        try (DirectoryStream<Path> processes = Files.newDirectoryStream(procRoot, "[0-9]*")) {
+            for (Path process : processes) {
+                String[] stat = readStat(process);
+                if (stat != null) {
+                    long processId = Long.parseLong(process.getFileName().toString());
+                    stats.put(processId, stat);
+                    children.computeIfAbsent(Long.parseLong(stat[1]), k -> new ArrayList<>()).add(processId);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return String[]  fields of /proc/<pid>/stat after the command name,
+     *                   starting with the state; null when the process has ended
+     */
+    private String[] readStat(Path process) {
+        try {
+            String stat = new String(Files.readAllBytes(process.resolve("stat")), StandardCharsets.UTF_8);
+            // the command name can contain spaces and parentheses
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split("\\s+");
+            return fields.length > 14 ? fields : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private Map<String, String> readKeyValues(Path file) {
+        Map<String, String> values = new HashMap<>();
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    values.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+                }
+            }
+        } catch (IOException e) {
+            // process has ended, or its I/O is not readable for this user
+        }
+        return values;
+    }
+
+    private long parseKilobytes(String value) {
+        return value == null ? 0 : parseLong(value.split("\\s+")[0]) * 1024;
+    }
+
+    private long parseLong(String value) {
+        try {
+            return value == null ? 0 : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+}
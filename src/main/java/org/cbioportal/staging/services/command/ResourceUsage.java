@@ -0,0 +1,87 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.command;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Resources used by the command of an ETL step: CPU time, the highest
+ * resident memory and the bytes read from and written to storage by the
+ * command and the processes it started. The values are sampled while the
+ * command runs, so resources used after the last sample are not included.
+ */
+public class ResourceUsage {
+
+    private long cpuMillis;
+    private long peakRssBytes;
+    private long readBytes;
+    private long writeBytes;
+
+    public ResourceUsage() {
+    }
+
+    public ResourceUsage(long cpuMillis, long peakRssBytes, long readBytes, long writeBytes) {
+        this.cpuMillis = cpuMillis;
+        this.peakRssBytes = peakRssBytes;
+        this.readBytes = readBytes;
+        this.writeBytes = writeBytes;
+    }
+
+    /**
+     * Add a sample of a running command. CPU time and I/O only grow while
+     * the command runs, so the highest values are kept.
+     */
+    public synchronized void update(ResourceUsage sample) {
+        cpuMillis = Math.max(cpuMillis, sample.getCpuMillis());
+        peakRssBytes = Math.max(peakRssBytes, sample.getPeakRssBytes());
+        readBytes = Math.max(readBytes, sample.getReadBytes());
+        writeBytes = Math.max(writeBytes, sample.getWriteBytes());
+    }
+
+    /**
+     * Add the usage of another command, e.g. to count the totals of a step.
+     */
+    public synchronized void add(ResourceUsage usage) {
+        cpuMillis += usage.getCpuMillis();
+        peakRssBytes = Math.max(peakRssBytes, usage.getPeakRssBytes());
+        readBytes += usage.getReadBytes();
+        writeBytes += usage.getWriteBytes();
+    }
+
+    public synchronized long getCpuMillis() {
+        return cpuMillis;
+    }
+
+    public synchronized long getPeakRssBytes() {
+        return peakRssBytes;
+    }
+
+    public synchronized long getReadBytes() {
+        return readBytes;
+    }
+
+    public synchronized long getWriteBytes() {
+        return writeBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("CPU time %.1f s, peak RSS %s, read %s, written %s", cpuMillis / 1000.0,
+            FileUtils.byteCountToDisplaySize(peakRssBytes), FileUtils.byteCountToDisplaySize(readBytes),
+            FileUtils.byteCountToDisplaySize(writeBytes));
+    }
+
+}
@@ -16,12 +16,12 @@
 package org.cbioportal.staging.services.etl;
 
 import java.io.IOException;
-import java.lang.ProcessBuilder.Redirect;
 
 import org.cbioportal.staging.exceptions.CommandBuilderException;
 import org.cbioportal.staging.exceptions.LoaderException;
 import org.cbioportal.staging.exceptions.ResourceUtilsException;
 import org.cbioportal.staging.services.ExitStatus;
+import org.cbioportal.staging.services.command.CommandRunner;
 import org.cbioportal.staging.services.command.ICommandBuilder;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.slf4j.Logger;
@@ -40,21 +40,23 @@ public class LoaderServiceImpl implements ILoaderService {
     @Autowired
     private ResourceUtils utils;
 
+    @Autowired
+    private CommandRunner commandRunner;
+
     @Override
     public ExitStatus load(final Resource studyPath, final Resource logFile) throws LoaderException {
         try {
             final ProcessBuilder loaderCmd = commandBuilder.buildLoaderCommand(studyPath);
             // Apply loader command
             logger.info("Executing command: " + String.join(" ", loaderCmd.command()));
-            loaderCmd.redirectErrorStream(true);
-            loaderCmd.redirectOutput(Redirect.appendTo(utils.getFile(logFile)));
-            final Process loadProcess = loaderCmd.start();
-            loadProcess.waitFor(); // Wait until loading is finished
+            final int exitValue = commandRunner.run("loading", loaderCmd, utils.getFile(logFile)); // Wait until loading is finished
 
             // Interprete exit status of the process and return it
             ExitStatus exitStatus = null;
-            if (loadProcess.exitValue() == 0) {
+            if (exitValue == 0) {
                 exitStatus = ExitStatus.SUCCESS;
+            } else if (exitValue == CommandRunner.TIMEOUT) {
+                exitStatus = ExitStatus.TIMEOUT;
             } else {
                 exitStatus = ExitStatus.ERROR;
             }
@@ -0,0 +1,305 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.etl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.pivovarit.function.ThrowingSupplier;
+
+import org.apache.commons.io.FileUtils;
+import org.cbioportal.staging.exceptions.CommandBuilderException;
+import org.cbioportal.staging.exceptions.ResourceUtilsException;
+import org.cbioportal.staging.exceptions.ValidatorException;
+import org.cbioportal.staging.services.command.CommandRunner;
+import org.cbioportal.staging.services.command.ICommandBuilder;
+import org.cbioportal.staging.services.command.LineOutputStream;
+import org.cbioportal.staging.services.resource.ResourceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Dump of the portalInfo of cBioPortal (cancer types, genes and gene panels)
+ * that is shared by the validations of all studies. The dump is started with
+ * prefetch() at the start of an ETL run, so that it runs while the studies are
+ * extracted and transformed.
+ *
+ * A new dump is made at every run, or when 'validation.portalinfo.ttl' is set,
+ * when the last dump is older than the ttl in minutes. The dump is discarded
+ * after a study that defines cancer types or gene panels has been loaded.
+ * Dumps are written to a new 'portalInfo_<time>' directory in
+ * 'etl.working.dir'. Validations hold a dump from get() until release(); a
+ * dump is removed once it is neither the last one nor held by a validation.
+ */
+@Component
+public class PortalInfoCache {
+    private static final Logger logger = LoggerFactory.getLogger(PortalInfoCache.class);
+
+    private static final String DIR_PREFIX = "portalInfo_";
+    private static final Pattern PORTAL_INFO_TYPE = Pattern.compile(
+        "^\\s*genetic_alteration_type\\s*:\\s*(CANCER_TYPE|GENE_PANEL)\\s*$");
+    // gene panel definitions list their genes in the header, unlike gene panel matrix files
+    private static final Pattern GENE_PANEL_GENES = Pattern.compile("^\\s*gene_list\\s*:.*");
+    private static final int GENE_PANEL_HEADER_LINES = 10;
+
+    @Value("${validation.portalinfo.ttl:0}")
+    private int ttl;
+
+    @Value("${etl.working.dir:}")
+    private Resource etlWorkingDir;
+
+    @Autowired
+    private ICommandBuilder commandBuilder;
+
+    @Autowired
+    private CommandRunner commandRunner;
+
+    @Autowired
+    private ResourceUtils utils;
+
+    private ExecutorService dumpExecutor;
+
+    private CompletableFuture<Resource> dump;
+    private long dumpStarted;
+    // start time of a dump -> number of validations that use it
+    private final Map<Long, Integer> users = new HashMap<>();
+
+    @PostConstruct
+    void initDumpExecutor() {
+        dumpExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "portalinfo-dump");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdownDumpExecutor() {
+        dumpExecutor.shutdownNow();
+    }
+
+    /**
+     * Start a new dump in the background, unless the last dump can be reused.
+     * Called at the start of an ETL run.
+     */
+    public synchronized void prefetch() {
+        if (!isUsable(true)) {
+            startDump();
+        }
+    }
+
+    /**
+     * The dump is not removed until it is passed to release().
+     *
+     * @return Resource  directory with the portalInfo dump, waits for a running dump
+     * @throws ValidatorException  when the dump failed
+     */
+    public Resource get() throws ValidatorException {
+        CompletableFuture<Resource> current;
+        long started;
+        synchronized (this) {
+            if (!isUsable(false)) {
+                startDump();
+            }
+            current = dump;
+            started = dumpStarted;
+            users.merge(started, 1, Integer::sum);
+        }
+        try {
+            return current.join();
+        } catch (CompletionException e) {
+            release(started);
+            if (e.getCause() instanceof ValidatorException) {
+                throw (ValidatorException) e.getCause();
+            }
+            throw new ValidatorException("Error during the dump of portalInfo.", e);
+        }
+    }
+
+    /**
+     * Give back a dump from get(), after the validation that read it has finished.
+     *
+     * @param portalInfoFolder  directory returned by get()
+     */
+    public void release(Resource portalInfoFolder) {
+        try {
+            release(timestamp(utils.getFile(portalInfoFolder)));
+        } catch (ResourceUtilsException e) {
+            logger.warn("Cannot release portalInfo dump " + portalInfoFolder.getDescription());
+        }
+    }
+
+    private synchronized void release(long started) {
+        if (users.merge(started, -1, Integer::sum) <= 0) {
+            users.remove(started);
+            removeOldDumps();
+        }
+    }
+
+    /**
+     * Discard the dump, so that the next validation uses a new dump.
+     */
+    public synchronized void invalidate() {
+        if (dump != null) {
+            logger.info("PortalInfo dump is outdated and will be made again before the next validation.");
+        }
+        dump = null;
+    }
+
+    /**
+     * Discard the dump when the study defines cancer types or gene panels.
+     * Called after the study has been loaded.
+     *
+     * @param studyDir  directory of the loaded study
+     */
+    public void invalidateIfChanged(Resource studyDir) {
+        try (Stream<Path> files = Files.list(utils.getFile(studyDir).toPath())) {
+            if (files.anyMatch(this::definesPortalInfo)) {
+                invalidate();
+            }
+        } catch (IOException | ResourceUtilsException e) {
+            logger.warn("Cannot read the meta files of " + studyDir.getFilename() + ", discarding the portalInfo dump.");
+            invalidate();
+        }
+    }
+
+    /**
+     * @return boolean  true for the meta file of cancer types and for gene panel definitions
+     */
+    private boolean definesPortalInfo(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            if (name.contains("meta")) {
+                try (Stream<String> lines = Files.lines(file)) {
+                    return lines.anyMatch(line -> PORTAL_INFO_TYPE.matcher(line).matches());
+                }
+            }
+            if (name.contains("gene_panel")) {
+                try (Stream<String> lines = Files.lines(file)) {
+                    return lines.limit(GENE_PANEL_HEADER_LINES).anyMatch(line -> GENE_PANEL_GENES.matcher(line).matches());
+                }
+            }
+            return false;
+        } catch (IOException | RuntimeException e) {
+            // not a readable text file, so not a meta file
+            return false;
+        }
+    }
+
+    private boolean isUsable(boolean newRun) {
+        if (dump == null || dump.isCompletedExceptionally()) {
+            return false;
+        }
+        if (ttl <= 0) {
+            return !newRun;
+        }
+        return System.currentTimeMillis() - dumpStarted < TimeUnit.MINUTES.toMillis(ttl);
+    }
+
+    private void startDump() {
+        dumpStarted = System.currentTimeMillis();
+        long started = dumpStarted;
+        dump = CompletableFuture.supplyAsync(ThrowingSupplier.sneaky(() -> dumpPortalInfo(started)), dumpExecutor);
+    }
+
+    private Resource dumpPortalInfo(long started) throws ValidatorException {
+        try {
+            Resource portalInfoFolder = utils.createDirResource(etlWorkingDir, DIR_PREFIX + started);
+            ProcessBuilder portalInfoCmd = commandBuilder.buildPortalInfoCommand(portalInfoFolder);
+            if (portalInfoCmd != null) {
+                logger.info("Dumping portalInfo...");
+                logger.info("Executing command: " + String.join(" ", portalInfoCmd.command()));
+                int exitValue;
+                try (LineOutputStream output = new LineOutputStream(logger::warn)) {
+                    exitValue = commandRunner.run("portalinfo", portalInfoCmd, output);
+                }
+                if (exitValue == CommandRunner.TIMEOUT) {
+                    throw new ValidatorException("Dump portalInfo step timed out");
+                }
+                if (exitValue != 0) {
+                    throw new ValidatorException("Dump portalInfo step failed");
+                }
+                logger.info("Dump portalInfo finished in " + (System.currentTimeMillis() - started) / 1000 + " seconds.");
+            } else {
+                logger.info("Dump portalInfo is not needed. Accessing live portal.");
+            }
+            removeOldDumps();
+            return portalInfoFolder;
+        } catch (IOException e) {
+            throw new ValidatorException("Error during the dump of portalInfo: check if Docker is installed, check whether the current"
+                    + " user has sufficient rights to run Docker, and if the configured working directory is accessible to Docker.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ValidatorException("The dump of portalInfo has been interrupted by another process.", e);
+        } catch (ResourceUtilsException e) {
+            throw new ValidatorException("ResourceUtilsException", e);
+        } catch (CommandBuilderException e) {
+            throw new ValidatorException("CommandBuilderException", e);
+        }
+    }
+
+    /**
+     * Remove the dump directories other than the last one that are not used
+     * by a validation.
+     */
+    private synchronized void removeOldDumps() {
+        File[] dumps;
+        try {
+            dumps = utils.getFile(etlWorkingDir).listFiles((dir, name) -> name.startsWith(DIR_PREFIX));
+        } catch (ResourceUtilsException e) {
+            logger.warn("Cannot list old portalInfo dumps in " + etlWorkingDir.getDescription());
+            return;
+        }
+        for (File dumpDir : dumps != null ? dumps : new File[0]) {
+            long started = timestamp(dumpDir);
+            if (started == dumpStarted || users.containsKey(started)) {
+                continue;
+            }
+            try {
+                FileUtils.deleteDirectory(dumpDir);
+            } catch (IOException e) {
+                logger.warn("Cannot remove old portalInfo dump " + dumpDir.getAbsolutePath());
+            }
+        }
+    }
+
+    private long timestamp(File dumpDir) {
+        try {
+            return Long.parseLong(dumpDir.getName().substring(DIR_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+}
@@ -16,7 +16,6 @@
 package org.cbioportal.staging.services.etl;
 
 import java.io.IOException;
-import java.lang.ProcessBuilder.Redirect;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -25,6 +24,7 @@ import org.cbioportal.staging.etl.Transformer;
 import org.cbioportal.staging.exceptions.ResourceUtilsException;
 import org.cbioportal.staging.exceptions.TransformerException;
 import org.cbioportal.staging.services.ExitStatus;
+import org.cbioportal.staging.services.command.CommandRunner;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,6 +50,9 @@ public class TransformerServiceImpl implements ITransformerService {
     @Autowired
     private ResourceUtils utils;
 
+    @Autowired
+    private CommandRunner commandRunner;
+
     @Override
     public List<String> parseCommandScript() throws TransformerException {
         try {
@@ -115,19 +118,17 @@ public class TransformerServiceImpl implements ITransformerService {
             // Run transformation command
             ProcessBuilder transformation = new ProcessBuilder(command);
             logger.info("Executing command: " + String.join(" ", transformation.command()));
-            transformation.redirectErrorStream(true);
-            transformation.redirectOutput(Redirect.appendTo(utils.getFile(logFile)));
-            Process transformationProcess = transformation.start();
-
-            transformationProcess.waitFor();
+            int exitValue = commandRunner.run("transformation", transformation, utils.getFile(logFile));
 
             // Interprete exit status of the process and return it
             ExitStatus exitStatus = null;
-            if (transformationProcess.exitValue() == 0) {
+            if (exitValue == 0) {
                 logger.info("Successfully completed transformation for study: " + untransformedFilesPath.getFilename());
                 exitStatus = ExitStatus.SUCCESS;
-            } else if (transformationProcess.exitValue() == 3) {
+            } else if (exitValue == 3) {
                 exitStatus = ExitStatus.WARNING;
+            } else if (exitValue == CommandRunner.TIMEOUT) {
+                exitStatus = ExitStatus.TIMEOUT;
             } else {
                 exitStatus = ExitStatus.ERROR;
             }
@@ -15,16 +15,14 @@
 */
 package org.cbioportal.staging.services.etl;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 
-import java.io.InputStreamReader;
-import java.lang.ProcessBuilder.Redirect;
 import org.cbioportal.staging.etl.Validator;
 import org.cbioportal.staging.exceptions.CommandBuilderException;
 import org.cbioportal.staging.exceptions.ResourceUtilsException;
 import org.cbioportal.staging.exceptions.ValidatorException;
 import org.cbioportal.staging.services.ExitStatus;
+import org.cbioportal.staging.services.command.CommandRunner;
 import org.cbioportal.staging.services.command.ICommandBuilder;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.slf4j.Logger;
@@ -43,47 +41,33 @@ public class ValidatorServiceImpl implements IValidatorService {
     @Autowired
     private ResourceUtils utils;
 
+    @Autowired
+    private PortalInfoCache portalInfoCache;
+
+    @Autowired
+    private CommandRunner commandRunner;
+
 	@Override
 	public ExitStatus validate(Resource studyPath, Resource reportFile, Resource logFile) throws ValidatorException {
+		// dump of portalInfo shared by all studies
+		Resource portalInfoFolder = portalInfoCache.get();
 		try {
 
-			Resource portalInfoFolder = utils.createDirResource(studyPath, "portalInfo");
-
-			ProcessBuilder portalInfoCmd = commandBuilder.buildPortalInfoCommand(portalInfoFolder);
-			if (portalInfoCmd != null) {
-			    logger.info("Dumping portalInfo...");
-                logger.info("Executing command: " + String.join(" ", portalInfoCmd.command()));
-                Process pInfo = portalInfoCmd.start();
-                BufferedReader reader = new BufferedReader(new InputStreamReader(pInfo.getErrorStream()));
-                String line = null;
-                while ((line = reader.readLine()) != null) {
-                    logger.warn(line);// TODO warn, since this is error stream output ^ ?
-                }
-                pInfo.waitFor();
-                if (pInfo.exitValue() != 0) {
-                    throw new ValidatorException("Dump portalInfo step failed");
-                }
-			    logger.info("Dump portalInfo finished. Continuing validation...");
-            } else {
-                logger.info("Dump portalInfo is not needed. Accessing live portal. Continuing validation...");
-            }
-
 			// Apply validation command
 			ProcessBuilder validationCmd = commandBuilder.buildValidatorCommand(studyPath, portalInfoFolder, reportFile);
 			logger.info(
 					"Starting validation. Report will be stored in: " + utils.getFile(reportFile).getAbsolutePath());
 			logger.info("Executing command: " + String.join(" ", validationCmd.command()));
-			validationCmd.redirectErrorStream(true);
-			validationCmd.redirectOutput(Redirect.appendTo(utils.getFile(logFile)));
-			Process validateProcess = validationCmd.start();
-			validateProcess.waitFor(); // Wait until validation is finished
+			int exitValue = commandRunner.run("validation", validationCmd, utils.getFile(logFile)); // Wait until validation is finished
 
 			// Interprete exit status of the process and return it
 			ExitStatus exitStatus = null;
-			if (validateProcess.exitValue() == 0) {
+			if (exitValue == 0) {
 				exitStatus = ExitStatus.SUCCESS;
-			} else if (validateProcess.exitValue() == 3) {
+			} else if (exitValue == 3) {
 				exitStatus = ExitStatus.WARNING;
+			} else if (exitValue == CommandRunner.TIMEOUT) {
+				exitStatus = ExitStatus.TIMEOUT;
 			} else {
 				exitStatus = ExitStatus.ERROR;
 			}
@@ -98,6 +82,8 @@ public class ValidatorServiceImpl implements IValidatorService {
             throw new ValidatorException("ResourceUtilsException", e);
         } catch (CommandBuilderException e) {
             throw new ValidatorException("CommandBuilderException", e);
+        } finally {
+            portalInfoCache.release(portalInfoFolder);
         }
 	}
 
@@ -29,6 +29,7 @@ import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -54,7 +55,7 @@ public class PublisherServiceImpl implements IPublisherService {
     @Autowired
     private ResourceUtils utils;
 
-    private List<Resource> publishedFiles = new ArrayList<>();
+    private List<Resource> publishedFiles = Collections.synchronizedList(new ArrayList<>());
 
     public Map<Study, Resource> publishFiles(Map<Study, Resource> logFiles) throws PublisherException {
 
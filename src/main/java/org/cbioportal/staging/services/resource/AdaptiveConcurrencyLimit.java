@@ -0,0 +1,216 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.resource;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * Limit on the number of transfers to a single remote host that run at the
+ * same time, adjusted with additive increase and multiplicative decrease.
+ *
+ * Completed transfers are evaluated in windows of at least 'limit' transfers.
+ * When the limit was reached during a window, no transfer failed and the
+ * throughput did not drop, the limit is increased by one. When a transfer
+ * failed, or the latency exceeds 'latencyTolerance' times the lowest recent
+ * latency, the limit is multiplied by 'decrease'.
+ *
+ * The latency is compared per size class, since the time of small transfers
+ * is mostly the round trip and that of large transfers mostly the bandwidth:
+ * files below 1 MB, below 16 MB, below 256 MB and larger. The latency is the
+ * duration in ms per MB, files smaller than 1 MB count as 1 MB.
+ *
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyLimit.class);
+
+    private static final int MIN_WINDOW = 4;
+    private static final double MB = 1024 * 1024;
+    private static final int SIZE_CLASSES = 4;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double decrease;
+    private final double latencyTolerance;
+
+    private double limit;
+    private int inFlight = 0;
+
+    private long windowStart = -1;
+    private int windowCount = 0;
+    private long windowBytes = 0;
+    private final double[] windowLatency = new double[SIZE_CLASSES];
+    private final int[] windowLatencyCount = new int[SIZE_CLASSES];
+    private boolean windowFailed = false;
+    private boolean windowSaturated = false;
+
+    private final double[] baselineLatency = { -1, -1, -1, -1 };
+    private double throughput = -1;
+
+    /**
+     * @param name  name of the remote host, used in messages
+     * @param initialLimit  number of transfers allowed at the start
+     * @param minLimit  lowest limit
+     * @param maxLimit  highest limit
+     * @param decrease  factor the limit is multiplied with on errors and latency spikes
+     * @param latencyTolerance  factor over the lowest recent latency that counts as a latency spike
+     */
+    public AdaptiveConcurrencyLimit(String name, int initialLimit, int minLimit, int maxLimit, double decrease,
+            double latencyTolerance) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.decrease = decrease;
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    /**
+     * Wait until a transfer can start.
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= getLimit()) {
+            wait();
+        }
+        if (windowStart < 0) {
+            windowStart = System.currentTimeMillis();
+        }
+        inFlight++;
+        if (inFlight >= getLimit()) {
+            windowSaturated = true;
+        }
+    }
+
+    /**
+     * Register a completed transfer.
+     *
+     * @param bytes  number of bytes transferred
+     * @param millis  duration of the transfer
+     * @param failed  true when the transfer failed
+     */
+    public synchronized void release(long bytes, long millis, boolean failed) {
+        inFlight--;
+        windowCount++;
+        windowBytes += bytes;
+        if (!failed) {
+            int sizeClass = sizeClass(bytes);
+            windowLatency[sizeClass] += millis / Math.max(1.0, bytes / MB);
+            windowLatencyCount[sizeClass]++;
+        }
+        windowFailed |= failed;
+        if (windowCount >= Math.max(MIN_WINDOW, getLimit()) || failed) {
+            long elapsed = Math.max(1, System.currentTimeMillis() - windowStart);
+            double[] latencies = new double[SIZE_CLASSES];
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                latencies[i] = windowLatencyCount[i] > 0 ? windowLatency[i] / windowLatencyCount[i] : -1;
+            }
+            adjust(windowBytes * 1000.0 / elapsed, latencies, windowFailed, windowSaturated);
+            windowStart = inFlight > 0 ? System.currentTimeMillis() : -1;
+            windowCount = 0;
+            windowBytes = 0;
+            Arrays.fill(windowLatency, 0);
+            Arrays.fill(windowLatencyCount, 0);
+            windowFailed = false;
+            windowSaturated = inFlight >= getLimit();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Register a transfer that ended without telling anything about the
+     * connection, e.g. because the file does not exist. It is not part of
+     * the window.
+     */
+    public synchronized void cancel() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Adjust the limit after a window of transfers.
+     *
+     * @param windowThroughput  bytes per second over the window
+     * @param latencies  average ms per MB of the transfers in the window per size class,
+     *                   -1 for a size class without transfers
+     * @param failed  true when a transfer in the window failed
+     * @param saturated  true when the limit was reached during the window
+     */
+    synchronized void adjust(double windowThroughput, double[] latencies, boolean failed, boolean saturated) {
+        int previous = getLimit();
+        double spike = -1;
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            if (latencies[i] >= 0 && baselineLatency[i] > 0 && latencies[i] > baselineLatency[i] * latencyTolerance) {
+                spike = latencies[i];
+            }
+        }
+        boolean latencySpike = spike >= 0;
+        if (failed || latencySpike) {
+            limit = Math.max(minLimit, limit * decrease);
+        } else if (saturated && (throughput < 0 || windowThroughput >= throughput * 0.95)) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        if (!failed) {
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                // follows lower latencies right away and higher latencies slowly
+                double latency = latencies[i];
+                if (latency >= 0) {
+                    baselineLatency[i] = baselineLatency[i] < 0 || latency < baselineLatency[i] ? latency
+                        : baselineLatency[i] + (latency - baselineLatency[i]) * 0.05;
+                }
+            }
+            throughput = windowThroughput;
+        }
+        if (getLimit() != previous) {
+            logger.info("Concurrent transfers for " + name + ": " + previous + " -> " + getLimit()
+                + (failed ? " (transfer failed)" : latencySpike ? " (latency " + Math.round(spike) + " ms/MB)"
+                    : " (throughput " + String.format("%.1f", windowThroughput / MB) + " MB/s)"));
+        }
+    }
+
+    /**
+     * @return int  0 below 1 MB, 1 below 16 MB, 2 below 256 MB and 3 for larger files
+     */
+    static int sizeClass(long bytes) {
+        int sizeClass = 0;
+        for (double bound = MB; sizeClass < SIZE_CLASSES - 1 && bytes >= bound; bound *= 16) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return double  bytes per second over the last window, or -1 before the first window
+     */
+    public synchronized double getThroughput() {
+        return throughput;
+    }
+
+}
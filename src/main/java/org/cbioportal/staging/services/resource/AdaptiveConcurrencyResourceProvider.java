@@ -0,0 +1,183 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.resource;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+/**
+ *
+ * Limits the number of transfers that run at the same time per remote host.
+ * The limit of each host is an AdaptiveConcurrencyLimit, so it grows while
+ * the throughput rises and shrinks on connection errors and latency spikes.
+ * Transfers that fail for other reasons, e.g. a file that does not exist,
+ * do not change the limit. Listing and resolving resources is not limited.
+ *
+ */
+public class AdaptiveConcurrencyResourceProvider implements IResourceProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyResourceProvider.class);
+
+    @FunctionalInterface
+    private interface Transfer {
+        public Resource call() throws ResourceCollectionException;
+    }
+
+    private final IResourceProvider delegate;
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double decrease;
+    private final double latencyTolerance;
+
+    private final Map<String, AdaptiveConcurrencyLimit> limits = new HashMap<>();
+
+    /**
+     * @param delegate  provider that makes the transfers
+     * @param initialLimit  number of concurrent transfers per host at the start
+     * @param minLimit  lowest number of concurrent transfers per host
+     * @param maxLimit  highest number of concurrent transfers per host
+     * @param decrease  factor the limit is multiplied with on errors and latency spikes
+     * @param latencyTolerance  factor over the lowest recent latency that counts as a latency spike
+     */
+    public AdaptiveConcurrencyResourceProvider(IResourceProvider delegate, int initialLimit, int minLimit,
+            int maxLimit, double decrease, double latencyTolerance) {
+        this.delegate = delegate;
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.decrease = decrease;
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    @Override
+    public Resource getResource(String url) throws ResourceCollectionException {
+        return delegate.getResource(url);
+    }
+
+    @Override
+    public Resource[] list(Resource dir) throws ResourceCollectionException {
+        return delegate.list(dir);
+    }
+
+    @Override
+    public Resource[] list(Resource dir, boolean recursive) throws ResourceCollectionException {
+        return delegate.list(dir, recursive);
+    }
+
+    @Override
+    public Resource[] list(Resource dir, boolean recursive, boolean filterDirs) throws ResourceCollectionException {
+        return delegate.list(dir, recursive, filterDirs);
+    }
+
+    @Override
+    public Resource copyFromRemote(Resource destinationDir, Resource remoteResource) throws ResourceCollectionException {
+        return limit(host(remoteResource), () -> delegate.copyFromRemote(destinationDir, remoteResource), null);
+    }
+
+    @Override
+    public Resource copyToRemote(Resource destinationDir, Resource localResource) throws ResourceCollectionException {
+        return limit(host(destinationDir), () -> delegate.copyToRemote(destinationDir, localResource), localResource);
+    }
+
+    public IResourceProvider getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return Map  current limit on concurrent transfers per host
+     */
+    public synchronized Map<String, Integer> getLimits() {
+        Map<String, Integer> result = new HashMap<>();
+        limits.forEach((host, limit) -> result.put(host, limit.getLimit()));
+        return result;
+    }
+
+    /**
+     * @return Map  throughput in bytes per second over the last window per host
+     */
+    public synchronized Map<String, Double> getThroughputs() {
+        Map<String, Double> result = new HashMap<>();
+        limits.forEach((host, limit) -> result.put(host, limit.getThroughput()));
+        return result;
+    }
+
+    /**
+     * Log the current limit and throughput of each host.
+     */
+    public void logSummary() {
+        Map<String, Double> throughputs = getThroughputs();
+        getLimits().forEach((host, limit) -> logger.info("Concurrency limit for " + host + " is " + limit
+            + " transfers at " + Math.round(throughputs.get(host)) + " bytes/second."));
+    }
+
+    synchronized AdaptiveConcurrencyLimit getLimit(String host) {
+        return limits.computeIfAbsent(host,
+            h -> new AdaptiveConcurrencyLimit(h, initialLimit, minLimit, maxLimit, decrease, latencyTolerance));
+    }
+
+    /**
+     * @param uploaded  local resource that is uploaded, or null for a download
+     */
+    private Resource limit(String host, Transfer transfer, Resource uploaded) throws ResourceCollectionException {
+        AdaptiveConcurrencyLimit limit = getLimit(host);
+        try {
+            limit.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceCollectionException("Interrupted while waiting to transfer a file to or from " + host, e);
+        }
+        long start = System.currentTimeMillis();
+        Resource result;
+        try {
+            result = transfer.call();
+        } catch (ResourceCollectionException | RuntimeException | Error e) {
+            if (ConnectivityFailures.isConnectivityFailure(e)) {
+                limit.release(0, System.currentTimeMillis() - start, true);
+            } else {
+                limit.cancel();
+            }
+            throw e;
+        }
+        long millis = System.currentTimeMillis() - start;
+        limit.release(size(uploaded != null ? uploaded : result), millis, false);
+        return result;
+    }
+
+    private long size(Resource resource) {
+        try {
+            return resource != null && resource.exists() ? resource.contentLength() : 0;
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private String host(Resource resource) {
+        try {
+            String host = resource.getURI().getHost();
+            return host != null ? host : resource.getURI().getScheme();
+        } catch (IOException | RuntimeException e) {
+            return "remote";
+        }
+    }
+
+}
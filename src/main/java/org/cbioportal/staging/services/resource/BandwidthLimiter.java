@@ -0,0 +1,244 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.resource;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ *
+ * Limits the bandwidth of transfers from and to remote file systems with token
+ * buckets: one for all transfers ('transfer.bandwidth.limit') and one per
+ * provider ('transfer.bandwidth.limit.aws' and 'transfer.bandwidth.limit.sftp'),
+ * in bytes per second. A limit of 0 means no limit. When
+ * 'transfer.bandwidth.hours' is set, the limits only apply within these times
+ * of the day, e.g. '07:00-19:00'.
+ *
+ * Streams are only wrapped when a limit is set. The number of bytes read from
+ * wrapped streams is counted, also outside the limited hours.
+ *
+ */
+@Component
+public class BandwidthLimiter {
+
+    public static final String AWS = "aws";
+    public static final String SFTP = "sftp";
+
+    // largest read before the buckets are consulted, keeps waits short
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Value("${transfer.bandwidth.limit:0}")
+    private long limit;
+
+    @Value("${transfer.bandwidth.limit.aws:0}")
+    private long awsLimit;
+
+    @Value("${transfer.bandwidth.limit.sftp:0}")
+    private long sftpLimit;
+
+    @Value("${transfer.bandwidth.hours:}")
+    private String hours;
+
+    private TokenBucket bucket;
+    private TokenBucket awsBucket;
+    private TokenBucket sftpBucket;
+    private final List<LocalTime[]> limitedHours = new ArrayList<>();
+
+    private final AtomicLong transferredBytes = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        bucket = limit > 0 ? new TokenBucket(limit) : null;
+        awsBucket = awsLimit > 0 ? new TokenBucket(awsLimit) : null;
+        sftpBucket = sftpLimit > 0 ? new TokenBucket(sftpLimit) : null;
+        limitedHours.clear();
+        if (hours != null && !hours.trim().isEmpty()) {
+            for (String period : hours.split(",")) {
+                String[] times = period.trim().split("-");
+                try {
+                    if (times.length != 2) {
+                        throw new IllegalArgumentException("Expected HH:mm-HH:mm");
+                    }
+                    limitedHours.add(new LocalTime[] { LocalTime.parse(times[0].trim()), LocalTime.parse(times[1].trim()) });
+                } catch (DateTimeParseException | IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Invalid period in transfer.bandwidth.hours: " + period, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return boolean  true when any limit is set
+     */
+    public boolean isEnabled() {
+        return bucket != null || awsBucket != null || sftpBucket != null;
+    }
+
+    /**
+     * @param provider  BandwidthLimiter.AWS or BandwidthLimiter.SFTP
+     * @return boolean  true when a limit is set for transfers of the provider
+     */
+    public boolean isLimited(String provider) {
+        return bucket != null || providerBucket(provider) != null;
+    }
+
+    /**
+     * @param provider  BandwidthLimiter.AWS or BandwidthLimiter.SFTP
+     * @param in  stream of a transfer
+     * @return InputStream  stream that is read at most at the bandwidth limit,
+     *                      or 'in' itself when no limit is set
+     */
+    public InputStream limit(String provider, InputStream in) {
+        if (in == null || !isLimited(provider)) {
+            return in;
+        }
+        return new LimitedInputStream(in, providerBucket(provider));
+    }
+
+    /**
+     * @return long  number of bytes read from limited streams
+     */
+    public long getTransferredBytes() {
+        return transferredBytes.get();
+    }
+
+    /**
+     * @return boolean  true when the limits apply at the given time of the day
+     */
+    boolean isLimitedAt(LocalTime time) {
+        if (limitedHours.isEmpty()) {
+            return true;
+        }
+        for (LocalTime[] period : limitedHours) {
+            boolean within = period[0].isBefore(period[1])
+                ? !time.isBefore(period[0]) && time.isBefore(period[1])
+                // period over midnight
+                : !time.isBefore(period[0]) || time.isBefore(period[1]);
+            if (within) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private TokenBucket providerBucket(String provider) {
+        if (AWS.equals(provider)) {
+            return awsBucket;
+        }
+        if (SFTP.equals(provider)) {
+            return sftpBucket;
+        }
+        return null;
+    }
+
+    /**
+     * Wait until 'bytes' that were read are allowed by the buckets.
+     */
+    private void throttle(long bytes, TokenBucket providerBucket) throws InterruptedIOException {
+        long now = System.nanoTime();
+        transferredBytes.addAndGet(bytes);
+        if (!isLimitedAt(LocalTime.now())) {
+            return;
+        }
+        long wait = 0;
+        if (bucket != null) {
+            wait = bucket.reserve(bytes, now);
+        }
+        if (providerBucket != null) {
+            wait = Math.max(wait, providerBucket.reserve(bytes, now));
+        }
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the bandwidth limit.");
+            }
+        }
+    }
+
+    /**
+     * Bucket of 'rate' tokens that is refilled at 'rate' tokens per second.
+     * Taking more tokens than available leaves a debt, which the caller waits
+     * for, so that the rate is kept over all threads together.
+     */
+    static class TokenBucket {
+
+        private final long rate;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(long rate) {
+            this.rate = rate;
+            this.tokens = rate;
+            this.lastRefill = System.nanoTime();
+        }
+
+        /**
+         * @return long  ns to wait before the tokens are available
+         */
+        synchronized long reserve(long bytes, long now) {
+            tokens = Math.min(rate, tokens + (now - lastRefill) * (double) rate / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+            tokens -= bytes;
+            return tokens >= 0 ? 0 : (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / rate);
+        }
+
+    }
+
+    private class LimitedInputStream extends FilterInputStream {
+
+        private final TokenBucket providerBucket;
+
+        LimitedInputStream(InputStream in, TokenBucket providerBucket) {
+            super(in);
+            this.providerBucket = providerBucket;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                throttle(1, providerBucket);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, Math.min(len, CHUNK_SIZE));
+            if (read > 0) {
+                throttle(read, providerBucket);
+            }
+            return read;
+        }
+
+    }
+
+}
@@ -0,0 +1,275 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.resource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+/**
+ *
+ * Circuit breaker around a resource provider of a remote file system.
+ *
+ * The outcome of the last 'windowSize' calls is recorded. When at least
+ * 'minimumCalls' calls were made and the percentage of failed calls reaches
+ * 'failureRateThreshold', the circuit opens: all calls fail immediately with a
+ * ResourceCollectionException, without contacting the remote file system.
+ * After 'openMillis' the circuit is half-open and lets 'halfOpenCalls' calls
+ * through. When these succeed the circuit closes again, when one of them fails
+ * the circuit opens again.
+ *
+ * Only failures of the connection count as failed calls, see
+ * ConnectivityFailures. Other failed calls, e.g. for a file that does not
+ * exist, are not recorded. Only the calls that contact the remote file system
+ * (listing and copying) are guarded; getResource() only resolves a URL.
+ *
+ * Changes of the state are logged, and logSummary() logs the calls since the
+ * previous summary, once per run.
+ *
+ */
+public class CircuitBreakerResourceProvider implements IResourceProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreakerResourceProvider.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    @FunctionalInterface
+    private interface ProviderCall<T> {
+        public T call() throws ResourceCollectionException;
+    }
+
+    private final IResourceProvider delegate;
+    private final String name;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final long openMillis;
+    private final int halfOpenCalls;
+
+    // outcomes of the last calls in the closed state, true for a failure
+    private final boolean[] outcomes;
+    private int position = 0;
+    private int recorded = 0;
+    private int failures = 0;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failedCalls = new AtomicLong();
+    private final AtomicLong rejectedCalls = new AtomicLong();
+    private final AtomicLong timesOpened = new AtomicLong();
+    // counts at the previous summary
+    private long[] summarized = new long[4];
+
+    /**
+     * @param delegate  provider that makes the calls to the remote file system
+     * @param name  name of the remote file system, used in messages
+     * @param windowSize  number of recent calls the failure rate is computed over
+     * @param minimumCalls  number of calls needed before the circuit can open
+     * @param failureRateThreshold  percentage of failed calls at which the circuit opens
+     * @param openMillis  time in ms that the circuit stays open
+     * @param halfOpenCalls  number of successful calls in half-open state that close the circuit
+     */
+    public CircuitBreakerResourceProvider(IResourceProvider delegate, String name, int windowSize, int minimumCalls,
+            int failureRateThreshold, long openMillis, int halfOpenCalls) {
+        this.delegate = delegate;
+        this.name = name;
+        this.outcomes = new boolean[Math.max(1, windowSize)];
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, outcomes.length));
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMillis = openMillis;
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+    }
+
+    @Override
+    public Resource getResource(String url) throws ResourceCollectionException {
+        return delegate.getResource(url);
+    }
+
+    @Override
+    public Resource[] list(Resource dir) throws ResourceCollectionException {
+        return guard(() -> delegate.list(dir));
+    }
+
+    @Override
+    public Resource[] list(Resource dir, boolean recursive) throws ResourceCollectionException {
+        return guard(() -> delegate.list(dir, recursive));
+    }
+
+    @Override
+    public Resource[] list(Resource dir, boolean recursive, boolean filterDirs) throws ResourceCollectionException {
+        return guard(() -> delegate.list(dir, recursive, filterDirs));
+    }
+
+    @Override
+    public Resource copyFromRemote(Resource destinationDir, Resource remoteResource) throws ResourceCollectionException {
+        return guard(() -> delegate.copyFromRemote(destinationDir, remoteResource));
+    }
+
+    @Override
+    public Resource copyToRemote(Resource destinationDir, Resource localResource) throws ResourceCollectionException {
+        return guard(() -> delegate.copyToRemote(destinationDir, localResource));
+    }
+
+    public IResourceProvider getDelegate() {
+        return delegate;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return int  percentage of failed calls over the recorded calls in the closed state
+     */
+    public synchronized int getFailureRate() {
+        return recorded == 0 ? 0 : failures * 100 / recorded;
+    }
+
+    /**
+     * @return long  number of calls that failed fast because the circuit was open
+     */
+    public long getRejectedCalls() {
+        return rejectedCalls.get();
+    }
+
+    public long getTimesOpened() {
+        return timesOpened.get();
+    }
+
+    /**
+     * Log the number of calls, failed calls and rejected calls since the previous summary.
+     */
+    public synchronized void logSummary() {
+        long[] counts = { calls.get(), failedCalls.get(), rejectedCalls.get(), timesOpened.get() };
+        if (counts[0] + counts[2] > summarized[0] + summarized[2]) {
+            logger.info("Circuit breaker for " + name + " is " + state.name().toLowerCase().replace('_', '-') + ": "
+                + (counts[0] - summarized[0]) + " calls, " + (counts[1] - summarized[1]) + " connection failures, "
+                + (counts[2] - summarized[2]) + " calls rejected, opened " + (counts[3] - summarized[3]) + " times.");
+        }
+        summarized = counts;
+    }
+
+    private <T> T guard(ProviderCall<T> call) throws ResourceCollectionException {
+        acquirePermission();
+        calls.incrementAndGet();
+        try {
+            T result = call.call();
+            onSuccess();
+            return result;
+        } catch (ResourceCollectionException | RuntimeException e) {
+            if (ConnectivityFailures.isConnectivityFailure(e)) {
+                failedCalls.incrementAndGet();
+                onFailure(e);
+            } else {
+                onIgnored();
+            }
+            throw e;
+        }
+    }
+
+    private synchronized void acquirePermission() throws ResourceCollectionException {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            transition(State.HALF_OPEN, "trying " + halfOpenCalls + " calls");
+            halfOpenPermits = halfOpenCalls;
+            halfOpenSuccesses = 0;
+        }
+        if (state == State.OPEN || (state == State.HALF_OPEN && halfOpenPermits == 0)) {
+            rejectedCalls.incrementAndGet();
+            long retryIn = Math.max(0, openMillis - (System.currentTimeMillis() - openedAt));
+            throw new ResourceCollectionException("Circuit breaker for " + name + " is open after repeated failures, "
+                + "not trying again for " + TimeUnit.MILLISECONDS.toSeconds(retryIn) + " seconds.");
+        }
+        if (state == State.HALF_OPEN) {
+            halfOpenPermits--;
+        }
+    }
+
+    private synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            if (++halfOpenSuccesses >= halfOpenCalls) {
+                transition(State.CLOSED, name + " has recovered");
+                resetWindow();
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    private synchronized void onFailure(Exception e) {
+        if (state == State.HALF_OPEN) {
+            open("a trial call failed: " + e.getMessage());
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (recorded >= minimumCalls && getFailureRate() >= failureRateThreshold) {
+                open(failures + " of the last " + recorded + " calls failed, last error: " + e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            // the trial call did not tell whether the remote file system has recovered
+            halfOpenPermits++;
+        }
+    }
+
+    private void open(String reason) {
+        transition(State.OPEN, "not trying again for " + TimeUnit.MILLISECONDS.toSeconds(openMillis) + " seconds, " + reason);
+        openedAt = System.currentTimeMillis();
+        timesOpened.incrementAndGet();
+        resetWindow();
+    }
+
+    private void transition(State to, String reason) {
+        String message = "Circuit breaker for " + name + " changed from " + state.name().toLowerCase().replace('_', '-')
+            + " to " + to.name().toLowerCase().replace('_', '-') + ", " + reason + ".";
+        if (to == State.OPEN) {
+            logger.warn(message);
+        } else {
+            logger.info(message);
+        }
+        state = to;
+    }
+
+    private void record(boolean failure) {
+        if (recorded == outcomes.length) {
+            if (outcomes[position]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[position] = failure;
+        if (failure) {
+            failures++;
+        }
+        position = (position + 1) % outcomes.length;
+    }
+
+    private void resetWindow() {
+        position = 0;
+        recorded = 0;
+        failures = 0;
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.resource;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+/**
+ *
+ * Tells failures of the connection to a remote file system apart from other
+ * failed calls. A file that does not exist, a denied request or a full local
+ * disk says nothing about the health of the remote file system, so these do
+ * not count for the circuit breaker and the adaptive concurrency limit.
+ *
+ */
+final class ConnectivityFailures {
+
+    private static final String[] LOCAL_DISK_ERRORS = {
+        "No space left on device", "Disk quota exceeded", "Read-only file system"
+    };
+
+    private ConnectivityFailures() {
+    }
+
+    /**
+     * @param e  exception thrown by a resource provider
+     * @return boolean  true when the cause chain has an I/O error or timeout of the
+     *                  connection, and no error that the remote file system or the
+     *                  local disk reported
+     */
+    static boolean isConnectivityFailure(Throwable e) {
+        List<Throwable> causes = new ArrayList<>();
+        for (Throwable cause = e; cause != null && !causes.contains(cause); cause = cause.getCause()) {
+            causes.add(cause);
+        }
+        if (causes.stream().anyMatch(ConnectivityFailures::isAnswerOrLocalError)) {
+            return false;
+        }
+        return causes.stream().anyMatch(cause -> cause instanceof IOException
+            || cause instanceof TimeoutException
+            || cause instanceof JSchException
+            || (cause instanceof AmazonClientException && ((AmazonClientException) cause).isRetryable()));
+    }
+
+    private static boolean isAnswerOrLocalError(Throwable cause) {
+        if (cause instanceof FileNotFoundException || cause instanceof FileSystemException) {
+            // FileSystemException is thrown by file operations on the local disk
+            return true;
+        }
+        if (cause instanceof AmazonServiceException) {
+            // e.g. NoSuchKey, AccessDenied, PreconditionFailed, except throttling
+            int status = ((AmazonServiceException) cause).getStatusCode();
+            return status >= 400 && status < 500 && status != 408 && status != 429;
+        }
+        if (cause instanceof SftpException) {
+            int id = ((SftpException) cause).id;
+            return id == ChannelSftp.SSH_FX_NO_SUCH_FILE || id == ChannelSftp.SSH_FX_PERMISSION_DENIED;
+        }
+        if (cause instanceof IOException && cause.getMessage() != null) {
+            for (String localError : LOCAL_DISK_ERRORS) {
+                if (cause.getMessage().contains(localError)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+}
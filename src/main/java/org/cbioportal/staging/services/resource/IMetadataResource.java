@@ -0,0 +1,23 @@
+package org.cbioportal.staging.services.resource;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Remote resource that carries the size, modification time and checksum
+ * that were returned by the listing of its directory. When metadata is
+ * available, contentLength() and lastModified() do not make a request to
+ * the remote file system.
+ */
+public interface IMetadataResource extends Resource {
+
+    /**
+     * @return boolean  true when the resource was created from a directory listing
+     */
+    public boolean hasMetadata();
+
+    /**
+     * @return String  ETag or checksum from the listing, or null when not available
+     */
+    public String getETag();
+
+}
@@ -0,0 +1,22 @@
+package org.cbioportal.staging.services.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Remote resource of which the contents can be read from an offset, so that
+ * an interrupted download can be continued where it stopped.
+ */
+public interface IResumableResource extends Resource {
+
+    /**
+     * @param offset  number of bytes to skip
+     * @return InputStream  contents starting at the offset, or null when the resource
+     *                      has changed since it was listed and cannot be resumed
+     * @throws IOException
+     */
+    public InputStream getInputStream(long offset) throws IOException;
+
+}
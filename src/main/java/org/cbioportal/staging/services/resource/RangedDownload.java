@@ -0,0 +1,299 @@
+package org.cbioportal.staging.services.resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import com.pivovarit.function.ThrowingRunnable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Download of a remote file in byte ranges that are fetched in parallel and
+ * written to their offset in a '.part' file.
+ *
+ * The number of bytes written per range is kept in a '.ranges' file next to
+ * the '.part' file, together with the size and version (e.g. ETag or
+ * modification time) of the remote file. When a download fails, a next
+ * download of the same version of the file with the same range layout
+ * continues every range where it stopped. The progress is stored every few
+ * megabytes or seconds, so that also a download of which the process is
+ * killed loses little.
+ */
+public class RangedDownload {
+
+    private static final Logger logger = LoggerFactory.getLogger(RangedDownload.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_INTERVAL_BYTES = 8 * 1024 * 1024;
+    private static final long PROGRESS_INTERVAL_MILLIS = 5000;
+
+    /**
+     * Opens a stream on a byte range of the remote file.
+     */
+    @FunctionalInterface
+    public interface RangeReader {
+        public InputStream open(long start, long length) throws IOException;
+    }
+
+    private final String name;
+    private final long size;
+    private final String version;
+    private final long[] starts;
+    private final long[] lengths;
+    private final long[] written;
+    private final Object progressLock = new Object();
+    private long unsavedBytes;
+    private long savedAt;
+    private volatile boolean stopped;
+
+    /**
+     * @param name  name of the remote file, used in messages
+     * @param size  size of the remote file
+     * @param version  ETag or modification time of the remote file, or null when not
+     *                 known; a download of an unknown version is never resumed
+     * @param ranges  number of ranges to split the file in
+     */
+    public RangedDownload(String name, long size, String version, int ranges) {
+        this.name = name;
+        this.size = size;
+        this.version = version;
+        int count = (int) Math.max(1, Math.min(ranges, size));
+        long chunk = (size + count - 1) / count;
+        List<long[]> layout = new ArrayList<>();
+        for (long offset = 0; offset < size; offset += chunk) {
+            layout.add(new long[] { offset, Math.min(chunk, size - offset) });
+        }
+        starts = layout.stream().mapToLong(r -> r[0]).toArray();
+        lengths = layout.stream().mapToLong(r -> r[1]).toArray();
+        written = new long[starts.length];
+    }
+
+    /**
+     * Fetch all ranges to 'partFile'.
+     *
+     * @param reader  opens the remote ranges
+     * @param executor  executor the ranges are fetched on
+     * @param partFile  file the ranges are written to
+     * @throws IOException
+     */
+    public void download(RangeReader reader, Executor executor, File partFile) throws IOException {
+        File progressFile = progressFile(partFile);
+        // bytes of a single stream download are only kept by resumableLength()
+        Files.deleteIfExists(sourceFile(partFile).toPath());
+        if (!partFile.exists() || !readProgress(progressFile)) {
+            Arrays.fill(written, 0);
+        } else {
+            logger.info("Resuming download of " + name + ": " + (size - remaining()) + " of " + size + " bytes present.");
+        }
+
+        // also marks the part file as one with gaps until the download completes
+        writeProgress(progressFile);
+
+        try (RandomAccessFile file = new RandomAccessFile(partFile, "rw")) {
+            file.setLength(size);
+            FileChannel channel = file.getChannel();
+            stopped = false;
+            List<CompletableFuture<Void>> parts = new ArrayList<>();
+            for (int i = 0; i < starts.length; i++) {
+                int range = i;
+                if (written[range] < lengths[range]) {
+                    CompletableFuture<Void> part = CompletableFuture.runAsync(ThrowingRunnable.sneaky(() ->
+                        fetchRange(reader, range, channel, progressFile)), executor);
+                    // the first failure stops the ranges that are fetched, and the
+                    // ranges that are still queued end without being fetched
+                    part.whenComplete((result, t) -> {
+                        if (t != null) {
+                            stopped = true;
+                        }
+                    });
+                    parts.add(part);
+                }
+            }
+            CompletableFuture<Void> all = CompletableFuture.allOf(parts.toArray(new CompletableFuture[0]));
+            try {
+                all.get();
+            } catch (ExecutionException e) {
+                writeProgress(progressFile);
+                throw new IOException("Download of byte range of " + name + " failed.", e.getCause());
+            } catch (InterruptedException e) {
+                stopped = true;
+                // wait for the ranges to stop, so that their progress can be stored
+                all.exceptionally(t -> null).join();
+                writeProgress(progressFile);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download of " + name + " was interrupted.");
+            }
+        }
+        Files.deleteIfExists(progressFile.toPath());
+    }
+
+    /**
+     * Number of bytes of a '.part' file from which a download in a single
+     * stream can continue. The remote file that the bytes were read from is
+     * recorded in a '.source' file next to the '.part' file. A part file of
+     * another or an unknown version of the remote file is removed, and so is
+     * the part file of an unfinished ranged download, because it has gaps.
+     *
+     * @param partFile  file the download is written to
+     * @param source  fingerprint of the remote file, e.g. size, modification
+     *                time and ETag; null when not known
+     * @return long  number of bytes present
+     * @throws IOException
+     */
+    public static long resumableLength(File partFile, String source) throws IOException {
+        File progressFile = progressFile(partFile);
+        File sourceFile = sourceFile(partFile);
+        String partSource = sourceFile.exists()
+            ? new String(Files.readAllBytes(sourceFile.toPath()), StandardCharsets.UTF_8).trim() : null;
+        if (progressFile.exists() || source == null || !Objects.equals(source, partSource)) {
+            if (partFile.length() > 0) {
+                logger.debug("Discarding " + partFile.getName() + ", it belongs to another version of the remote file.");
+            }
+            Files.deleteIfExists(partFile.toPath());
+            Files.deleteIfExists(progressFile.toPath());
+        }
+        if (source != null) {
+            Files.write(sourceFile.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        } else {
+            Files.deleteIfExists(sourceFile.toPath());
+        }
+        return partFile.length();
+    }
+
+    /**
+     * Remove the files that record the progress of a download, after the
+     * '.part' file has been moved into place.
+     *
+     * @param partFile  file the download was written to
+     * @throws IOException
+     */
+    public static void removeProgress(File partFile) throws IOException {
+        Files.deleteIfExists(progressFile(partFile).toPath());
+        Files.deleteIfExists(sourceFile(partFile).toPath());
+    }
+
+    private static File progressFile(File partFile) {
+        return new File(partFile.getAbsolutePath() + ".ranges");
+    }
+
+    private static File sourceFile(File partFile) {
+        return new File(partFile.getAbsolutePath() + ".source");
+    }
+
+    private void fetchRange(RangeReader reader, int range, FileChannel channel, File progressFile) throws IOException {
+        if (stopped) {
+            return;
+        }
+        long position = starts[range] + written[range];
+        long remaining = lengths[range] - written[range];
+        try (InputStream in = reader.open(position, remaining)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (remaining > 0 && !stopped) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("Unexpected end of " + name + " at byte " + position);
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                while (bytes.hasRemaining()) {
+                    position += channel.write(bytes, position);
+                }
+                remaining -= read;
+                synchronized (written) {
+                    written[range] += read;
+                    unsavedBytes += read;
+                }
+                writeProgressPeriodically(progressFile);
+            }
+        }
+    }
+
+    private long remaining() {
+        long remaining = 0;
+        for (int i = 0; i < starts.length; i++) {
+            remaining += lengths[i] - written[i];
+        }
+        return remaining;
+    }
+
+    /**
+     * @return boolean  true when the progress file matches the version and the
+     *                  range layout of this download
+     */
+    private boolean readProgress(File progressFile) throws IOException {
+        if (!progressFile.exists() || version == null) {
+            return false;
+        }
+        List<String> lines = Files.readAllLines(progressFile.toPath(), StandardCharsets.UTF_8);
+        if (lines.size() != starts.length + 1 || !lines.get(0).equals(header())) {
+            logger.debug("Discarding progress of " + name + ", it belongs to another version or range layout.");
+            return false;
+        }
+        for (int i = 0; i < starts.length; i++) {
+            String[] fields = lines.get(i + 1).split("\t");
+            try {
+                if (fields.length != 3 || Long.parseLong(fields[0]) != starts[i] || Long.parseLong(fields[1]) != lengths[i]) {
+                    return false;
+                }
+                written[i] = Math.min(lengths[i], Long.parseLong(fields[2]));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeProgressPeriodically(File progressFile) throws IOException {
+        synchronized (progressLock) {
+            long unsaved;
+            synchronized (written) {
+                unsaved = unsavedBytes;
+            }
+            if (unsaved >= PROGRESS_INTERVAL_BYTES || System.currentTimeMillis() - savedAt >= PROGRESS_INTERVAL_MILLIS) {
+                writeProgress(progressFile);
+            }
+        }
+    }
+
+    /**
+     * The progress is written to a temporary file that replaces the progress
+     * file, so that a progress file is never partially written.
+     */
+    private void writeProgress(File progressFile) throws IOException {
+        synchronized (progressLock) {
+            List<String> lines = new ArrayList<>();
+            lines.add(header());
+            synchronized (written) {
+                for (int i = 0; i < starts.length; i++) {
+                    lines.add(starts[i] + "\t" + lengths[i] + "\t" + written[i]);
+                }
+                unsavedBytes = 0;
+            }
+            File tempFile = new File(progressFile.getAbsolutePath() + ".tmp");
+            Files.write(tempFile.toPath(), lines, StandardCharsets.UTF_8);
+            Files.move(tempFile.toPath(), progressFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            savedAt = System.currentTimeMillis();
+        }
+    }
+
+    private String header() {
+        return size + "\t" + (version != null ? version : "");
+    }
+
+}
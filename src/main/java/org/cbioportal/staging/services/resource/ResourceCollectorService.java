@@ -6,6 +6,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.aws.core.io.s3.SimpleStorageResource;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 
@@ -30,6 +31,9 @@ public class ResourceCollectorService implements IResourceCollector {
     @Autowired
     private IResourceFilter resourceFilter;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
     @Override
     public Study[] getResources(Resource scanLocation)
             throws ConfigurationException, ResourceCollectionException {
@@ -40,6 +44,7 @@ public class ResourceCollectorService implements IResourceCollector {
 
         Study[] resources = new Study[0];
 
+        eventPublisher.publishEvent(new ResourceScanEvent(this, ResourceScanEvent.Phase.STARTED));
         try {
             String scanLocationString = scanLocation.getFilename();
             if (scanLocation instanceof SimpleStorageResource) {
@@ -58,6 +63,8 @@ public class ResourceCollectorService implements IResourceCollector {
             throw e;
         } catch (Exception e) {
             throw new ResourceCollectionException("Error while retrieving resources from scan.location: " + scanLocation.getFilename(), e);
+        } finally {
+            eventPublisher.publishEvent(new ResourceScanEvent(this, ResourceScanEvent.Phase.FINISHED));
         }
 
         return resources;
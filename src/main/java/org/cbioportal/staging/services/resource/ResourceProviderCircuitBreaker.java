@@ -0,0 +1,83 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.resource;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.cbioportal.staging.services.resource.filesystem.FileSystemResourceProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ *
+ * Places a CircuitBreakerResourceProvider around the resource providers of
+ * remote file systems (S3 and SFTP), so that a scan fails fast while the
+ * remote file system is unavailable. The local file system provider is not
+ * wrapped. The circuit breaker is disabled unless 'resource.circuit.enable'
+ * is true.
+ *
+ */
+@Component
+public class ResourceProviderCircuitBreaker implements BeanPostProcessor, EnvironmentAware, Ordered {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResourceProviderCircuitBreaker.class);
+
+    private Environment environment;
+    private final List<CircuitBreakerResourceProvider> circuitBreakers = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof IResourceProvider) || bean instanceof FileSystemResourceProvider
+                || bean instanceof CircuitBreakerResourceProvider
+                || !environment.getProperty("resource.circuit.enable", Boolean.class, false)) {
+            return bean;
+        }
+        String name = environment.getProperty("scan.location.type", beanName);
+        logger.debug("Adding circuit breaker to resource provider " + beanName);
+        CircuitBreakerResourceProvider circuitBreaker = new CircuitBreakerResourceProvider((IResourceProvider) bean, name,
+            environment.getProperty("resource.circuit.window", Integer.class, 20),
+            environment.getProperty("resource.circuit.min.calls", Integer.class, 5),
+            environment.getProperty("resource.circuit.failure.rate", Integer.class, 50),
+            environment.getProperty("resource.circuit.open.time", Long.class, 60L) * 1000,
+            environment.getProperty("resource.circuit.halfopen.calls", Integer.class, 2));
+        circuitBreakers.add(circuitBreaker);
+        return circuitBreaker;
+    }
+
+    /**
+     * Log the calls of each circuit breaker since the previous summary.
+     */
+    public void logSummary() {
+        circuitBreakers.forEach(CircuitBreakerResourceProvider::logSummary);
+    }
+
+}
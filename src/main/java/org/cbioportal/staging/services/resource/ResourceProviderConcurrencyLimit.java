@@ -0,0 +1,87 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.resource;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.cbioportal.staging.services.resource.filesystem.FileSystemResourceProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ *
+ * Places an AdaptiveConcurrencyResourceProvider around the resource providers
+ * of remote file systems (S3 and SFTP). It runs before the circuit breaker, so
+ * that calls rejected by an open circuit do not wait for a transfer slot. The
+ * limit is disabled unless 'transfer.concurrency.adaptive' is true.
+ *
+ * The transfers run on the 'scan.extract.threads' threads of the Extractor,
+ * so the limit can only lower the number of concurrent transfers below the
+ * number of threads. After a decrease it grows back to at most that number.
+ *
+ */
+@Component
+public class ResourceProviderConcurrencyLimit implements BeanPostProcessor, EnvironmentAware, Ordered {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResourceProviderConcurrencyLimit.class);
+
+    private Environment environment;
+    private final List<AdaptiveConcurrencyResourceProvider> concurrencyLimits = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE - 1;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof IResourceProvider) || bean instanceof FileSystemResourceProvider
+                || bean instanceof AdaptiveConcurrencyResourceProvider
+                || bean instanceof CircuitBreakerResourceProvider
+                || !environment.getProperty("transfer.concurrency.adaptive", Boolean.class, false)) {
+            return bean;
+        }
+        logger.debug("Adding adaptive concurrency limit to resource provider " + beanName);
+        int extractThreads = environment.getProperty("scan.extract.threads", Integer.class, 4);
+        AdaptiveConcurrencyResourceProvider concurrencyLimit = new AdaptiveConcurrencyResourceProvider((IResourceProvider) bean,
+            environment.getProperty("transfer.concurrency.initial", Integer.class, extractThreads),
+            environment.getProperty("transfer.concurrency.min", Integer.class, 1),
+            extractThreads,
+            environment.getProperty("transfer.concurrency.decrease", Double.class, 0.5),
+            environment.getProperty("transfer.concurrency.latency.tolerance", Double.class, 2.0));
+        concurrencyLimits.add(concurrencyLimit);
+        return concurrencyLimit;
+    }
+
+    /**
+     * Log the limit and throughput per host of each resource provider.
+     */
+    public void logSummary() {
+        concurrencyLimits.forEach(AdaptiveConcurrencyResourceProvider::logSummary);
+    }
+
+}
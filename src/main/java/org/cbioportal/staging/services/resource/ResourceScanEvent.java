@@ -0,0 +1,27 @@
+package org.cbioportal.staging.services.resource;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by the resource collector when a scan of the 'scan.location'
+ * starts and when it has finished. Resource providers can use this to
+ * keep listings for the duration of a single scan.
+ */
+public class ResourceScanEvent extends ApplicationEvent {
+
+    private static final long serialVersionUID = 4316295328457512349L;
+
+    public enum Phase { STARTED, FINISHED }
+
+    private final Phase phase;
+
+    public ResourceScanEvent(Object source, Phase phase) {
+        super(source);
+        this.phase = phase;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+}
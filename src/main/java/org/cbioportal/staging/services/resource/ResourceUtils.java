@@ -1,14 +1,17 @@
 package org.cbioportal.staging.services.resource;
 
-import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3URI;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.pivovarit.function.ThrowingPredicate;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URI;
@@ -16,15 +19,21 @@ import java.net.URL;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
+import java.util.function.UnaryOperator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -35,6 +44,7 @@ import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.cbioportal.staging.exceptions.ConfigurationException;
 import org.cbioportal.staging.exceptions.ResourceUtilsException;
+import org.cbioportal.staging.services.resource.aws.S3DirectoryResource;
 import org.cbioportal.staging.services.resource.ftp.FtpResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,9 +75,6 @@ public class ResourceUtils {
     @Value("${java.io.tmpdir}")
     private FileSystemResource tempDir;
 
-    @Value("${scan.location.type}")
-    private String scanLocationType;
-
     @Value("${scan.location}")
     private String scanLocation;
 
@@ -147,10 +154,13 @@ public class ResourceUtils {
      */
     public Resource getMostRecent(Resource[] resources) {
         Resource file = null;
+        long fileLastModified = 0;
         try {
             for (Resource resource : resources) {
-                if (file == null || resource.lastModified() > file.lastModified()) {
+                long lastModified = resource.lastModified();
+                if (file == null || lastModified > fileLastModified) {
                     file = resource;
+                    fileLastModified = lastModified;
                 }
             }
         } catch (IOException e) {
@@ -166,27 +176,6 @@ public class ResourceUtils {
      * @return Resource[]  List of directory Resources
      */
     public Resource[] extractDirs(Resource[] resources) throws ResourceUtilsException {
-        // TODO: The below is a HACK for AWS S3. S3 does not return directories as
-        // separate entries. Here we create dummy directories for each resource passed as argument.
-        // This hack may cause problems when using certain setup of scan.location.
-        if (scanLocationType.equals("aws")) {
-            Set<SimpleStorageResource> dirs = new HashSet<>();
-            AmazonS3 amazonS3 = ((SimpleStorageResource) resources[0]).getAmazonS3();
-            String bucket = evalUrlDomain(((SimpleStorageResource) resources[0]).getS3Uri().toString());
-            String scanLocationCleaned = trimPathLeft(trimPathRight(stripResourceTypePrefix(scanLocation)));
-            String dirPrefix = scanLocationCleaned.substring(scanLocationCleaned.indexOf("/")+1);
-            Stream.of(resources)
-                .map(SimpleStorageResource.class::cast)
-                .map(r -> correctS3ResourcePathForScanLocation(r))
-                .filter(l -> l.split("/").length > 1)
-                .map(l -> l.split("/")[0])
-                .forEach(dir -> {
-                    dirs.add(new SimpleStorageResource(
-                        amazonS3, bucket, dirPrefix + "/" + dir, null
-                    ));
-                });
-            return dirs.stream().toArray(Resource[]::new);
-        }
         return Stream.of(resources)
             .filter(ThrowingPredicate.unchecked(
                     n -> {
@@ -194,7 +183,8 @@ public class ResourceUtils {
                             return n.getFile().isDirectory();
                         if (n instanceof FtpResource)
                             return ((FtpResource) n).isDirectory();
-                        return false;
+                        // S3 directories are the common prefixes of the listing
+                        return n instanceof S3DirectoryResource;
                     }))
             .toArray(Resource[]::new);
     }
@@ -310,9 +300,69 @@ public class ResourceUtils {
         }
     }
 
+    /**
+     * Recreate a directory at a new location with hard links to the files of
+     * the source directory, so that no file contents are copied.
+     *
+     * Files are copied instead when they cannot be linked, e.g. when the target
+     * is on another file system. When the target is inside the source directory
+     * it is excluded. Hard links share their contents with the source files, so
+     * this may only be used when the files of both directories are only read
+     * afterwards. Extracted files can themselves be hard links to the read-only
+     * files of the TransferCache.
+     *
+     * @param sourceDir  Directory to be linked
+     * @param targetDir  Name and path to new directory
+     * @return boolean  true when all files were linked, false when one or more files were copied
+     * @throws ResourceUtilsException
+     */
+    public boolean linkDirectory(Resource sourceDir, Resource targetDir) throws ResourceUtilsException {
+        try {
+            Path source = sourceDir.getFile().toPath().toAbsolutePath().normalize();
+            Path target = targetDir.getFile().toPath().toAbsolutePath().normalize();
+            boolean[] linked = { true };
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (dir.equals(target)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    Files.createDirectories(target.resolve(source.relativize(dir)));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Path link = target.resolve(source.relativize(file));
+                    Files.deleteIfExists(link);
+                    if (linked[0]) {
+                        try {
+                            Files.createLink(link, file);
+                            return FileVisitResult.CONTINUE;
+                        } catch (IOException | UnsupportedOperationException e) {
+                            logger.debug("Cannot link " + file + ", copying files instead: " + e.getMessage());
+                            linked[0] = false;
+                        }
+                    }
+                    Files.copy(file, link, StandardCopyOption.COPY_ATTRIBUTES);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return linked[0];
+        } catch (IOException e) {
+            throw new ResourceUtilsException("Cannot link directory: " + targetDir.getDescription(), e);
+        }
+    }
+
     /**
      * Copy a file to a new location.
      *
+     * The file is written to a '.part' file that is moved to the destination
+     * when complete. When a '.part' file of an earlier attempt at the same
+     * version of the input exists (same size, modification time and ETag from
+     * its listing) and the input can be read from an offset (IResumableResource),
+     * only the missing bytes are copied.
+     *
      * @param destinationDir  Resource pointing to directory where new file should be created
      * @param inputResource  Object
      * @param fileName
@@ -321,19 +371,111 @@ public class ResourceUtils {
      */
     public Resource copyResource(Resource destinationDir, InputStreamSource inputResource, String fileName)
         throws ResourceUtilsException {
+        return copyResource(destinationDir, inputResource, fileName, UnaryOperator.identity());
+    }
+
+    /**
+     * Copy a file to a new location, reading the input through 'streamFilter'
+     * (e.g. to limit the bandwidth).
+     *
+     * @see #copyResource(Resource, InputStreamSource, String)
+     */
+    public Resource copyResource(Resource destinationDir, InputStreamSource inputResource, String fileName,
+        UnaryOperator<InputStream> streamFilter) throws ResourceUtilsException {
         try {
             String fullDestinationPath = trimPathRight(getFile(destinationDir).getAbsolutePath()) + "/" + trimPathLeft(fileName);
             ensureDirs(fullDestinationPath.substring(0, fullDestinationPath.lastIndexOf("/")));
 
-            FileSystemResource localFile = getWritableResource(fullDestinationPath);
-            IOUtils.copy(inputResource.getInputStream(), localFile.getOutputStream());
+            File partFile = getPartFile(new File(fullDestinationPath));
+            String source = inputResource instanceof IMetadataResource && ((IMetadataResource) inputResource).hasMetadata()
+                ? getFingerprint((Resource) inputResource) : null;
+            long present = RangedDownload.resumableLength(partFile, source);
+            InputStream inputStream = null;
+            if (present > 0 && inputResource instanceof IResumableResource) {
+                inputStream = ((IResumableResource) inputResource).getInputStream(present);
+                if (inputStream != null) {
+                    logger.info("Resuming download of " + fileName + " from byte " + present);
+                }
+            }
+            boolean append = inputStream != null;
+            if (inputStream == null) {
+                inputStream = inputResource.getInputStream();
+            }
+            try (InputStream in = streamFilter.apply(inputStream); OutputStream out = new FileOutputStream(partFile, append)) {
+                IOUtils.copy(in, out);
+            }
+            moveIntoPlace(partFile, new File(fullDestinationPath));
+            RangedDownload.removeProgress(partFile);
 
-            return localFile;
+            return getWritableResource(fullDestinationPath);
         } catch (IOException e) {
             throw new ResourceUtilsException("Cannot copy resource", e);
         }
     }
 
+    /**
+     * Fingerprint of a file, consisting of size, modification time and ETag
+     * separated by tabs. Values that cannot be determined are left empty.
+     * Resources from a directory listing carry these values; other S3 resources
+     * need a metadata request.
+     *
+     * @param resource  remote or local file
+     * @return String  fingerprint
+     * @throws ResourceUtilsException
+     */
+    public String getFingerprint(Resource resource) throws ResourceUtilsException {
+        String size = "";
+        String lastModified = "";
+        String eTag = "";
+        try {
+            if (resource instanceof IMetadataResource && ((IMetadataResource) resource).hasMetadata()) {
+                IMetadataResource listedResource = (IMetadataResource) resource;
+                size = String.valueOf(listedResource.contentLength());
+                lastModified = String.valueOf(listedResource.lastModified());
+                eTag = listedResource.getETag() != null ? listedResource.getETag() : "";
+            } else if (resource instanceof SimpleStorageResource) {
+                SimpleStorageResource s3Resource = (SimpleStorageResource) resource;
+                AmazonS3URI s3Uri = new AmazonS3URI(s3Resource.getS3Uri());
+                ObjectMetadata metadata = s3Resource.getAmazonS3().getObjectMetadata(s3Uri.getBucket(), s3Uri.getKey());
+                size = String.valueOf(metadata.getContentLength());
+                lastModified = metadata.getLastModified() != null ? String.valueOf(metadata.getLastModified().getTime()) : "";
+                eTag = metadata.getETag() != null ? metadata.getETag() : "";
+            } else if (!(resource instanceof FtpResource)) {
+                size = String.valueOf(resource.contentLength());
+                lastModified = String.valueOf(resource.lastModified());
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new ResourceUtilsException("Cannot read size and modification time of " + resource.getDescription(), e);
+        }
+        return size + "\t" + lastModified + "\t" + eTag;
+    }
+
+    /**
+     * Temporary file that a download to 'file' is written to.
+     *
+     * @param file  destination of the download
+     * @return File
+     */
+    public File getPartFile(File file) {
+        return new File(file.getAbsolutePath() + ".part");
+    }
+
+    /**
+     * Move a completely downloaded file to its destination, replacing an existing
+     * file. The move is atomic when the file system supports it.
+     *
+     * @param source  downloaded file
+     * @param target  destination
+     * @throws IOException
+     */
+    public void moveIntoPlace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     /**
      * Create all subdirectories under a file or directory.
      *
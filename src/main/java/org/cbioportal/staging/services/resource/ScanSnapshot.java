@@ -0,0 +1,188 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.PostConstruct;
+
+import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.cbioportal.staging.exceptions.ResourceUtilsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+/**
+ *
+ * Persistent record of the study files found during the previous scan of the
+ * 'scan.location'. For every file the path, size, modification time and ETag
+ * (S3 only) are stored in the file set by the 'scan.snapshot.file' property.
+ *
+ * Studies of which no file was added, removed or changed since the last
+ * committed scan are not passed on to the ETL process. When the property
+ * is not set all studies are passed on.
+ *
+ */
+@Component
+public class ScanSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScanSnapshot.class);
+
+    private static final String SEPARATOR = "\t";
+
+    @Value("${scan.snapshot.file:}")
+    private Resource snapshotFile;
+
+    @Autowired
+    private ResourceUtils utils;
+
+    // studyId -> (file uri -> fingerprint)
+    private Map<String, Map<String, String>> committed = new HashMap<>();
+    private Map<String, Map<String, String>> pending = null;
+
+    @PostConstruct
+    private void postConstruct() throws ResourceCollectionException {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            File file = utils.getFile(snapshotFile);
+            if (file.exists()) {
+                for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                    String[] fields = line.split(SEPARATOR, 3);
+                    if (fields.length == 3) {
+                        committed.computeIfAbsent(fields[0], k -> new TreeMap<>()).put(fields[1], fields[2]);
+                    }
+                }
+            }
+            logger.debug("Read scan snapshot of " + committed.size() + " studies from " + file.getAbsolutePath());
+        } catch (ResourceUtilsException | IOException e) {
+            throw new ResourceCollectionException("Cannot read scan snapshot file.", e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return snapshotFile != null;
+    }
+
+    /**
+     * Select the studies that changed since the last committed scan.
+     *
+     * The fingerprints of all passed studies are kept until {@link #commit(Collection)}
+     * is called, so that a failed ETL run is repeated at the next scan. Studies that
+     * are no longer present at the scan location are removed from the snapshot.
+     *
+     * @param studies  all studies found at the scan location
+     * @return Study[]  studies with added, removed or changed files
+     * @throws ResourceCollectionException
+     */
+    public Study[] changedStudies(Study[] studies) throws ResourceCollectionException {
+        if (!isEnabled()) {
+            return studies;
+        }
+
+        Map<String, Map<String, String>> current = new HashMap<>();
+        List<Study> changed = new ArrayList<>();
+        for (Study study : studies) {
+            Map<String, String> fingerprints = new TreeMap<>();
+            for (Resource resource : study.getResources()) {
+                fingerprints.put(uri(resource), fingerprint(resource));
+            }
+            current.put(study.getStudyId(), fingerprints);
+            if (!fingerprints.equals(committed.get(study.getStudyId()))) {
+                changed.add(study);
+            }
+        }
+        logger.info("Scan snapshot: " + changed.size() + " of " + studies.length + " studies have changed since the previous scan.");
+
+        pending = current;
+        return changed.toArray(new Study[0]);
+    }
+
+    /**
+     * Store the fingerprints of all studies of the last call to
+     * {@link #changedStudies(Study[])}.
+     *
+     * @throws ResourceCollectionException
+     */
+    public void commit() throws ResourceCollectionException {
+        if (pending != null) {
+            commit(pending.keySet());
+        }
+    }
+
+    /**
+     * Store the fingerprints of the last call to {@link #changedStudies(Study[])}
+     * for the given studies only. Other studies keep the fingerprints of the
+     * previous commit, so that they are passed on again at the next scan.
+     *
+     * @param studyIds  studies that completed the ETL process
+     * @throws ResourceCollectionException
+     */
+    public void commit(Collection<String> studyIds) throws ResourceCollectionException {
+        if (!isEnabled() || pending == null) {
+            return;
+        }
+        Map<String, Map<String, String>> snapshot = new HashMap<>();
+        pending.forEach((studyId, fingerprints) -> {
+            Map<String, String> stored = studyIds.contains(studyId) ? fingerprints : committed.get(studyId);
+            if (stored != null) {
+                snapshot.put(studyId, stored);
+            }
+        });
+        List<String> lines = new ArrayList<>();
+        snapshot.forEach((studyId, fingerprints) ->
+            fingerprints.forEach((uri, fingerprint) -> lines.add(studyId + SEPARATOR + uri + SEPARATOR + fingerprint)));
+        try {
+            File file = utils.getFile(snapshotFile);
+            utils.ensureDirs(file.getParentFile());
+            utils.writeToFile(utils.getWritableResource(file.getAbsolutePath()), lines, false);
+        } catch (ResourceUtilsException e) {
+            throw new ResourceCollectionException("Cannot write scan snapshot file.", e);
+        }
+        committed = snapshot;
+        pending = null;
+    }
+
+    private String uri(Resource resource) throws ResourceCollectionException {
+        try {
+            return utils.getURI(resource).toString();
+        } catch (IOException e) {
+            throw new ResourceCollectionException("Cannot read URI from resource.", e);
+        }
+    }
+
+    private String fingerprint(Resource resource) throws ResourceCollectionException {
+        try {
+            return utils.getFingerprint(resource);
+        } catch (ResourceUtilsException e) {
+            throw new ResourceCollectionException(e.getMessage(), e);
+        }
+    }
+
+}
@@ -0,0 +1,381 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.services.resource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.cbioportal.staging.exceptions.ResourceUtilsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+/**
+ *
+ * Local cache of downloaded files in front of IResourceProvider.copyFromRemote.
+ * The cache is enabled when 'transfer.cache.dir' is set.
+ *
+ * Files are stored once per content in the cache directory, and are looked up
+ * by the URI and fingerprint (size, modification time and ETag) of the remote
+ * file. The content is identified by the ETag and size of the remote file when
+ * the listing provides an ETag, and by the SHA-256 of the downloaded file
+ * otherwise. A cached file is hard linked into the extraction directory.
+ *
+ * A hard link shares its contents with the cached file, and the extracted
+ * files are linked once more into the transformed study directory when the
+ * study is not transformed. The extracted files must therefore never be
+ * changed in place: a change would also change the cached file and every
+ * other extraction of it. To enforce this, cached files are made read-only,
+ * so that writing to a linked file fails instead of corrupting the cache.
+ * Replacing or removing a linked file does not affect the cache.
+ * Resources without a fingerprint (e.g. SFTP files without listing metadata)
+ * and local files of the file system provider are not cached.
+ *
+ * When the total size of the cached files exceeds 'transfer.cache.size' bytes,
+ * the least recently used files are removed. The index of the cache is kept in
+ * the cache directory by save(), so that it is reused after a restart. Files
+ * added after the last save() are removed at the next start.
+ *
+ */
+@Component
+public class TransferCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransferCache.class);
+
+    private static final String SEPARATOR = "\t";
+    private static final String INDEX_FILE = "index.txt";
+    private static final String OBJECTS_DIR = "objects";
+
+    @Value("${transfer.cache.dir:}")
+    private Resource cacheDir;
+
+    @Value("${transfer.cache.size:10737418240}")
+    private long maxSize;
+
+    @Autowired
+    private ResourceUtils utils;
+
+    @Autowired
+    private IResourceProvider resourceProvider;
+
+    // content hash -> size, in order of last use
+    private final LinkedHashMap<String, Long> objects = new LinkedHashMap<>(16, 0.75f, true);
+    // uri + fingerprint -> content hash
+    private final Map<String, String> keys = new HashMap<>();
+    private long totalSize = 0;
+    private File cacheRoot;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @PostConstruct
+    void postConstruct() throws ResourceCollectionException {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            cacheRoot = utils.getFile(cacheDir);
+            Files.createDirectories(objectsDir().toPath());
+            File index = new File(cacheRoot, INDEX_FILE);
+            if (index.exists()) {
+                for (String line : Files.readAllLines(index.toPath(), StandardCharsets.UTF_8)) {
+                    String[] fields = line.split(SEPARATOR, 3);
+                    if (fields.length == 3 && fields[0].equals("object") && objectFile(fields[1]).exists()) {
+                        makeReadOnly(objectFile(fields[1]));
+                        long size = Long.parseLong(fields[2]);
+                        objects.put(fields[1], size);
+                        totalSize += size;
+                    } else if (fields.length == 3 && fields[0].equals("key") && objects.containsKey(fields[1])) {
+                        keys.put(fields[2], fields[1]);
+                    }
+                }
+            }
+            // remove files of interrupted additions
+            File[] files = objectsDir().listFiles();
+            for (File file : files != null ? files : new File[0]) {
+                if (!objects.containsKey(file.getName())) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+            logger.info("Transfer cache in " + cacheRoot + " contains " + objects.size() + " files (" + totalSize + " bytes).");
+        } catch (ResourceUtilsException | IOException | RuntimeException e) {
+            throw new ResourceCollectionException("Cannot read transfer cache index in " + cacheDir.getDescription(), e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return cacheDir != null;
+    }
+
+    /**
+     * Copy a remote file to a local directory, from the cache when the remote
+     * file has not changed since it was cached.
+     *
+     * @param destinationDir  local directory
+     * @param remoteResource  remote file
+     * @return Resource  local file
+     * @throws ResourceCollectionException
+     */
+    public Resource copyFromRemote(Resource destinationDir, Resource remoteResource) throws ResourceCollectionException {
+        if (!isEnabled()) {
+            return resourceProvider.copyFromRemote(destinationDir, remoteResource);
+        }
+        String key = key(remoteResource);
+        if (key == null) {
+            return resourceProvider.copyFromRemote(destinationDir, remoteResource);
+        }
+
+        try {
+            Resource cached = copyFromCache(destinationDir, remoteResource, key);
+            if (cached != null) {
+                return cached;
+            }
+            misses.incrementAndGet();
+            Resource localResource = resourceProvider.copyFromRemote(destinationDir, remoteResource);
+            try {
+                File file = utils.getFile(localResource);
+                String contentId = eTagId(remoteResource, file);
+                add(key, file, contentId != null ? contentId : hash(file));
+            } catch (IOException e) {
+                // the download itself succeeded
+                logger.warn("Cannot add " + remoteResource.getDescription() + " to transfer cache: " + e.getMessage());
+            }
+            return localResource;
+        } catch (IOException | ResourceUtilsException e) {
+            throw new ResourceCollectionException("Cannot copy resource through transfer cache.", e);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getSize() {
+        return totalSize;
+    }
+
+    private Resource copyFromCache(Resource destinationDir, Resource remoteResource, String key)
+            throws IOException, ResourceUtilsException {
+        File object;
+        long size;
+        synchronized (this) {
+            String hash = keys.get(key);
+            if (hash == null) {
+                return null;
+            }
+            // also marks the file as most recently used
+            size = objects.get(hash);
+            object = objectFile(hash);
+        }
+        String fileName = remoteResource.getFilename();
+        fileName = fileName.substring(fileName.lastIndexOf("/") + 1);
+        utils.ensureDirs(destinationDir);
+        File target = new File(utils.getFile(destinationDir), fileName);
+        try {
+            link(object, target);
+        } catch (IOException e) {
+            // evicted in the mean time
+            logger.debug("Cannot use cached file for " + remoteResource.getDescription() + ": " + e.getMessage());
+            return null;
+        }
+        hits.incrementAndGet();
+        bytesSaved.addAndGet(size);
+        logger.debug("Copied " + remoteResource.getDescription() + " from transfer cache.");
+        return utils.getWritableResource(target.getAbsolutePath());
+    }
+
+    private void add(String key, File file, String hash) throws IOException {
+        File object = objectFile(hash);
+        synchronized (this) {
+            if (objects.containsKey(hash)) {
+                // same contents as another remote file, marked as most recently used
+                objects.get(hash);
+            } else {
+                link(file, object);
+                makeReadOnly(object);
+                objects.put(hash, file.length());
+                totalSize += file.length();
+                evict(hash);
+            }
+            keys.put(key, hash);
+        }
+    }
+
+    /**
+     * Store the index, including the order of use of the cached files.
+     *
+     * @throws ResourceCollectionException
+     */
+    public synchronized void save() throws ResourceCollectionException {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            writeIndex();
+        } catch (IOException e) {
+            throw new ResourceCollectionException("Cannot write transfer cache index.", e);
+        }
+    }
+
+    /**
+     * Remove least recently used files until the cache fits in 'transfer.cache.size'.
+     * The file that was just added is kept.
+     */
+    private void evict(String keep) throws IOException {
+        Iterator<Map.Entry<String, Long>> iterator = objects.entrySet().iterator();
+        while (totalSize > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            String hash = entry.getKey();
+            iterator.remove();
+            totalSize -= entry.getValue();
+            keys.values().removeIf(h -> h.equals(hash));
+            Files.deleteIfExists(objectFile(hash).toPath());
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        List<String> lines = new ArrayList<>();
+        // iteration does not change the access order
+        objects.forEach((hash, size) -> lines.add("object" + SEPARATOR + hash + SEPARATOR + size));
+        keys.forEach((key, hash) -> lines.add("key" + SEPARATOR + hash + SEPARATOR + key));
+        File index = new File(cacheRoot, INDEX_FILE);
+        File partFile = utils.getPartFile(index);
+        Files.write(partFile.toPath(), lines, StandardCharsets.UTF_8);
+        utils.moveIntoPlace(partFile, index);
+    }
+
+    /**
+     * Hard link a file, or copy it when the files are on different file systems.
+     */
+    private void link(File source, File target) throws IOException {
+        Files.deleteIfExists(target.toPath());
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+        } catch (FileSystemException | UnsupportedOperationException e) {
+            File partFile = utils.getPartFile(target);
+            Files.copy(source.toPath(), partFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            utils.moveIntoPlace(partFile, target);
+        }
+    }
+
+    private void makeReadOnly(File object) throws IOException {
+        if (!object.setWritable(false, false)) {
+            throw new IOException("Cannot make cached file " + object + " read-only.");
+        }
+    }
+
+    /**
+     * @return String  URI and fingerprint of the resource, or null when it has no
+     *                 fingerprint or is a local file
+     */
+    private String key(Resource resource) throws ResourceCollectionException {
+        try {
+            URI uri = utils.getURI(resource);
+            if ("file".equals(uri.getScheme())) {
+                // copied by LocalFileTransfer, which is as fast as the cache
+                return null;
+            }
+            String fingerprint = utils.getFingerprint(resource);
+            if (fingerprint.trim().isEmpty()) {
+                return null;
+            }
+            return uri.toString() + SEPARATOR + fingerprint;
+        } catch (IOException | ResourceUtilsException e) {
+            throw new ResourceCollectionException("Cannot read fingerprint of resource.", e);
+        }
+    }
+
+    /**
+     * @return String  content id from the ETag in the listing of the remote file,
+     *                 or null when there is no ETag and the file has to be hashed
+     */
+    private String eTagId(Resource resource, File file) {
+        if (!(resource instanceof IMetadataResource) || !((IMetadataResource) resource).hasMetadata()) {
+            return null;
+        }
+        String eTag = ((IMetadataResource) resource).getETag();
+        // S3 ETags are quoted
+        eTag = eTag != null ? eTag.replaceAll("[^A-Za-z0-9-]", "") : "";
+        return eTag.isEmpty() ? null : "etag-" + eTag + "-" + file.length();
+    }
+
+    private String hash(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private File objectsDir() {
+        return new File(cacheRoot, OBJECTS_DIR);
+    }
+
+    private File objectFile(String hash) {
+        return new File(objectsDir(), hash);
+    }
+
+}
@@ -1,7 +1,10 @@
 package org.cbioportal.staging.services.resource.aws;
 
+import java.io.File;
+import java.io.InputStream;
 import java.util.List;
 import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.cbioportal.staging.services.resource.BandwidthLimiter;
 import org.cbioportal.staging.services.resource.IResourceProvider;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,6 +33,12 @@ public class AwsResourceProvider implements IResourceProvider {
     @Autowired
     private IAwsGateway gateway;
 
+    @Autowired
+    private S3TransferEngine transferEngine;
+
+    @Autowired
+    private BandwidthLimiter bandwidthLimiter;
+
     @Override
     public Resource getResource(String url) throws ResourceCollectionException {
 		return resourceResolver.getResource(url);
@@ -62,7 +71,15 @@ public class AwsResourceProvider implements IResourceProvider {
         try { String fileName = remoteResource.getFilename();
             if (fileName.contains("/"))
                 fileName = fileName.substring(fileName.lastIndexOf("/") + 1);
-            return utils.copyResource(destinationDir, remoteResource, fileName);
+            if (remoteResource instanceof SimpleStorageResource
+                    && transferEngine.isMultipart((SimpleStorageResource) remoteResource)) {
+                utils.ensureDirs(destinationDir);
+                File target = new File(utils.getFile(destinationDir), fileName);
+                transferEngine.download((SimpleStorageResource) remoteResource, target);
+                return utils.getWritableResource(target.getAbsolutePath());
+            }
+            return utils.copyResource(destinationDir, remoteResource, fileName,
+                in -> bandwidthLimiter.limit(BandwidthLimiter.AWS, in));
         } catch (Exception e) {
             throw new ResourceCollectionException("Cannot copy resource", e);
         }
@@ -70,7 +87,17 @@ public class AwsResourceProvider implements IResourceProvider {
 
     @Override
     public Resource copyToRemote(Resource destinationDir, Resource localResource) throws ResourceCollectionException {
-        return copyFromRemote(destinationDir, localResource);
+        try (InputStream contents = bandwidthLimiter.limit(BandwidthLimiter.AWS, localResource.getInputStream())) {
+            // the file is streamed into the S3 object, in parts when it is large
+            String remoteFilePath = gateway.put(
+                contents,
+                ((SimpleStorageResource) destinationDir).getS3Uri().toString(),
+                localResource.getFilename()
+            );
+            return getResource(remoteFilePath);
+        } catch (Exception e) {
+            throw new ResourceCollectionException("Cannot copy resource to remote.", e);
+        }
     }
 
 }
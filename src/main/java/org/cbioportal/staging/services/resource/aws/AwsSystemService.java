@@ -2,12 +2,31 @@ package org.cbioportal.staging.services.resource.aws;
 
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.URL;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3URI;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.pivovarit.function.ThrowingSupplier;
+
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.cbioportal.staging.services.resource.ResourceScanEvent;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,6 +34,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cloud.aws.core.io.s3.SimpleStorageResource;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.WritableResource;
 import org.springframework.core.io.support.ResourcePatternResolver;
@@ -37,10 +57,18 @@ public class AwsSystemService {
     @Autowired
     private ResourceUtils utils;
 
+    @Autowired
+    private AmazonS3 amazonS3;
+
+    @Autowired
+    private S3HedgedGet hedgedGet;
+
+    private final Map<String, List<Resource>> listingCache = new ConcurrentHashMap<>();
+    private volatile boolean scanInProgress = false;
+
     @ServiceActivator(inputChannel = "resource.ls")
     public List<Resource> awsGatewayLs(String directory) throws ResourceCollectionException {
-        List<Resource> resources = awsGatewayLsDirRecur(directory);
-        // Remove all resources that are not directly in the directory.
+        // Only include resources that are directly in the scan.location, or one dir away from it.
         // For correct downstream analysis of study directories this means that all
         // resources that are one dir away from the root are included
         // For instance, eval of:
@@ -59,58 +87,211 @@ public class AwsSystemService {
         //   s3://scan.location/[dir1/file1]      --> one slash    --> accepted
         //   s3://scan.location/[dir1/dir2/file1] --> two slashes  --> rejected
         // The code takes into account that scan.location van be a dir nested deep somewhere in the s3 bucket
-        logger.debug("awsGatewayLsDir: before filtering :" + resources.stream().map(r -> r.getFilename()).collect(Collectors.joining(", ")));
-        List<Resource> resourceList =  resources.stream()
-            .filter(r -> {
-                String scanLocationCorrectedFileName = utils.correctS3ResourcePathForScanLocation((SimpleStorageResource) r);
-                return StringUtils.countMatches(scanLocationCorrectedFileName, "/") < 1;
-            })
-            .collect(Collectors.toList());
-        logger.debug("awsGatewayLsDir: after filtering :" + resourceList.stream().map(r -> r.getFilename()).collect(Collectors.joining(", ")));
-        return resourceList;
+        return cached("ls:" + directory, () -> listAtDepth(directory, 0, 1));
     }
 
     @ServiceActivator(inputChannel = "resource.ls.dir")
     public List<Resource> awsGatewayLsDir(String directory) throws ResourceCollectionException {
-        List<Resource> resources = awsGatewayLsDirRecur(directory);
-        // For correct downstream analysis of study directories, all resources that are not
-        // directly in the directory param are excluded.
-        // This is evaluated based on the number of fwd-slashes in the filename (S3 objectKey):
-        //   s3://scan.location/[file1]           --> no slash     --> rejected
-        //   s3://scan.location/[dir1/file1]      --> one slash    --> accepted
-        //   s3://scan.location/[dir1/dir2/file1] --> two slashes  --> rejected
-        // The code takes into account that scan.location van be a dir nested deep somewhere in the s3 bucket
-        logger.debug("awsGatewayLsDir: before filtering :" + resources.stream().map(r -> r.getFilename()).collect(Collectors.joining(", ")));
-        List<Resource> resourceList =  resources.stream()
-            .filter(r -> {
-                String scanLocationCorrectedFileName = utils.correctS3ResourcePathForScanLocation((SimpleStorageResource) r);
-                return StringUtils.countMatches(scanLocationCorrectedFileName, "/") == 1;
-            })
-            .collect(Collectors.toList());
-        logger.debug("awsGatewayLsDir: after filtering :" + resourceList.stream().map(r -> r.getFilename()).collect(Collectors.joining(", ")));
-        return resourceList;
+        // S3 has no directories, so the directories in the listing are the common prefixes
+        // of a listing with a '/' delimiter. Like a directory listing of a file system, the
+        // result holds the objects directly in the directory and its sub directories:
+        //   s3://scan.location/[file1]           --> object       --> accepted
+        //   s3://scan.location/[dir1/]           --> prefix       --> accepted as directory
+        //   s3://scan.location/[dir1/file1]      --> below prefix --> rejected
+        return cached("ls.dir:" + directory, () -> listDir(directory));
     }
 
     @ServiceActivator(inputChannel = "resource.ls.dir.recur")
     public List<Resource> awsGatewayLsDirRecur(String directory) throws ResourceCollectionException {
-        return lsHelper(directory, "**/*", false);
+        return cached("ls.dir.recur:" + directory, () -> lsHelper(directory));
+    }
+
+    /**
+     * Listings are kept for the duration of a scan of the scan.location, so that
+     * directories that are visited more than once are only listed once.
+     */
+    @EventListener
+    public void onResourceScan(ResourceScanEvent event) {
+        listingCache.clear();
+        scanInProgress = event.getPhase() == ResourceScanEvent.Phase.STARTED;
     }
 
-    private List<Resource> lsHelper(String dir, String wildcard, boolean excludeDirs) throws ResourceCollectionException {
+    private List<Resource> cached(String key, ThrowingSupplier<List<Resource>, ResourceCollectionException> listing)
+            throws ResourceCollectionException {
+        if (!scanInProgress) {
+            return listing.get();
+        }
+        List<Resource> resources = listingCache.get(key);
+        if (resources == null) {
+            resources = Collections.unmodifiableList(listing.get());
+            listingCache.put(key, resources);
+        }
+        return resources;
+    }
+
+    /**
+     * List the objects below a directory of which the key, relative to the scan.location,
+     * contains 'minDepth' to 'maxDepth' fwd-slashes. The directory tree is walked with a
+     * delimiter, so only the directories down to the deepest requested depth are listed.
+     */
+    private List<Resource> listAtDepth(String directory, int minDepth, int maxDepth) throws ResourceCollectionException {
         try {
-            String path = utils.trimPathRight(dir);
-            String wildCardPath = path + "/" + wildcard;
-            logger.debug("Scanning at path: " + wildCardPath);
-            Resource[] res = resourcePatternResolver.getResources(wildCardPath);
-            return Arrays.asList(res);
+            String scanPath = utils.trimPathRight(scanLocation.replaceAll("/+", "/")) + "/";
+            String dirPath = utils.trimPathRight(directory.replaceAll("/+", "/")) + "/";
+            if (!dirPath.startsWith(scanPath)) {
+                // Directory outside of the scan.location: filter the recursive listing.
+                return lsHelper(directory).stream()
+                    .filter(r -> {
+                        int depth = StringUtils.countMatches(utils.correctS3ResourcePathForScanLocation((SimpleStorageResource) r), "/");
+                        return depth >= minDepth && depth <= maxDepth;
+                    })
+                    .collect(Collectors.toList());
+            }
+            int dirDepth = StringUtils.countMatches(dirPath.substring(scanPath.length()), "/");
+
+            List<Resource> resources = new ArrayList<>();
+            if (dirDepth <= maxDepth) {
+                AmazonS3URI s3Uri = new AmazonS3URI(utils.trimPathRight(directory));
+                collectAtDepth(s3Uri.getBucket(), keyPrefix(s3Uri), minDepth - dirDepth, maxDepth - dirDepth, resources);
+            }
+            logger.debug("awsGatewayLs: found at depth " + minDepth + " to " + maxDepth + " below " + directory + ": "
+                + resources.stream().map(r -> r.getFilename()).collect(Collectors.joining(", ")));
+            return resources;
+        } catch (ResourceCollectionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ResourceCollectionException("Could not read from remote directory: " + directory, e);
+        }
+    }
+
+    /**
+     * @param minLevelsDown  number of directories below 'prefix' from which objects are collected
+     * @param maxLevelsDown  number of directories below 'prefix' down to which objects are collected
+     */
+    private void collectAtDepth(String bucket, String prefix, int minLevelsDown, int maxLevelsDown,
+            List<Resource> resources) {
+        List<String> subDirs = new ArrayList<>();
+        pages(bucket, prefix, "/").forEach(page -> {
+            if (minLevelsDown <= 0) {
+                page.getObjectSummaries().stream()
+                    .filter(summary -> !summary.getKey().endsWith("/"))
+                    .forEach(summary -> resources.add(toResource(bucket, summary)));
+            }
+            if (maxLevelsDown > 0) {
+                subDirs.addAll(page.getCommonPrefixes());
+            }
+        });
+        for (String subDir : subDirs) {
+            collectAtDepth(bucket, subDir, minLevelsDown - 1, maxLevelsDown - 1, resources);
+        }
+    }
+
+    private List<Resource> listDir(String directory) throws ResourceCollectionException {
+        try {
+            AmazonS3URI s3Uri = new AmazonS3URI(utils.trimPathRight(directory));
+            String bucket = s3Uri.getBucket();
+            List<Resource> resources = new ArrayList<>();
+            pages(bucket, keyPrefix(s3Uri), "/").forEach(page -> {
+                page.getObjectSummaries().stream()
+                    // skip directory placeholder objects
+                    .filter(summary -> !summary.getKey().endsWith("/"))
+                    .forEach(summary -> resources.add(toResource(bucket, summary)));
+                page.getCommonPrefixes().forEach(prefix -> resources.add(new S3DirectoryResource(amazonS3, bucket,
+                    utils.trimPathRight(prefix), () -> lastModifiedInDir(bucket, prefix))));
+            });
+            logger.debug("awsGatewayLsDir: found in " + directory + ": "
+                + resources.stream().map(r -> r.getFilename()).collect(Collectors.joining(", ")));
+            return resources;
+        } catch (Exception e) {
+            throw new ResourceCollectionException("Could not read from remote directory: " + directory, e);
+        }
+    }
+
+    /**
+     * @return long  most recent modification time of the objects directly below 'prefix', 0 when there are none
+     */
+    private long lastModifiedInDir(String bucket, String prefix) {
+        return pages(bucket, prefix, "/")
+            .flatMap(page -> page.getObjectSummaries().stream())
+            .filter(summary -> summary.getLastModified() != null)
+            .mapToLong(summary -> summary.getLastModified().getTime())
+            .max()
+            .orElse(0);
+    }
+
+    /**
+     * List all objects below a directory. The resources carry size, modification
+     * time and ETag from the object summaries of the listing.
+     */
+    private List<Resource> lsHelper(String dir) throws ResourceCollectionException {
+        try {
+            AmazonS3URI s3Uri = new AmazonS3URI(utils.trimPathRight(dir));
+            String bucket = s3Uri.getBucket();
+            String prefix = keyPrefix(s3Uri);
+            logger.debug("Scanning at bucket: " + bucket + " prefix: " + prefix);
+
+            return pages(bucket, prefix, null)
+                .flatMap(page -> page.getObjectSummaries().stream())
+                // skip directory placeholder objects
+                .filter(summary -> !summary.getKey().endsWith("/"))
+                .map(summary -> toResource(bucket, summary))
+                .collect(Collectors.toList());
         } catch (Exception e) {
             throw new ResourceCollectionException("Could not read from remote directory: " + dir, e);
         }
     }
 
+    private String keyPrefix(AmazonS3URI s3Uri) {
+        return s3Uri.getKey() == null || s3Uri.getKey().isEmpty() ? "" : utils.trimPathRight(s3Uri.getKey()) + "/";
+    }
+
+    /**
+     * Pages of a ListObjectsV2 listing. Each page is only requested when the
+     * previous page has been consumed.
+     */
+    private Stream<ListObjectsV2Result> pages(String bucket, String prefix, String delimiter) {
+        ListObjectsV2Request request = new ListObjectsV2Request()
+            .withBucketName(bucket)
+            .withPrefix(prefix)
+            .withDelimiter(delimiter);
+        Iterator<ListObjectsV2Result> iterator = new Iterator<ListObjectsV2Result>() {
+            private ListObjectsV2Result last = null;
+
+            @Override
+            public boolean hasNext() {
+                return last == null || last.isTruncated();
+            }
+
+            @Override
+            public ListObjectsV2Result next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (last != null) {
+                    request.setContinuationToken(last.getNextContinuationToken());
+                }
+                last = amazonS3.listObjectsV2(request);
+                return last;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+    }
+
+    private Resource toResource(String bucket, S3ObjectSummary summary) {
+        long lastModified = summary.getLastModified() != null ? summary.getLastModified().getTime() : 0;
+        return new S3Resource(amazonS3, bucket, summary.getKey(), summary.getSize(), lastModified, summary.getETag(), hedgedGet);
+    }
+
     @ServiceActivator(inputChannel = "resource.get.stream")
     public InputStream awsGatewayGetStream(String file) {
         try {
+            if (hedgedGet.isEnabled()) {
+                AmazonS3URI s3Uri = new AmazonS3URI(file);
+                InputStream contents = hedgedGet.getObject(amazonS3, () -> new GetObjectRequest(s3Uri.getBucket(), s3Uri.getKey()));
+                if (contents != null) {
+                    return contents;
+                }
+            }
             return resourcePatternResolver.getResource(file).getInputStream();
         } catch (Exception e) {
             throw new RuntimeException("Error reading file: " + file, e);
@@ -118,20 +299,22 @@ public class AwsSystemService {
     }
 
     @ServiceActivator(inputChannel = "resource.put")
-    public String awsGatewayPut(Message<byte[]> message) {
-        byte[] contents = message.getPayload();
+    public String awsGatewayPut(Message<InputStream> message) {
+        InputStream contents = message.getPayload();
         String destinationDir = (String) message.getHeaders().get("dest.dir");
         String fileName = (String) message.getHeaders().get("filename");
+        listingCache.clear();
         try {
-            URL path = utils.createRemoteURL("s3", destinationDir, fileName);
-            WritableResource resource = (WritableResource) resourcePatternResolver
-                .getResource(path.toString());
+            String path = utils.trimPathRight(destinationDir) + "/" + fileName;
+            WritableResource resource = (WritableResource) resourcePatternResolver.getResource(path);
+            // the S3 output stream uploads objects larger than one buffer
+            // in parts, so memory use does not depend on the file size
             try (OutputStream outputStream = resource.getOutputStream()) {
-                outputStream.write(contents);
+                IOUtils.copy(contents, outputStream);
             }
-            return path.toString();
+            return path;
         } catch (Exception e) {
-            throw new RuntimeException("Error writing file: " + "s3:/" + destinationDir + "/" +fileName, e);
+            throw new RuntimeException("Error writing file: " + destinationDir + "/" + fileName, e);
         }
     }
 
@@ -0,0 +1,57 @@
+package org.cbioportal.staging.services.resource.aws;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.LongSupplier;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+import org.springframework.cloud.aws.core.io.s3.SimpleStorageResource;
+import org.springframework.core.task.SyncTaskExecutor;
+
+/**
+ * S3 directory, i.e. a common prefix of a delimited bucket listing. S3 has no
+ * directory objects, so the modification time is the most recent modification
+ * time of the objects directly in the directory. It is only listed when asked for.
+ */
+public class S3DirectoryResource extends SimpleStorageResource {
+
+    private final String objectName;
+    private final LongSupplier lastModified;
+    private volatile Long cachedLastModified;
+
+    /**
+     * @param objectName  common prefix, without the trailing slash
+     * @param lastModified  lists the directory for its modification time
+     */
+    public S3DirectoryResource(AmazonS3 amazonS3, String bucketName, String objectName, LongSupplier lastModified) {
+        super(amazonS3, bucketName, objectName, new SyncTaskExecutor());
+        this.objectName = objectName;
+        this.lastModified = lastModified;
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public long contentLength() {
+        return 0;
+    }
+
+    @Override
+    public long lastModified() {
+        if (cachedLastModified == null) {
+            cachedLastModified = lastModified.getAsLong();
+        }
+        return cachedLastModified;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        throw new FileNotFoundException("Cannot read contents of directory " + objectName);
+    }
+
+}
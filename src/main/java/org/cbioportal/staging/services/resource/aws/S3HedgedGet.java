@@ -0,0 +1,267 @@
+package org.cbioportal.staging.services.resource.aws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.pivovarit.function.ThrowingSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hedged GET requests for S3 objects. When 'aws.hedge.enable' is true and a GET
+ * has not returned the first byte of the object within the 'aws.hedge.percentile'
+ * of the time to first byte of recent GETs, a second GET for the same object is
+ * sent. The stream of the request that returns first is used; the other request
+ * is aborted.
+ *
+ * At most 'aws.hedge.budget' percent of the GETs is hedged. The delay is never
+ * shorter than 'aws.hedge.delay.min' ms, and GETs are not hedged until enough
+ * GETs have been timed.
+ */
+@Component
+@ConditionalOnProperty(value = "scan.location.type" , havingValue = "aws")
+public class S3HedgedGet {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3HedgedGet.class);
+
+    private static final int SAMPLES = 500;
+    private static final int MIN_SAMPLES = 20;
+    private static final double MAX_TOKENS = 10;
+
+    @Value("${aws.hedge.enable:false}")
+    private boolean enabled;
+
+    @Value("${aws.hedge.percentile:95}")
+    private int percentile;
+
+    @Value("${aws.hedge.budget:10}")
+    private int budget;
+
+    @Value("${aws.hedge.delay.min:50}")
+    private long minDelay;
+
+    private ExecutorService requestExecutor;
+
+    // time to first byte in ms of recent GETs
+    private final long[] samples = new long[SAMPLES];
+    private int sampleCount = 0;
+    private int samplePosition = 0;
+    private double hedgeTokens = 0;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedgedRequests = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    @PostConstruct
+    void initRequestExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        requestExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "s3-hedge-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdownRequestExecutor() {
+        requestExecutor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * GET an S3 object, hedged when the first request is slow.
+     *
+     * @param amazonS3  S3 client
+     * @param request  creates the request, called once per GET
+     * @return InputStream  contents of the object, or null when a constraint
+     *                      of the request was not met
+     * @throws IOException
+     */
+    public InputStream getObject(AmazonS3 amazonS3, Supplier<GetObjectRequest> request) throws IOException {
+        requests.incrementAndGet();
+        long delay = hedgeDelay();
+        addHedgeToken();
+        CompletableFuture<ObjectStream> primary = submit(amazonS3, request, true);
+        try {
+            if (delay < 0) {
+                return primary.get();
+            }
+            try {
+                return primary.get(delay, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // slower than the percentile of recent requests
+            }
+            if (!acquireHedge()) {
+                return primary.get();
+            }
+            hedgedRequests.incrementAndGet();
+            logger.debug("No response for " + request.get().getKey() + " after " + delay + " ms, sending hedged request.");
+            CompletableFuture<ObjectStream> hedge = submit(amazonS3, request, false);
+            ObjectStream first = firstSuccessful(primary, hedge).get();
+            if (hedge.isDone() && !hedge.isCompletedExceptionally() && hedge.get() == first) {
+                hedgeWins.incrementAndGet();
+            }
+            return first;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot read " + request.get().getKey() + " from S3.", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + request.get().getKey() + " from S3.", e);
+        }
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getHedgedRequests() {
+        return hedgedRequests.get();
+    }
+
+    /**
+     * @return long  number of hedged requests that returned before the first request
+     */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * @return long  delay in ms after which a request is hedged, or -1 when requests are not hedged
+     */
+    synchronized long hedgeDelay() {
+        if (!enabled || sampleCount < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile / 100.0 * sorted.length) - 1);
+        return Math.max(minDelay, sorted[Math.max(0, index)]);
+    }
+
+    synchronized void recordTimeToFirstByte(long millis) {
+        samples[samplePosition] = millis;
+        samplePosition = (samplePosition + 1) % SAMPLES;
+        sampleCount = Math.min(SAMPLES, sampleCount + 1);
+    }
+
+    /**
+     * Every request adds 'aws.hedge.budget' percent of a token, every hedged
+     * request takes a full token.
+     */
+    private synchronized void addHedgeToken() {
+        hedgeTokens = Math.min(MAX_TOKENS, hedgeTokens + budget / 100.0);
+    }
+
+    private synchronized boolean acquireHedge() {
+        if (hedgeTokens >= 1) {
+            hedgeTokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    private CompletableFuture<ObjectStream> submit(AmazonS3 amazonS3, Supplier<GetObjectRequest> request, boolean timed) {
+        return CompletableFuture.supplyAsync(ThrowingSupplier.sneaky(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                S3Object object = amazonS3.getObject(request.get());
+                if (object == null) {
+                    return null;
+                }
+                ObjectStream stream = new ObjectStream(object.getObjectContent());
+                stream.awaitFirstByte();
+                if (timed) {
+                    recordTimeToFirstByte(System.currentTimeMillis() - start);
+                }
+                return stream;
+            } catch (AmazonClientException e) {
+                throw new IOException("Cannot read " + request.get().getKey() + " from S3.", e);
+            }
+        }), requestExecutor);
+    }
+
+    /**
+     * @return CompletableFuture  completes with the first request that succeeds, or
+     *                            with the error of the last request when both fail
+     */
+    private CompletableFuture<ObjectStream> firstSuccessful(CompletableFuture<ObjectStream> primary,
+            CompletableFuture<ObjectStream> hedge) {
+        CompletableFuture<ObjectStream> first = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<ObjectStream> request : Arrays.asList(primary, hedge)) {
+            request.whenComplete((stream, e) -> {
+                if (e == null) {
+                    if (!first.complete(stream) && stream != null) {
+                        stream.abort();
+                    }
+                } else if (failures.incrementAndGet() == 2) {
+                    first.completeExceptionally(e);
+                }
+            });
+        }
+        return first;
+    }
+
+    /**
+     * Object contents of which the first byte has been read ahead.
+     */
+    private static class ObjectStream extends PushbackInputStream {
+
+        private final S3ObjectInputStream content;
+
+        ObjectStream(S3ObjectInputStream content) {
+            super(content);
+            this.content = content;
+        }
+
+        void awaitFirstByte() throws IOException {
+            int first = read();
+            if (first >= 0) {
+                unread(first);
+            }
+        }
+
+        /**
+         * Close the connection without reading the rest of the object.
+         */
+        void abort() {
+            content.abort();
+            try {
+                close();
+            } catch (IOException e) {
+                // connection is aborted already
+            }
+        }
+
+    }
+
+}
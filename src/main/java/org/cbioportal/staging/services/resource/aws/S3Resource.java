@@ -0,0 +1,112 @@
+package org.cbioportal.staging.services.resource.aws;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Supplier;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+import org.cbioportal.staging.services.resource.IMetadataResource;
+import org.cbioportal.staging.services.resource.IResumableResource;
+import org.springframework.cloud.aws.core.io.s3.SimpleStorageResource;
+import org.springframework.core.task.SyncTaskExecutor;
+
+/**
+ * S3 object created from an object summary of a bucket listing. Size,
+ * modification time and ETag are taken from the summary, so that these
+ * do not require a HEAD request per object.
+ */
+public class S3Resource extends SimpleStorageResource implements IMetadataResource, IResumableResource {
+
+    private final AmazonS3 amazonS3;
+    private final String bucketName;
+    private final String objectName;
+    private final long contentLength;
+    private final long lastModified;
+    private final String eTag;
+    private final S3HedgedGet hedgedGet;
+
+    public S3Resource(AmazonS3 amazonS3, String bucketName, String objectName, long contentLength,
+            long lastModified, String eTag) {
+        this(amazonS3, bucketName, objectName, contentLength, lastModified, eTag, null);
+    }
+
+    /**
+     * @param hedgedGet  sends the GET requests for the contents, or null to use the S3 client directly
+     */
+    public S3Resource(AmazonS3 amazonS3, String bucketName, String objectName, long contentLength,
+            long lastModified, String eTag, S3HedgedGet hedgedGet) {
+        super(amazonS3, bucketName, objectName, new SyncTaskExecutor());
+        this.amazonS3 = amazonS3;
+        this.bucketName = bucketName;
+        this.objectName = objectName;
+        this.contentLength = contentLength;
+        this.lastModified = lastModified;
+        this.eTag = eTag;
+        this.hedgedGet = hedgedGet;
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public long lastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public boolean hasMetadata() {
+        return true;
+    }
+
+    @Override
+    public String getETag() {
+        return eTag;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (hedgedGet == null || !hedgedGet.isEnabled()) {
+            return super.getInputStream();
+        }
+        InputStream contents = hedgedGet.getObject(amazonS3, () -> new GetObjectRequest(bucketName, objectName));
+        if (contents == null) {
+            throw new IOException("Cannot read " + objectName + " from S3.");
+        }
+        return contents;
+    }
+
+    /**
+     * Ranged GET from the offset. The request is conditional on the ETag of the
+     * listing, so that a part of a replaced object is never continued.
+     */
+    @Override
+    public InputStream getInputStream(long offset) throws IOException {
+        if (offset > contentLength) {
+            return null;
+        }
+        if (offset == contentLength) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        Supplier<GetObjectRequest> request = () -> {
+            GetObjectRequest get = new GetObjectRequest(bucketName, objectName).withRange(offset);
+            return eTag != null ? get.withMatchingETagConstraint(eTag) : get;
+        };
+        if (hedgedGet != null && hedgedGet.isEnabled()) {
+            return hedgedGet.getObject(amazonS3, request);
+        }
+        try {
+            S3Object object = amazonS3.getObject(request.get());
+            return object != null ? object.getObjectContent() : null;
+        } catch (AmazonClientException e) {
+            throw new IOException("Cannot read " + objectName + " from byte " + offset, e);
+        }
+    }
+
+}
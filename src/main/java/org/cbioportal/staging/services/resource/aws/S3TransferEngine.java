@@ -0,0 +1,140 @@
+package org.cbioportal.staging.services.resource.aws;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3URI;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+
+import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.cbioportal.staging.services.resource.BandwidthLimiter;
+import org.cbioportal.staging.services.resource.RangedDownload;
+import org.cbioportal.staging.services.resource.ResourceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.aws.core.io.s3.SimpleStorageResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Downloads S3 objects larger than 'aws.transfer.part.size' in byte ranges
+ * that are fetched in parallel over the AmazonS3 client. At most
+ * 'aws.transfer.threads' ranges are fetched at the same time over all
+ * downloads. Every range request is conditional on the ETag of the object,
+ * and its size is checked against the requested range.
+ */
+@Component
+@ConditionalOnProperty(value = "scan.location.type" , havingValue = "aws")
+public class S3TransferEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3TransferEngine.class);
+
+    @Value("${aws.transfer.threads:4}")
+    private int threads;
+
+    @Value("${aws.transfer.part.size:33554432}")
+    private long partSize;
+
+    @Autowired
+    private ResourceUtils utils;
+
+    @Autowired
+    private BandwidthLimiter bandwidthLimiter;
+
+    private ExecutorService partExecutor;
+
+    @PostConstruct
+    void initPartExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        partExecutor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "s3-transfer-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdownPartExecutor() {
+        partExecutor.shutdownNow();
+    }
+
+    /**
+     * @param remoteResource  S3 object
+     * @return boolean  true when the object is downloaded in parts
+     * @throws IOException
+     */
+    public boolean isMultipart(SimpleStorageResource remoteResource) throws IOException {
+        return threads > 1 && remoteResource.contentLength() > partSize;
+    }
+
+    /**
+     * Download an S3 object in parts to a local file.
+     *
+     * @param remoteResource  S3 object
+     * @param target  local file, will be overwritten
+     * @throws ResourceCollectionException
+     */
+    public void download(SimpleStorageResource remoteResource, File target) throws ResourceCollectionException {
+        AmazonS3 amazonS3 = remoteResource.getAmazonS3();
+        AmazonS3URI s3Uri = new AmazonS3URI(remoteResource.getS3Uri());
+        String bucket = s3Uri.getBucket();
+        String key = s3Uri.getKey();
+        try {
+            long size;
+            String eTag;
+            if (remoteResource instanceof S3Resource) {
+                size = remoteResource.contentLength();
+                eTag = ((S3Resource) remoteResource).getETag();
+            } else {
+                ObjectMetadata metadata = amazonS3.getObjectMetadata(bucket, key);
+                size = metadata.getContentLength();
+                eTag = metadata.getETag();
+            }
+            int parts = (int) Math.max(1, (size + partSize - 1) / Math.max(1, partSize));
+            logger.debug("Downloading " + key + " (" + size + " bytes) in " + parts + " parts.");
+
+            File partFile = utils.getPartFile(target);
+            new RangedDownload(key, size, eTag, parts).download((start, length) -> {
+                GetObjectRequest request = new GetObjectRequest(bucket, key).withRange(start, start + length - 1);
+                if (eTag != null) {
+                    request = request.withMatchingETagConstraint(eTag);
+                }
+                try {
+                    S3Object object = amazonS3.getObject(request);
+                    if (object == null) {
+                        throw new IOException("Object " + key + " has changed during download.");
+                    }
+                    if (object.getObjectMetadata().getContentLength() != length) {
+                        object.close();
+                        throw new IOException("Size of part of " + key + " at byte " + start + " is "
+                            + object.getObjectMetadata().getContentLength() + " instead of " + length);
+                    }
+                    return bandwidthLimiter.limit(BandwidthLimiter.AWS, object.getObjectContent());
+                } catch (AmazonClientException e) {
+                    throw new IOException("Cannot read part of " + key + " at byte " + start, e);
+                }
+            }, partExecutor, partFile);
+
+            if (partFile.length() != size) {
+                throw new IOException("Size of " + partFile.getName() + " is " + partFile.length() + " instead of " + size);
+            }
+            utils.moveIntoPlace(partFile, target);
+            RangedDownload.removeProgress(partFile);
+        } catch (IOException | AmazonClientException e) {
+            throw new ResourceCollectionException("Cannot download " + key + " from S3.", e);
+        }
+    }
+
+}
@@ -25,6 +25,9 @@ public class FileSystemResourceProvider implements IResourceProvider {
     @Autowired
     private IFileSystemGateway gateway;
 
+    @Autowired
+    private LocalFileTransfer fileTransfer;
+
     @Override
     public Resource getResource(String url) throws ResourceCollectionException {
 		return resourceResolver.getResource(url);
@@ -70,6 +73,13 @@ public class FileSystemResourceProvider implements IResourceProvider {
     public Resource copyFromRemote(Resource destinationDir, Resource remoteResource)
             throws ResourceCollectionException {
         try {
+            if (remoteResource.isFile()) {
+                String fullDestinationPath = utils.trimPathRight(utils.getFile(destinationDir).getAbsolutePath())
+                    + "/" + utils.trimPathLeft(remoteResource.getFilename());
+                utils.ensureDirs(fullDestinationPath.substring(0, fullDestinationPath.lastIndexOf("/")));
+                fileTransfer.copy(remoteResource.getFile(), new File(fullDestinationPath));
+                return utils.getWritableResource(fullDestinationPath);
+            }
             return utils.copyResource(destinationDir, remoteResource, remoteResource.getFilename());
         } catch (Exception e) {
             throw new ResourceCollectionException("Cannot copy resource", e);
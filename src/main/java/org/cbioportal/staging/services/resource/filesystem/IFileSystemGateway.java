@@ -24,7 +24,7 @@ public interface IFileSystemGateway {
     public InputStream getStream(String file);
 
     @Gateway(requestChannel = "local.resource.put")
-    public String put(byte[] bytes, @Header("dest.dir") String destinationDir, @Header("filename") String fileName);
+    public String put(InputStream contents, @Header("dest.dir") String destinationDir, @Header("filename") String fileName);
 
     @Gateway(requestChannel = "local.resource.rm")
     public String rm(String file);
@@ -8,6 +8,7 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.stream.Collectors;
 import org.springframework.integration.annotation.ServiceActivator;
@@ -56,14 +57,14 @@ public class LocalFileSystemService {
     }
 
     @ServiceActivator(inputChannel = "local.resource.put")
-    public String gatewayPut(Message<byte[]> message) {
-        byte[] contents = message.getPayload();
+    public String gatewayPut(Message<InputStream> message) {
+        InputStream contents = message.getPayload();
         String destinationDir = (String) message.getHeaders().get("dest.dir");
         String fileName = (String) message.getHeaders().get("filename");
         Path dest = Paths.get(destinationDir + "/" + fileName);
         try {
-            Path file = Files.write(dest, contents);
-            return file.toString();
+            Files.copy(contents, dest, StandardCopyOption.REPLACE_EXISTING);
+            return dest.toString();
         } catch (IOException e) {
             throw new RuntimeException("Error writing file: " + dest.toString(), e);
         }
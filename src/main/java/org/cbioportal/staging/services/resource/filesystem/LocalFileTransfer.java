@@ -0,0 +1,219 @@
+package org.cbioportal.staging.services.resource.filesystem;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.io.IOUtils;
+import org.cbioportal.staging.exceptions.ConfigurationException;
+import org.cbioportal.staging.services.resource.ResourceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Copies files between local (or NFS mounted) directories. The methods set
+ * in 'local.transfer.methods' are tried in order until one succeeds:
+ *
+ *   hardlink - a hard link to the source file (same file system only)
+ *   reflink  - a copy-on-write clone of the source file (Linux, btrfs/xfs)
+ *   channel  - FileChannel.transferTo, copied by the kernel
+ *   stream   - buffered copy of the file contents
+ *
+ * A hard link shares its contents with the source file, so changes to the
+ * copy are visible in the scan location. It is therefore not used by default.
+ * Files smaller than 'local.transfer.reflink.size' are not cloned, because
+ * starting 'cp' takes longer than copying them.
+ */
+@Component
+public class LocalFileTransfer {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalFileTransfer.class);
+
+    public enum Method { HARDLINK, REFLINK, CHANNEL, STREAM }
+
+    @Value("${local.transfer.methods:reflink,channel,stream}")
+    private String methodsProperty;
+
+    @Autowired
+    private ResourceUtils utils;
+
+    @Value("${local.transfer.reflink.size:1048576}")
+    private long reflinkMinSize;
+
+    private List<Method> methods = new ArrayList<>();
+    private final Map<Method, AtomicLong> transferCounts = Collections.synchronizedMap(new EnumMap<>(Method.class));
+    // pairs of source and target devices between which files cannot be cloned
+    private final Set<String> reflinkUnsupported = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    void init() throws ConfigurationException {
+        methods.clear();
+        for (String method : methodsProperty.split(",")) {
+            try {
+                methods.add(Method.valueOf(method.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new ConfigurationException("Invalid local.transfer.methods value: '" + method.trim()
+                    + "' (can be 'hardlink', 'reflink', 'channel' or 'stream').");
+            }
+        }
+        if (methods.isEmpty()) {
+            throw new ConfigurationException("No local.transfer.methods set in application.properties.");
+        }
+    }
+
+    /**
+     * Copy a file. The copy is created as a '.part' file that is moved to the
+     * target when complete.
+     *
+     * @param source  file to copy
+     * @param target  destination, will be overwritten
+     * @return Method  the method that was used
+     * @throws IOException  when none of the configured methods succeeded
+     */
+    public Method copy(File source, File target) throws IOException {
+        File partFile = utils.getPartFile(target);
+        IOException lastError = null;
+        for (Method method : methods) {
+            Files.deleteIfExists(partFile.toPath());
+            try {
+                if (transfer(method, source, partFile)) {
+                    utils.moveIntoPlace(partFile, target);
+                    transferCounts.computeIfAbsent(method, m -> new AtomicLong()).incrementAndGet();
+                    logger.debug("Copied " + source + " to " + target + " (" + method.name().toLowerCase() + ")");
+                    return method;
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                logger.debug("Cannot copy " + source + " with " + method.name().toLowerCase() + ": " + e.getMessage());
+                lastError = e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+        }
+        Files.deleteIfExists(partFile.toPath());
+        throw new IOException("Cannot copy " + source + " with any of the methods " + methods, lastError);
+    }
+
+    /**
+     * @return Map<Method, Long>  number of files copied per method
+     */
+    public Map<Method, Long> getTransferCounts() {
+        Map<Method, Long> counts = new EnumMap<>(Method.class);
+        synchronized (transferCounts) {
+            transferCounts.forEach((method, count) -> counts.put(method, count.get()));
+        }
+        return counts;
+    }
+
+    private boolean transfer(Method method, File source, File partFile) throws IOException {
+        switch (method) {
+            case HARDLINK:
+                Files.createLink(partFile.toPath(), source.toPath());
+                return true;
+            case REFLINK:
+                return reflink(source, partFile);
+            case CHANNEL:
+                try (FileChannel in = new FileInputStream(source).getChannel();
+                        FileChannel out = new FileOutputStream(partFile).getChannel()) {
+                    long size = in.size();
+                    long position = 0;
+                    while (position < size) {
+                        long transferred = in.transferTo(position, size - position, out);
+                        if (transferred <= 0) {
+                            // transferTo returns 0 at the end of the file
+                            throw new IOException("Source file " + source + " was truncated to " + position
+                                + " bytes during the copy, expected " + size + " bytes.");
+                        }
+                        position += transferred;
+                    }
+                }
+                return true;
+            default:
+                try (InputStream in = new FileInputStream(source); OutputStream out = new FileOutputStream(partFile)) {
+                    IOUtils.copy(in, out);
+                }
+                return true;
+        }
+    }
+
+    /**
+     * Clone the file with 'cp --reflink=always'. When cloning is not supported
+     * between the file systems of the source and the target, it is not attempted
+     * again for these file systems. Other failures only affect this file.
+     */
+    private boolean reflink(File source, File partFile) throws IOException {
+        if (source.length() < reflinkMinSize) {
+            return false;
+        }
+        String devices = device(source.toPath()) + ":" + device(partFile.getAbsoluteFile().getParentFile().toPath());
+        if (reflinkUnsupported.contains(devices)) {
+            return false;
+        }
+        // the output is written to a file, so that a full pipe cannot block 'cp' beyond the timeout
+        File output = File.createTempFile("reflink", ".log");
+        try {
+            Process process;
+            try {
+                process = new ProcessBuilder("cp", "--reflink=always", source.getAbsolutePath(), partFile.getAbsolutePath())
+                    .redirectErrorStream(true)
+                    .redirectOutput(output)
+                    .start();
+            } catch (IOException e) {
+                logger.info("Cannot start cp for reflinks, using the next transfer method: " + e.getMessage());
+                reflinkUnsupported.add(devices);
+                return false;
+            }
+            try {
+                if (!process.waitFor(1, TimeUnit.MINUTES)) {
+                    process.destroyForcibly();
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while cloning " + source, e);
+            }
+            if (process.exitValue() != 0) {
+                String message = new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8).trim();
+                if (message.matches("(?is).*(not supported|cross-device|invalid option|unrecognized option|illegal option).*")) {
+                    logger.info("Reflinks are not supported from " + source.getParent() + " to " + partFile.getParent()
+                        + ", using the next transfer method.");
+                    reflinkUnsupported.add(devices);
+                } else {
+                    logger.debug("Cannot clone " + source + ": " + message);
+                }
+                return false;
+            }
+            return true;
+        } finally {
+            Files.deleteIfExists(output.toPath());
+        }
+    }
+
+    private String device(Path path) throws IOException {
+        try {
+            return String.valueOf(Files.getAttribute(path, "unix:dev"));
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return Files.getFileStore(path).name();
+        }
+    }
+
+}
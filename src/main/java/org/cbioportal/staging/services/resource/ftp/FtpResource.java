@@ -1,19 +1,24 @@
 package org.cbioportal.staging.services.resource.ftp;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 
+import org.cbioportal.staging.services.resource.IMetadataResource;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.springframework.core.io.UrlResource;
 
-public class FtpResource extends UrlResource {
+public class FtpResource extends UrlResource implements IMetadataResource {
 
     private IFtpGateway gateway;
     private ResourceUtils utils;
     private String hostName;
     private boolean isDirectory = false;
+    private boolean hasMetadata = false;
+    private long contentLength = -1;
+    private long lastModified = -1;
 
     public FtpResource(String hostName, String url, IFtpGateway gateway, ResourceUtils utils) throws MalformedURLException {
         super(url);
@@ -45,6 +50,14 @@ public class FtpResource extends UrlResource {
         this.isDirectory = isDirectory;
     }
 
+    public FtpResource(String hostName, URL url, boolean isDirectory, long contentLength, long lastModified,
+            IFtpGateway gateway, ResourceUtils utils) throws MalformedURLException {
+        this(hostName, url, isDirectory, gateway, utils);
+        this.hasMetadata = true;
+        this.contentLength = contentLength;
+        this.lastModified = lastModified;
+    }
+
     @Override
     public InputStream getInputStream() throws IOException {
         try {
@@ -57,4 +70,31 @@ public class FtpResource extends UrlResource {
     public boolean isDirectory() {
         return isDirectory;
     }
-}
\ No newline at end of file
+
+    @Override
+    public long contentLength() throws IOException {
+        if (!hasMetadata) {
+            throw new FileNotFoundException("Size is only known for SFTP resources that were listed: " + getURL());
+        }
+        return contentLength;
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        if (!hasMetadata) {
+            throw new FileNotFoundException("Modification time is only known for SFTP resources that were listed: " + getURL());
+        }
+        return lastModified;
+    }
+
+    @Override
+    public boolean hasMetadata() {
+        return hasMetadata;
+    }
+
+    @Override
+    public String getETag() {
+        // SFTP does not provide checksums
+        return null;
+    }
+}
@@ -2,11 +2,13 @@ package org.cbioportal.staging.services.resource.ftp;
 
 import com.pivovarit.function.ThrowingFunction;
 import com.pivovarit.function.ThrowingPredicate;
+import java.io.File;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.util.List;
 import java.util.stream.Stream;
-import org.apache.commons.io.IOUtils;
 import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.cbioportal.staging.services.resource.BandwidthLimiter;
 import org.cbioportal.staging.services.resource.IResourceProvider;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,6 +33,15 @@ public class FtpResourceProvider implements IResourceProvider {
     @Autowired
     private IFtpGateway ftpGateway;
 
+    @Autowired
+    private SftpLister sftpLister;
+
+    @Autowired
+    private SftpTransferEngine transferEngine;
+
+    @Autowired
+    private BandwidthLimiter bandwidthLimiter;
+
     @Override
     public Resource getResource(String url) throws ResourceCollectionException {
         try {
@@ -58,7 +69,7 @@ public class FtpResourceProvider implements IResourceProvider {
 
             List<SftpFileInfo> remoteFiles;
             if (recursive) {
-                remoteFiles = ftpGateway.lsDirRecur(remoteDir);
+                remoteFiles = sftpLister.lsDirRecur(remoteDir);
             } else {
                 remoteFiles = ftpGateway.lsDir(remoteDir);
             }
@@ -69,7 +80,8 @@ public class FtpResourceProvider implements IResourceProvider {
 
             return remoteFilesStream
                 .map(ThrowingFunction.sneaky(e ->
-                        new FtpResource(ftpHost, utils.createRemoteURL("ftp", ftpHost, e), e.isDirectory(), ftpGateway, utils) ))
+                        new FtpResource(ftpHost, utils.createRemoteURL("ftp", ftpHost, e), e.isDirectory(),
+                            e.getSize(), e.getModified(), ftpGateway, utils) ))
                 .toArray(Resource[]::new);
 
         } catch (Exception e) {
@@ -80,10 +92,19 @@ public class FtpResourceProvider implements IResourceProvider {
     @Override
     public Resource copyFromRemote(Resource destinationDir, Resource remoteResource) throws ResourceCollectionException {
         try {
-            if (remoteResource.getInputStream() == null) {
-                remoteResource = getResource(utils.getURI(remoteResource).toString());
+            String remotePath = utils.remotePath(ftpHost, utils.getURI(remoteResource));
+            String fullDestinationPath = utils.trimPathRight(utils.getFile(destinationDir).getAbsolutePath())
+                + "/" + remoteResource.getFilename();
+            utils.ensureDirs(fullDestinationPath.substring(0, fullDestinationPath.lastIndexOf("/")));
+
+            long size = -1;
+            long lastModified = -1;
+            if (remoteResource instanceof FtpResource && ((FtpResource) remoteResource).hasMetadata()) {
+                size = remoteResource.contentLength();
+                lastModified = remoteResource.lastModified();
             }
-            return utils.copyResource(destinationDir, remoteResource, remoteResource.getFilename());
+            transferEngine.download(remotePath, size, lastModified, new File(fullDestinationPath));
+            return utils.getWritableResource(fullDestinationPath);
         } catch (Exception e) {
             throw new ResourceCollectionException("Cannot copy resource from remote.", e);
         }
@@ -92,9 +113,10 @@ public class FtpResourceProvider implements IResourceProvider {
     @Override
     public Resource copyToRemote(Resource destinationDir, Resource localResource)
             throws ResourceCollectionException {
-        try {
+        try (InputStream contents = bandwidthLimiter.limit(BandwidthLimiter.SFTP, localResource.getInputStream())) {
+            // the file is streamed into the SFTP channel
             String remoteFilePath = ftpGateway.put(
-                IOUtils.toByteArray(localResource.getInputStream()),
+                contents,
                 utils.remotePath(ftpHost, utils.getURI(destinationDir)),
                 localResource.getFilename()
             );
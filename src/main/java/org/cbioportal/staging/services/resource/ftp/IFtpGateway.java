@@ -24,7 +24,7 @@ public interface IFtpGateway {
     public InputStream getStream(String file);
 
     @Gateway(requestChannel = "resource.put")
-    public String put(byte[] bytes, @Header("dest.dir") String destinationDir, @Header("filename") String fileName);
+    public String put(InputStream contents, @Header("dest.dir") String destinationDir, @Header("filename") String fileName);
 
     @Gateway(requestChannel = "resource.rm")
     public String rm(String file);
@@ -47,9 +47,30 @@ public class SftpConfig {
     @Value("${sftp.privateKeyPassphrase}")
     private String sftpPrivateKeyPassphrase;
 
+    @Value("${sftp.session.shared:true}")
+    private boolean sftpSessionShared;
+
+    @Value("${sftp.session.pool.size:0}")
+    private int sftpSessionPoolSize;
+
+    @Value("${sftp.session.wait.timeout:300000}")
+    private long sftpSessionWaitTimeout;
+
+    @Value("${sftp.list.threads:4}")
+    private int sftpListThreads;
+
+    @Value("${scan.extract.threads:4}")
+    private int extractThreads;
+
+    @Value("${sftp.transfer.channels:4}")
+    private int sftpTransferChannels;
+
+    @Value("${sftp.session.keepalive:0}")
+    private int sftpSessionKeepAlive;
+
     @Bean
     public SessionFactory<LsEntry> sftpSessionFactory() {
-        DefaultSftpSessionFactory factory = new DefaultSftpSessionFactory(true);
+        DefaultSftpSessionFactory factory = new DefaultSftpSessionFactory(sftpSessionShared);
         factory.setHost(sftpHost);
         factory.setPort(sftpPort);
         factory.setUser(sftpUser);
@@ -60,7 +81,26 @@ public class SftpConfig {
             factory.setPassword(sftpPasword);
         }
         factory.setAllowUnknownKeys(true);
-        return new CachingSessionFactory<LsEntry>(factory);
+        if (sftpSessionKeepAlive > 0) {
+            factory.setServerAliveInterval(sftpSessionKeepAlive);
+        }
+        // the cache holds one open SFTP channel per session
+        CachingSessionFactory<LsEntry> cachingFactory = new CachingSessionFactory<LsEntry>(factory, sessionPoolSize());
+        cachingFactory.setSessionWaitTimeout(sftpSessionWaitTimeout);
+        cachingFactory.setTestSession(sftpSessionKeepAlive > 0);
+        return cachingFactory;
+    }
+
+    /**
+     * Unless configured, the pool has a session for each of the listing threads,
+     * the whole file downloads and the byte range downloads, so that these never
+     * wait for each other.
+     */
+    int sessionPoolSize() {
+        if (sftpSessionPoolSize > 0) {
+            return sftpSessionPoolSize;
+        }
+        return sftpListThreads + extractThreads + sftpTransferChannels;
     }
 
     @Bean
@@ -0,0 +1,148 @@
+package org.cbioportal.staging.services.resource.ftp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+
+import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.sftp.session.SftpFileInfo;
+import org.springframework.stereotype.Component;
+
+/**
+ * Recursive listing of a directory on the SFTP server.
+ *
+ * Every directory is listed as soon as it has been found, using a session
+ * from the pool of the 'sftpSessionFactory'. At most 'sftp.list.threads'
+ * directories of the host are listed at the same time. The result is the
+ * same as that of a LS command of the outbound gateway with the SUBDIRS and
+ * RECURSIVE options: file names are relative to the listed directory, hidden
+ * entries of the listed directory and links are left out, and the entries
+ * are sorted by file name.
+ */
+@Component
+@ConditionalOnProperty(value="scan.location.type", havingValue ="sftp")
+public class SftpLister {
+
+    private static final Logger logger = LoggerFactory.getLogger(SftpLister.class);
+
+    private static final String SEPARATOR = "/";
+
+    @Value("${sftp.list.threads:4}")
+    private int listThreads;
+
+    @Autowired
+    private SessionFactory<LsEntry> sftpSessionFactory;
+
+    private ExecutorService listExecutor;
+
+    @PostConstruct
+    void initListExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        listExecutor = Executors.newFixedThreadPool(Math.max(1, listThreads), r -> {
+            Thread t = new Thread(r, "sftp-lister-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdownListExecutor() {
+        listExecutor.shutdownNow();
+    }
+
+    public List<SftpFileInfo> lsDirRecur(String dir) throws ResourceCollectionException {
+        String remoteDir = dir.endsWith(SEPARATOR) ? dir : dir + SEPARATOR;
+        List<SftpFileInfo> files = Collections.synchronizedList(new ArrayList<>());
+        try {
+            walk(remoteDir, "", files).join();
+        } catch (CompletionException e) {
+            throw new ResourceCollectionException("Could not read from remote directory: " + dir, e.getCause());
+        }
+        List<SftpFileInfo> sorted = new ArrayList<>(files);
+        Collections.sort(sorted);
+        logger.debug("Listed " + sorted.size() + " entries below " + remoteDir);
+        return sorted;
+    }
+
+    private CompletableFuture<Void> walk(String remoteDir, String subDir, List<SftpFileInfo> files) {
+        return CompletableFuture.supplyAsync(() -> listDir(remoteDir, subDir, files), listExecutor)
+            .thenCompose(subDirs -> CompletableFuture.allOf(subDirs.stream()
+                .map(d -> walk(remoteDir, d, files))
+                .toArray(CompletableFuture[]::new)));
+    }
+
+    /**
+     * List a single directory and add its entries to 'files'.
+     *
+     * @return List<String>  the sub directories to list next, relative to 'remoteDir'
+     */
+    private List<String> listDir(String remoteDir, String subDir, List<SftpFileInfo> files) {
+        List<String> subDirs = new ArrayList<>();
+        Session<LsEntry> session = sftpSessionFactory.getSession();
+        try {
+            LsEntry[] entries = session.list(remoteDir + subDir);
+            if (entries == null) {
+                return subDirs;
+            }
+            for (LsEntry entry : entries) {
+                String name = entry.getFilename();
+                if (".".equals(name) || "..".equals(name)) {
+                    continue;
+                }
+                String relativeName = subDir + name;
+                if (!entry.getAttrs().isLink() && !relativeName.startsWith(".")) {
+                    files.add(new RelativeSftpFileInfo(entry, remoteDir, relativeName));
+                }
+                if (entry.getAttrs().isDir()) {
+                    subDirs.add(relativeName + SEPARATOR);
+                }
+            }
+            return subDirs;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * File info of which the file name includes the path relative to the
+     * listed directory, as returned by a recursive LS of the outbound gateway.
+     */
+    private static class RelativeSftpFileInfo extends SftpFileInfo {
+
+        private final String relativeName;
+
+        RelativeSftpFileInfo(LsEntry entry, String remoteDir, String relativeName) {
+            super(entry);
+            this.relativeName = relativeName;
+            setRemoteDirectory(remoteDir);
+        }
+
+        @Override
+        public String getFilename() {
+            return relativeName;
+        }
+
+    }
+
+}
@@ -0,0 +1,212 @@
+package org.cbioportal.staging.services.resource.ftp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpException;
+
+import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.cbioportal.staging.services.resource.BandwidthLimiter;
+import org.cbioportal.staging.services.resource.RangedDownload;
+import org.cbioportal.staging.services.resource.ResourceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Downloads files from the SFTP server over sessions of the 'sftpSessionFactory'
+ * pool. Every transfer uses its own SFTP channel, so that several files can be
+ * downloaded at the same time. Files larger than 'sftp.transfer.range.size' are
+ * split in byte ranges that are fetched in parallel over at most
+ * 'sftp.transfer.channels' channels.
+ */
+@Component
+@ConditionalOnProperty(value="scan.location.type", havingValue ="sftp")
+public class SftpTransferEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(SftpTransferEngine.class);
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    @Value("${sftp.transfer.channels:4}")
+    private int channels;
+
+    @Value("${sftp.transfer.range.size:33554432}")
+    private long rangeSize;
+
+    @Autowired
+    private SessionFactory<LsEntry> sftpSessionFactory;
+
+    @Autowired
+    private ResourceUtils utils;
+
+    @Autowired
+    private BandwidthLimiter bandwidthLimiter;
+
+    private ExecutorService rangeExecutor;
+
+    @PostConstruct
+    void initRangeExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        rangeExecutor = Executors.newFixedThreadPool(Math.max(1, channels), r -> {
+            Thread t = new Thread(r, "sftp-transfer-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdownRangeExecutor() {
+        rangeExecutor.shutdownNow();
+    }
+
+    /**
+     * Download a remote file to a local file.
+     *
+     * Data is written to a '.part' file that is kept when the download fails.
+     * A next attempt continues where the previous one stopped, when the size
+     * and modification time of the remote file have not changed. The complete
+     * file is moved into place at the end.
+     *
+     * @param remotePath  path of the file on the SFTP server
+     * @param size  size of the remote file from a listing, or a negative value when not known
+     * @param lastModified  modification time in ms of the remote file from a listing, or a
+     *                      negative value when not known
+     * @param target  local file, will be overwritten
+     * @throws ResourceCollectionException
+     */
+    public void download(String remotePath, long size, long lastModified, File target) throws ResourceCollectionException {
+        try {
+            if (size < 0 || lastModified < 0) {
+                long[] attributes = remoteAttributes(remotePath);
+                size = attributes[0];
+                lastModified = attributes[1];
+            }
+            File partFile = utils.getPartFile(target);
+            int ranges = (int) Math.min(Math.max(1, channels), Math.max(1, (size + rangeSize - 1) / Math.max(1, rangeSize)));
+            if (ranges <= 1) {
+                downloadWhole(remotePath, size, lastModified, partFile);
+            } else {
+                downloadRanges(remotePath, size, lastModified, ranges, partFile);
+            }
+            utils.moveIntoPlace(partFile, target);
+            RangedDownload.removeProgress(partFile);
+        } catch (IOException | UncheckedIOException e) {
+            throw new ResourceCollectionException("Cannot download file from SFTP server: " + remotePath, e);
+        }
+    }
+
+    /**
+     * @return long[]  size and modification time in ms of the remote file
+     */
+    private long[] remoteAttributes(String remotePath) throws IOException {
+        Session<LsEntry> session = sftpSessionFactory.getSession();
+        try {
+            LsEntry[] entries = session.list(remotePath);
+            if (entries == null || entries.length != 1) {
+                return new long[] { 0, -1 };
+            }
+            return new long[] { entries[0].getAttrs().getSize(), entries[0].getAttrs().getMTime() * 1000L };
+        } finally {
+            session.close();
+        }
+    }
+
+    private void downloadRanges(String remotePath, long size, long lastModified, int ranges, File partFile)
+            throws IOException {
+        logger.debug("Downloading " + remotePath + " (" + size + " bytes) in " + ranges + " ranges.");
+        new RangedDownload(remotePath, size, version(lastModified), ranges).download((start, length) -> {
+            Session<LsEntry> session = sftpSessionFactory.getSession();
+            try {
+                InputStream in = ((ChannelSftp) session.getClientInstance()).get(remotePath, null, start);
+                return new SessionInputStream(bandwidthLimiter.limit(BandwidthLimiter.SFTP, in), session);
+            } catch (SftpException e) {
+                session.close();
+                throw new IOException(e);
+            }
+        }, rangeExecutor, partFile);
+    }
+
+    /**
+     * Download the file in a single stream, continuing after the bytes that
+     * are already present in 'partFile'.
+     */
+    private void downloadWhole(String remotePath, long size, long lastModified, File partFile) throws IOException {
+        String version = version(lastModified);
+        long present = RangedDownload.resumableLength(partFile, version != null ? size + "\t" + version : null);
+        if (present > size) {
+            present = 0;
+        }
+        if (present == size && partFile.exists()) {
+            return;
+        }
+        if (present > 0) {
+            logger.info("Resuming download of " + remotePath + " from byte " + present);
+        }
+        Session<LsEntry> session = sftpSessionFactory.getSession();
+        try (InputStream in = bandwidthLimiter.limit(BandwidthLimiter.SFTP,
+                    ((ChannelSftp) session.getClientInstance()).get(remotePath, null, present));
+                OutputStream out = new FileOutputStream(partFile, present > 0)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = size - present;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("Unexpected end of " + remotePath + " at byte " + (size - remaining));
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } catch (SftpException e) {
+            throw new IOException(e);
+        } finally {
+            session.close();
+        }
+    }
+
+    private String version(long lastModified) {
+        return lastModified >= 0 ? String.valueOf(lastModified) : null;
+    }
+
+    /**
+     * Stream of a range that returns its session to the pool when closed.
+     */
+    private static class SessionInputStream extends FilterInputStream {
+
+        private final Session<LsEntry> session;
+
+        SessionInputStream(InputStream in, Session<LsEntry> session) {
+            super(in);
+            this.session = session;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                session.close();
+            }
+        }
+
+    }
+
+}
@@ -22,6 +22,8 @@
                 <span style="color: #FFBF00; font-weight: bold;">VALID with WARNINGS</span>
             <#elseif transformerStatus == "ERROR">
                 <span style="color: #FF0000; font-weight: bold;">ERRORS</span>
+            <#elseif transformerStatus == "TIMEOUT">
+                <span style="color: #FF0000; font-weight: bold;">TIMED OUT</span>
             <#elseif transformerStatus == "SKIPPED">
                 <span style="color: #0000FF; font-weight: bold;">SKIPPED</span>
             <#elseif transformerStatus == "null">
@@ -44,6 +46,8 @@
                 <span style="color: #FFBF00; font-weight: bold;">VALID with WARNINGS</span>
             <#elseif validatorStatus == "ERROR">
                 <span style="color: #FF0000; font-weight: bold;">ERRORS</span>
+            <#elseif validatorStatus == "TIMEOUT">
+                <span style="color: #FF0000; font-weight: bold;">TIMED OUT</span>
             <#elseif validatorStatus == "null">
                 <span style="color: #B0B0B0; font-weight: bold;">NOT DONE DUE TO ERRORS IN PREVIOUS STEPS</span>
             </#if></td>
@@ -60,6 +64,8 @@
                 <span style="color: #04B404; font-weight: bold;">SUCCESS</span>
             <#elseif loaderStatus == "ERROR">
                 <span style="color: #FF0000; font-weight: bold;">ERRORS</span>
+            <#elseif loaderStatus == "TIMEOUT">
+                <span style="color: #FF0000; font-weight: bold;">TIMED OUT</span>
             <#elseif loaderStatus == "null">
                 <span style="color: #B0B0B0; font-weight: bold;">NOT DONE DUE TO ERRORS IN PREVIOUS STEPS</span>
             </#if></td>
@@ -74,11 +80,15 @@
                 <span style="color: #04B404; font-weight: bold;">SUCCESS</span>
             <#elseif summaryStatus == "ERROR">
                 <span style="color: #FF0000; font-weight: bold;">ERRORS</span>
+            <#elseif summaryStatus == "TIMEOUT">
+                <span style="color: #FF0000; font-weight: bold;">TIMED OUT</span>
             </#if></td>
             <td><#if summaryStatus == "SUCCESS">
                 The study has been loaded in cBioPortal.
             <#elseif summaryStatus == "ERROR">
                 Please, check the logs and report files for more details on what went wrong.
+            <#elseif summaryStatus == "TIMEOUT">
+                The step did not finish within its time limit and has been stopped. Please, check the logs for more details.
             </#if></td>
         </tr>
     </table>
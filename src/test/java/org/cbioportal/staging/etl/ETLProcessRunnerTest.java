@@ -0,0 +1,191 @@
+/*
+* Copyright (c) 2020 The Hyve B.V.
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as
+* published by the Free Software Foundation, either version 3 of the
+* License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU Affero General Public License for more details.
+*
+* You should have received a copy of the GNU Affero General Public License
+* along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.cbioportal.staging.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cbioportal.staging.TestUtils;
+import org.cbioportal.staging.exceptions.ValidatorException;
+import org.cbioportal.staging.services.ExitStatus;
+import org.cbioportal.staging.services.authorize.IAuthorizerService;
+import org.cbioportal.staging.services.command.CommandRunner;
+import org.cbioportal.staging.services.command.IRestarter;
+import org.cbioportal.staging.services.etl.EtlUtils;
+import org.cbioportal.staging.services.etl.PortalInfoCache;
+import org.cbioportal.staging.services.publish.IPublisherService;
+import org.cbioportal.staging.services.report.IReportingService;
+import org.cbioportal.staging.services.resource.ResourceUtils;
+import org.cbioportal.staging.services.resource.Study;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = org.cbioportal.staging.etl.ETLProcessRunner.class)
+@TestPropertySource(properties = {
+    "etl.working.dir=file:/tmp",
+    "etl.pipeline.enable=true",
+    "etl.pipeline.threads=2"
+})
+public class ETLProcessRunnerTest {
+
+    @Autowired
+    private ETLProcessRunner etlProcessRunner;
+
+    @MockBean
+    private Extractor extractor;
+
+    @MockBean
+    private Transformer transformer;
+
+    @MockBean
+    private Validator validator;
+
+    @MockBean
+    private Loader loader;
+
+    @MockBean
+    private IRestarter restarterService;
+
+    @MockBean
+    private IAuthorizerService authorizer;
+
+    @MockBean
+    private IPublisherService publisher;
+
+    @MockBean
+    private IReportingService reportingService;
+
+    @MockBean
+    private ResourceUtils utils;
+
+    @MockBean
+    private EtlUtils etlUtils;
+
+    @MockBean
+    private PortalInfoCache portalInfoCache;
+
+    @MockBean
+    private CommandRunner commandRunner;
+
+    private Study remoteStudy1 = new Study("study1", null, null, TestUtils.createMockResource("file:/remote/study1", 0), null);
+    private Study remoteStudy2 = new Study("study2", null, null, TestUtils.createMockResource("file:/remote/study2", 0), null);
+    private Study localStudy1 = new Study("study1", null, null, TestUtils.createMockResource("file:/local/study1", 0), null);
+    private Study localStudy2 = new Study("study2", null, null, TestUtils.createMockResource("file:/local/study2", 0), null);
+
+    @Before
+    public void init() throws Exception {
+        when(etlUtils.doTransformation()).thenReturn(false);
+        when(extractor.extractStudy(remoteStudy1)).thenReturn(new StageResult(remoteStudy1, ExitStatus.SUCCESS, localStudy1));
+        when(extractor.extractStudy(remoteStudy2)).thenReturn(new StageResult(remoteStudy2, ExitStatus.SUCCESS, localStudy2));
+    }
+
+    @Test
+    public void pipelinedRun_loadsValidStudiesAndRestartsOnce() throws Exception {
+        when(validator.validateStudy(localStudy1)).thenReturn(new StageResult(localStudy1, ExitStatus.SUCCESS, localStudy1));
+        when(validator.validateStudy(localStudy2)).thenReturn(new StageResult(localStudy2, ExitStatus.ERROR, null));
+        when(loader.loadStudy(localStudy1)).thenReturn(new StageResult(localStudy1, ExitStatus.SUCCESS, localStudy1));
+
+        etlProcessRunner.run(TestUtils.studyList(remoteStudy1, remoteStudy2));
+
+        verify(loader, times(1)).loadStudy(localStudy1);
+        verify(loader, never()).loadStudy(localStudy2);
+        verify(restarterService, times(1)).restart();
+        verify(reportingService, times(2)).reportSummary(any(), any(), any(), any(), any(), eq(ExitStatus.SKIPPED), any(), any());
+        assertEquals(ExitStatus.SUCCESS, etlProcessRunner.getLoaderExitStatus().get(localStudy1));
+        assertEquals(ExitStatus.ERROR, etlProcessRunner.getValidatorExitStatus().get(localStudy2));
+        verify(extractor, times(1)).finishRun();
+        verify(commandRunner, times(1)).logSummary();
+    }
+
+    @Test
+    public void pipelinedRun_reportsFilesNotFound() throws Exception {
+        StageResult notFound = new StageResult(remoteStudy2, ExitStatus.ERROR, null);
+        notFound.setErrorFiles(Arrays.asList("file:/remote/study2/missing.txt"));
+        when(extractor.extractStudy(remoteStudy2)).thenReturn(notFound);
+        when(validator.validateStudy(localStudy1)).thenReturn(new StageResult(localStudy1, ExitStatus.ERROR, null));
+
+        etlProcessRunner.run(TestUtils.studyList(remoteStudy1, remoteStudy2));
+
+        verify(reportingService, times(1)).reportStudyFileNotFound(anyMap(), any());
+        verify(restarterService, never()).restart();
+        verify(reportingService, times(1)).reportSummary(eq(localStudy1), any(), any(), any(), any(), any(), any(), any());
+        assertTrue(etlProcessRunner.getCompletedStudyIds().contains("study1"));
+        assertFalse(etlProcessRunner.getCompletedStudyIds().contains("study2"));
+    }
+
+    @Test
+    public void pipelinedRun_failedStudyStillReported() throws Exception {
+        when(validator.validateStudy(localStudy1)).thenReturn(new StageResult(localStudy1, ExitStatus.SUCCESS, localStudy1));
+        when(validator.validateStudy(localStudy2)).thenThrow(new ValidatorException("validation crashed"));
+        when(loader.loadStudy(localStudy1)).thenReturn(new StageResult(localStudy1, ExitStatus.SUCCESS, localStudy1));
+
+        etlProcessRunner.run(TestUtils.studyList(remoteStudy1, remoteStudy2));
+
+        verify(restarterService, times(1)).restart();
+        verify(reportingService, times(2)).reportSummary(any(), any(), any(), any(), any(), any(), any(), any());
+        assertEquals(ExitStatus.ERROR, etlProcessRunner.getValidatorExitStatus().get(localStudy2));
+        assertEquals(ExitStatus.SUCCESS, etlProcessRunner.getLoaderExitStatus().get(localStudy1));
+        assertTrue(etlProcessRunner.getCompletedStudyIds().contains("study2"));
+    }
+
+    @Test
+    public void run_failedExtractionNotCompleted() throws Exception {
+        ReflectionTestUtils.setField(etlProcessRunner, "pipelineEnabled", false);
+        try {
+            Map<String, List<String>> errorFiles = new HashMap<>();
+            errorFiles.put("study2", Arrays.asList("file:/remote/study2/missing.txt"));
+            when(extractor.run(any())).thenReturn(TestUtils.studyList(localStudy1));
+            when(extractor.errorFiles()).thenReturn(errorFiles);
+            Map<Study, ExitStatus> validatorStatus = new HashMap<>();
+            validatorStatus.put(localStudy1, ExitStatus.SUCCESS);
+            when(validator.validate(any())).thenReturn(validatorStatus);
+            when(validator.getValidStudies()).thenReturn(TestUtils.studyList(localStudy1));
+            Map<Study, ExitStatus> loaderStatus = new HashMap<>();
+            loaderStatus.put(localStudy1, ExitStatus.SUCCESS);
+            when(loader.load(any())).thenReturn(loaderStatus);
+
+            etlProcessRunner.run(TestUtils.studyList(remoteStudy1, remoteStudy2));
+
+            assertEquals(Collections.singleton("study1"), etlProcessRunner.getCompletedStudyIds());
+            verify(extractor, times(1)).finishRun();
+        } finally {
+            ReflectionTestUtils.setField(etlProcessRunner, "pipelineEnabled", true);
+        }
+    }
+
+}
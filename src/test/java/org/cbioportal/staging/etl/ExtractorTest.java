@@ -15,26 +15,41 @@
 */
 package org.cbioportal.staging.etl;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
+import org.apache.commons.io.FileUtils;
 import org.cbioportal.staging.TestUtils;
 import org.cbioportal.staging.exceptions.DirectoryCreatorException;
 import org.cbioportal.staging.exceptions.ExtractionException;
 import org.cbioportal.staging.exceptions.ResourceCollectionException;
 import org.cbioportal.staging.exceptions.ResourceUtilsException;
 import org.cbioportal.staging.services.directory.IDirectoryCreator;
+import org.cbioportal.staging.services.resource.BandwidthLimiter;
+import org.cbioportal.staging.services.resource.ResourceProviderCircuitBreaker;
+import org.cbioportal.staging.services.resource.ResourceProviderConcurrencyLimit;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.cbioportal.staging.services.resource.Study;
+import org.cbioportal.staging.services.resource.TransferCache;
 import org.cbioportal.staging.services.resource.filesystem.FileSystemResourceProvider;
+import org.cbioportal.staging.services.resource.filesystem.LocalFileTransfer;
 import org.cbioportal.staging.services.resource.filesystem.IFileSystemGateway;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -42,12 +57,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(
-	classes = { Extractor.class, ResourceUtils.class, FileSystemResourceProvider.class }
+	classes = { Extractor.class, ResourceUtils.class, FileSystemResourceProvider.class, LocalFileTransfer.class,
+		TransferCache.class, BandwidthLimiter.class, ResourceProviderCircuitBreaker.class,
+		ResourceProviderConcurrencyLimit.class }
 )
 public class ExtractorTest {
 
@@ -57,6 +76,9 @@ public class ExtractorTest {
 	@SpyBean
 	private FileSystemResourceProvider provider;
 
+	@Autowired
+	private TransferCache transferCache;
+
 	@MockBean
 	private IDirectoryCreator directoryCreator;
 
@@ -129,9 +151,192 @@ public class ExtractorTest {
 
 	}
 
+	@Test
+	public void testRun_multipleStudies()
+			throws DirectoryCreatorException, ResourceCollectionException, ExtractionException {
+
+		Resource targetDir = TestUtils.createMockResource("file:/extract-dir/dummy-study", 0);
+		when(directoryCreator.createStudyExtractDir(any(Study.class))).thenReturn(targetDir);
+
+		Resource[] study1Files = new Resource[] {TestUtils.createMockResource("file:/study1/file1.txt", 0),
+			TestUtils.createMockResource("file:/study1/file2.txt", 0), TestUtils.createMockResource("file:/study1/file3.txt", 0)};
+		Resource[] study2Files = new Resource[] {TestUtils.createMockResource("file:/study2/file1.txt", 0),
+			TestUtils.createMockResource("file:/study2/missing.txt", 0)};
+
+		Study[] dummyStudies = new Study[] {
+			new Study("study1", "dummy-time", "dummy-time", null, study1Files),
+			new Study("study2", "dummy-time", "dummy-time", null, study2Files)
+		};
+
+		doAnswer(invocation -> {
+			Resource remote = invocation.getArgument(1, Resource.class);
+			if (remote.getFilename().equals("missing.txt")) {
+				return null;
+			}
+			return remote;
+		}).when(provider).copyFromRemote(isA(Resource.class), isA(Resource.class));
+
+		Study[] extractedResources = extractor.run(dummyStudies);
+
+		assertTrue(extractedResources.length == 1);
+		assertTrue(extractedResources[0].getStudyId().equals("study1"));
+		assertTrue(extractedResources[0].getResources().length == 3);
+		assertTrue(extractor.errorFiles().size() == 1);
+		assertTrue(extractor.errorFiles().get("study2").contains("file:/study2/missing.txt"));
+		verify(provider, times(5)).copyFromRemote(isA(Resource.class), isA(Resource.class));
+	}
+
+	@Test
+	public void testRun_retriesFailedCopy()
+			throws DirectoryCreatorException, ResourceCollectionException, ExtractionException {
+
+		Resource targetDir = TestUtils.createMockResource("file:/extract-dir/dummy-study", 0);
+		when(directoryCreator.createStudyExtractDir(any(Study.class))).thenReturn(targetDir);
+
+		Resource remoteFile1 = TestUtils.createMockResource("file:/file1.txt", 0);
+		Study[] dummyStudies = new Study[] {new Study("dummy-study", "dummy-time", "dummy-time", null, new Resource[] {remoteFile1})};
+
+		Resource localFile1 = TestUtils.createMockResource("file:/file1.txt", 0);
+		doThrow(new ResourceCollectionException("Connection reset"))
+			.doReturn(localFile1)
+			.when(provider).copyFromRemote(isA(Resource.class), isA(Resource.class));
+
+		Integer timeRetry = extractor.getTimeRetry();
+		ReflectionTestUtils.setField(extractor, "timeRetry", 0);
+		try {
+			Study[] extractedResources = extractor.run(dummyStudies);
+
+			assertTrue(extractor.errorFiles().isEmpty());
+			assertTrue(extractedResources.length == 1);
+			verify(provider, times(2)).copyFromRemote(isA(Resource.class), isA(Resource.class));
+		} finally {
+			ReflectionTestUtils.setField(extractor, "timeRetry", timeRetry);
+		}
+	}
+
+	@Test
+	public void testRun_givesUpAfterRetryAttempts()
+			throws DirectoryCreatorException, ResourceCollectionException, ExtractionException {
+
+		Resource targetDir = TestUtils.createMockResource("file:/extract-dir/dummy-study", 0);
+		when(directoryCreator.createStudyExtractDir(any(Study.class))).thenReturn(targetDir);
+
+		Resource remoteFile1 = TestUtils.createMockResource("file:/file1.txt", 0);
+		Resource remoteFile2 = TestUtils.createMockResource("file:/file2.txt", 0);
+		Study[] dummyStudies = new Study[] {new Study("dummy-study", "dummy-time", "dummy-time", null, new Resource[] {remoteFile1, remoteFile2})};
+
+		Resource localFile2 = TestUtils.createMockResource("file:/file2.txt", 0);
+		doAnswer(invocation -> {
+			if (invocation.getArgument(1, Resource.class).getFilename().equals("file1.txt")) {
+				throw new ResourceCollectionException("Connection reset");
+			}
+			return localFile2;
+		}).when(provider).copyFromRemote(isA(Resource.class), isA(Resource.class));
+
+		Integer timeRetry = extractor.getTimeRetry();
+		ReflectionTestUtils.setField(extractor, "timeRetry", 0);
+		ReflectionTestUtils.setField(extractor, "retryAttempts", 3);
+		try {
+			Study[] extractedResources = extractor.run(dummyStudies);
+
+			assertTrue(extractedResources.length == 0);
+			assertTrue(extractor.errorFiles().get("dummy-study").contains("file:/file1.txt"));
+			assertFalse(extractor.errorFiles().get("dummy-study").contains("file:/file2.txt"));
+			verify(provider, times(3)).copyFromRemote(isA(Resource.class), eq(remoteFile1));
+			verify(provider, times(1)).copyFromRemote(isA(Resource.class), eq(remoteFile2));
+		} finally {
+			ReflectionTestUtils.setField(extractor, "timeRetry", timeRetry);
+			ReflectionTestUtils.setField(extractor, "retryAttempts", 5);
+		}
+	}
+
+	@Test
+	public void testRun_noRetryAfterDeadline()
+			throws DirectoryCreatorException, ResourceCollectionException, ExtractionException {
+
+		Resource targetDir = TestUtils.createMockResource("file:/extract-dir/dummy-study", 0);
+		when(directoryCreator.createStudyExtractDir(any(Study.class))).thenReturn(targetDir);
+
+		Resource remoteFile1 = TestUtils.createMockResource("file:/file1.txt", 0);
+		Study[] dummyStudies = new Study[] {new Study("dummy-study", "dummy-time", "dummy-time", null, new Resource[] {remoteFile1})};
+
+		doThrow(new ResourceCollectionException("Connection reset"))
+			.when(provider).copyFromRemote(isA(Resource.class), isA(Resource.class));
+
+		// the first retry would start 5 minutes later, after the deadline
+		ReflectionTestUtils.setField(extractor, "retryDeadline", 1);
+		try {
+			Study[] extractedResources = extractor.run(dummyStudies);
+
+			assertTrue(extractedResources.length == 0);
+			assertTrue(extractor.errorFiles().get("dummy-study").contains("file:/file1.txt"));
+			verify(provider, times(1)).copyFromRemote(isA(Resource.class), isA(Resource.class));
+		} finally {
+			ReflectionTestUtils.setField(extractor, "retryDeadline", 120);
+		}
+	}
+
+	@Test
+	public void testRun_failureCancelsOtherDownloads()
+			throws DirectoryCreatorException, ResourceCollectionException, InterruptedException {
+
+		Resource targetDir = TestUtils.createMockResource("file:/extract-dir/dummy-study", 0);
+		when(directoryCreator.createStudyExtractDir(any(Study.class))).thenReturn(targetDir);
+
+		Resource remoteFile1 = TestUtils.createMockResource("file:/file1.txt", 0);
+		Resource remoteFile2 = TestUtils.createMockResource("file:/file2.txt", 0);
+		Study[] dummyStudies = new Study[] {new Study("dummy-study", "dummy-time", "dummy-time", null, new Resource[] {remoteFile1, remoteFile2})};
+
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			if (invocation.getArgument(1, Resource.class).getFilename().equals("file1.txt")) {
+				started.await();
+				throw new IllegalStateException("Bug in provider");
+			}
+			started.countDown();
+			try {
+				Thread.sleep(30000);
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+			return remoteFile2;
+		}).when(provider).copyFromRemote(isA(Resource.class), isA(Resource.class));
+
+		try {
+			extractor.run(dummyStudies);
+			fail("Expected ExtractionException");
+		} catch (ExtractionException e) {
+			assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+		}
+	}
+
 	@Test(expected = ExtractionException.class)
 	public void testRun_nullResources() throws ExtractionException {
 		extractor.run(null);
 	}
 
+	@Test
+	public void testExtractStudy_finishRunSavesTransferCacheIndex() throws Exception {
+		File cacheDir = Files.createTempDirectory("transfer-cache").toFile();
+		ReflectionTestUtils.setField(transferCache, "cacheDir", new FileSystemResource(cacheDir));
+		try {
+			ReflectionTestUtils.invokeMethod(transferCache, "postConstruct");
+			Resource targetDir = TestUtils.createMockResource("file:/extract-dir/dummy-study", 0);
+			when(directoryCreator.createStudyExtractDir(any(Study.class))).thenReturn(targetDir);
+			Resource remoteFile = TestUtils.createMockResource("file:/file1.txt", 0);
+			doReturn(TestUtils.createMockResource("file:/file1.txt", 0)).when(provider).copyFromRemote(isA(Resource.class), isA(Resource.class));
+
+			// the extraction of a pipelined run
+			extractor.startRun();
+			extractor.extractStudy(new Study("dummy-study", "dummy-time", "dummy-time", null, new Resource[] {remoteFile}));
+			extractor.finishRun();
+
+			assertTrue(new File(cacheDir, "index.txt").exists());
+		} finally {
+			ReflectionTestUtils.setField(transferCache, "cacheDir", null);
+			FileUtils.deleteQuietly(cacheDir);
+		}
+	}
+
 }
@@ -16,8 +16,11 @@
 package org.cbioportal.staging.etl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.HashMap;
@@ -28,7 +31,10 @@ import org.cbioportal.staging.exceptions.LoaderException;
 import org.cbioportal.staging.exceptions.ResourceCollectionException;
 import org.cbioportal.staging.exceptions.ResourceUtilsException;
 import org.cbioportal.staging.services.ExitStatus;
+import org.cbioportal.staging.services.command.CommandRunner;
+import org.cbioportal.staging.services.command.ResourceUsage;
 import org.cbioportal.staging.services.etl.ILoaderService;
+import org.cbioportal.staging.services.etl.PortalInfoCache;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.cbioportal.staging.services.resource.Study;
 import org.junit.Before;
@@ -53,6 +59,12 @@ public class LoaderTest {
     @MockBean
     private ResourceUtils utils;
 
+    @MockBean
+    private PortalInfoCache portalInfoCache;
+
+    @MockBean
+    private CommandRunner commandRunner;
+
     @Before
     public void init() throws ResourceCollectionException, ResourceUtilsException {
         when(utils.createFileResource(isA(Resource.class), any(String.class))).thenReturn(null);
@@ -73,6 +85,7 @@ public class LoaderTest {
         assertEquals(expectedLoadingStatus, loadingStatus);
 
         assertEquals(true, loader.areStudiesLoaded());
+        verify(portalInfoCache).invalidateIfChanged(dummyStudy.getStudyDir());
 
         Map<Study, Resource> logPaths = new HashMap<>();
         logPaths.put(dummyStudy, null);
@@ -93,12 +106,45 @@ public class LoaderTest {
         assertEquals(expectedLoadingStatus, loadingStatus);
 
         assertEquals(false, loader.areStudiesLoaded());
+        verify(portalInfoCache, never()).invalidateIfChanged(any());
 
         Map<Study, Resource> logPaths = new HashMap<>();
         logPaths.put(dummyStudy, null);
         assertEquals(logPaths, loader.getLogFiles());
     }
 
+    @Test
+    public void studyLoadingTimedOut() throws LoaderException, ResourceCollectionException {
+
+        when(loaderService.load(isA(Resource.class), any())).thenReturn(ExitStatus.TIMEOUT);
+
+        Study dummyStudy = new Study("lgg_ucsf_2014", null, null, TestUtils.createMockResource("file:/test/path", 0), null);
+        Study[] studies = TestUtils.studyList(dummyStudy);
+
+        Map<Study, ExitStatus> loadingStatus = loader.load(studies);
+        Map<Study, ExitStatus> expectedLoadingStatus = new HashMap<Study, ExitStatus>();
+        expectedLoadingStatus.put(dummyStudy, ExitStatus.TIMEOUT);
+        assertEquals(expectedLoadingStatus, loadingStatus);
+
+        assertEquals(false, loader.areStudiesLoaded());
+        verify(portalInfoCache, never()).invalidateIfChanged(any());
+    }
+
+    @Test
+    public void studyResourceUsage() throws LoaderException {
+
+        when(loaderService.load(isA(Resource.class), any())).thenReturn(ExitStatus.SUCCESS);
+        ResourceUsage usage = new ResourceUsage(60000, 1024, 2048, 4096);
+        when(commandRunner.takeResourceUsage(any())).thenReturn(usage);
+
+        Study dummyStudy = new Study("lgg_ucsf_2014", null, null, TestUtils.createMockResource("file:/test/path", 0), null);
+
+        assertSame(usage, loader.loadStudy(dummyStudy).getResourceUsage());
+
+        loader.load(TestUtils.studyList(dummyStudy));
+        assertSame(usage, loader.getResourceUsages().get(dummyStudy));
+    }
+
     @Test
     public void multipleStudiesAllLoaded() throws LoaderException, ResourceCollectionException {
 
@@ -18,6 +18,7 @@ package org.cbioportal.staging.etl;
 import org.cbioportal.staging.TestUtils;
 import org.cbioportal.staging.exceptions.*;
 import org.cbioportal.staging.services.ExitStatus;
+import org.cbioportal.staging.services.command.CommandRunner;
 import org.cbioportal.staging.services.directory.DirectoryCreator;
 import org.cbioportal.staging.services.directory.IDirectoryCreator;
 import org.cbioportal.staging.services.etl.TransformerServiceImpl;
@@ -36,6 +37,8 @@ import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.*;
@@ -55,6 +58,9 @@ public class TransformerTest {
     @MockBean
     private ResourceUtils utils;
 
+    @MockBean
+    private CommandRunner commandRunner;
+
     @MockBean
     private FileSystemResourceProvider resourceProvider;
 
@@ -70,8 +76,8 @@ public class TransformerTest {
         // mock utils.getResource() -> return input
         when(utils.createDirResource(isA(Resource.class),anyString())).thenAnswer(i -> i.getArguments()[0]);
 
-        // mock utils.copyDirectory -> do nothing, check called
-        doNothing().when(utils).copyDirectory(isA(Resource.class),isA(Resource.class));
+        // mock utils.linkDirectory -> do nothing, check called
+        when(utils.linkDirectory(isA(Resource.class),isA(Resource.class))).thenReturn(true);
 
         // mock transformerService.transform -> do nothing, check called
         when(transformerService.transform(any(),any(),any())).thenReturn(ExitStatus.SUCCESS);
@@ -103,7 +109,7 @@ public class TransformerTest {
 
         Map<Study, ExitStatus> exitStatus = transformer.transform(new Study[] {dummyStudy});
 
-        verify(utils, times(1)).copyDirectory(any(),any());
+        verify(utils, times(1)).linkDirectory(any(),any());
         verify(transformerService, never()).transform(isA(Resource.class),isA(Resource.class),isA(Resource.class));
         assertTrue(exitStatus.containsKey(dummyStudy) && exitStatus.get(dummyStudy) == ExitStatus.SKIPPED);
         assertTrue(transformer.getLogFiles().containsKey(dummyStudy));
@@ -125,7 +131,7 @@ public class TransformerTest {
 
         Map<Study, ExitStatus> exitStatus = transformer.transform(new Study[] {dummyStudy});
 
-        verify(utils, never()).copyDirectory(any(),any());
+        verify(utils, never()).linkDirectory(any(),any());
         verify(transformerService, times(1)).transform(any(),any(),any()); //Skips the checking of the meta file so it attempts to transform
         assertTrue(exitStatus.containsKey(dummyStudy) && exitStatus.get(dummyStudy) == ExitStatus.SUCCESS); //Returns SUCCESS due to the mock
         assertTrue(transformer.getLogFiles().containsKey(dummyStudy));
@@ -143,7 +149,7 @@ public class TransformerTest {
 
         Map<Study, ExitStatus> exitStatus = transformer.transform(new Study[] {dummyStudy});
 
-        verify(utils, never()).copyDirectory(any(),any());
+        verify(utils, never()).linkDirectory(any(),any());
         verify(transformerService, times(1)).transform(any(),any(),any());
         assertTrue(exitStatus.containsKey(dummyStudy) && exitStatus.get(dummyStudy) == ExitStatus.SUCCESS);
         assertTrue(transformer.getLogFiles().containsKey(dummyStudy));
@@ -169,4 +175,37 @@ public class TransformerTest {
         assertTrue(TestUtils.has(transformer.getValidStudies(), dummyStudy.getStudyId()));
     }
 
+    @Test
+    public void testTransform_parallel()
+            throws ResourceCollectionException, TransformerException, ReporterException, ConfigurationException, IOException {
+
+        Resource[] studyFiles = new Resource[] {TestUtils.createMockResource("file:/dummy_study_folder/file_that_needs_transformation.txt", 0)};
+        when(resourceProvider.list(isA(Resource.class))).thenReturn(studyFiles);
+
+        Study dummyStudy1 = new Study("dummy-study1", "dummy-time", "dummy-time", studyFiles[0], studyFiles);
+        Study dummyStudy2 = new Study("dummy-study2", "dummy-time", "dummy-time", studyFiles[0], studyFiles);
+        Study dummyStudy3 = new Study("dummy-study3", "dummy-time", "dummy-time", studyFiles[0], studyFiles);
+
+        // each transformation only succeeds when all three transformations run at the same time
+        CountDownLatch running = new CountDownLatch(3);
+        when(transformerService.transform(any(),any(),any())).thenAnswer(invocation -> {
+            running.countDown();
+            return running.await(10, TimeUnit.SECONDS) ? ExitStatus.SUCCESS : ExitStatus.ERROR;
+        });
+        ReflectionTestUtils.setField(transformer, "transformationMetaFileCheck", false);
+        ReflectionTestUtils.setField(transformer, "transformationThreads", 3);
+
+        try {
+            Map<Study, ExitStatus> exitStatus = transformer.transform(new Study[] {dummyStudy1, dummyStudy2, dummyStudy3});
+
+            assertTrue(exitStatus.size() == 3 && exitStatus.values().stream().allMatch(s -> s == ExitStatus.SUCCESS));
+            assertTrue(transformer.getLogFiles().size() == 3);
+            Study[] validStudies = transformer.getValidStudies();
+            assertTrue(validStudies.length == 3);
+            assertTrue(validStudies[0].getStudyId().equals("dummy-study1") && validStudies[2].getStudyId().equals("dummy-study3"));
+        } finally {
+            ReflectionTestUtils.setField(transformer, "transformationThreads", 1);
+        }
+    }
+
 }
@@ -15,6 +15,7 @@
 */
 package org.cbioportal.staging.etl;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -23,12 +24,15 @@ import static org.mockito.Mockito.when;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.cbioportal.staging.TestUtils;
 import org.cbioportal.staging.exceptions.ResourceCollectionException;
 import org.cbioportal.staging.exceptions.ResourceUtilsException;
 import org.cbioportal.staging.exceptions.ValidatorException;
 import org.cbioportal.staging.services.ExitStatus;
+import org.cbioportal.staging.services.command.CommandRunner;
 import org.cbioportal.staging.services.etl.IValidatorService;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.cbioportal.staging.services.resource.Study;
@@ -57,6 +61,9 @@ public class ValidatorTest {
     @MockBean
     private ResourceUtils utils;
 
+    @MockBean
+    private CommandRunner commandRunner;
+
     @Before
     public void init() throws ResourceCollectionException, ResourceUtilsException {
         when(utils.createFileResource(isA(Resource.class), any(String.class))).thenReturn(null);
@@ -266,4 +273,58 @@ public class ValidatorTest {
         assertEquals(logPaths, validator.getReportFiles());
     }
 
+    @Test
+    public void studiesValidatedInParallel() throws ValidatorException, ResourceCollectionException {
+        // each validation only succeeds when all three validations run at the same time
+        CountDownLatch running = new CountDownLatch(3);
+        when(validatorService.validate(any(), any(), any())).thenAnswer(invocation -> {
+            running.countDown();
+            return running.await(10, TimeUnit.SECONDS) ? ExitStatus.SUCCESS : ExitStatus.ERROR;
+        });
+        ReflectionTestUtils.setField(validator, "validationLevel", "ERROR");
+        ReflectionTestUtils.setField(validator, "validationThreads", 3);
+
+        try {
+            Study dummyStudy1 = new Study("dummy-study1", "dummy-time", "dummy-time", null, null);
+            Study dummyStudy2 = new Study("dummy-study2", "dummy-time", "dummy-time", null, null);
+            Study dummyStudy3 = new Study("dummy-study3", "dummy-time", "dummy-time", null, null);
+            Map<Study, ExitStatus> validatedStudies = validator.validate(new Study[] {dummyStudy1, dummyStudy2, dummyStudy3});
+
+            Map<Study, ExitStatus> expectedValidatedStudies = new HashMap<Study, ExitStatus>();
+            expectedValidatedStudies.put(dummyStudy1, ExitStatus.SUCCESS);
+            expectedValidatedStudies.put(dummyStudy2, ExitStatus.SUCCESS);
+            expectedValidatedStudies.put(dummyStudy3, ExitStatus.SUCCESS);
+            assertEquals(expectedValidatedStudies, validatedStudies);
+            assertEquals(3, validator.getValidStudies().length);
+            assertEquals(3, validator.getLogFiles().size());
+            assertEquals(3, validator.getReportFiles().size());
+        } finally {
+            ReflectionTestUtils.setField(validator, "validationThreads", 1);
+        }
+    }
+
+    @Test
+    public void parallelResultsInInputOrder() throws ValidatorException, ResourceCollectionException {
+        Resource slowStudyDir = TestUtils.createMockResource("file:/study1", 0);
+        when(validatorService.validate(any(), any(), any())).thenAnswer(invocation -> {
+            if (invocation.getArgument(0) == slowStudyDir) {
+                Thread.sleep(300);
+            }
+            return ExitStatus.SUCCESS;
+        });
+        ReflectionTestUtils.setField(validator, "validationLevel", "ERROR");
+        ReflectionTestUtils.setField(validator, "validationThreads", 3);
+
+        try {
+            Study dummyStudy1 = new Study("dummy-study1", "dummy-time", "dummy-time", slowStudyDir, null);
+            Study dummyStudy2 = new Study("dummy-study2", "dummy-time", "dummy-time", TestUtils.createMockResource("file:/study2", 0), null);
+            Study dummyStudy3 = new Study("dummy-study3", "dummy-time", "dummy-time", TestUtils.createMockResource("file:/study3", 0), null);
+            validator.validate(new Study[] {dummyStudy1, dummyStudy2, dummyStudy3});
+
+            assertArrayEquals(new Study[] {dummyStudy1, dummyStudy2, dummyStudy3}, validator.getValidStudies());
+        } finally {
+            ReflectionTestUtils.setField(validator, "validationThreads", 1);
+        }
+    }
+
 }
@@ -10,6 +10,7 @@ import org.cbioportal.staging.services.publish.PublisherServiceImpl;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.cbioportal.staging.services.resource.Study;
 import org.cbioportal.staging.services.resource.filesystem.FileSystemResourceProvider;
+import org.cbioportal.staging.services.resource.filesystem.LocalFileTransfer;
 import org.cbioportal.staging.services.resource.filesystem.IFileSystemGateway;
 import org.junit.Before;
 import org.junit.Test;
@@ -37,7 +38,7 @@ import static org.mockito.Mockito.verify;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(classes = { PublisherServiceImpl.class,
-        ResourceUtils.class, DirectoryCreator.class }, properties = { "central.share.location=file:/fake-share/",
+        ResourceUtils.class, DirectoryCreator.class, LocalFileTransfer.class }, properties = { "central.share.location=file:/fake-share/",
                 "transformation.directory=file:/transf-dir/", "etl.dir.format:timestamp/study_id" })
 public class PublisherServiceImplTest {
 
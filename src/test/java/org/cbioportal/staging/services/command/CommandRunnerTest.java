@@ -0,0 +1,356 @@
+package org.cbioportal.staging.services.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.cbioportal.staging.services.command.CommandRunner.EngineCommand;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class CommandRunnerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DockerEngineClient client;
+    private CommandRunner runner;
+    private CommandResourceMonitor resourceMonitor;
+    private MockEnvironment environment;
+
+    @Before
+    public void init() {
+        client = mock(DockerEngineClient.class);
+        when(client.getMapper()).thenReturn(new ObjectMapper());
+        runner = new CommandRunner();
+        ReflectionTestUtils.setField(runner, "client", client);
+        ReflectionTestUtils.setField(runner, "engineEnabled", true);
+        environment = new MockEnvironment();
+        ReflectionTestUtils.setField(runner, "environment", environment);
+        runner.initExecutors();
+        resourceMonitor = new CommandResourceMonitor();
+        ReflectionTestUtils.setField(resourceMonitor, "client", client);
+        resourceMonitor.initExecutors();
+        ReflectionTestUtils.setField(runner, "resourceMonitor", resourceMonitor);
+    }
+
+    @After
+    public void cleanUp() {
+        runner.shutdownExecutors();
+        resourceMonitor.shutdownExecutors();
+    }
+
+    @Test
+    public void testToEngineCommand_dockerRun() {
+        EngineCommand command = runner.toEngineCommand(Arrays.asList("docker", "run", "-i", "--rm", "--net", "cbio-net",
+            "-v", "/study:/study:ro", "-w", "/scripts", "cbioportal/cbioportal", "cbioportalImporter.py", "-s", "/study"));
+
+        ObjectNode config = command.config;
+        assertEquals("cbioportal/cbioportal", config.get("Image").asText());
+        assertEquals("cbio-net", config.get("HostConfig").get("NetworkMode").asText());
+        assertEquals("/study:/study:ro", config.get("HostConfig").get("Binds").get(0).asText());
+        assertEquals("/scripts", config.get("WorkingDir").asText());
+        assertEquals("[\"cbioportalImporter.py\",\"-s\",\"/study\"]", config.get("Cmd").toString());
+        assertNull(command.container);
+    }
+
+    @Test
+    public void testToEngineCommand_dockerExec() {
+        EngineCommand command = runner.toEngineCommand(Arrays.asList("docker", "exec", "-i", "-w", "/scripts",
+            "pool-1", "./dumpPortalInfo.pl", "/portalinfo"));
+
+        assertEquals("pool-1", command.container);
+        assertEquals("/scripts", command.workDir);
+        assertEquals(Arrays.asList("./dumpPortalInfo.pl", "/portalinfo"), command.command);
+    }
+
+    @Test
+    public void testToEngineCommand_notSupported() {
+        assertNull(runner.toEngineCommand(Arrays.asList("docker", "run", "-d", "cbioportal/cbioportal")));
+        assertNull(runner.toEngineCommand(Arrays.asList("docker-compose", "run", "cbioportal")));
+        assertNull(runner.toEngineCommand(Arrays.asList("/scripts/transform.sh", "-i", "/in", "-o", "/out")));
+        ReflectionTestUtils.setField(runner, "engineEnabled", false);
+        assertNull(runner.toEngineCommand(Arrays.asList("docker", "run", "--rm", "cbioportal/cbioportal")));
+    }
+
+    @Test
+    public void testToEngineCommand_dockerRestart() {
+        EngineCommand command = runner.toEngineCommand(Arrays.asList("docker", "restart", "cbioportal-container"));
+
+        assertTrue(command.restart);
+        assertEquals("cbioportal-container", command.container);
+    }
+
+    @Test
+    public void testToEngineCommand_cliWhenPingFails() throws IOException {
+        doThrow(new IOException("Connection refused")).when(client).ping();
+
+        assertNull(runner.toEngineCommand(Arrays.asList("docker", "run", "--rm", "cbioportal/cbioportal")));
+        assertNull(runner.toEngineCommand(Arrays.asList("docker", "restart", "cbioportal-container")));
+        verify(client, times(1)).ping();
+    }
+
+    @Test
+    public void testRun_restartThroughEngine() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        int exitCode = runner.run("restart", new ProcessBuilder("docker", "restart", "cbioportal-container"), out);
+
+        assertEquals(0, exitCode);
+        verify(client).restartContainer("cbioportal-container");
+    }
+
+    @Test
+    public void testRun_containerOutputInLogFile() throws Exception {
+        File logFile = folder.newFile("study.log");
+        Files.write(logFile.toPath(), "previous step\n".getBytes(StandardCharsets.UTF_8));
+        when(client.createContainer(any(), any())).thenReturn("abc123");
+        doAnswer(invocation -> {
+            invocation.getArgument(1, OutputStream.class).write("validated\n".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(client).streamLogs(eq("abc123"), any());
+        when(client.waitContainer("abc123")).thenReturn(3);
+
+        int exitCode = runner.run("validation",
+            new ProcessBuilder("docker", "run", "--rm", "cbioportal/cbioportal", "validateData.py"), logFile);
+
+        assertEquals(3, exitCode);
+        assertEquals("previous step\nvalidated\n", new String(Files.readAllBytes(logFile.toPath()), StandardCharsets.UTF_8));
+        verify(client).startContainer("abc123");
+        verify(client).removeContainer("abc123");
+        assertTrue(runner.getAverageStartLatency("validation") >= 0);
+    }
+
+    @Test
+    public void testRun_processForOtherCommands() throws IOException, InterruptedException {
+        File logFile = folder.newFile("study.log");
+
+        int exitCode = runner.run("transformation", new ProcessBuilder("sh", "-c", "echo transformed"), logFile);
+
+        assertEquals(0, exitCode);
+        assertEquals("transformed\n", new String(Files.readAllBytes(logFile.toPath()), StandardCharsets.UTF_8));
+        assertEquals(-1, runner.getAverageStartLatency("transformation"));
+    }
+
+    @Test
+    public void testRun_resourceUsageOfProcessTree() throws IOException, InterruptedException {
+        Assume.assumeTrue(new File("/proc/self/stat").exists());
+        ReflectionTestUtils.setField(resourceMonitor, "interval", 10L);
+        File logFile = folder.newFile("study.log");
+
+        int exitCode = runner.run("loading", new ProcessBuilder("sh", "-c",
+            "sh -c 'i=0; while [ $i -lt 200000 ]; do i=$((i+1)); done'"), logFile);
+
+        assertEquals(0, exitCode);
+        ResourceUsage usage = runner.takeResourceUsage(logFile);
+        assertTrue(usage.getCpuMillis() > 0);
+        assertTrue(usage.getPeakRssBytes() > 0);
+        assertNull(runner.takeResourceUsage(logFile));
+        assertEquals(usage.getCpuMillis(), resourceMonitor.getResourceTotals().get("loading").getCpuMillis());
+        String log = new String(Files.readAllBytes(logFile.toPath()), StandardCharsets.UTF_8);
+        assertTrue(log.startsWith("Resources used: CPU time "));
+    }
+
+    @Test
+    public void testRun_processTreeKilledOnTimeout() throws IOException, InterruptedException {
+        environment.setProperty("command.timeout.loading", "1");
+        File logFile = folder.newFile("study.log");
+        File pidFile = new File(folder.getRoot(), "pid");
+        long start = System.currentTimeMillis();
+
+        int exitCode = runner.run("loading", new ProcessBuilder("sh", "-c",
+            "sleep 30 & echo $! > " + pidFile.getAbsolutePath() + "; wait"), logFile);
+
+        assertEquals(CommandRunner.TIMEOUT, exitCode);
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        assertEquals(1, runner.getTimedOutCommands());
+        runner.logSummary();
+        assertEquals(0, runner.getTimedOutCommands());
+        assertProcessEnds(new String(Files.readAllBytes(pidFile.toPath()), StandardCharsets.UTF_8).trim());
+    }
+
+    @Test
+    public void testStart_cancelStopsProcess() throws Exception {
+        File pidFile = new File(folder.getRoot(), "pid");
+        CompletableFuture<Integer> command = runner.start("validation", new ProcessBuilder("sh", "-c",
+            "echo $$ > " + pidFile.getAbsolutePath() + "; exec sleep 30"), folder.newFile("study.log"));
+        while (!pidFile.exists() || pidFile.length() == 0) {
+            Thread.sleep(10);
+        }
+
+        command.cancel(true);
+
+        assertProcessEnds(new String(Files.readAllBytes(pidFile.toPath()), StandardCharsets.UTF_8).trim());
+        assertEquals(0, runner.getTimedOutCommands());
+    }
+
+    @Test
+    public void testRun_containerRemovedOnTimeout() throws Exception {
+        ReflectionTestUtils.setField(runner, "defaultTimeout", 1L);
+        CountDownLatch removed = new CountDownLatch(1);
+        when(client.createContainer(any(), any())).thenReturn("abc123");
+        when(client.waitContainer("abc123")).thenAnswer(invocation -> {
+            removed.await();
+            return 137;
+        });
+        doAnswer(invocation -> {
+            removed.countDown();
+            return null;
+        }).when(client).removeContainer("abc123");
+
+        int exitCode = runner.run("transformation",
+            new ProcessBuilder("docker", "run", "--rm", "transformer", "transform.py"), folder.newFile("study.log"));
+
+        assertEquals(CommandRunner.TIMEOUT, exitCode);
+        assertEquals(1, runner.getTimeout("transformation"));
+    }
+
+    @Test
+    public void testRun_execKilledOnTimeout() throws Exception {
+        ReflectionTestUtils.setField(runner, "defaultTimeout", 1L);
+        CountDownLatch killed = new CountDownLatch(1);
+        when(client.exec(eq("pool-1"), eq("/scripts"), any(), eq(Arrays.asList("./dumpPortalInfo.pl", "/portalinfo")),
+                any())).thenAnswer(invocation -> {
+            killed.await();
+            return 137;
+        });
+        when(client.exec(eq("pool-1"), eq(null), any(), any())).thenAnswer(invocation -> {
+            killed.countDown();
+            return 0;
+        });
+
+        int exitCode = runner.run("portalinfo", new ProcessBuilder("docker", "exec", "-w", "/scripts", "pool-1",
+            "./dumpPortalInfo.pl", "/portalinfo"), folder.newFile("study.log"));
+
+        assertEquals(CommandRunner.TIMEOUT, exitCode);
+        ArgumentCaptor<List<String>> env = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List<String>> kill = ArgumentCaptor.forClass(List.class);
+        verify(client).exec(eq("pool-1"), eq("/scripts"), env.capture(), any(), any());
+        verify(client).exec(eq("pool-1"), eq(null), kill.capture(), any());
+        assertTrue(env.getValue().get(0).startsWith(CommandRunner.COMMAND_MARKER + "="));
+        assertTrue(kill.getValue().get(2).contains(env.getValue().get(0)));
+        verify(client, never()).removeContainer(any());
+    }
+
+    @Test
+    public void testPrepareDockerCli_runGetsName() {
+        ProcessBuilder command = new ProcessBuilder("docker", "run", "--rm", "cbioportal/cbioportal", "validateData.py");
+
+        CommandRunner.CliCommand cliCommand = runner.prepareDockerCli("validation", command);
+
+        assertTrue(cliCommand.run);
+        assertEquals(command.command().get(3), cliCommand.container);
+        assertEquals("--name", command.command().get(2));
+        assertTrue(command.command().get(3).startsWith("cbioportal-staging-validation-"));
+        assertEquals(Arrays.asList("--rm", "cbioportal/cbioportal", "validateData.py"), command.command().subList(4, 7));
+
+        ProcessBuilder named = new ProcessBuilder("docker", "run", "--name", "importer", "cbioportal/cbioportal");
+        runner.prepareDockerCli("loading", named);
+        assertEquals(Arrays.asList("docker", "run", "--name", "importer", "cbioportal/cbioportal"), named.command());
+    }
+
+    @Test
+    public void testPrepareDockerCli_execGetsMarker() {
+        ProcessBuilder command = new ProcessBuilder("docker", "exec", "-i", "-w", "/scripts", "pool-1",
+            "./dumpPortalInfo.pl", "/portalinfo");
+
+        CommandRunner.CliCommand cliCommand = runner.prepareDockerCli("portalinfo", command);
+
+        assertFalse(cliCommand.run);
+        assertEquals("pool-1", cliCommand.container);
+        assertEquals("-e", command.command().get(2));
+        assertTrue(command.command().get(3).startsWith(CommandRunner.COMMAND_MARKER + "="));
+        assertEquals("pool-1", command.command().get(7));
+    }
+
+    @Test
+    public void testKillScript_killsMarkedProcesses() throws Exception {
+        Assume.assumeTrue(new File("/proc/self/environ").exists());
+        String marker = CommandRunner.COMMAND_MARKER + "=test-" + System.nanoTime();
+        File pidFile = new File(folder.getRoot(), "pid");
+        ProcessBuilder command = new ProcessBuilder("sh", "-c",
+            "sleep 30 & echo $! > " + pidFile.getAbsolutePath() + "; wait");
+        command.environment().put(CommandRunner.COMMAND_MARKER, marker.substring(marker.indexOf('=') + 1));
+        Process process = command.start();
+        Process other = new ProcessBuilder("sleep", "30").start();
+        try {
+            while (!pidFile.exists() || pidFile.length() == 0) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(0, new ProcessBuilder("sh", "-c", CommandRunner.killScript(marker)).start().waitFor());
+
+            assertProcessEnds(new String(Files.readAllBytes(pidFile.toPath()), StandardCharsets.UTF_8).trim());
+            process.waitFor();
+            assertTrue(other.isAlive());
+        } finally {
+            process.destroyForcibly();
+            other.destroyForcibly();
+        }
+    }
+
+    @Test
+    public void testDestroyTreeFromProc() throws Exception {
+        Assume.assumeTrue(new File("/proc/self/stat").exists());
+        File pidFile = new File(folder.getRoot(), "pid");
+        Process process = new ProcessBuilder("sh", "-c", "sleep 30 & echo $! > " + pidFile.getAbsolutePath() + "; wait")
+            .start();
+        while (!pidFile.exists() || pidFile.length() == 0) {
+            Thread.sleep(10);
+        }
+
+        runner.destroyTreeFromProc(process);
+
+        process.waitFor();
+        assertProcessEnds(new String(Files.readAllBytes(pidFile.toPath()), StandardCharsets.UTF_8).trim());
+    }
+
+    private void assertProcessEnds(String pid) throws InterruptedException {
+        File process = new File("/proc/" + pid);
+        for (int i = 0; i < 200 && process.exists() && !isZombie(process); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue("Process " + pid + " is still running", !process.exists() || isZombie(process));
+    }
+
+    private boolean isZombie(File process) {
+        try {
+            String stat = new String(Files.readAllBytes(new File(process, "stat").toPath()), StandardCharsets.UTF_8);
+            return stat.substring(stat.lastIndexOf(')') + 2).startsWith("Z");
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+package org.cbioportal.staging.services.command;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class DockerCliStatsTest {
+
+    @Test
+    public void testUpdate_integratesCpuPercentage() throws IOException {
+        DockerCliStats stats = new DockerCliStats(1000);
+
+        stats.update(sample("50.00%", "1.5GiB / 7.7GiB", "12.3MB / 4.1kB"), 3000);
+        ResourceUsage usage = stats.update(sample("200.00%", "512MiB / 7.7GiB", "20MB / 8kB"), 4000);
+
+        // 50% of 2 s and 200% of 1 s
+        assertEquals(3000, usage.getCpuMillis());
+        assertEquals(1536L * 1024 * 1024, usage.getPeakRssBytes());
+        assertEquals(20000000, usage.getReadBytes());
+        assertEquals(8000, usage.getWriteBytes());
+    }
+
+    @Test
+    public void testParseSize() {
+        assertEquals(0, DockerCliStats.parseSize("0B"));
+        assertEquals(1500, DockerCliStats.parseSize("1.5kB"));
+        assertEquals(2 * 1024 * 1024, DockerCliStats.parseSize("2MiB"));
+        assertEquals(0, DockerCliStats.parseSize("--"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUpdate_unexpectedOutput() throws IOException {
+        new DockerCliStats(0).update("{\"message\":\"No such container\"}", 1000);
+    }
+
+    private String sample(String cpu, String memory, String blockIO) {
+        return "{\"BlockIO\":\"" + blockIO + "\",\"CPUPerc\":\"" + cpu + "\",\"Container\":\"cbioportal-staging-loading-1\","
+            + "\"MemPerc\":\"19.48%\",\"MemUsage\":\"" + memory + "\",\"Name\":\"cbioportal-staging-loading-1\","
+            + "\"NetIO\":\"1kB / 0B\",\"PIDs\":\"3\"}";
+    }
+
+}
@@ -0,0 +1,156 @@
+package org.cbioportal.staging.services.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.cbioportal.staging.services.resource.ResourceUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class DockerContainerPoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DockerContainerPool pool;
+    private List<String> commands;
+    private Set<String> started;
+    private Set<String> stopped;
+    private Set<String> busy;
+    private File workingDir;
+
+    @Before
+    public void init() throws Exception {
+        workingDir = folder.newFolder("work");
+        ResourceUtils utils = mock(ResourceUtils.class);
+        when(utils.getFile(any())).thenAnswer(invocation -> ((Resource) invocation.getArgument(0)).getFile());
+
+        pool = spy(new DockerContainerPool());
+        ReflectionTestUtils.setField(pool, "utils", utils);
+        ReflectionTestUtils.setField(pool, "size", 2);
+        ReflectionTestUtils.setField(pool, "maxUses", 3);
+        ReflectionTestUtils.setField(pool, "cbioportalDockerImage", "cbioportal/cbioportal");
+        ReflectionTestUtils.setField(pool, "cbioportalDockerNetwork", "cbio-net");
+        ReflectionTestUtils.setField(pool, "cbioportalDockerPropertiesFile", new FileSystemResource(folder.newFile("portal.properties")));
+        ReflectionTestUtils.setField(pool, "etlWorkingDir", new FileSystemResource(workingDir));
+
+        commands = new ArrayList<>();
+        started = new HashSet<>();
+        stopped = new HashSet<>();
+        busy = new HashSet<>();
+        doAnswer(invocation -> {
+            List<String> args = new ArrayList<>();
+            for (Object arg : invocation.getArguments()) {
+                args.add((String) arg);
+            }
+            commands.add(String.join(" ", args));
+            String container = args.get(args.size() - 1);
+            switch (args.get(0)) {
+                case "run":
+                    started.add(args.get(args.indexOf("--name") + 1));
+                    return "";
+                case "ps":
+                    return args.contains("-aq") ? "leftover" : String.join("\n",
+                        started.stream().filter(name -> !stopped.contains(name)).toArray(String[]::new));
+                case "top":
+                    return busy.contains(container) ? "UID PID CMD\nroot 1 tail\nroot 2 validateData.py" : "UID PID CMD\nroot 1 tail";
+                default:
+                    return "";
+            }
+        }).when(pool).docker(any());
+    }
+
+    private String name(int number) {
+        return DockerContainerPool.NAME_PREFIX + ReflectionTestUtils.getField(pool, "instanceId") + "-" + number;
+    }
+
+    @Test
+    public void testCanExec_onlyInWorkingDir() throws Exception {
+        assertTrue(pool.canExec(new FileSystemResource(new File(workingDir, "study"))));
+        assertFalse(pool.canExec(new FileSystemResource(folder.newFolder("elsewhere"))));
+
+        ReflectionTestUtils.setField(pool, "size", 0);
+        assertFalse(pool.canExec(new FileSystemResource(new File(workingDir, "study"))));
+    }
+
+    @Test
+    public void testExec_startsPoolAndTakesTurns() throws Exception {
+        ProcessBuilder first = pool.exec(null, "cbioportalImporter.py", "-s", "/study");
+        ProcessBuilder second = pool.exec("/scripts", "./dumpPortalInfo.pl", "/portalinfo");
+
+        assertEquals(Arrays.asList("docker", "exec", "-i", name(1),
+            "cbioportalImporter.py", "-s", "/study"), first.command());
+        assertEquals(Arrays.asList("docker", "exec", "-i", "-w", "/scripts", name(2),
+            "./dumpPortalInfo.pl", "/portalinfo"), second.command());
+        assertEquals(2, commands.stream().filter(c -> c.startsWith("run -d")).count());
+        String label = DockerContainerPool.LABEL + "=" + workingDir.getCanonicalPath();
+        assertTrue(commands.contains("ps -aq --filter label=" + label));
+        assertTrue(commands.contains("rm -f leftover"));
+        assertTrue(commands.stream().filter(c -> c.startsWith("run -d")).allMatch(c -> c.contains("--label " + label)));
+    }
+
+    @Test
+    public void testExec_checksContainersOncePerInterval() throws Exception {
+        ReflectionTestUtils.setField(pool, "checkInterval", 60);
+
+        for (int i = 0; i < 4; i++) {
+            pool.exec(null, "validateData.py");
+        }
+
+        assertEquals(1, commands.stream().filter(c -> c.startsWith("ps")).count());
+    }
+
+    @Test
+    public void testExec_replacesStoppedContainer() throws Exception {
+        pool.exec(null, "validateData.py");
+        pool.exec(null, "validateData.py");
+        stopped.add(name(1));
+
+        ProcessBuilder cmd = pool.exec(null, "validateData.py");
+
+        assertTrue(cmd.command().contains(name(3)));
+        assertTrue(commands.contains("rm -f " + name(1)));
+    }
+
+    @Test
+    public void testExec_recyclesAfterMaxUses() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            pool.exec(null, "validateData.py");
+        }
+        String recycled = name(1);
+        busy.add(recycled);
+
+        pool.exec(null, "validateData.py");
+
+        assertNotEquals(recycled, pool.getContainerNames().get(0));
+        assertEquals(1, pool.getRetiredCount());
+
+        // the retired container is removed when its last command has finished
+        pool.checkContainers();
+        assertEquals(1, pool.getRetiredCount());
+        busy.clear();
+        pool.checkContainers();
+        assertEquals(0, pool.getRetiredCount());
+        assertTrue(commands.contains("rm -f " + recycled));
+    }
+
+}
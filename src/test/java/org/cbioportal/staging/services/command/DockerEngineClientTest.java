@@ -0,0 +1,265 @@
+package org.cbioportal.staging.services.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class DockerEngineClientTest {
+
+    private FakeDockerDaemon daemon;
+    private DockerEngineClient client;
+
+    @Before
+    public void init() throws IOException {
+        daemon = new FakeDockerDaemon();
+        client = new DockerEngineClient();
+        ReflectionTestUtils.setField(client, "dockerHost", "tcp://localhost:" + daemon.getPort());
+    }
+
+    @After
+    public void cleanUp() throws IOException {
+        daemon.close();
+    }
+
+    @Test
+    public void testCreateContainer_sendsConfig() throws IOException {
+        daemon.respond(201, "{\"Id\":\"abc123\",\"Warnings\":[]}");
+        ObjectNode config = client.getMapper().createObjectNode();
+        config.put("Image", "cbioportal/cbioportal");
+
+        String id = client.createContainer("validation", config);
+
+        assertEquals("abc123", id);
+        assertEquals("POST /v1.40/containers/create?name=validation", daemon.getRequests().get(0));
+        assertTrue(daemon.getBodies().get(0).contains("\"Image\":\"cbioportal/cbioportal\""));
+    }
+
+    @Test
+    public void testStreamLogs_chunkedMultiplexedOutput() throws IOException {
+        byte[] frames = concat(frame(1, "validating study\n"), frame(2, "warning: empty file\n"), frame(1, "done\n"));
+        daemon.respondChunked(200, Arrays.copyOfRange(frames, 0, 5), Arrays.copyOfRange(frames, 5, frames.length));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        client.streamLogs("abc123", out);
+
+        assertEquals("validating study\nwarning: empty file\ndone\n", out.toString("UTF-8"));
+        assertEquals("GET /v1.40/containers/abc123/logs?follow=true&stdout=true&stderr=true", daemon.getRequests().get(0));
+    }
+
+    @Test
+    public void testWaitContainer_returnsStatusCode() throws IOException {
+        daemon.respond(200, "{\"StatusCode\":3}");
+
+        assertEquals(3, client.waitContainer("abc123"));
+    }
+
+    @Test
+    public void testExec_returnsExitCode() throws IOException {
+        daemon.respond(201, "{\"Id\":\"exec1\"}");
+        daemon.respondChunked(200, frame(1, "imported\n"));
+        daemon.respond(200, "{\"ExitCode\":0,\"Running\":false}");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        int exitCode = client.exec("pool-1", "/study", Arrays.asList("cbioportalImporter.py", "-s", "/study"), out);
+
+        assertEquals(0, exitCode);
+        assertEquals("imported\n", out.toString("UTF-8"));
+        assertEquals(Arrays.asList("POST /v1.40/containers/pool-1/exec", "POST /v1.40/exec/exec1/start",
+            "GET /v1.40/exec/exec1/json"), daemon.getRequests());
+        assertTrue(daemon.getBodies().get(0).contains("\"WorkingDir\":\"/study\""));
+    }
+
+    @Test
+    public void testContainerStats_resourceUsage() throws IOException {
+        daemon.respond(200, "{\"cpu_stats\":{\"cpu_usage\":{\"total_usage\":2500000000}},"
+            + "\"memory_stats\":{\"usage\":1000,\"max_usage\":4000},"
+            + "\"blkio_stats\":{\"io_service_bytes_recursive\":[{\"major\":8,\"op\":\"Read\",\"value\":300},"
+            + "{\"major\":8,\"op\":\"Write\",\"value\":200},{\"major\":8,\"op\":\"Total\",\"value\":500}]}}");
+
+        ResourceUsage usage = client.containerStats("abc123");
+
+        assertEquals(2500, usage.getCpuMillis());
+        assertEquals(4000, usage.getPeakRssBytes());
+        assertEquals(300, usage.getReadBytes());
+        assertEquals(200, usage.getWriteBytes());
+        assertEquals("GET /v1.40/containers/abc123/stats?stream=false", daemon.getRequests().get(0));
+    }
+
+    @Test
+    public void testRequest_errorStatus() throws IOException {
+        daemon.respond(404, "{\"message\":\"No such container: abc123\"}");
+
+        try {
+            client.startContainer("abc123");
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("404"));
+            assertTrue(e.getMessage().contains("No such container"));
+        }
+    }
+
+    @Test
+    public void testPing() throws IOException {
+        daemon.respond(200, "\"OK\"");
+
+        client.ping();
+
+        assertEquals("GET /v1.40/_ping", daemon.getRequests().get(0));
+    }
+
+    @Test
+    public void testRequest_readTimeout() throws IOException {
+        ReflectionTestUtils.setField(client, "timeout", 1);
+        try (ServerSocket silentDaemon = new ServerSocket(0)) {
+            ReflectionTestUtils.setField(client, "dockerHost", "tcp://localhost:" + silentDaemon.getLocalPort());
+            long start = System.currentTimeMillis();
+            try {
+                client.ping();
+                fail("Expected SocketTimeoutException");
+            } catch (SocketTimeoutException e) {
+                assertTrue(System.currentTimeMillis() - start < 10000);
+            }
+        }
+    }
+
+    private static byte[] frame(int stream, String content) {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[8 + data.length];
+        frame[0] = (byte) stream;
+        frame[4] = (byte) (data.length >>> 24);
+        frame[5] = (byte) (data.length >>> 16);
+        frame[6] = (byte) (data.length >>> 8);
+        frame[7] = (byte) data.length;
+        System.arraycopy(data, 0, frame, 8, data.length);
+        return frame;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Answers every connection with the next queued response.
+     */
+    private static class FakeDockerDaemon implements AutoCloseable {
+
+        private final ServerSocket server;
+        private final List<byte[]> responses = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> bodies = Collections.synchronizedList(new ArrayList<>());
+        private final Thread thread;
+
+        FakeDockerDaemon() throws IOException {
+            server = new ServerSocket(0);
+            thread = new Thread(this::serve, "fake-docker-daemon");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        List<String> getRequests() {
+            return requests;
+        }
+
+        List<String> getBodies() {
+            return bodies;
+        }
+
+        void respond(int status, String json) {
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            String head = "HTTP/1.1 " + status + " Status\r\nContent-Type: application/json\r\nContent-Length: "
+                + body.length + "\r\n\r\n";
+            responses.add(concat(head.getBytes(StandardCharsets.US_ASCII), body));
+        }
+
+        void respondChunked(int status, byte[]... chunks) {
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            String head = "HTTP/1.1 " + status + " OK\r\nContent-Type: application/vnd.docker.raw-stream\r\n"
+                + "Transfer-Encoding: chunked\r\n\r\n";
+            write(response, head);
+            for (byte[] chunk : chunks) {
+                write(response, Integer.toHexString(chunk.length) + "\r\n");
+                response.write(chunk, 0, chunk.length);
+                write(response, "\r\n");
+            }
+            write(response, "0\r\n\r\n");
+            responses.add(response.toByteArray());
+        }
+
+        private void write(ByteArrayOutputStream out, String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        private void serve() {
+            while (!server.isClosed()) {
+                try (Socket socket = server.accept()) {
+                    InputStream in = socket.getInputStream();
+                    String requestLine = readLine(in);
+                    requests.add(requestLine.substring(0, requestLine.lastIndexOf(' ')));
+                    int contentLength = 0;
+                    String line;
+                    while (!(line = readLine(in)).isEmpty()) {
+                        if (line.toLowerCase().startsWith("content-length:")) {
+                            contentLength = Integer.parseInt(line.substring(15).trim());
+                        }
+                    }
+                    byte[] body = new byte[contentLength];
+                    for (int read = 0; read < contentLength;) {
+                        read += in.read(body, read, contentLength - read);
+                    }
+                    bodies.add(new String(body, StandardCharsets.UTF_8));
+                    OutputStream out = socket.getOutputStream();
+                    out.write(responses.remove(0));
+                    out.flush();
+                } catch (IOException e) {
+                    // server is closed
+                }
+            }
+        }
+
+        private String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) != '\n' && b >= 0) {
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+
+}
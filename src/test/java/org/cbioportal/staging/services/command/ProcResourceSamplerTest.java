@@ -0,0 +1,103 @@
+package org.cbioportal.staging.services.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProcResourceSamplerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path proc;
+    private ProcResourceSampler sampler;
+
+    @Before
+    public void init() throws IOException {
+        proc = folder.getRoot().toPath();
+        Files.createDirectories(proc.resolve("self"));
+        sampler = new ProcResourceSampler(proc);
+    }
+
+    @Test
+    public void testSample_sumsProcessTree() throws IOException {
+        // command (100) started a python process (101), which started a child (102)
+        writeProcess(100, "sh", 1, 10, 5, 30, 5, 1000, 1000, 4096, 0);
+        writeProcess(101, "python (importer)", 100, 200, 50, 0, 0, 200000, 250000, 1048576, 2048);
+        writeProcess(102, "java", 101, 100, 0, 0, 0, 100000, 100000, 0, 512);
+        writeProcess(200, "other", 1, 5000, 5000, 0, 0, 900000, 900000, 1, 1);
+
+        ResourceUsage usage = sampler.sample(100);
+
+        // (10 + 5 + 30 + 5 + 200 + 50 + 100) ticks of 10 ms
+        assertEquals(4000, usage.getCpuMillis());
+        assertEquals((1000 + 200000 + 100000) * 1024L, usage.getPeakRssBytes());
+        assertEquals(4096 + 1048576, usage.getReadBytes());
+        assertEquals(2048 + 512, usage.getWriteBytes());
+    }
+
+    @Test
+    public void testSample_highWaterMarkOfSingleProcess() throws IOException {
+        writeProcess(100, "sh", 1, 0, 0, 0, 0, 1000, 1000, 0, 0);
+        writeProcess(101, "python", 100, 0, 0, 0, 0, 2000, 500000, 0, 0);
+
+        assertEquals(500000 * 1024L, sampler.sample(100).getPeakRssBytes());
+    }
+
+    @Test
+    public void testSample_processEnded() throws IOException {
+        writeProcess(200, "other", 1, 0, 0, 0, 0, 0, 0, 0, 0);
+
+        assertNull(sampler.sample(100));
+    }
+
+    @Test
+    public void testDescendants_parentsFirst() throws IOException {
+        writeProcess(100, "sh", 1, 0, 0, 0, 0, 0, 0, 0, 0);
+        writeProcess(101, "python", 100, 0, 0, 0, 0, 0, 0, 0, 0);
+        writeProcess(102, "java", 101, 0, 0, 0, 0, 0, 0, 0, 0);
+        writeProcess(200, "other", 1, 0, 0, 0, 0, 0, 0, 0, 0);
+
+        assertEquals(Arrays.asList(101L, 102L), sampler.descendants(100));
+        assertTrue(sampler.descendants(102).isEmpty());
+    }
+
+    @Test
+    public void testUpdate_keepsHighestValues() {
+        ResourceUsage usage = new ResourceUsage();
+
+        usage.update(new ResourceUsage(1000, 500, 10, 20));
+        usage.update(new ResourceUsage(1500, 300, 40, 20));
+
+        assertEquals(1500, usage.getCpuMillis());
+        assertEquals(500, usage.getPeakRssBytes());
+        assertEquals(40, usage.getReadBytes());
+        assertEquals(20, usage.getWriteBytes());
+    }
+
+    private void writeProcess(long pid, String name, long ppid, long utime, long stime, long cutime, long cstime,
+            long rssKb, long hwmKb, long readBytes, long writeBytes) throws IOException {
+        Path dir = Files.createDirectories(proc.resolve(String.valueOf(pid)));
+        write(dir.resolve("stat"), pid + " (" + name + ") S " + ppid + " " + pid + " " + pid
+            + " 0 -1 4194560 100 0 0 0 " + utime + " " + stime + " " + cutime + " " + cstime + " 20 0 1 0 100 1000 100\n");
+        write(dir.resolve("status"), "Name:\t" + name + "\nVmHWM:\t" + hwmKb + " kB\nVmRSS:\t" + rssKb + " kB\n");
+        write(dir.resolve("io"), "rchar: 1\nwchar: 1\nread_bytes: " + readBytes + "\nwrite_bytes: " + writeBytes
+            + "\ncancelled_write_bytes: 0\n");
+    }
+
+    private void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,202 @@
+package org.cbioportal.staging.services.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.cbioportal.staging.exceptions.ValidatorException;
+import org.cbioportal.staging.services.command.CommandResourceMonitor;
+import org.cbioportal.staging.services.command.CommandRunner;
+import org.cbioportal.staging.services.command.ICommandBuilder;
+import org.cbioportal.staging.services.resource.ResourceUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class PortalInfoCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ICommandBuilder commandBuilder;
+    private PortalInfoCache cache;
+    private CommandRunner commandRunner;
+
+    @Before
+    public void init() throws Exception {
+        commandBuilder = mock(ICommandBuilder.class);
+        ResourceUtils utils = mock(ResourceUtils.class);
+        when(utils.createDirResource(any(Resource.class), any())).thenAnswer(invocation -> {
+            File dir = new File(folder.getRoot(), (String) invocation.getArgument(1));
+            dir.mkdirs();
+            return new FileSystemResource(dir);
+        });
+        when(utils.getFile(any())).thenAnswer(invocation -> ((Resource) invocation.getArgument(0)).getFile());
+
+        cache = new PortalInfoCache();
+        ReflectionTestUtils.setField(cache, "commandBuilder", commandBuilder);
+        ReflectionTestUtils.setField(cache, "utils", utils);
+        commandRunner = new CommandRunner();
+        ReflectionTestUtils.setField(commandRunner, "environment", new MockEnvironment());
+        ReflectionTestUtils.setField(commandRunner, "resourceMonitor", new CommandResourceMonitor());
+        ReflectionTestUtils.invokeMethod(commandRunner, "initExecutors");
+        ReflectionTestUtils.setField(cache, "commandRunner", commandRunner);
+        ReflectionTestUtils.setField(cache, "etlWorkingDir", new FileSystemResource(folder.getRoot()));
+        cache.initDumpExecutor();
+    }
+
+    @After
+    public void cleanUp() {
+        cache.shutdownDumpExecutor();
+        ReflectionTestUtils.invokeMethod(commandRunner, "shutdownExecutors");
+    }
+
+    @Test
+    public void testGet_sharedByValidations() throws Exception {
+        Resource first = cache.get();
+        Resource second = cache.get();
+
+        assertEquals(first, second);
+        assertTrue(first.getFile().isDirectory());
+        verify(commandBuilder, times(1)).buildPortalInfoCommand(any());
+    }
+
+    @Test
+    public void testPrefetch_newDumpEveryRun() throws Exception {
+        cache.prefetch();
+        cache.get();
+        cache.prefetch();
+        cache.get();
+
+        verify(commandBuilder, times(2)).buildPortalInfoCommand(any());
+    }
+
+    @Test
+    public void testPrefetch_reusedWithinTtl() throws Exception {
+        ReflectionTestUtils.setField(cache, "ttl", 60);
+        cache.prefetch();
+        cache.get();
+        cache.prefetch();
+        cache.get();
+
+        verify(commandBuilder, times(1)).buildPortalInfoCommand(any());
+    }
+
+    @Test
+    public void testInvalidateIfChanged_cancerTypes() throws Exception {
+        Resource first = cache.get();
+        File studyDir = folder.newFolder("study");
+        Files.write(new File(studyDir, "meta_cancer_type.txt").toPath(),
+            "genetic_alteration_type: CANCER_TYPE\ndatatype: CANCER_TYPE\n".getBytes());
+
+        cache.invalidateIfChanged(new FileSystemResource(studyDir));
+
+        assertNotEquals(first, cache.get());
+        verify(commandBuilder, times(2)).buildPortalInfoCommand(any());
+    }
+
+    @Test
+    public void testInvalidateIfChanged_otherData() throws Exception {
+        Resource first = cache.get();
+        File studyDir = folder.newFolder("study");
+        Files.write(new File(studyDir, "meta_clinical.txt").toPath(),
+            "genetic_alteration_type: CLINICAL\ndatatype: SAMPLE_ATTRIBUTES\n".getBytes());
+
+        cache.invalidateIfChanged(new FileSystemResource(studyDir));
+
+        assertEquals(first, cache.get());
+    }
+
+    @Test
+    public void testGet_failedDumpIsRetried() throws Exception {
+        when(commandBuilder.buildPortalInfoCommand(any())).thenReturn(new ProcessBuilder("false"));
+        try {
+            cache.get();
+            fail("Expected ValidatorException");
+        } catch (ValidatorException e) {
+            // expected
+        }
+
+        when(commandBuilder.buildPortalInfoCommand(any())).thenReturn(null);
+        cache.get();
+
+        verify(commandBuilder, times(2)).buildPortalInfoCommand(any());
+    }
+
+    @Test
+    public void testRelease_removesDumpsNotInUse() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            cache.invalidate();
+            cache.release(cache.get());
+            Thread.sleep(2);
+        }
+
+        assertEquals(1, dumpDirs().length);
+    }
+
+    @Test
+    public void testRelease_keepsDumpInUse() throws Exception {
+        Resource inUse = cache.get();
+        Thread.sleep(2);
+        for (int i = 0; i < 3; i++) {
+            cache.invalidate();
+            cache.release(cache.get());
+            Thread.sleep(2);
+        }
+        assertEquals(2, dumpDirs().length);
+        assertTrue(inUse.getFile().isDirectory());
+
+        cache.release(inUse);
+
+        assertEquals(1, dumpDirs().length);
+        assertFalse(inUse.getFile().exists());
+    }
+
+    @Test
+    public void testInvalidateIfChanged_genePanel() throws Exception {
+        Resource first = cache.get();
+        File studyDir = folder.newFolder("study");
+        Files.write(new File(studyDir, "data_gene_panel_impact.txt").toPath(),
+            "stable_id: IMPACT341\ndescription: Targeted panel\ngene_list: ABL1 AKT1\n".getBytes());
+
+        cache.invalidateIfChanged(new FileSystemResource(studyDir));
+
+        assertNotEquals(first, cache.get());
+    }
+
+    @Test
+    public void testInvalidateIfChanged_genePanelMatrix() throws Exception {
+        Resource first = cache.get();
+        File studyDir = folder.newFolder("study");
+        Files.write(new File(studyDir, "meta_gene_panel_matrix.txt").toPath(),
+            "genetic_alteration_type: GENE_PANEL_MATRIX\ndatatype: GENE_PANEL_MATRIX\n".getBytes());
+        Files.write(new File(studyDir, "data_gene_panel_matrix.txt").toPath(),
+            "SAMPLE_ID\tmutations\nS1\tIMPACT341\n".getBytes());
+
+        cache.invalidateIfChanged(new FileSystemResource(studyDir));
+
+        assertEquals(first, cache.get());
+    }
+
+    private File[] dumpDirs() {
+        return folder.getRoot().listFiles((dir, name) -> name.startsWith("portalInfo_"));
+    }
+
+}
@@ -0,0 +1,138 @@
+package org.cbioportal.staging.services.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.pivovarit.function.ThrowingRunnable;
+
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    @Test
+    public void testAdjust_increasesWhileThroughputRises() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("host", 2, 1, 16, 0.5, 2.0);
+
+        limit.adjust(1000, small(100), false, true);
+        limit.adjust(2000, small(100), false, true);
+
+        assertEquals(4, limit.getLimit());
+        assertEquals(2000, limit.getThroughput(), 0);
+    }
+
+    @Test
+    public void testAdjust_noIncreaseWhenNotSaturated() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("host", 2, 1, 16, 0.5, 2.0);
+
+        limit.adjust(1000, small(100), false, false);
+
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void testAdjust_noIncreaseWhenThroughputDrops() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("host", 2, 1, 16, 0.5, 2.0);
+        limit.adjust(1000, small(100), false, true);
+
+        limit.adjust(500, small(100), false, true);
+
+        assertEquals(3, limit.getLimit());
+    }
+
+    @Test
+    public void testAdjust_halvesOnFailure() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("host", 8, 1, 16, 0.5, 2.0);
+
+        limit.adjust(1000, small(100), true, true);
+        assertEquals(4, limit.getLimit());
+        limit.adjust(1000, small(100), true, true);
+        limit.adjust(1000, small(100), true, true);
+        limit.adjust(1000, small(100), true, true);
+
+        assertEquals(1, limit.getLimit());
+    }
+
+    @Test
+    public void testAdjust_halvesOnLatencySpike() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("host", 8, 1, 16, 0.5, 2.0);
+        limit.adjust(1000, small(100), false, false);
+
+        limit.adjust(1000, small(300), false, true);
+
+        assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    public void testAdjust_staysBelowMax() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("host", 3, 1, 4, 0.5, 2.0);
+
+        limit.adjust(1000, small(100), false, true);
+        limit.adjust(1000, small(100), false, true);
+
+        assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    public void testAdjust_latencyComparedPerSizeClass() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("host", 8, 1, 16, 0.5, 2.0);
+        limit.adjust(1000, small(20), false, false);
+
+        // large files take longer per MB than the round trip of small files
+        limit.adjust(1000, new double[] { -1, -1, 100, -1 }, false, false);
+        assertEquals(8, limit.getLimit());
+        limit.adjust(1000, new double[] { 20, -1, 300, -1 }, false, false);
+
+        assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    public void testSizeClass() {
+        assertEquals(0, AdaptiveConcurrencyLimit.sizeClass(1000));
+        assertEquals(1, AdaptiveConcurrencyLimit.sizeClass(1024 * 1024));
+        assertEquals(2, AdaptiveConcurrencyLimit.sizeClass(100 * 1024 * 1024));
+        assertEquals(3, AdaptiveConcurrencyLimit.sizeClass(10L * 1024 * 1024 * 1024));
+    }
+
+    @Test
+    public void testCancel_notPartOfWindow() throws InterruptedException {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("host", 2, 1, 16, 0.5, 2.0);
+        for (int i = 0; i < 8; i++) {
+            limit.acquire();
+            limit.cancel();
+        }
+
+        assertEquals(2, limit.getLimit());
+        assertEquals(0, limit.getInFlight());
+        assertEquals(-1, limit.getThroughput(), 0);
+    }
+
+    @Test
+    public void testAcquire_waitsForRelease() throws Exception {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("host", 1, 1, 16, 0.5, 2.0);
+        limit.acquire();
+
+        CompletableFuture<Void> second = CompletableFuture.runAsync(ThrowingRunnable.sneaky(limit::acquire));
+        try {
+            second.get(200, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // expected, the limit is reached
+        }
+        assertFalse(second.isDone());
+
+        limit.release(0, 10, false);
+
+        second.get(5, TimeUnit.SECONDS);
+        assertTrue(second.isDone());
+        assertEquals(1, limit.getInFlight());
+    }
+
+    private double[] small(double latency) {
+        return new double[] { latency, -1, -1, -1 };
+    }
+
+}
@@ -0,0 +1,80 @@
+package org.cbioportal.staging.services.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+
+import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.Resource;
+
+public class AdaptiveConcurrencyResourceProviderTest {
+
+    private IResourceProvider delegate;
+    private Resource localDir;
+    private AdaptiveConcurrencyResourceProvider provider;
+
+    @Before
+    public void init() {
+        delegate = mock(IResourceProvider.class);
+        localDir = mock(Resource.class);
+        provider = new AdaptiveConcurrencyResourceProvider(delegate, 4, 1, 16, 0.5, 2.0);
+    }
+
+    @Test
+    public void testCopyFromRemote_limitPerHost() throws Exception {
+        Resource fileA = remote("s3://bucket-a/study/data.txt");
+        Resource fileB = remote("s3://bucket-b/study/data.txt");
+        Resource local = mock(Resource.class);
+        when(local.exists()).thenReturn(true);
+        when(local.contentLength()).thenReturn(1024L);
+        when(delegate.copyFromRemote(localDir, fileA)).thenReturn(local);
+        when(delegate.copyFromRemote(localDir, fileB)).thenThrow(new ResourceCollectionException("timeout", new SocketTimeoutException("Read timed out")));
+
+        provider.copyFromRemote(localDir, fileA);
+        try {
+            provider.copyFromRemote(localDir, fileB);
+            fail("Expected ResourceCollectionException");
+        } catch (ResourceCollectionException e) {
+            // expected
+        }
+
+        assertEquals(4, (int) provider.getLimits().get("bucket-a"));
+        assertEquals(2, (int) provider.getLimits().get("bucket-b"));
+        assertEquals(0, provider.getLimit("bucket-a").getInFlight());
+        assertEquals(0, provider.getLimit("bucket-b").getInFlight());
+    }
+
+    @Test
+    public void testCopyFromRemote_notFoundKeepsLimit() throws Exception {
+        Resource file = remote("sftp://host/study/missing.txt");
+        when(delegate.copyFromRemote(localDir, file))
+            .thenThrow(new ResourceCollectionException("Cannot copy resource", new FileNotFoundException("missing.txt")));
+
+        for (int i = 0; i < 8; i++) {
+            try {
+                provider.copyFromRemote(localDir, file);
+                fail("Expected ResourceCollectionException");
+            } catch (ResourceCollectionException e) {
+                // expected
+            }
+        }
+
+        assertEquals(4, (int) provider.getLimits().get("host"));
+        assertEquals(0, provider.getLimit("host").getInFlight());
+    }
+
+    private Resource remote(String uri) throws IOException {
+        Resource resource = mock(Resource.class);
+        when(resource.getURI()).thenReturn(URI.create(uri));
+        return resource;
+    }
+
+}
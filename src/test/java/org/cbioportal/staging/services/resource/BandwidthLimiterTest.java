@@ -0,0 +1,102 @@
+package org.cbioportal.staging.services.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalTime;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class BandwidthLimiterTest {
+
+    @Test
+    public void testLimit_noLimitReturnsStream() {
+        BandwidthLimiter limiter = limiter(0, 0, "");
+        InputStream in = new ByteArrayInputStream(new byte[10]);
+
+        assertSame(in, limiter.limit(BandwidthLimiter.SFTP, in));
+        assertFalse(limiter.isEnabled());
+    }
+
+    @Test
+    public void testLimit_providerLimitOnlyForProvider() {
+        BandwidthLimiter limiter = limiter(0, 1000, "");
+        InputStream in = new ByteArrayInputStream(new byte[10]);
+
+        assertSame(in, limiter.limit(BandwidthLimiter.AWS, in));
+        assertTrue(limiter.isLimited(BandwidthLimiter.SFTP));
+    }
+
+    @Test
+    public void testLimit_readsAtRate() throws IOException {
+        // the bucket starts full with one second of tokens
+        BandwidthLimiter limiter = limiter(100000, 0, "");
+        long start = System.nanoTime();
+
+        try (InputStream in = limiter.limit(BandwidthLimiter.AWS, new ByteArrayInputStream(new byte[150000]))) {
+            assertEquals(150000, IOUtils.toByteArray(in).length);
+        }
+
+        long millis = (System.nanoTime() - start) / 1000000;
+        assertTrue("Read took " + millis + " ms", millis >= 400);
+        assertEquals(150000, limiter.getTransferredBytes());
+    }
+
+    @Test
+    public void testLimit_notLimitedOutsideHours() throws IOException {
+        LocalTime later = LocalTime.now().plusHours(1);
+        BandwidthLimiter limiter = limiter(1000, 0, later.withNano(0) + "-" + later.plusHours(1).withNano(0));
+        long start = System.nanoTime();
+
+        try (InputStream in = limiter.limit(BandwidthLimiter.AWS, new ByteArrayInputStream(new byte[100000]))) {
+            IOUtils.toByteArray(in);
+        }
+
+        assertTrue((System.nanoTime() - start) / 1000000 < 1000);
+        assertEquals(100000, limiter.getTransferredBytes());
+    }
+
+    @Test
+    public void testIsLimitedAt() {
+        BandwidthLimiter limiter = limiter(1000, 0, "07:00-12:00, 22:00-02:00");
+
+        assertTrue(limiter.isLimitedAt(LocalTime.of(7, 0)));
+        assertFalse(limiter.isLimitedAt(LocalTime.of(12, 0)));
+        assertFalse(limiter.isLimitedAt(LocalTime.of(18, 30)));
+        assertTrue(limiter.isLimitedAt(LocalTime.of(23, 0)));
+        assertTrue(limiter.isLimitedAt(LocalTime.of(1, 59)));
+        assertFalse(limiter.isLimitedAt(LocalTime.of(2, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInit_invalidHours() {
+        limiter(1000, 0, "07:00");
+    }
+
+    @Test
+    public void testTokenBucket_debt() {
+        BandwidthLimiter.TokenBucket bucket = new BandwidthLimiter.TokenBucket(1000);
+        long now = System.nanoTime();
+
+        assertEquals(0, bucket.reserve(1000, now));
+        assertEquals(500000000L, bucket.reserve(500, now));
+        assertEquals(0, bucket.reserve(0, now + 1000000000L));
+    }
+
+    private BandwidthLimiter limiter(long limit, long sftpLimit, String hours) {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        ReflectionTestUtils.setField(limiter, "limit", limit);
+        ReflectionTestUtils.setField(limiter, "sftpLimit", sftpLimit);
+        ReflectionTestUtils.setField(limiter, "hours", hours);
+        limiter.init();
+        return limiter;
+    }
+
+}
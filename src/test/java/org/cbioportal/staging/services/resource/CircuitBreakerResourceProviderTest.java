@@ -0,0 +1,162 @@
+package org.cbioportal.staging.services.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+
+import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.cbioportal.staging.services.resource.CircuitBreakerResourceProvider.State;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.Resource;
+
+public class CircuitBreakerResourceProviderTest {
+
+    private IResourceProvider delegate;
+    private Resource dir;
+
+    @Before
+    public void init() {
+        delegate = mock(IResourceProvider.class);
+        dir = mock(Resource.class);
+    }
+
+    @Test
+    public void testList_opensAtFailureRate() throws ResourceCollectionException {
+        CircuitBreakerResourceProvider provider = new CircuitBreakerResourceProvider(delegate, "aws", 10, 4, 50, 60000, 1);
+        when(delegate.list(dir)).thenReturn(new Resource[0]);
+        provider.list(dir);
+        provider.list(dir);
+        when(delegate.list(dir)).thenThrow(timeout());
+        listFails(provider);
+        assertEquals(State.CLOSED, provider.getState());
+
+        listFails(provider);
+
+        assertEquals(State.OPEN, provider.getState());
+        assertEquals(1, provider.getTimesOpened());
+    }
+
+    @Test
+    public void testList_failsFastWhenOpen() throws ResourceCollectionException {
+        CircuitBreakerResourceProvider provider = new CircuitBreakerResourceProvider(delegate, "aws", 10, 2, 50, 60000, 1);
+        when(delegate.list(dir)).thenThrow(timeout());
+        listFails(provider);
+        listFails(provider);
+
+        listFails(provider);
+        listFails(provider);
+
+        verify(delegate, times(2)).list(dir);
+        assertEquals(2, provider.getRejectedCalls());
+    }
+
+    @Test
+    public void testCopyFromRemote_closesAfterHalfOpenSuccess() throws ResourceCollectionException {
+        CircuitBreakerResourceProvider provider = new CircuitBreakerResourceProvider(delegate, "sftp", 10, 2, 50, 0, 2);
+        when(delegate.list(dir)).thenThrow(timeout());
+        listFails(provider);
+        listFails(provider);
+        assertEquals(State.OPEN, provider.getState());
+
+        // the open time has passed, so the next calls are trial calls
+        provider.copyFromRemote(dir, dir);
+        assertEquals(State.HALF_OPEN, provider.getState());
+        provider.copyFromRemote(dir, dir);
+
+        assertEquals(State.CLOSED, provider.getState());
+        verify(delegate, times(2)).copyFromRemote(any(), any());
+    }
+
+    @Test
+    public void testList_opensAgainAfterHalfOpenFailure() throws ResourceCollectionException {
+        CircuitBreakerResourceProvider provider = new CircuitBreakerResourceProvider(delegate, "sftp", 10, 2, 50, 0, 2);
+        when(delegate.list(dir)).thenThrow(timeout());
+        listFails(provider);
+        listFails(provider);
+
+        listFails(provider);
+
+        assertEquals(State.OPEN, provider.getState());
+        assertEquals(2, provider.getTimesOpened());
+    }
+
+    @Test
+    public void testList_failuresOutsideWindowForgotten() throws ResourceCollectionException {
+        CircuitBreakerResourceProvider provider = new CircuitBreakerResourceProvider(delegate, "aws", 4, 4, 50, 60000, 1);
+        when(delegate.list(dir)).thenThrow(timeout());
+        listFails(provider);
+        doReturn(new Resource[0]).when(delegate).list(dir);
+        for (int i = 0; i < 4; i++) {
+            provider.list(dir);
+        }
+        when(delegate.list(dir)).thenThrow(timeout());
+
+        listFails(provider);
+
+        assertEquals(25, provider.getFailureRate());
+        assertEquals(State.CLOSED, provider.getState());
+    }
+
+    @Test
+    public void testGetResource_notGuarded() throws ResourceCollectionException {
+        CircuitBreakerResourceProvider provider = new CircuitBreakerResourceProvider(delegate, "aws", 10, 2, 50, 60000, 1);
+        when(delegate.list(dir)).thenThrow(timeout());
+        listFails(provider);
+        listFails(provider);
+        assertEquals(State.OPEN, provider.getState());
+
+        provider.getResource("s3://bucket/study/meta_study.txt");
+
+        verify(delegate, times(1)).getResource("s3://bucket/study/meta_study.txt");
+        assertEquals(0, provider.getRejectedCalls());
+    }
+
+    private void listFails(IResourceProvider provider) {
+        try {
+            provider.list(dir);
+            fail("Expected ResourceCollectionException");
+        } catch (ResourceCollectionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCopyFromRemote_notFoundIsNoFailure() throws ResourceCollectionException {
+        CircuitBreakerResourceProvider provider = new CircuitBreakerResourceProvider(delegate, "aws", 10, 2, 50, 60000, 1);
+        AmazonS3Exception noSuchKey = new AmazonS3Exception("The specified key does not exist.");
+        noSuchKey.setStatusCode(404);
+        when(delegate.copyFromRemote(dir, dir))
+            .thenThrow(new ResourceCollectionException("Cannot copy resource", noSuchKey))
+            .thenThrow(new ResourceCollectionException("Cannot copy resource", new FileNotFoundException("data.txt")))
+            .thenThrow(new ResourceCollectionException("Cannot copy resource", new IOException("No space left on device")));
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                provider.copyFromRemote(dir, dir);
+                fail("Expected ResourceCollectionException");
+            } catch (ResourceCollectionException e) {
+                // expected
+            }
+        }
+
+        assertEquals(State.CLOSED, provider.getState());
+        assertEquals(0, provider.getFailureRate());
+    }
+
+    private ResourceCollectionException timeout() {
+        return new ResourceCollectionException("timeout", new SocketTimeoutException("Read timed out"));
+    }
+
+}
@@ -0,0 +1,116 @@
+package org.cbioportal.staging.services.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RangedDownloadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDownload_failureSkipsQueuedRanges() throws IOException {
+        File partFile = folder.newFile("file.txt.part");
+        List<Long> opened = new ArrayList<>();
+        RangedDownload.RangeReader reader = (start, length) -> {
+            opened.add(start);
+            throw new IOException("Connection reset");
+        };
+
+        try {
+            // the ranges are fetched one after the other on the calling thread
+            new RangedDownload("file.txt", 100, "etag", 2).download(reader, Runnable::run, partFile);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Connection reset", e.getCause().getMessage());
+        }
+
+        assertEquals(1, opened.size());
+        assertTrue(new File(partFile.getAbsolutePath() + ".ranges").exists());
+    }
+
+    @Test
+    public void testDownload_resumesFromProgressOfFailedDownload() throws IOException {
+        File partFile = folder.newFile("file.txt.part");
+        RangedDownload.RangeReader failing = (start, length) -> new InputStream() {
+            private int read = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (read == 10) {
+                    throw new IOException("Connection reset");
+                }
+                return 'a' + read++;
+            }
+        };
+        try {
+            new RangedDownload("file.txt", 40, "etag", 1).download(failing, Runnable::run, partFile);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        List<Long> opened = new ArrayList<>();
+        RangedDownload.RangeReader reader = (start, length) -> {
+            opened.add(start);
+            return new ByteArrayInputStream(new byte[(int) (long) length]);
+        };
+        new RangedDownload("file.txt", 40, "etag", 1).download(reader, Runnable::run, partFile);
+
+        assertEquals(10L, (long) opened.get(0));
+        assertEquals(40, partFile.length());
+        assertEquals("abcdefghij", new String(Files.readAllBytes(partFile.toPath()), 0, 10, StandardCharsets.UTF_8));
+        assertFalse(new File(partFile.getAbsolutePath() + ".ranges").exists());
+    }
+
+    @Test
+    public void testDownload_progressStoredWhileFetching() throws IOException {
+        File partFile = folder.newFile("file.txt.part");
+        File progressFile = new File(partFile.getAbsolutePath() + ".ranges");
+        int size = 10 * 1024 * 1024;
+        List<String> progress = new ArrayList<>();
+        RangedDownload.RangeReader reader = (start, length) -> new InputStream() {
+            private int read = 0;
+
+            @Override
+            public int read() {
+                return read(new byte[1], 0, 1) < 0 ? -1 : 0;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                if (read == 9 * 1024 * 1024) {
+                    try {
+                        progress.addAll(Files.readAllLines(progressFile.toPath(), StandardCharsets.UTF_8));
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                int count = Math.min(length, size - read);
+                read += count;
+                return count;
+            }
+        };
+
+        new RangedDownload("file.txt", size, "etag", 1).download(reader, Runnable::run, partFile);
+
+        long stored = Long.parseLong(progress.get(1).split("\t")[2]);
+        assertTrue("Stored progress " + stored, stored >= 8 * 1024 * 1024);
+    }
+
+}
@@ -0,0 +1,50 @@
+package org.cbioportal.staging.services.resource;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import org.cbioportal.staging.services.resource.filesystem.FileSystemResourceProvider;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+public class ResourceProviderCircuitBreakerTest {
+
+    private MockEnvironment environment;
+    private ResourceProviderCircuitBreaker circuitBreaker;
+
+    @Before
+    public void init() {
+        environment = new MockEnvironment().withProperty("scan.location.type", "aws");
+        circuitBreaker = new ResourceProviderCircuitBreaker();
+        circuitBreaker.setEnvironment(environment);
+    }
+
+    @Test
+    public void testPostProcess_wrapsRemoteProvider() {
+        environment.setProperty("resource.circuit.enable", "true");
+        IResourceProvider provider = mock(IResourceProvider.class);
+
+        Object bean = circuitBreaker.postProcessAfterInitialization(provider, "awsResourceProvider");
+
+        assertTrue(bean instanceof CircuitBreakerResourceProvider);
+        assertSame(provider, ((CircuitBreakerResourceProvider) bean).getDelegate());
+    }
+
+    @Test
+    public void testPostProcess_localProviderNotWrapped() {
+        environment.setProperty("resource.circuit.enable", "true");
+        FileSystemResourceProvider provider = mock(FileSystemResourceProvider.class);
+
+        assertSame(provider, circuitBreaker.postProcessAfterInitialization(provider, "fileSystemResourceProvider"));
+    }
+
+    @Test
+    public void testPostProcess_disabledByDefault() {
+        IResourceProvider provider = mock(IResourceProvider.class);
+
+        assertSame(provider, circuitBreaker.postProcessAfterInitialization(provider, "awsResourceProvider"));
+    }
+
+}
@@ -0,0 +1,43 @@
+package org.cbioportal.staging.services.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+public class ResourceProviderConcurrencyLimitTest {
+
+    private MockEnvironment environment;
+    private ResourceProviderConcurrencyLimit concurrencyLimit;
+
+    @Before
+    public void init() {
+        environment = new MockEnvironment().withProperty("scan.extract.threads", "3");
+        concurrencyLimit = new ResourceProviderConcurrencyLimit();
+        concurrencyLimit.setEnvironment(environment);
+    }
+
+    @Test
+    public void testPostProcess_limitNotAboveExtractThreads() {
+        environment.setProperty("transfer.concurrency.adaptive", "true");
+        environment.setProperty("transfer.concurrency.initial", "10");
+        IResourceProvider provider = mock(IResourceProvider.class);
+
+        Object bean = concurrencyLimit.postProcessAfterInitialization(provider, "awsResourceProvider");
+
+        assertTrue(bean instanceof AdaptiveConcurrencyResourceProvider);
+        assertEquals(3, ((AdaptiveConcurrencyResourceProvider) bean).getLimit("bucket").getLimit());
+    }
+
+    @Test
+    public void testPostProcess_disabledByDefault() {
+        IResourceProvider provider = mock(IResourceProvider.class);
+
+        assertSame(provider, concurrencyLimit.postProcessAfterInitialization(provider, "awsResourceProvider"));
+    }
+
+}
@@ -1,29 +1,44 @@
 package org.cbioportal.staging.services.resource;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 
 import com.amazonaws.services.s3.AmazonS3;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.IntStream;
 import org.cbioportal.staging.TestUtils;
 import org.cbioportal.staging.exceptions.ConfigurationException;
 import org.cbioportal.staging.exceptions.ResourceUtilsException;
+import org.cbioportal.staging.services.resource.aws.S3DirectoryResource;
+import org.cbioportal.staging.services.resource.aws.S3Resource;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.cloud.aws.core.io.s3.SimpleStorageResource;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.integration.sftp.session.SftpFileInfo;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -38,6 +53,9 @@ import org.springframework.test.context.junit4.SpringRunner;
 )
 public class ResourceUtilsTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Autowired
     private ResourceUtils utils;
 
@@ -246,17 +264,124 @@ public class ResourceUtilsTest {
     }
 
     @Test
-    public void extractDirs_successS3() throws URISyntaxException, ResourceUtilsException {
-        SimpleStorageResource resource = mock(SimpleStorageResource.class);
-        when(resource.getAmazonS3())
-            .thenReturn(mock(AmazonS3.class));
-        when(resource.getS3Uri())
-            .thenReturn(new URI("s3:///my-scanlocation/path/study/meta_study.txt"));
-        Resource[] resources = new Resource[] {resource};
-        Resource[] dirs = utils.extractDirs(resources);
+    public void extractDirs_successS3() throws ResourceUtilsException {
+        AmazonS3 amazonS3 = mock(AmazonS3.class);
+        Resource file = new S3Resource(amazonS3, "my-scanlocation", "path/meta_study.txt", 10, 1000, "etag");
+        Resource dir = new S3DirectoryResource(amazonS3, "my-scanlocation", "path/study", () -> 1000);
+        Resource[] dirs = utils.extractDirs(new Resource[] {file, dir});
         assertEquals(1, dirs.length);
         assertEquals("path/study", dirs[0].getFilename());
-        assertNotNull(((SimpleStorageResource) dirs[0]).getAmazonS3());
         assertEquals("s3://my-scanlocation/path/study", ((SimpleStorageResource) dirs[0]).getS3Uri().toString());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void extractDirs_noResourcesS3() throws ResourceUtilsException {
+        assertEquals(0, utils.extractDirs(new Resource[0]).length);
+    }
+
+    @Test
+    public void copyResource_movedIntoPlace() throws IOException, ResourceUtilsException {
+        Resource destinationDir = new FileSystemResource(folder.getRoot());
+        Resource input = new ByteArrayResource("complete".getBytes());
+
+        Resource copy = utils.copyResource(destinationDir, input, "file.txt");
+
+        assertEquals("complete", new String(Files.readAllBytes(copy.getFile().toPath())));
+        assertFalse(new File(folder.getRoot(), "file.txt.part").exists());
+    }
+
+    @Test
+    public void copyResource_resumesPartFile() throws IOException, ResourceUtilsException {
+        Resource destinationDir = new FileSystemResource(folder.getRoot());
+        Files.write(new File(folder.getRoot(), "file.txt.part").toPath(), "parti".getBytes());
+        IResumableResource input = listedResource();
+        Files.write(new File(folder.getRoot(), "file.txt.part.source").toPath(), utils.getFingerprint(input).getBytes());
+        when(input.getInputStream(5)).thenReturn(new ByteArrayInputStream("al".getBytes()));
+
+        Resource copy = utils.copyResource(destinationDir, input, "file.txt");
+
+        assertEquals("partial", new String(Files.readAllBytes(copy.getFile().toPath())));
+        verify(input, never()).getInputStream();
+        assertFalse(new File(folder.getRoot(), "file.txt.part.source").exists());
+    }
+
+    @Test
+    public void copyResource_restartsPartFileOfOtherVersion() throws IOException, ResourceUtilsException {
+        Resource destinationDir = new FileSystemResource(folder.getRoot());
+        Files.write(new File(folder.getRoot(), "file.txt.part").toPath(), "stale".getBytes());
+        Files.write(new File(folder.getRoot(), "file.txt.part.source").toPath(), "5\t1000\told".getBytes());
+        IResumableResource input = listedResource();
+        when(input.getInputStream()).thenReturn(new ByteArrayInputStream("partial".getBytes()));
+
+        Resource copy = utils.copyResource(destinationDir, input, "file.txt");
+
+        assertEquals("partial", new String(Files.readAllBytes(copy.getFile().toPath())));
+        verify(input, never()).getInputStream(5);
+    }
+
+    @Test
+    public void copyResource_restartsWithoutListingMetadata() throws IOException, ResourceUtilsException {
+        Resource destinationDir = new FileSystemResource(folder.getRoot());
+        Files.write(new File(folder.getRoot(), "file.txt.part").toPath(), "stale".getBytes());
+        IResumableResource input = mock(IResumableResource.class);
+        when(input.getInputStream()).thenReturn(new ByteArrayInputStream("new".getBytes()));
+
+        Resource copy = utils.copyResource(destinationDir, input, "file.txt");
+
+        assertEquals("new", new String(Files.readAllBytes(copy.getFile().toPath())));
+        verify(input, never()).getInputStream(5);
+    }
+
+    @Test
+    public void copyResource_restartsChangedResource() throws IOException, ResourceUtilsException {
+        Resource destinationDir = new FileSystemResource(folder.getRoot());
+        Files.write(new File(folder.getRoot(), "file.txt.part").toPath(), "stale".getBytes());
+        IResumableResource input = listedResource();
+        Files.write(new File(folder.getRoot(), "file.txt.part.source").toPath(), utils.getFingerprint(input).getBytes());
+        when(input.getInputStream(5)).thenReturn(null);
+        when(input.getInputStream()).thenReturn(new ByteArrayInputStream("new".getBytes()));
+
+        Resource copy = utils.copyResource(destinationDir, input, "file.txt");
+
+        assertEquals("new", new String(Files.readAllBytes(copy.getFile().toPath())));
+    }
+
+    private IResumableResource listedResource() throws IOException {
+        IResumableResource input = mock(IResumableResource.class, withSettings().extraInterfaces(IMetadataResource.class));
+        when(((IMetadataResource) input).hasMetadata()).thenReturn(true);
+        when(((IMetadataResource) input).getETag()).thenReturn("etag");
+        when(input.contentLength()).thenReturn(7L);
+        when(input.lastModified()).thenReturn(1000L);
+        return input;
+    }
+
+    @Test
+    public void linkDirectory_linksFiles() throws IOException, ResourceUtilsException {
+        File source = folder.newFolder("study");
+        Files.write(new File(source, "meta_study.txt").toPath(), "meta".getBytes());
+        new File(source, "case_lists").mkdir();
+        Files.write(new File(source, "case_lists/cases_all.txt").toPath(), "cases".getBytes());
+        File target = new File(folder.getRoot(), "staging");
+
+        boolean linked = utils.linkDirectory(new FileSystemResource(source), new FileSystemResource(target));
+
+        assertTrue(linked);
+        assertTrue(Files.isSameFile(new File(source, "meta_study.txt").toPath(), new File(target, "meta_study.txt").toPath()));
+        assertEquals("cases", new String(Files.readAllBytes(new File(target, "case_lists/cases_all.txt").toPath())));
+    }
+
+    @Test
+    public void linkDirectory_excludesTargetInsideSource() throws IOException, ResourceUtilsException {
+        File source = folder.newFolder("study");
+        Files.write(new File(source, "meta_study.txt").toPath(), "meta".getBytes());
+        File target = new File(source, "staging");
+        target.mkdir();
+        Files.write(new File(target, "study_transformation_log.txt").toPath(), "log".getBytes());
+
+        utils.linkDirectory(new FileSystemResource(source), new FileSystemResource(target));
+
+        assertTrue(new File(target, "meta_study.txt").exists());
+        assertTrue(new File(target, "study_transformation_log.txt").exists());
+        assertFalse(new File(target, "staging").exists());
+    }
+}
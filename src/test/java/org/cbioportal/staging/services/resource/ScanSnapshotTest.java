@@ -0,0 +1,125 @@
+package org.cbioportal.staging.services.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.cbioportal.staging.TestUtils;
+import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.WritableResource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = ScanSnapshot.class,
+    properties = {"scan.snapshot.file=file:${java.io.tmpdir}/scan_snapshot_test/snapshot.txt"})
+public class ScanSnapshotTest {
+
+    @SpyBean
+    private ResourceUtils utils;
+
+    @Autowired
+    private ScanSnapshot scanSnapshot;
+
+    @After
+    public void cleanUp() throws IOException {
+        Files.deleteIfExists(snapshotFile().toPath());
+        ReflectionTestUtils.setField(scanSnapshot, "committed", new HashMap<>());
+        ReflectionTestUtils.setField(scanSnapshot, "pending", null);
+    }
+
+    @Test
+    public void testChangedStudies_firstScan() throws ResourceCollectionException {
+        Study[] studies = TestUtils.studyList(study("study1", 1), study("study2", 1));
+
+        assertEquals(2, scanSnapshot.changedStudies(studies).length);
+    }
+
+    @Test
+    public void testChangedStudies_unchangedStudiesSkipped() throws ResourceCollectionException {
+        scanSnapshot.changedStudies(TestUtils.studyList(study("study1", 1), study("study2", 1)));
+        scanSnapshot.commit();
+
+        Study[] changed = scanSnapshot.changedStudies(TestUtils.studyList(study("study1", 1), study("study2", 2)));
+
+        assertEquals(1, changed.length);
+        assertEquals("study2", changed[0].getStudyId());
+    }
+
+    @Test
+    public void testChangedStudies_addedAndRemovedFiles() throws ResourceCollectionException {
+        scanSnapshot.changedStudies(TestUtils.studyList(study("study1", 1), study("study2", 1)));
+        scanSnapshot.commit();
+
+        Study study1 = new Study("study1", null, null, null, new Resource[] {
+            TestUtils.createMockResource("file:/study1/file1.txt", 1), TestUtils.createMockResource("file:/study1/file3.txt", 1)});
+        Study study2 = new Study("study2", null, null, null, new Resource[] {
+            TestUtils.createMockResource("file:/study2/file1.txt", 1)});
+
+        Study[] changed = scanSnapshot.changedStudies(TestUtils.studyList(study1, study2));
+
+        assertEquals(2, changed.length);
+    }
+
+    @Test
+    public void testChangedStudies_notCommittedAfterFailure() throws ResourceCollectionException {
+        scanSnapshot.changedStudies(TestUtils.studyList(study("study1", 1)));
+
+        assertEquals(1, scanSnapshot.changedStudies(TestUtils.studyList(study("study1", 1))).length);
+    }
+
+    @Test
+    public void testCommit_onlyCompletedStudies() throws ResourceCollectionException {
+        scanSnapshot.changedStudies(TestUtils.studyList(study("study1", 1), study("study2", 1)));
+        scanSnapshot.commit();
+        scanSnapshot.changedStudies(TestUtils.studyList(study("study1", 2), study("study2", 2), study("study3", 1)));
+
+        scanSnapshot.commit(Collections.singleton("study2"));
+
+        Study[] changed = scanSnapshot.changedStudies(TestUtils.studyList(study("study1", 2), study("study2", 2), study("study3", 1)));
+        assertEquals(2, changed.length);
+        assertEquals("study1", changed[0].getStudyId());
+        assertEquals("study3", changed[1].getStudyId());
+    }
+
+    @Test
+    public void testCommit_snapshotReadAtStartup() throws ResourceCollectionException, IOException {
+        WritableResource file1 = TestUtils.createMockResource("file:/study1/file1.txt", 1);
+        when(file1.contentLength()).thenReturn(100L);
+        Study study1 = new Study("study1", null, null, null, new Resource[] {file1});
+        scanSnapshot.changedStudies(TestUtils.studyList(study1));
+        scanSnapshot.commit();
+
+        assertTrue(snapshotFile().exists());
+        ReflectionTestUtils.setField(scanSnapshot, "committed", new HashMap<>());
+        ReflectionTestUtils.invokeMethod(scanSnapshot, "postConstruct");
+
+        assertEquals(0, scanSnapshot.changedStudies(TestUtils.studyList(study1)).length);
+        when(file1.contentLength()).thenReturn(200L);
+        assertEquals(1, scanSnapshot.changedStudies(TestUtils.studyList(study1)).length);
+    }
+
+    private Study study(String studyId, int lastModified) {
+        return new Study(studyId, null, null, null, new Resource[] {
+            TestUtils.createMockResource("file:/" + studyId + "/file1.txt", lastModified),
+            TestUtils.createMockResource("file:/" + studyId + "/file2.txt", lastModified)});
+    }
+
+    private File snapshotFile() {
+        return new File(System.getProperty("java.io.tmpdir"), "scan_snapshot_test/snapshot.txt");
+    }
+
+}
@@ -12,6 +12,7 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -68,11 +69,15 @@ public class ScheduledScannerTest {
     @MockBean
     private ResourceIgnoreSet ignoreSet;
 
+    @MockBean
+    private ScanSnapshot scanSnapshot;
+
     @Captor
     ArgumentCaptor<Resource[]> valueCaptor;
 
     @Before
-    public void init() {
+    public void init() throws ResourceCollectionException {
+        when(scanSnapshot.changedStudies(any())).thenAnswer(i -> i.getArgument(0));
         ReflectionTestUtils.setField(scheduledScanner, "ignoreAppendSuccess", false);
         ReflectionTestUtils.setField(scheduledScanner, "ignoreAppendFailure", false);
     }
@@ -92,6 +97,20 @@ public class ScheduledScannerTest {
         verify(scheduledScannerService, times(1)).stopAppWithSuccess();
     }
 
+    @Test
+    public void testScan_commitsCompletedStudiesOnly() throws Exception {
+
+        Study[] res = TestUtils.studyList(new Study("loaded", null, null, null, new Resource[0]),
+            new Study("not_extracted", null, null, null, new Resource[0]));
+        when(resourceCollector.getResources(isA(Resource.class))).thenReturn(res);
+        when(etlProcessRunner.getCompletedStudyIds()).thenReturn(Collections.singleton("loaded"));
+
+        scheduledScanner.scan();
+
+        verify(scanSnapshot, times(1)).commit(Collections.singleton("loaded"));
+        verify(scanSnapshot, never()).commit();
+    }
+
     @Test
     public void testScan_resourceCollectionFails() throws Exception {
 
@@ -0,0 +1,239 @@
+package org.cbioportal.staging.services.resource;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+
+import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class TransferCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private IResourceProvider resourceProvider;
+    private TransferCache cache;
+    private File remoteDir;
+
+    @Before
+    public void init() throws IOException, ResourceCollectionException {
+        remoteDir = folder.newFolder("remote");
+        resourceProvider = mock(IResourceProvider.class);
+        // the provider copies the remote file into the destination directory
+        when(resourceProvider.copyFromRemote(any(), any())).thenAnswer(i -> {
+            Resource destinationDir = i.getArgument(0);
+            Resource remoteResource = i.getArgument(1);
+            File target = new File(destinationDir.getFile(), remoteResource.getFilename());
+            target.getParentFile().mkdirs();
+            Files.copy(remoteResource.getFile().toPath(), target.toPath());
+            return new FileSystemResource(target);
+        });
+        cache = newCache(1000);
+    }
+
+    @Test
+    public void testCopyFromRemote_hitForUnchangedFile() throws IOException, ResourceCollectionException {
+        Resource remote = remoteFile("data_clinical.txt", "clinical");
+
+        Resource first = cache.copyFromRemote(new FileSystemResource(folder.newFolder("run1")), remote);
+        Resource second = cache.copyFromRemote(new FileSystemResource(folder.newFolder("run2")), remote);
+
+        verify(resourceProvider, times(1)).copyFromRemote(any(), any());
+        assertEquals("clinical", new String(Files.readAllBytes(second.getFile().toPath())));
+        assertTrue(Files.isSameFile(first.getFile().toPath(), second.getFile().toPath()));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(8, cache.getBytesSaved());
+    }
+
+    @Test
+    public void testCopyFromRemote_cachedFilesReadOnly() throws IOException, ResourceCollectionException {
+        Resource remote = remoteFile("data_clinical.txt", "clinical");
+
+        Resource first = cache.copyFromRemote(new FileSystemResource(folder.newFolder("run1")), remote);
+        Resource second = cache.copyFromRemote(new FileSystemResource(folder.newFolder("run2")), remote);
+
+        assertFalse(isWritable(new File(folder.getRoot(), "cache/objects").listFiles()[0]));
+        assertFalse(isWritable(first.getFile()));
+        assertFalse(isWritable(second.getFile()));
+    }
+
+    @Test
+    public void testCopyFromRemote_missForChangedFile() throws IOException, ResourceCollectionException {
+        Resource remote = remoteFile("data_clinical.txt", "clinical");
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run1")), remote);
+
+        remote = remoteFile("data_clinical.txt", "changed clinical");
+        Resource second = cache.copyFromRemote(new FileSystemResource(folder.newFolder("run2")), remote);
+
+        verify(resourceProvider, times(2)).copyFromRemote(any(), any());
+        assertEquals("changed clinical", new String(Files.readAllBytes(second.getFile().toPath())));
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testCopyFromRemote_identicalContentsStoredOnce() throws IOException, ResourceCollectionException {
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run1")), remoteFile("study1.txt", "same"));
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run2")), remoteFile("study2.txt", "same"));
+
+        assertEquals(4, cache.getSize());
+        assertEquals(1, new File(folder.getRoot(), "cache/objects").list().length);
+    }
+
+    @Test
+    public void testCopyFromRemote_evictsLeastRecentlyUsed() throws IOException, ResourceCollectionException {
+        cache = newCache(20);
+        Resource first = remoteFile("first.txt", "0123456789");
+        Resource second = remoteFile("second.txt", "abcdefghij");
+        Resource third = remoteFile("third.txt", "ABCDEFGHIJ");
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run1")), first);
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run2")), second);
+        // use the first file again, so that the second file is the least recently used
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run3")), first);
+
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run4")), third);
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(20, cache.getSize());
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run5")), first);
+        assertEquals(2, cache.getHits());
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run6")), second);
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void testCopyFromRemote_indexKeptAfterRestart() throws IOException, ResourceCollectionException {
+        Resource remote = remoteFile("data_clinical.txt", "clinical");
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run1")), remote);
+        cache.save();
+        // leftover of an interrupted addition
+        Files.write(new File(folder.getRoot(), "cache/objects/unknown").toPath(), "stale".getBytes());
+
+        cache = newCache(1000);
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run2")), remote);
+
+        assertEquals(1, cache.getHits());
+        assertFalse(new File(folder.getRoot(), "cache/objects/unknown").exists());
+    }
+
+    @Test
+    public void testCopyFromRemote_indexOnlyWrittenBySave() throws IOException, ResourceCollectionException {
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run1")), remoteFile("study1.txt", "one"));
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run2")), remoteFile("study2.txt", "two"));
+        assertFalse(new File(folder.getRoot(), "cache/index.txt").exists());
+
+        cache.save();
+
+        assertEquals(4, Files.readAllLines(new File(folder.getRoot(), "cache/index.txt").toPath()).size());
+    }
+
+    @Test
+    public void testCopyFromRemote_eTagIdentifiesContents() throws IOException, ResourceCollectionException {
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run1")), remoteFile("study1.txt", "same", "\"abc123\""));
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run2")), remoteFile("study2.txt", "same", "\"abc123\""));
+
+        assertArrayEquals(new String[] { "etag-abc123-4" }, new File(folder.getRoot(), "cache/objects").list());
+    }
+
+    @Test
+    public void testCopyFromRemote_localFilesNotCached() throws IOException, ResourceCollectionException {
+        File file = new File(remoteDir, "data_clinical.txt");
+        Files.write(file.toPath(), "clinical".getBytes());
+        Resource local = new FileSystemResource(file);
+
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run1")), local);
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run2")), local);
+
+        verify(resourceProvider, times(2)).copyFromRemote(any(), any());
+        assertEquals(0, cache.getMisses());
+        assertEquals(0, new File(folder.getRoot(), "cache/objects").list().length);
+    }
+
+    @Test
+    public void testCopyFromRemote_disabled() throws IOException, ResourceCollectionException {
+        ReflectionTestUtils.setField(cache, "cacheDir", null);
+        Resource remote = remoteFile("data_clinical.txt", "clinical");
+
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run1")), remote);
+        cache.copyFromRemote(new FileSystemResource(folder.newFolder("run2")), remote);
+
+        verify(resourceProvider, times(2)).copyFromRemote(any(), any());
+        assertEquals(0, cache.getMisses());
+    }
+
+    private TransferCache newCache(long maxSize) throws ResourceCollectionException {
+        TransferCache transferCache = new TransferCache();
+        ReflectionTestUtils.setField(transferCache, "cacheDir", new FileSystemResource(new File(folder.getRoot(), "cache")));
+        ReflectionTestUtils.setField(transferCache, "maxSize", maxSize);
+        ReflectionTestUtils.setField(transferCache, "utils", new ResourceUtils());
+        ReflectionTestUtils.setField(transferCache, "resourceProvider", resourceProvider);
+        transferCache.postConstruct();
+        return transferCache;
+    }
+
+    private Resource remoteFile(String name, String contents) throws IOException {
+        return remoteFile(name, contents, null);
+    }
+
+    private Resource remoteFile(String name, String contents, String eTag) throws IOException {
+        File file = new File(remoteDir, name);
+        Files.write(file.toPath(), contents.getBytes());
+        // make sure a rewritten file gets a different fingerprint
+        file.setLastModified(file.lastModified() + contents.length() * 1000L);
+        return new RemoteFile(file, eTag);
+    }
+
+    /**
+     * Local file that presents itself as a file on an SFTP server.
+     */
+    // File.canWrite() is always true for root
+    private boolean isWritable(File file) throws IOException {
+        return Files.getPosixFilePermissions(file.toPath()).contains(PosixFilePermission.OWNER_WRITE);
+    }
+
+    private static class RemoteFile extends FileSystemResource implements IMetadataResource {
+
+        private final String eTag;
+
+        RemoteFile(File file, String eTag) {
+            super(file);
+            this.eTag = eTag;
+        }
+
+        @Override
+        public URI getURI() {
+            return URI.create("sftp://host" + getPath());
+        }
+
+        @Override
+        public boolean hasMetadata() {
+            return eTag != null;
+        }
+
+        @Override
+        public String getETag() {
+            return eTag;
+        }
+
+    }
+
+}
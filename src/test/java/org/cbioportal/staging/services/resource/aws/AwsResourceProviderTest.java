@@ -1,14 +1,23 @@
 package org.cbioportal.staging.services.resource.aws;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
 import org.cbioportal.staging.exceptions.ResourceCollectionException;
 import org.cbioportal.staging.exceptions.ResourceUtilsException;
+import org.cbioportal.staging.services.resource.BandwidthLimiter;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -22,7 +31,7 @@ import org.springframework.test.context.junit4.SpringRunner;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(
-    classes = AwsResourceProvider.class,
+    classes = { AwsResourceProvider.class, BandwidthLimiter.class },
     properties = "scan.location.type=aws"
 )
 public class AwsResourceProviderTest {
@@ -36,6 +45,9 @@ public class AwsResourceProviderTest {
   @MockBean
   private IAwsGateway gateway;
 
+  @MockBean
+  private S3TransferEngine transferEngine;
+
   @Test
   public void copyFromRemote_success()
       throws ResourceCollectionException, ResourceUtilsException {
@@ -44,7 +56,7 @@ public class AwsResourceProviderTest {
         .thenReturn("scan.location/study/meta_study.txt");
     Resource destinationDir = new FileSystemResource("/tmp/etl-workdir/study");
     awsResourceProvider.copyFromRemote(destinationDir, resource);
-    verify(utils, times(1)).copyResource(destinationDir, resource, "meta_study.txt");
+    verify(utils, times(1)).copyResource(eq(destinationDir), eq(resource), eq("meta_study.txt"), any());
   }
 
   @Test
@@ -55,7 +67,41 @@ public class AwsResourceProviderTest {
         .thenReturn("meta_study.txt");
     Resource destinationDir = new FileSystemResource("/tmp/etl-workdir/study");
     awsResourceProvider.copyFromRemote(destinationDir, resource);
-    verify(utils, times(1)).copyResource(destinationDir, resource, "meta_study.txt");
+    verify(utils, times(1)).copyResource(eq(destinationDir), eq(resource), eq("meta_study.txt"), any());
+  }
+
+  @Test
+  public void copyFromRemote_largeFileInParts()
+      throws ResourceCollectionException, ResourceUtilsException, IOException {
+    SimpleStorageResource resource = mock(SimpleStorageResource.class);
+    when(resource.getFilename())
+        .thenReturn("scan.location/study/data_expression.txt");
+    when(transferEngine.isMultipart(resource)).thenReturn(true);
+    Resource destinationDir = new FileSystemResource("/tmp/etl-workdir/study");
+    when(utils.getFile(destinationDir)).thenReturn(new File("/tmp/etl-workdir/study"));
+    awsResourceProvider.copyFromRemote(destinationDir, resource);
+    verify(transferEngine, times(1)).download(resource, new File("/tmp/etl-workdir/study/data_expression.txt"));
+    verify(utils, never()).copyResource(any(), any(), any());
+    verify(utils, never()).copyResource(any(), any(), any(), any());
+  }
+
+  @Test
+  public void copyToRemote_streamsThroughGateway()
+      throws ResourceCollectionException, ResourceUtilsException, IOException {
+    InputStream contents = spy(new ByteArrayInputStream("report".getBytes()));
+    Resource localFile = mock(Resource.class);
+    when(localFile.getInputStream()).thenReturn(contents);
+    when(localFile.getFilename()).thenReturn("report.html");
+    SimpleStorageResource destinationDir = mock(SimpleStorageResource.class);
+    when(destinationDir.getS3Uri()).thenReturn(URI.create("s3://bucket/logs"));
+    when(gateway.put(any(InputStream.class), anyString(), anyString())).thenReturn("s3://bucket/logs/report.html");
+
+    awsResourceProvider.copyToRemote(destinationDir, localFile);
+
+    verify(gateway).put(contents, "s3://bucket/logs", "report.html");
+    verify(contents).close();
+    verify(utils, never()).copyResource(any(), any(), any());
+    verify(utils, never()).copyResource(any(), any(), any(), any());
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,162 @@
+package org.cbioportal.staging.services.resource.aws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.cbioportal.staging.services.resource.ResourceScanEvent;
+import org.cbioportal.staging.services.resource.ResourceUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.core.io.Resource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(
+    classes = AwsSystemService.class,
+    properties = { "scan.location.type=aws", "scan.location=s3://bucket/scan" }
+)
+public class AwsSystemServiceTest {
+
+    @Autowired
+    private AwsSystemService awsSystemService;
+
+    @MockBean
+    private AmazonS3 amazonS3;
+
+    @MockBean
+    private S3HedgedGet hedgedGet;
+
+    @SpyBean
+    private ResourceUtils utils;
+
+    @Test
+    public void testLsDirRecur_metadataFromListing() throws Exception {
+        ListObjectsV2Result page1 = page(true, "token",
+            summary("scan/study1/", 0, 0, null),
+            summary("scan/study1/meta_study.txt", 100, 1000, "etag1"));
+        ListObjectsV2Result page2 = page(false, null,
+            summary("scan/study1/data.txt", 200, 2000, "etag2"));
+        when(amazonS3.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(page1, page2);
+
+        List<Resource> resources = awsSystemService.awsGatewayLsDirRecur("s3://bucket/scan/");
+
+        assertEquals(2, resources.size());
+        assertTrue(resources.get(0) instanceof S3Resource);
+        S3Resource resource = (S3Resource) resources.get(1);
+        assertEquals("scan/study1/data.txt", resource.getFilename());
+        assertEquals(200, resource.contentLength());
+        assertEquals(2000, resource.lastModified());
+        assertEquals("etag2", resource.getETag());
+        verify(amazonS3, never()).getObjectMetadata(any(String.class), any(String.class));
+    }
+
+    @Test
+    public void testLsDir_directoriesFromCommonPrefixes() throws Exception {
+        ListObjectsV2Result root = page(false, null, Arrays.asList("scan/study1/"),
+            summary("scan/file.txt", 1, 1, "a"),
+            summary("scan/", 0, 0, null));
+        ListObjectsV2Result study1 = page(false, null, Arrays.asList("scan/study1/sub/"),
+            summary("scan/study1/meta_study.txt", 1, 1000, "b"),
+            summary("scan/study1/data.txt", 1, 3000, "c"));
+        when(amazonS3.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(invocation -> {
+            ListObjectsV2Request request = invocation.getArgument(0);
+            assertEquals("/", request.getDelimiter());
+            return "scan/".equals(request.getPrefix()) ? root : study1;
+        });
+
+        List<Resource> resources = awsSystemService.awsGatewayLsDir("s3://bucket/scan");
+
+        assertEquals(2, resources.size());
+        assertEquals("scan/file.txt", resources.get(0).getFilename());
+        assertTrue(resources.get(1) instanceof S3DirectoryResource);
+        assertEquals("scan/study1", resources.get(1).getFilename());
+        // The directory is only listed for its modification time.
+        verify(amazonS3, times(1)).listObjectsV2(any(ListObjectsV2Request.class));
+        assertEquals(3000, resources.get(1).lastModified());
+        assertEquals(3000, resources.get(1).lastModified());
+        verify(amazonS3, times(2)).listObjectsV2(any(ListObjectsV2Request.class));
+    }
+
+    @Test
+    public void testLs_filesInScanLocationAndOneDirDeep() throws ResourceCollectionException {
+        ListObjectsV2Result root = page(false, null, Arrays.asList("scan/study1/"),
+            summary("scan/file.txt", 1, 1, "a"));
+        ListObjectsV2Result study1 = page(false, null, Arrays.asList("scan/study1/sub/"),
+            summary("scan/study1/meta_study.txt", 1, 1, "b"));
+        when(amazonS3.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(invocation -> {
+            ListObjectsV2Request request = invocation.getArgument(0);
+            return "scan/".equals(request.getPrefix()) ? root : study1;
+        });
+
+        List<Resource> resources = awsSystemService.awsGatewayLs("s3://bucket/scan/");
+
+        assertEquals(2, resources.size());
+        assertEquals("scan/file.txt", resources.get(0).getFilename());
+        assertEquals("scan/study1/meta_study.txt", resources.get(1).getFilename());
+        // The sub directory of the study is not listed.
+        verify(amazonS3, times(2)).listObjectsV2(any(ListObjectsV2Request.class));
+    }
+
+    @Test
+    public void testLsDirRecur_cachedDuringScan() throws ResourceCollectionException {
+        ListObjectsV2Result listing = page(false, null,
+            summary("scan/study1/meta_study.txt", 1, 1, "a"));
+        when(amazonS3.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(listing);
+
+        awsSystemService.onResourceScan(new ResourceScanEvent(this, ResourceScanEvent.Phase.STARTED));
+        awsSystemService.awsGatewayLsDirRecur("s3://bucket/scan/study1");
+        awsSystemService.awsGatewayLsDirRecur("s3://bucket/scan/study1");
+        verify(amazonS3, times(1)).listObjectsV2(any(ListObjectsV2Request.class));
+
+        awsSystemService.onResourceScan(new ResourceScanEvent(this, ResourceScanEvent.Phase.FINISHED));
+        awsSystemService.awsGatewayLsDirRecur("s3://bucket/scan/study1");
+        awsSystemService.awsGatewayLsDirRecur("s3://bucket/scan/study1");
+        verify(amazonS3, times(3)).listObjectsV2(any(ListObjectsV2Request.class));
+    }
+
+    private ListObjectsV2Result page(boolean truncated, String nextToken, S3ObjectSummary... summaries) {
+        return page(truncated, nextToken, Collections.emptyList(), summaries);
+    }
+
+    private ListObjectsV2Result page(boolean truncated, String nextToken, List<String> commonPrefixes,
+            S3ObjectSummary... summaries) {
+        ListObjectsV2Result result = mock(ListObjectsV2Result.class);
+        when(result.getObjectSummaries()).thenReturn(Arrays.asList(summaries));
+        when(result.getCommonPrefixes()).thenReturn(commonPrefixes);
+        when(result.isTruncated()).thenReturn(truncated);
+        when(result.getNextContinuationToken()).thenReturn(nextToken);
+        return result;
+    }
+
+    private S3ObjectSummary summary(String key, long size, long lastModified, String eTag) {
+        S3ObjectSummary summary = new S3ObjectSummary();
+        summary.setBucketName("bucket");
+        summary.setKey(key);
+        summary.setSize(size);
+        summary.setLastModified(new Date(lastModified));
+        summary.setETag(eTag);
+        return summary;
+    }
+
+}
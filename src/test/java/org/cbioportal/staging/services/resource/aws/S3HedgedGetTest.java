@@ -0,0 +1,125 @@
+package org.cbioportal.staging.services.resource.aws;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class S3HedgedGetTest {
+
+    private AmazonS3 amazonS3;
+    private S3HedgedGet hedgedGet;
+
+    @Before
+    public void init() {
+        amazonS3 = mock(AmazonS3.class);
+        hedgedGet = new S3HedgedGet();
+        ReflectionTestUtils.setField(hedgedGet, "enabled", true);
+        ReflectionTestUtils.setField(hedgedGet, "percentile", 95);
+        ReflectionTestUtils.setField(hedgedGet, "budget", 100);
+        ReflectionTestUtils.setField(hedgedGet, "minDelay", 50L);
+        hedgedGet.initRequestExecutor();
+    }
+
+    @After
+    public void cleanUp() {
+        hedgedGet.shutdownRequestExecutor();
+    }
+
+    @Test
+    public void testHedgeDelay_percentileOfRecentRequests() {
+        assertEquals(-1, hedgedGet.hedgeDelay());
+        for (int i = 1; i <= 100; i++) {
+            hedgedGet.recordTimeToFirstByte(i * 10);
+        }
+
+        assertEquals(950, hedgedGet.hedgeDelay());
+    }
+
+    @Test
+    public void testHedgeDelay_minimumDelay() {
+        for (int i = 1; i <= 100; i++) {
+            hedgedGet.recordTimeToFirstByte(1);
+        }
+
+        assertEquals(50, hedgedGet.hedgeDelay());
+    }
+
+    @Test
+    public void testGetObject_slowRequestHedged() throws IOException {
+        recordFastRequests();
+        slowFirstRequest();
+
+        InputStream contents = hedgedGet.getObject(amazonS3, () -> new GetObjectRequest("bucket", "meta_study.txt"));
+
+        assertEquals("contents 2", IOUtils.toString(contents, "UTF-8"));
+        assertEquals(1, hedgedGet.getHedgedRequests());
+        assertEquals(1, hedgedGet.getHedgeWins());
+        verify(amazonS3, times(2)).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    public void testGetObject_noHedgeWithoutBudget() throws IOException {
+        ReflectionTestUtils.setField(hedgedGet, "budget", 0);
+        recordFastRequests();
+        slowFirstRequest();
+
+        InputStream contents = hedgedGet.getObject(amazonS3, () -> new GetObjectRequest("bucket", "meta_study.txt"));
+
+        assertEquals("contents 1", IOUtils.toString(contents, "UTF-8"));
+        assertEquals(0, hedgedGet.getHedgedRequests());
+        verify(amazonS3, times(1)).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    public void testGetObject_disabled() throws IOException {
+        ReflectionTestUtils.setField(hedgedGet, "enabled", false);
+        recordFastRequests();
+        slowFirstRequest();
+
+        InputStream contents = hedgedGet.getObject(amazonS3, () -> new GetObjectRequest("bucket", "meta_study.txt"));
+
+        assertEquals("contents 1", IOUtils.toString(contents, "UTF-8"));
+        verify(amazonS3, times(1)).getObject(any(GetObjectRequest.class));
+    }
+
+    private void recordFastRequests() {
+        for (int i = 0; i < 20; i++) {
+            hedgedGet.recordTimeToFirstByte(5);
+        }
+    }
+
+    /**
+     * The first GET takes 1 second, the next GETs return right away.
+     */
+    private void slowFirstRequest() {
+        AtomicInteger calls = new AtomicInteger();
+        when(amazonS3.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+            int call = calls.incrementAndGet();
+            if (call == 1) {
+                Thread.sleep(1000);
+            }
+            S3Object object = new S3Object();
+            object.setObjectContent(new ByteArrayInputStream(("contents " + call).getBytes()));
+            return object;
+        });
+    }
+
+}
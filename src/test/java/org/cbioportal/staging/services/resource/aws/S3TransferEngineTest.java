@@ -0,0 +1,150 @@
+package org.cbioportal.staging.services.resource.aws;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.cbioportal.staging.services.resource.BandwidthLimiter;
+import org.cbioportal.staging.services.resource.ResourceUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Downloads from an in-memory S3 stand-in that serves ranged GET requests.
+ */
+public class S3TransferEngineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AmazonS3 amazonS3 = mock(AmazonS3.class);
+    private List<long[]> requestedRanges = Collections.synchronizedList(new ArrayList<>());
+    private S3TransferEngine engine;
+
+    private byte[] contents = new byte[10000];
+    private String eTag = "etag";
+
+    @Before
+    public void init() {
+        new Random(1).nextBytes(contents);
+        when(amazonS3.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+            GetObjectRequest request = invocation.getArgument(0);
+            if (!request.getMatchingETagConstraints().contains(eTag)) {
+                // precondition failed
+                return null;
+            }
+            long[] range = request.getRange();
+            requestedRanges.add(range);
+            int start = (int) range[0];
+            int end = (int) Math.min(range[1], contents.length - 1);
+            S3Object object = new S3Object();
+            object.setObjectContent(new ByteArrayInputStream(Arrays.copyOfRange(contents, start, end + 1)));
+            object.getObjectMetadata().setContentLength(end - start + 1);
+            return object;
+        });
+
+        engine = new S3TransferEngine();
+        ReflectionTestUtils.setField(engine, "utils", new ResourceUtils());
+        ReflectionTestUtils.setField(engine, "bandwidthLimiter", new BandwidthLimiter());
+        ReflectionTestUtils.setField(engine, "threads", 3);
+        ReflectionTestUtils.setField(engine, "partSize", 3000L);
+        engine.initPartExecutor();
+    }
+
+    @After
+    public void cleanUp() {
+        engine.shutdownPartExecutor();
+    }
+
+    @Test
+    public void testIsMultipart() throws IOException {
+        assertTrue(engine.isMultipart(new S3Resource(amazonS3, "bucket", "study/large.txt", 3001, 0, eTag)));
+        assertFalse(engine.isMultipart(new S3Resource(amazonS3, "bucket", "study/small.txt", 3000, 0, eTag)));
+    }
+
+    @Test
+    public void testDownload_inParts() throws IOException, ResourceCollectionException {
+        File target = new File(folder.getRoot(), "large.txt");
+
+        engine.download(new S3Resource(amazonS3, "bucket", "study/large.txt", contents.length, 0, eTag), target);
+
+        assertArrayEquals(contents, Files.readAllBytes(target.toPath()));
+        assertEquals(4, requestedRanges.size());
+        assertFalse(new File(folder.getRoot(), "large.txt.part").exists());
+    }
+
+    @Test
+    public void testDownload_resumesParts() throws IOException, ResourceCollectionException {
+        File target = new File(folder.getRoot(), "large.txt");
+        Files.write(new File(folder.getRoot(), "large.txt.part").toPath(), Arrays.copyOf(contents, 2500));
+        Files.write(new File(folder.getRoot(), "large.txt.part.ranges").toPath(),
+            Arrays.asList(contents.length + "\t" + eTag, "0\t2500\t2500", "2500\t2500\t0", "5000\t2500\t0", "7500\t2500\t0"));
+
+        engine.download(new S3Resource(amazonS3, "bucket", "study/large.txt", contents.length, 0, eTag), target);
+
+        assertArrayEquals(contents, Files.readAllBytes(target.toPath()));
+        assertEquals(3, requestedRanges.size());
+    }
+
+    @Test
+    public void testDownload_discardsPartsOfOtherETag() throws IOException, ResourceCollectionException {
+        File target = new File(folder.getRoot(), "large.txt");
+        // same size, but the parts were downloaded from an earlier version of the object
+        Files.write(new File(folder.getRoot(), "large.txt.part").toPath(), new byte[contents.length]);
+        Files.write(new File(folder.getRoot(), "large.txt.part.ranges").toPath(),
+            Arrays.asList(contents.length + "\told-etag", "0\t2500\t2500", "2500\t2500\t2500", "5000\t2500\t0", "7500\t2500\t0"));
+
+        engine.download(new S3Resource(amazonS3, "bucket", "study/large.txt", contents.length, 0, eTag), target);
+
+        assertArrayEquals(contents, Files.readAllBytes(target.toPath()));
+        assertEquals(4, requestedRanges.size());
+        assertFalse(new File(folder.getRoot(), "large.txt.part.ranges").exists());
+    }
+
+    @Test(expected = ResourceCollectionException.class)
+    public void testDownload_objectChanged() throws ResourceCollectionException {
+        File target = new File(folder.getRoot(), "large.txt");
+        eTag = "new-etag";
+
+        engine.download(new S3Resource(amazonS3, "bucket", "study/large.txt", contents.length, 0, "etag"), target);
+    }
+
+    @Test
+    public void testDownload_sizeMismatch() throws IOException {
+        File target = new File(folder.getRoot(), "large.txt");
+        try {
+            // listing reports more bytes than the object has
+            engine.download(new S3Resource(amazonS3, "bucket", "study/large.txt", contents.length + 500, 0, eTag), target);
+        } catch (ResourceCollectionException e) {
+            assertFalse(target.exists());
+            // progress of the complete parts is kept for the next attempt
+            assertTrue(new File(folder.getRoot(), "large.txt.part.ranges").exists());
+            return;
+        }
+        throw new AssertionError("Expected ResourceCollectionException");
+    }
+
+}
@@ -30,7 +30,7 @@ import org.springframework.test.context.junit4.SpringRunner;
  * DefaultResourceProviderTest
  */
 @RunWith(SpringRunner.class)
-@SpringBootTest(classes = { FileSystemResourceProvider.class, ResourceUtils.class })
+@SpringBootTest(classes = { FileSystemResourceProvider.class, ResourceUtils.class, LocalFileTransfer.class })
 public class FileSystemResourceProviderTest {
 
     @Autowired
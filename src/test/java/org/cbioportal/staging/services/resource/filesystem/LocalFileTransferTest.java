@@ -0,0 +1,115 @@
+package org.cbioportal.staging.services.resource.filesystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.cbioportal.staging.exceptions.ConfigurationException;
+import org.cbioportal.staging.services.resource.ResourceUtils;
+import org.cbioportal.staging.services.resource.filesystem.LocalFileTransfer.Method;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = { LocalFileTransfer.class, ResourceUtils.class })
+public class LocalFileTransferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Autowired
+    private LocalFileTransfer fileTransfer;
+
+    private File source;
+
+    @Before
+    public void init() throws IOException {
+        source = folder.newFile("data.txt");
+        Files.write(source.toPath(), "contents".getBytes());
+    }
+
+    @After
+    public void resetMethods() throws ConfigurationException {
+        ReflectionTestUtils.setField(fileTransfer, "methodsProperty", "reflink,channel,stream");
+        fileTransfer.init();
+    }
+
+    @Test
+    public void testCopy_default() throws IOException {
+        File target = new File(folder.newFolder("work"), "data.txt");
+
+        Method method = fileTransfer.copy(source, target);
+
+        assertNotEquals(Method.HARDLINK, method);
+        assertEquals("contents", new String(Files.readAllBytes(target.toPath())));
+        assertFalse(Files.isSameFile(source.toPath(), target.toPath()));
+        assertFalse(new File(target.getAbsolutePath() + ".part").exists());
+        assertTrue(fileTransfer.getTransferCounts().get(method) >= 1);
+    }
+
+    @Test
+    public void testCopy_hardlink() throws IOException, ConfigurationException {
+        ReflectionTestUtils.setField(fileTransfer, "methodsProperty", "hardlink,stream");
+        fileTransfer.init();
+        File target = new File(folder.newFolder("work"), "data.txt");
+
+        assertEquals(Method.HARDLINK, fileTransfer.copy(source, target));
+        assertTrue(Files.isSameFile(source.toPath(), target.toPath()));
+    }
+
+    @Test
+    public void testCopy_stream() throws IOException, ConfigurationException {
+        ReflectionTestUtils.setField(fileTransfer, "methodsProperty", "stream");
+        fileTransfer.init();
+        File target = new File(folder.newFolder("work"), "data.txt");
+
+        assertEquals(Method.STREAM, fileTransfer.copy(source, target));
+        assertEquals("contents", new String(Files.readAllBytes(target.toPath())));
+    }
+
+    @Test
+    public void testCopy_smallFileNotCloned() throws IOException, ConfigurationException {
+        ReflectionTestUtils.setField(fileTransfer, "methodsProperty", "reflink,channel");
+        fileTransfer.init();
+        File target = new File(folder.newFolder("work"), "data.txt");
+
+        assertEquals(Method.CHANNEL, fileTransfer.copy(source, target));
+    }
+
+    @Test
+    public void testCopy_reflinkFallsBackWhenNotSupported() throws IOException, ConfigurationException {
+        ReflectionTestUtils.setField(fileTransfer, "methodsProperty", "reflink,channel");
+        fileTransfer.init();
+        File largeSource = folder.newFile("large.txt");
+        Files.write(largeSource.toPath(), new byte[2 * 1024 * 1024]);
+        File work = folder.newFolder("work");
+
+        // cloning depends on the file system of the temporary folder
+        for (String name : new String[] { "large1.txt", "large2.txt" }) {
+            File target = new File(work, name);
+            Method method = fileTransfer.copy(largeSource, target);
+            assertTrue(method == Method.REFLINK || method == Method.CHANNEL);
+            assertEquals(largeSource.length(), target.length());
+        }
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testInit_invalidMethod() throws ConfigurationException {
+        ReflectionTestUtils.setField(fileTransfer, "methodsProperty", "hardlink,teleport");
+        fileTransfer.init();
+    }
+
+}
@@ -6,9 +6,13 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -16,6 +20,7 @@ import org.cbioportal.staging.TestUtils;
 import org.cbioportal.staging.exceptions.FtpUtilsException;
 import org.cbioportal.staging.exceptions.ResourceCollectionException;
 import org.cbioportal.staging.exceptions.ResourceUtilsException;
+import org.cbioportal.staging.services.resource.BandwidthLimiter;
 import org.cbioportal.staging.services.resource.ResourceUtils;
 import org.junit.Before;
 import org.junit.Test;
@@ -32,7 +37,7 @@ import org.springframework.test.context.junit4.SpringRunner;
  * FtpResourceProviderTest
  */
 @RunWith(SpringRunner.class)
-@SpringBootTest(classes = { FtpResourceProvider.class, ResourceUtils.class }, properties = { "scan.location.type=sftp",
+@SpringBootTest(classes = { FtpResourceProvider.class, ResourceUtils.class, BandwidthLimiter.class }, properties = { "scan.location.type=sftp",
         "ftp.host=host" })
 public class FtpResourceProviderTest {
 
@@ -42,6 +47,12 @@ public class FtpResourceProviderTest {
     @MockBean
     private IFtpGateway ftpGateway;
 
+    @MockBean
+    private SftpLister sftpLister;
+
+    @MockBean
+    private SftpTransferEngine transferEngine;
+
     @SpyBean
     private ResourceUtils utils;
 
@@ -57,6 +68,8 @@ public class FtpResourceProviderTest {
         when(fileInfo1.getRemoteDirectory()).thenReturn("/root_dir/");
         when(fileInfo1.getFilename()).thenReturn("file1.txt");
         when(fileInfo1.isDirectory()).thenReturn(false);
+        when(fileInfo1.getSize()).thenReturn(1024L);
+        when(fileInfo1.getModified()).thenReturn(1500000000000L);
 
         SftpFileInfo fileInfo2 = mock(SftpFileInfo.class);
         when(fileInfo2.getRemoteDirectory()).thenReturn("/root_dir/");
@@ -85,4 +98,26 @@ public class FtpResourceProviderTest {
         assertEquals("ftp:/host/root_dir/file1.txt", res[0].getURI().toString());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testList_metadataFromListing() throws ResourceCollectionException, IOException {
+        Resource[] res = provider.list(scanDir, false, true);
+        assertTrue(res[0] instanceof FtpResource && ((FtpResource) res[0]).hasMetadata());
+        assertEquals(1024L, res[0].contentLength());
+        assertEquals(1500000000000L, res[0].lastModified());
+    }
+
+    @Test
+    public void testCopyToRemote_streamsContents() throws ResourceCollectionException, IOException {
+        InputStream contents = spy(new ByteArrayInputStream("report".getBytes()));
+        Resource localFile = mock(Resource.class);
+        when(localFile.getInputStream()).thenReturn(contents);
+        when(localFile.getFilename()).thenReturn("report.html");
+        when(ftpGateway.put(any(InputStream.class), anyString(), anyString())).thenReturn("/test/report.html");
+
+        provider.copyToRemote(scanDir, localFile);
+
+        verify(ftpGateway).put(contents, "/test", "report.html");
+        verify(contents).close();
+    }
+
+}
@@ -0,0 +1,87 @@
+package org.cbioportal.staging.services.resource.ftp;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+
+import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.sftp.session.SftpFileInfo;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@SuppressWarnings("unchecked")
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = SftpLister.class, properties = { "scan.location.type=sftp", "sftp.list.threads=3" })
+public class SftpListerTest {
+
+    @Autowired
+    private SftpLister sftpLister;
+
+    @MockBean
+    private SessionFactory<LsEntry> sftpSessionFactory;
+
+    private Session<LsEntry> session = mock(Session.class);
+
+    @Before
+    public void init() throws IOException {
+        LsEntry[] scanDir = new LsEntry[] {
+            entry(".", true), entry("..", true), entry(".hidden", false),
+            entry("study1", true), entry("study2", true), entry("file.txt", false)
+        };
+        LsEntry[] study1Dir = new LsEntry[] { entry("meta_study.txt", false), entry("v1", true) };
+        LsEntry[] versionDir = new LsEntry[] { entry("data.txt", false) };
+
+        when(sftpSessionFactory.getSession()).thenReturn(session);
+        when(session.list("/scan/")).thenReturn(scanDir);
+        when(session.list("/scan/study1/")).thenReturn(study1Dir);
+        when(session.list("/scan/study1/v1/")).thenReturn(versionDir);
+        when(session.list("/scan/study2/")).thenReturn(new LsEntry[0]);
+    }
+
+    @Test
+    public void testLsDirRecur_allLevels() throws ResourceCollectionException, IOException {
+        List<SftpFileInfo> files = sftpLister.lsDirRecur("/scan");
+
+        List<String> names = files.stream().map(SftpFileInfo::getFilename).collect(Collectors.toList());
+        assertEquals("[file.txt, study1, study1/meta_study.txt, study1/v1, study1/v1/data.txt, study2]", names.toString());
+        files.forEach(f -> assertEquals("/scan/", f.getRemoteDirectory()));
+        assertEquals(1024L, files.get(0).getSize());
+        // every directory is listed once, each with a session from the pool
+        verify(sftpSessionFactory, times(4)).getSession();
+        verify(session, times(4)).close();
+    }
+
+    @Test(expected = ResourceCollectionException.class)
+    public void testLsDirRecur_listingFails() throws ResourceCollectionException, IOException {
+        when(session.list("/scan/study2/")).thenThrow(new IOException("Connection lost"));
+        sftpLister.lsDirRecur("/scan/");
+    }
+
+    private LsEntry entry(String name, boolean isDir) {
+        SftpATTRS attrs = mock(SftpATTRS.class);
+        when(attrs.isDir()).thenReturn(isDir);
+        when(attrs.getSize()).thenReturn(isDir ? 0L : 1024L);
+        when(attrs.getMTime()).thenReturn(1500000000);
+        LsEntry entry = mock(LsEntry.class);
+        when(entry.getFilename()).thenReturn(name);
+        when(entry.getAttrs()).thenReturn(attrs);
+        return entry;
+    }
+
+}
@@ -0,0 +1,199 @@
+package org.cbioportal.staging.services.resource.ftp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.subsystem.sftp.SftpSubsystemFactory;
+import org.cbioportal.staging.exceptions.ResourceCollectionException;
+import org.cbioportal.staging.services.resource.BandwidthLimiter;
+import org.cbioportal.staging.services.resource.ResourceUtils;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.integration.file.remote.session.CachingSessionFactory;
+import org.springframework.integration.sftp.session.DefaultSftpSessionFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Downloads from an embedded SSH server.
+ */
+public class SftpTransferEngineTest {
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static SshServer server;
+    private static File remoteRoot;
+
+    private CachingSessionFactory<LsEntry> sessionFactory;
+    private SftpTransferEngine engine;
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        remoteRoot = folder.newFolder("remote");
+        server = SshServer.setUpDefaultServer();
+        server.setPort(0);
+        server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(new File(folder.getRoot(), "hostkey.ser").toPath()));
+        server.setPasswordAuthenticator((user, password, session) -> "testuser".equals(user) && "testuser".equals(password));
+        server.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+        server.setFileSystemFactory(new VirtualFileSystemFactory(remoteRoot.toPath()));
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopServer() throws IOException {
+        server.stop(true);
+    }
+
+    @Before
+    public void init() {
+        DefaultSftpSessionFactory factory = new DefaultSftpSessionFactory(true);
+        factory.setHost("localhost");
+        factory.setPort(server.getPort());
+        factory.setUser("testuser");
+        factory.setPassword("testuser");
+        factory.setAllowUnknownKeys(true);
+        sessionFactory = new CachingSessionFactory<LsEntry>(factory, 4);
+
+        engine = new SftpTransferEngine();
+        ReflectionTestUtils.setField(engine, "sftpSessionFactory", sessionFactory);
+        ReflectionTestUtils.setField(engine, "utils", new ResourceUtils());
+        ReflectionTestUtils.setField(engine, "bandwidthLimiter", new BandwidthLimiter());
+        ReflectionTestUtils.setField(engine, "channels", 3);
+        ReflectionTestUtils.setField(engine, "rangeSize", 1000L);
+        engine.initRangeExecutor();
+    }
+
+    @After
+    public void cleanUp() {
+        engine.shutdownRangeExecutor();
+        sessionFactory.destroy();
+    }
+
+    @Test
+    public void testDownload_smallFile() throws IOException, ResourceCollectionException {
+        byte[] contents = remoteFile("small.txt", 200);
+        File target = new File(folder.getRoot(), "small.txt");
+
+        engine.download("/small.txt", 200, -1, target);
+
+        assertArrayEquals(contents, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void testDownload_inRanges() throws IOException, ResourceCollectionException {
+        byte[] contents = remoteFile("large.txt", 100001);
+        File target = new File(folder.getRoot(), "large.txt");
+
+        engine.download("/large.txt", 100001, -1, target);
+
+        assertArrayEquals(contents, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void testDownload_unknownSize() throws IOException, ResourceCollectionException {
+        byte[] contents = remoteFile("unknown.txt", 5000);
+        File target = new File(folder.getRoot(), "unknown.txt");
+
+        engine.download("/unknown.txt", -1, -1, target);
+
+        assertArrayEquals(contents, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void testDownload_resumesPartFiles() throws IOException, ResourceCollectionException {
+        byte[] contents = remoteFile("resumed.txt", 3000);
+        long lastModified = remoteLastModified("resumed.txt");
+        File target = new File(folder.getRoot(), "resumed.txt");
+        // first range complete, second range half way, third range not started
+        byte[] part = new byte[3000];
+        System.arraycopy(contents, 0, part, 0, 1000);
+        Files.write(new File(target.getAbsolutePath() + ".part").toPath(), part);
+        Files.write(new File(target.getAbsolutePath() + ".part.ranges").toPath(),
+            Arrays.asList("3000\t" + lastModified, "0\t1000\t1000", "1000\t1000\t500", "2000\t1000\t0"));
+
+        engine.download("/resumed.txt", 3000, -1, target);
+
+        byte[] downloaded = Files.readAllBytes(target.toPath());
+        // the bytes of the part file are kept, the rest is downloaded
+        assertArrayEquals(new byte[500], Arrays.copyOfRange(downloaded, 1000, 1500));
+        assertArrayEquals(Arrays.copyOfRange(contents, 1500, 3000), Arrays.copyOfRange(downloaded, 1500, 3000));
+        assertFalse(new File(target.getAbsolutePath() + ".part").exists());
+        assertFalse(new File(target.getAbsolutePath() + ".part.ranges").exists());
+    }
+
+    @Test
+    public void testDownload_discardsPartFilesOfOtherVersion() throws IOException, ResourceCollectionException {
+        byte[] contents = remoteFile("changed.txt", 3000);
+        long lastModified = remoteLastModified("changed.txt");
+        File target = new File(folder.getRoot(), "changed.txt");
+        Files.write(new File(target.getAbsolutePath() + ".part").toPath(), new byte[3000]);
+        Files.write(new File(target.getAbsolutePath() + ".part.ranges").toPath(),
+            Arrays.asList("3000\t" + (lastModified - 60000), "0\t1000\t1000", "1000\t1000\t1000", "2000\t1000\t0"));
+
+        engine.download("/changed.txt", 3000, lastModified, target);
+
+        assertArrayEquals(contents, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void testDownload_discardsSingleStreamPartOfOtherVersion() throws IOException, ResourceCollectionException {
+        byte[] contents = remoteFile("rewritten.txt", 600);
+        long lastModified = remoteLastModified("rewritten.txt");
+        File target = new File(folder.getRoot(), "rewritten.txt");
+        Files.write(new File(target.getAbsolutePath() + ".part").toPath(), new byte[300]);
+        Files.write(new File(target.getAbsolutePath() + ".part.source").toPath(),
+            Arrays.asList("600\t" + (lastModified - 60000)));
+
+        engine.download("/rewritten.txt", 600, lastModified, target);
+
+        assertArrayEquals(contents, Files.readAllBytes(target.toPath()));
+        assertFalse(new File(target.getAbsolutePath() + ".part.source").exists());
+    }
+
+    @Test
+    public void testDownload_discardsRangedPartForSingleStream() throws IOException, ResourceCollectionException {
+        byte[] contents = remoteFile("restarted.txt", 600);
+        File target = new File(folder.getRoot(), "restarted.txt");
+        Files.write(new File(target.getAbsolutePath() + ".part").toPath(), new byte[600]);
+        Files.write(new File(target.getAbsolutePath() + ".part.ranges").toPath(), Arrays.asList("600", "0\t600\t100"));
+
+        engine.download("/restarted.txt", 600, -1, target);
+
+        assertArrayEquals(contents, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test(expected = ResourceCollectionException.class)
+    public void testDownload_missingFile() throws ResourceCollectionException {
+        engine.download("/missing.txt", 5000, -1, new File(folder.getRoot(), "missing.txt"));
+    }
+
+    private long remoteLastModified(String name) {
+        // SFTP reports the modification time in seconds
+        return new File(remoteRoot, name).lastModified() / 1000 * 1000;
+    }
+
+    private byte[] remoteFile(String name, int size) throws IOException {
+        byte[] contents = new byte[size];
+        new Random(size).nextBytes(contents);
+        Files.write(new File(remoteRoot, name).toPath(), contents);
+        return contents;
+    }
+
+}